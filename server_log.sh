@@ -0,0 +1,21 @@
+#!/bin/sh
+# -----------------------------------------------------------------------------
+#  Valid Options:
+#    -port=<port>
+#    -logdir=<directory>
+# -----------------------------------------------------------------------------
+
+# --- set classpath separator for specific platform
+if echo $OS | grep -q "Windows" ; then
+    PATHSEP=";"
+else
+    PATHSEP=":"
+fi
+CPATH="./build/lib/mainlog.jar${PATHSEP}./build/lib/util.jar${PATHSEP}./build/lib/server.jar";
+
+# ---
+MAIN="org.opendmtp.server_log.Main"
+ARGS="-start $1 $2"
+java -classpath $CPATH $MAIN $ARGS
+
+# ---
@@ -517,6 +517,28 @@ public class DBAdmin {
       }
     }
 
+    /* engine: convert table to its configured table type */
+    // bin/exe DBAdmin -engine=<Table>
+    if (RTConfig.hasProperty("engine")) {
+      String engineTbl = RTConfig.getString("engine", null);
+      DBFactory dbf = ((engineTbl != null) && !engineTbl.equals("")) ? DBAdmin
+          .getTableFactory(engineTbl) : null;
+      if (dbf != null) {
+        Print.logInfo("Converting table '" + engineTbl + "' to " + dbf.getTableType() + " ...");
+        try {
+          dbf.alterTableType();
+          Print.logInfo("Table converted: " + engineTbl);
+        }
+        catch (DBException dbe) {
+          Print.logError("Unable to convert table");
+          dbe.printException();
+        }
+      }
+      else {
+        Print.logError("Missing or unknown table name");
+      }
+    }
+
     /* dump: dump table to flatfile */
     // bin/exe DBAdmin -dump=<Table>
     //    -dir=<Destination_Dir>
@@ -26,8 +26,12 @@
 // ----------------------------------------------------------------------------
 package org.opendmtp.dbtools;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -41,7 +45,9 @@ import org.opendmtp.util.ThreadLocalMap;
 /**
  * Creates connections to the MySQL database and sends SQL statements
  * to the database to get executed. It also stores results of the SQL 
- * statement execution.
+ * statement execution. JDBC connections are checked out of a shared
+ * <tt>DBConnectionPool</tt> for each statement, and are checked back in when the
+ * statement completes (or when the returned Statement/ResultSet is closed).
  *
  * @author Martin D. Flynn
  * @author Kiet Huynh
@@ -162,7 +168,9 @@ public class DBConnection {
   }
 
   // ------------------------------------------------------------------------
-  // Thread-Safety: Currently, each thread gets a new dedicated connection map
+  // Thread-Safety: Currently, each thread gets a new dedicated connection map.
+  // A DBConnection only holds a JDBC connection (checked out of the shared
+  // DBConnectionPool) while one of its statements is in use.
 
   /**
    * A Map that contain connections to the database.  Each thread get dedicated
@@ -244,11 +252,11 @@ public class DBConnection {
   /** The password used to connect to the database. */
   private String password = null;
 
-  /** The connection to the database. */
-  private Connection dbConnection = null;
+  /** The pooled connection currently checked out by this DBConnection. */
+  private DBConnectionPool.PooledConnection pooled = null;
 
-  /** The time at which the connection is made. */
-  private long connectTime = 0L;
+  /** The number of statements/holds currently using the checked out connection. */
+  private int holdCount = 0;
 
   /** The time at which the last connection was made. */
   private long lastUseTime = 0L;
@@ -308,95 +316,108 @@ public class DBConnection {
   private static String loadedDriverName = null;
 
   /**
-   * Makes a connection to the database.  If no driver found, an exception 
-   * is thrown.
-   * @return A connection to the database.
-   * @throws SQLException The exception is thrown when no driver found.
+   * Loads the MySQL JDBC driver, if not already loaded.
    */
-  public Connection getConnection() throws SQLException {
-    if (this.isConnectionClosed()) {
-      this.closeConnection(); // make sure it's closed
-      if (loadedDriverName == null) {
-        String driver[] = new String[] { MYSQL_DRIVER, MYSQL_DRIVER_ALT };
-        for (int i = 0; i < driver.length; i++) {
-          try {
-            Class.forName(driver[i]);
-            loadedDriverName = driver[i];
-            break; // stop at the first one that works
-          }
-          catch (Throwable t) { // ClassNotFoundException
-            Print.logError("JDBC driver not found: " + driver[i]);
-            // continue
-          }
-        }
-        if ((loadedDriverName != null) && RTConfig.isDebugMode()) {
-          Print.logDebug("Loaded JDBC driver '" + loadedDriverName + "'");
+  protected static synchronized void loadDriver() {
+    if (loadedDriverName == null) {
+      String driver[] = new String[] { MYSQL_DRIVER, MYSQL_DRIVER_ALT };
+      for (int i = 0; i < driver.length; i++) {
+        try {
+          Class.forName(driver[i]);
+          loadedDriverName = driver[i];
+          break; // stop at the first one that works
         }
-        else {
-          // An exception should follow below
+        catch (Throwable t) { // ClassNotFoundException
+          Print.logError("JDBC driver not found: " + driver[i]);
+          // continue
         }
       }
-      String user = this.getUser();
-      if ((user == null) || user.equals("")) {
-        this.dbConnection = DriverManager.getConnection(this.getUri());
+      if ((loadedDriverName != null) && RTConfig.isDebugMode()) {
+        Print.logDebug("Loaded JDBC driver '" + loadedDriverName + "'");
       }
       else {
-        //Print.logDebug("User: " + user + " Password: " + this.getPassword());
-        this.dbConnection = DriverManager.getConnection(this.getUri(), user, this.getPassword());
+        // An exception should follow below
       }
-      this.connectTime = DateTime.getCurrentTimeSec();
+    }
+  }
+
+  /**
+   * Gets the connection pool of this database URI and user.
+   * @return The connection pool.
+   */
+  public DBConnectionPool getPool() {
+    return DBConnectionPool.getPool(this.getUri(), this.getUser(), this.getPassword());
+  }
+
+  /**
+   * Gets the JDBC connection, checking one out of the connection pool if this
+   * DBConnection does not currently hold one. A connection obtained this way is
+   * returned to the pool when the last hold is released, so callers which use
+   * the returned Connection directly should bracket that use with 
+   * <tt>hold()</tt>/<tt>release()</tt>.
+   * @return A connection to the database.
+   * @throws SQLException The exception is thrown when no connection could be 
+   *         checked out (eg. no driver found, or the pool is exhausted).
+   */
+  public Connection getConnection() throws SQLException {
+    if (this.isConnectionClosed()) {
+      this.closeConnection(); // make sure it's closed
+      this.pooled = this.getPool().checkout();
     }
     this.lastUseTime = DateTime.getCurrentTimeSec();
-    return this.dbConnection;
+    return this.pooled.getConnection();
   }
 
   /**
-   * Closes a connection to the database. SQLException occurs when there are 
-   * any errors.
-   *
+   * Keeps the current JDBC connection (checked out on first use) until a matching 
+   * <tt>release()</tt>, so that a sequence of statements (eg. "LOCK TABLES" ... 
+   * "UNLOCK TABLES") is executed on the same connection.
+   */
+  public void hold() {
+    this.holdCount++;
+  }
+
+  /**
+   * Releases a hold on the current JDBC connection. The connection is returned to
+   * the pool when the last hold is released.
+   */
+  public void release() {
+    if (this.holdCount > 0) {
+      this.holdCount--;
+    }
+    if ((this.holdCount == 0) && (this.pooled != null)) {
+      this.getPool().checkin(this.pooled, ALWAYS_NEW_CONNECTION);
+      this.pooled = null;
+    }
+  }
+
+  /**
+   * Closes the JDBC connection currently held by this DBConnection (it is 
+   * discarded from the pool).
    */
   public void closeConnection() {
-    if (this.dbConnection != null) {
-      try {
-        if (!this.dbConnection.isClosed()) {
-          // try normal close
-          try {
-            this.dbConnection.close();
-          }
-          catch (SQLException sqe) {
-          }
-        }
-      }
-      catch (SQLException sqle) {
-        // force close
-        try {
-          this.dbConnection.close();
-        }
-        catch (SQLException sqe) {
-        }
-      }
+    if (this.pooled != null) {
+      this.getPool().checkin(this.pooled, true);
+      this.pooled = null;
     }
   }
 
   /**
-   * Checks if a connection to the database is closed. SQLException occurs when 
-   * there are any errors. 
+   * Checks if this DBConnection does not currently hold an open connection to 
+   * the database. SQLException occurs when there are any errors. 
    * @return True if the connection is closed or if there are any errors. 
    *         Otherwise, returns false.
    */
   public boolean isConnectionClosed() {
     try {
-      if (this.dbConnection == null) {
+      if (this.pooled == null) {
         return true;
       }
-      else if (this.dbConnection.isClosed()) {
-        return true;
-      }
-      else if (this.isConnectionTimeout()) {
+      else if (this.pooled.getConnection().isClosed()) {
         return true;
       }
       else {
-        return ALWAYS_NEW_CONNECTION;
+        return false;
       }
     }
     catch (SQLException sqe) {
@@ -425,6 +446,92 @@ public class DBConnection {
     return this.getConnection().createStatement();
   }
 
+  /**
+   * Returns the prepared statement cached for the specified key, preparing (and caching) the
+   * given SQL statement if the key is not cached for the current connection.
+   * @param key The statement key (see <tt>DBStatementCache.getKey</tt>). The key must identify
+   *        the SQL statement text.
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @throws SQLException if any errors occur.
+   * @return The prepared statement, which must not be closed by the caller.
+   */
+  public PreparedStatement prepareStatement(String key, String sql) throws SQLException {
+    Connection conn = this.getConnection(); // may check out a new connection
+    DBStatementCache stmtCache = this.pooled.getStatementCache();
+    PreparedStatement ps = stmtCache.get(key);
+    if (ps == null) {
+      ps = conn.prepareStatement(sql);
+      stmtCache.put(key, ps);
+    }
+    else {
+      ps.clearParameters();
+    }
+    return ps;
+  }
+
+  /**
+   * Binds parameter values to a prepared statement.
+   * @param ps The prepared statement.
+   * @param fld The field of each parameter.
+   * @param val The value of each parameter.
+   * @throws SQLException if any errors occur.
+   */
+  protected static void bindParameters(PreparedStatement ps, DBField fld[], Object val[])
+      throws SQLException {
+    for (int i = 0; i < fld.length; i++) {
+      fld[i].setParameter(ps, i + 1, val[i]);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a proxy of a Statement or ResultSet which releases the hold of this
+   * DBConnection (once) when it is closed.
+   * @param obj The Statement or ResultSet.
+   * @param closeStmt True to also close the Statement of the ResultSet.
+   * @return The proxy.
+   */
+  private Object _releaseOnClose(final Object obj, final boolean closeStmt) {
+    Class type = (obj instanceof ResultSet) ? ResultSet.class : Statement.class;
+    return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
+        new InvocationHandler() {
+          private boolean released = false;
+          public Object invoke(Object proxy, Method m, Object args[]) throws Throwable {
+            if (m.getName().equals("close") && ((args == null) || (args.length == 0))) {
+              try {
+                if (closeStmt) {
+                  Statement stmt = ((ResultSet) obj).getStatement();
+                  ((ResultSet) obj).close();
+                  if (stmt != null) {
+                    stmt.close();
+                  }
+                }
+                else if (obj instanceof ResultSet) {
+                  ((ResultSet) obj).close();
+                }
+                else {
+                  ((Statement) obj).close();
+                }
+              }
+              finally {
+                if (!this.released) {
+                  this.released = true;
+                  DBConnection.this.release();
+                }
+              }
+              return null;
+            }
+            try {
+              return m.invoke(obj, args);
+            }
+            catch (InvocationTargetException ite) {
+              throw ite.getTargetException();
+            }
+          }
+        });
+  }
+
   // ------------------------------------------------------------------------
 
   /**
@@ -478,16 +585,24 @@ public class DBConnection {
    *         not running or it can't find the MySQL server.
    */
   protected Statement _execute(String sql) throws SQLException, DBException {
+    this.hold(); // released when the returned Statement is closed
+    boolean ok = false;
     try {
       LastSQLExecuted = sql;
       Statement stmt = this.createStatement();
       stmt.execute(sql); // eg. "SELECT * FROM <db>"
-      return stmt;
+      ok = true;
+      return (Statement) this._releaseOnClose(stmt, false);
     }
     catch (com.mysql.jdbc.CommunicationsException ce) {
       // can occur if MySQL is not running, or it can't find the MySQL server
       throw new DBException("JDBC Error", ce);
     }
+    finally {
+      if (!ok) {
+        this.release();
+      }
+    }
   }
 
   // ------------------------------------------------------------------------
@@ -529,14 +644,63 @@ public class DBConnection {
    *         not running or it can't find the MySQL server.
    */
   protected ResultSet _executeQuery(String sql) throws SQLException, DBException {
+    this.hold(); // released when the returned ResultSet is closed
+    boolean ok = false;
     try {
       LastSQLExecuted = sql;
-      return this.createStatement().executeQuery(sql);
+      ResultSet rs = this.createStatement().executeQuery(sql);
+      ok = true;
+      return (ResultSet) this._releaseOnClose(rs, true);
     }
     catch (com.mysql.jdbc.CommunicationsException ce) {
       // can occur if MySQL is not running, or it can't find the MySQL server
       throw new DBException("JDBC Error", ce);
     }
+    finally {
+      if (!ok) {
+        this.release();
+      }
+    }
+  }
+
+  /**
+   * Executes a query whose rows are read from the database as the ResultSet is
+   * advanced (forward-only, read-only), rather than all read into memory when the
+   * query is executed. The JDBC connection is held until the ResultSet is closed,
+   * and no other statement may be executed by this DBConnection until then.
+   * @param sql The SQL query.
+   * @param fetchSize The number of rows fetched at a time (Integer.MIN_VALUE 
+   *        fetches one row at a time from the MySQL result stream).
+   * @return The result of the execution. The ResultSet must be closed when finished.
+   * @throws SQLException If the database access errors occur.
+   * @throws DBException If the dababase access errors occur. MySQl is
+   *         not running or it can't find the MySQL server.
+   */
+  public ResultSet executeStreamingQuery(String sql, int fetchSize) 
+      throws SQLException, DBException {
+    if (RTConfig.getBoolean(RTKey.DB_SHOW_SQL)) {
+      Print.logInfo("SQL: " + sql);
+    }
+    this.hold(); // released when the returned ResultSet is closed
+    boolean ok = false;
+    try {
+      LastSQLExecuted = sql;
+      Statement stmt = this.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchSize(fetchSize);
+      ResultSet rs = stmt.executeQuery(sql);
+      ok = true;
+      return (ResultSet) this._releaseOnClose(rs, true);
+    }
+    catch (com.mysql.jdbc.CommunicationsException ce) {
+      // can occur if MySQL is not running, or it can't find the MySQL server
+      throw new DBException("JDBC Error", ce);
+    }
+    finally {
+      if (!ok) {
+        this.release();
+      }
+    }
   }
 
   // ------------------------------------------------------------------------
@@ -583,6 +747,7 @@ public class DBConnection {
    *         MySQL statement.
    */
   protected void _executeUpdate(String sql) throws SQLException, DBException {
+    this.hold();
     try {
       LastSQLExecuted = sql;
       Statement stmt = this.createStatement();
@@ -593,6 +758,207 @@ public class DBConnection {
       // can occur if MySQL is not running, or it can't find the MySQL server
       throw new DBException("JDBC Error", ce);
     }
+    finally {
+      this.release();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Executes a cached prepared query, which returns a single ResultSet object.
+   * @param key The statement key (see <tt>DBStatementCache.getKey</tt>).
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The value of each parameter.
+   * @return The result of the execution. The ResultSet must be closed when finished,
+   *         but not its Statement.
+   * @throws SQLException If the database access errors occur.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  public ResultSet executeQuery(String key, String sql, DBField fld[], Object val[])
+      throws SQLException, DBException {
+    try {
+      if (RTConfig.getBoolean(RTKey.DB_SHOW_SQL)) {
+        Print.logInfo("SQL: " + sql);
+      }
+      return this._executeQuery(key, sql, fld, val); // may throw DBException
+    }
+    catch (SQLException sqe) { // "Communication link failure: java.io.IOException"
+      String sqlMsg = sqe.getMessage();
+      if ((sqlMsg.indexOf("IOException") >= 0) || (sqlMsg.indexOf("EOFException") >= 0)) {
+        this.closeConnection();
+        return this._executeQuery(key, sql, fld, val); // may throw DBException
+      }
+      else {
+        throw sqe;
+      }
+    }
+  }
+
+  /**
+   * Executes a cached prepared query, which returns a single ResultSet object.
+   * @param key The statement key.
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The value of each parameter.
+   * @return The result of the execution.
+   * @throws SQLException If the database access errors occur.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  protected ResultSet _executeQuery(String key, String sql, DBField fld[], Object val[])
+      throws SQLException, DBException {
+    this.hold(); // released when the returned ResultSet is closed
+    boolean ok = false;
+    try {
+      LastSQLExecuted = sql;
+      PreparedStatement ps = this.prepareStatement(key, sql);
+      DBConnection.bindParameters(ps, fld, val);
+      long startNS = System.nanoTime();
+      ResultSet rs = ps.executeQuery();
+      DBStatementCache.recordTiming(key, System.nanoTime() - startNS);
+      ok = true;
+      return (ResultSet) this._releaseOnClose(rs, false);
+    }
+    catch (com.mysql.jdbc.CommunicationsException ce) {
+      // can occur if MySQL is not running, or it can't find the MySQL server
+      throw new DBException("JDBC Error", ce);
+    }
+    finally {
+      if (!ok) {
+        this.release();
+      }
+    }
+  }
+
+  /**
+   * Executes a cached prepared INSERT, UPDATE, or DELETE statement.
+   * @param key The statement key (see <tt>DBStatementCache.getKey</tt>).
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The value of each parameter.
+   * @return The number of affected rows.
+   * @throws SQLException If database access errors occurs.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  public int executeUpdate(String key, String sql, DBField fld[], Object val[])
+      throws SQLException, DBException {
+    try {
+      if (RTConfig.getBoolean(RTKey.DB_SHOW_SQL)) {
+        Print.logInfo("SQL: " + sql);
+      }
+      return this._executeUpdate(key, sql, fld, val); // may throw DBException
+    }
+    catch (SQLException sqe) { // "Communication link failure: java.io.IOException"
+      Print.logError("SQL: " + sql);
+      String sqlMsg = sqe.getMessage();
+      if ((sqlMsg.indexOf("IOException") >= 0) || (sqlMsg.indexOf("EOFException") >= 0)) {
+        this.closeConnection();
+        return this._executeUpdate(key, sql, fld, val); // may throw DBException
+      }
+      else {
+        throw sqe;
+      }
+    }
+  }
+
+  /**
+   * Executes a cached prepared INSERT, UPDATE, or DELETE statement.
+   * @param key The statement key.
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The value of each parameter.
+   * @return The number of affected rows.
+   * @throws SQLException If database access errors occurs.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  protected int _executeUpdate(String key, String sql, DBField fld[], Object val[])
+      throws SQLException, DBException {
+    this.hold();
+    try {
+      LastSQLExecuted = sql;
+      PreparedStatement ps = this.prepareStatement(key, sql);
+      DBConnection.bindParameters(ps, fld, val);
+      long startNS = System.nanoTime();
+      int count = ps.executeUpdate();
+      DBStatementCache.recordTiming(key, System.nanoTime() - startNS);
+      return count;
+    }
+    catch (com.mysql.jdbc.CommunicationsException ce) {
+      // can occur if MySQL is not running, or it can't find the MySQL server
+      throw new DBException("JDBC Error", ce);
+    }
+    finally {
+      this.release();
+    }
+  }
+
+  /**
+   * Executes a cached prepared INSERT, UPDATE, or DELETE statement once for each set of parameter
+   * values, as a single JDBC batch.
+   * @param key The statement key (see <tt>DBStatementCache.getKey</tt>).
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The parameter values of each execution.
+   * @return The number of affected rows of each execution.
+   * @throws SQLException If database access errors occurs.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  public int[] executeBatch(String key, String sql, DBField fld[], Object val[][])
+      throws SQLException, DBException {
+    try {
+      if (RTConfig.getBoolean(RTKey.DB_SHOW_SQL)) {
+        Print.logInfo("SQL: " + sql + " [x" + val.length + "]");
+      }
+      return this._executeBatch(key, sql, fld, val); // may throw DBException
+    }
+    catch (SQLException sqe) { // "Communication link failure: java.io.IOException"
+      Print.logError("SQL: " + sql);
+      String sqlMsg = sqe.getMessage();
+      if ((sqlMsg.indexOf("IOException") >= 0) || (sqlMsg.indexOf("EOFException") >= 0)) {
+        this.closeConnection();
+        return this._executeBatch(key, sql, fld, val); // may throw DBException
+      }
+      else {
+        throw sqe;
+      }
+    }
+  }
+
+  /**
+   * Executes a cached prepared statement once for each set of parameter values, as a single JDBC
+   * batch.
+   * @param key The statement key.
+   * @param sql The SQL statement, with '?' parameter markers.
+   * @param fld The field of each parameter.
+   * @param val The parameter values of each execution.
+   * @return The number of affected rows of each execution.
+   * @throws SQLException If database access errors occurs.
+   * @throws DBException If MySQL is not runnig, or it can't find the MySQL server.
+   */
+  protected int[] _executeBatch(String key, String sql, DBField fld[], Object val[][])
+      throws SQLException, DBException {
+    this.hold();
+    try {
+      LastSQLExecuted = sql;
+      PreparedStatement ps = this.prepareStatement(key, sql);
+      ps.clearBatch();
+      for (int i = 0; i < val.length; i++) {
+        DBConnection.bindParameters(ps, fld, val[i]);
+        ps.addBatch();
+      }
+      long startNS = System.nanoTime();
+      int count[] = ps.executeBatch();
+      DBStatementCache.recordTiming(key, System.nanoTime() - startNS);
+      return count;
+    }
+    catch (com.mysql.jdbc.CommunicationsException ce) {
+      // can occur if MySQL is not running, or it can't find the MySQL server
+      throw new DBException("JDBC Error", ce);
+    }
+    finally {
+      this.release();
+    }
   }
 
   // ------------------------------------------------------------------------
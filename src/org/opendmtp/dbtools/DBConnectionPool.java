@@ -0,0 +1,849 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Bounded pool of JDBC connections shared by all threads
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.dbtools;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opendmtp.util.DateTime;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
+
+/**
+ * Bounded pool of JDBC connections to a single database URI and user, shared by all threads. A
+ * <tt>DBConnection</tt> checks out a connection for the duration of each statement (or until the
+ * returned Statement/ResultSet is closed), and checks it back in afterwards.
+ * <p>
+ * A connection which has been idle for longer than the validation interval is tested with a
+ * trivial query when it is checked out. A background thread closes connections which have been
+ * idle for longer than the idle timeout, and logs connections which have been checked out for
+ * longer than the leak threshold (with the stack trace of the checkout, if "db.pool.leakTrace" is
+ * enabled, since capturing it on every checkout is costly).
+ * <p>
+ * Unless "db.pool.maxSize" is specified, the pool is sized for the threads which may use the
+ * database at the same time (see <tt>getDefaultMaxSize</tt>).
+ * <p>
+ * The pool state is guarded by a <tt>java.util.concurrent</tt> lock rather than the object
+ * monitor, so that a session waiting for a connection on a virtual thread does not pin its carrier
+ * thread.
+ *
+ * @author agent
+ */
+public class DBConnectionPool {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Minimum default maximum number of connections.
+   */
+  public static final int DEFAULT_MAX_SIZE = 16;
+
+  /**
+   * Upper limit of the default maximum number of connections.
+   */
+  public static final int DEFAULT_MAX_SIZE_LIMIT = 128;
+
+  /**
+   * Connections allowed for session threads when the number of session threads is not limited.
+   */
+  public static final int DEFAULT_SESSION_CONNECTIONS = 64;
+
+  /**
+   * Default maximum time to wait for a free connection (milliseconds).
+   */
+  public static final long DEFAULT_MAX_WAIT_MS = 10000L;
+
+  /**
+   * Default time after which an idle connection is closed (seconds).
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_SEC = 600L;
+
+  /**
+   * Default idle time after which a connection is validated on checkout (seconds).
+   */
+  public static final long DEFAULT_VALIDATE_SEC = 30L;
+
+  /**
+   * Default checkout time after which a connection is reported as leaked (seconds).
+   */
+  public static final long DEFAULT_LEAK_SEC = 300L;
+
+  /**
+   * Interval of the idle eviction and leak detection thread (milliseconds).
+   */
+  private static final long EVICT_INTERVAL_MS = 15000L;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Pools, by URI and user.
+   */
+  private static Map poolMap = new HashMap();
+
+  /**
+   * Returns the pool for the specified database URI and user, creating it if necessary.
+   *
+   * @param uri the database URI.
+   * @param user the user name.
+   * @param pass the password.
+   * @return the connection pool.
+   */
+  public static DBConnectionPool getPool(String uri, String user, String pass) {
+    String key = uri + "|" + ((user != null) ? user : "");
+    synchronized (poolMap) {
+      DBConnectionPool pool = (DBConnectionPool) poolMap.get(key);
+      if (pool == null) {
+        pool = new DBConnectionPool(uri, user, pass);
+        poolMap.put(key, pool);
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * Returns all pools.
+   *
+   * @return the connection pools.
+   */
+  public static DBConnectionPool[] getPools() {
+    synchronized (poolMap) {
+      return (DBConnectionPool[]) poolMap.values().toArray(new DBConnectionPool[poolMap.size()]);
+    }
+  }
+
+  /**
+   * Logs the state of all pools.
+   */
+  public static void printPools() {
+    DBConnectionPool p[] = DBConnectionPool.getPools();
+    for (int i = 0; i < p.length; i++) {
+      Print.logInfo("DB pool " + p[i]);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A pooled JDBC connection, along with its prepared statement cache.
+   */
+  public static class PooledConnection {
+    private Connection conn = null;
+    private DBStatementCache stmtCache = null;
+    private long createTimeMS = 0L;
+    private long lastUseMS = 0L;
+    private long checkoutMS = 0L;
+    private Thread owner = null;
+    private Throwable checkoutTrace = null;
+    private boolean leakReported = false;
+
+    private PooledConnection(Connection conn) {
+      this.conn = conn;
+      this.createTimeMS = DateTime.getCurrentTimeMillis();
+      this.lastUseMS = this.createTimeMS;
+    }
+
+    /**
+     * Returns the JDBC connection.
+     *
+     * @return the JDBC connection.
+     */
+    public Connection getConnection() {
+      return this.conn;
+    }
+
+    /**
+     * Returns the prepared statement cache of this connection.
+     *
+     * @return the prepared statement cache.
+     */
+    public DBStatementCache getStatementCache() {
+      if (this.stmtCache == null) {
+        this.stmtCache = new DBStatementCache(RTConfig.getInt(RTKey.DB_STATEMENT_CACHE,
+            DBStatementCache.DEFAULT_MAX_SIZE));
+      }
+      return this.stmtCache;
+    }
+
+    /**
+     * Closes the JDBC connection and its cached statements, ignoring errors.
+     */
+    private void close() {
+      if (this.stmtCache != null) {
+        this.stmtCache.clear();
+      }
+      try {
+        this.conn.close();
+      }
+      catch (SQLException sqe) {
+        // ignore
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private String uri = null;
+  private String user = null;
+  private String pass = null;
+
+  private int maxSize = DEFAULT_MAX_SIZE;
+  private long maxWaitMS = DEFAULT_MAX_WAIT_MS;
+  private long idleTimeoutMS = DEFAULT_IDLE_TIMEOUT_SEC * 1000L;
+  private long validateMS = DEFAULT_VALIDATE_SEC * 1000L;
+  private long leakMS = DEFAULT_LEAK_SEC * 1000L;
+  private boolean leakTrace = false;
+
+  /**
+   * Idle connections, most recently used first.
+   */
+  private LinkedList idle = new LinkedList();
+  /**
+   * Checked out connections.
+   */
+  private Vector active = new Vector();
+  /**
+   * Number of connections being opened.
+   */
+  private int opening = 0;
+  /**
+   * Eviction thread (started with the first connection).
+   */
+  private Thread evictor = null;
+  /**
+   * Guards the pool state.
+   */
+  private ReentrantLock lock = new ReentrantLock();
+  /**
+   * Signalled when a connection is checked in, or a connection slot is freed.
+   */
+  private Condition available = this.lock.newCondition();
+
+  /* metrics */
+  private int peakSize = 0;
+  private long checkoutCount = 0L;
+  private long waitCount = 0L;
+  private long totalWaitMS = 0L;
+  private long maxWaitedMS = 0L;
+  private long timeoutCount = 0L;
+  private long totalCheckoutMS = 0L;
+  private long maxCheckoutMS = 0L;
+  private long createdCount = 0L;
+  private long evictedCount = 0L;
+  private long invalidCount = 0L;
+  private long leakCount = 0L;
+
+  /**
+   * Creates a connection pool. The pool size and timeouts are read from the runtime configuration.
+   *
+   * @param uri the database URI.
+   * @param user the user name.
+   * @param pass the password.
+   */
+  public DBConnectionPool(String uri, String user, String pass) {
+    this.uri = uri;
+    this.user = user;
+    this.pass = pass;
+    int max = RTConfig.getInt(RTKey.DB_POOL_MAX_SIZE, 0);
+    this.maxSize = (max > 0) ? max : DBConnectionPool.getDefaultMaxSize();
+    this.maxWaitMS = RTConfig.getLong(RTKey.DB_POOL_MAX_WAIT_MS, DEFAULT_MAX_WAIT_MS);
+    this.idleTimeoutMS = RTConfig.getLong(RTKey.DB_POOL_IDLE_SEC, DEFAULT_IDLE_TIMEOUT_SEC) * 1000L;
+    this.validateMS = RTConfig.getLong(RTKey.DB_POOL_VALIDATE_SEC, DEFAULT_VALIDATE_SEC) * 1000L;
+    this.leakMS = RTConfig.getLong(RTKey.DB_POOL_LEAK_SEC, DEFAULT_LEAK_SEC) * 1000L;
+    this.leakTrace = RTConfig.getBoolean(RTKey.DB_POOL_LEAK_TRACE, false);
+  }
+
+  /**
+   * Returns the default maximum number of connections: one for each thread which may use the
+   * database at the same time. These are the session threads (the NIO transport workers, or the
+   * session thread limit, or DEFAULT_SESSION_CONNECTIONS if session threads are not limited), the
+   * asynchronous event writer threads, the event journal drain thread, and the record writer.
+   * The result is at least DEFAULT_MAX_SIZE, and at most DEFAULT_MAX_SIZE_LIMIT.
+   *
+   * @return the default maximum number of connections.
+   */
+  public static int getDefaultMaxSize() {
+
+    /* sessions */
+    int maxSessThreads = RTConfig.getInt(RTKey.DMTP_SESSION_MAX_THREADS);
+    boolean tcpNio = RTConfig.getString(RTKey.DMTP_TCP_TRANSPORT, "").equalsIgnoreCase("nio");
+    boolean udpNio = RTConfig.getString(RTKey.DMTP_UDP_TRANSPORT, "").equalsIgnoreCase("nio");
+    int sessions = 0;
+    if (tcpNio) {
+      sessions += RTConfig.getInt(RTKey.DMTP_NIO_WORKERS);
+    }
+    if (udpNio) {
+      sessions += RTConfig.getInt(RTKey.DMTP_UDP_WORKERS);
+    }
+    if (!tcpNio || !udpNio) {
+      // session threads (one pool for each of TCP and UDP)
+      sessions += (maxSessThreads > 0) ? (maxSessThreads * ((tcpNio || udpNio) ? 1 : 2))
+          : DEFAULT_SESSION_CONNECTIONS;
+    }
+
+    /* writers */
+    int writers = 1; // DBRecordWriter
+    if (RTConfig.getBoolean(RTKey.DMTP_EVENTS_ASYNC)) {
+      writers += RTConfig.getInt(RTKey.DMTP_EVENTS_WRITERS);
+    }
+    if (RTConfig.getFile(RTKey.DMTP_JOURNAL_DIR, null) != null) {
+      writers++; // journal drain
+    }
+
+    return Math.max(DEFAULT_MAX_SIZE, Math.min(sessions + writers, DEFAULT_MAX_SIZE_LIMIT));
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Checks out a connection. An idle connection is used if available (after validation, if it
+   * has been idle for longer than the validation interval), otherwise a new connection is opened
+   * if the pool is not full, otherwise the caller waits for a connection to be checked in.
+   *
+   * @return the checked out connection.
+   * @throws SQLException if no connection could be checked out within the maximum wait time, or
+   *           if a new connection could not be opened.
+   */
+  public PooledConnection checkout() throws SQLException {
+    long startMS = DateTime.getCurrentTimeMillis();
+    boolean waited = false;
+    while (true) {
+      PooledConnection pc = null;
+      this.lock.lock();
+      try {
+        while (true) {
+          if (!this.idle.isEmpty()) {
+            pc = (PooledConnection) this.idle.removeFirst();
+            this._lease(pc);
+            break;
+          }
+          else if ((this.active.size() + this.opening) < this.maxSize) {
+            this.opening++;
+            break; // open a new connection below
+          }
+          long waitMS = this.maxWaitMS - (DateTime.getCurrentTimeMillis() - startMS);
+          if (waitMS <= 0L) {
+            this.timeoutCount++;
+            this._recordWait(startMS, waited);
+            throw new SQLException("Connection pool exhausted (" + this.maxSize
+                + " connections in use): " + this.uri);
+          }
+          waited = true;
+          try {
+            this.available.await(waitMS, TimeUnit.MILLISECONDS);
+          }
+          catch (InterruptedException ie) {
+            // continue
+          }
+        }
+        this._recordWait(startMS, waited);
+      }
+      finally {
+        this.lock.unlock();
+      }
+
+      /* new connection */
+      if (pc == null) {
+        Connection conn = null;
+        try {
+          conn = this._openConnection();
+        }
+        finally {
+          this.lock.lock();
+          try {
+            this.opening--;
+            if (conn == null) {
+              this.available.signalAll();
+            }
+          }
+          finally {
+            this.lock.unlock();
+          }
+        }
+        pc = new PooledConnection(conn);
+        this.lock.lock();
+        try {
+          this.createdCount++;
+          this._lease(pc);
+          this._startEvictor();
+        }
+        finally {
+          this.lock.unlock();
+        }
+        return pc;
+      }
+
+      /* validate idle connection */
+      if (this._isValid(pc)) {
+        return pc;
+      }
+      this.lock.lock();
+      try {
+        this.invalidCount++;
+        this.active.remove(pc);
+        this.available.signalAll();
+      }
+      finally {
+        this.lock.unlock();
+      }
+      pc.close();
+      // loop back and try again
+
+    }
+  }
+
+  /**
+   * Checks in a connection.
+   *
+   * @param pc the connection, which must have been checked out from this pool.
+   * @param discard true to close the connection rather than return it to the pool.
+   */
+  public void checkin(PooledConnection pc, boolean discard) {
+    if (pc == null) {
+      return;
+    }
+    long nowMS = DateTime.getCurrentTimeMillis();
+    boolean close = discard;
+    this.lock.lock();
+    try {
+      if (!this.active.remove(pc)) {
+        return; // not checked out
+      }
+      long heldMS = nowMS - pc.checkoutMS;
+      this.totalCheckoutMS += heldMS;
+      if (heldMS > this.maxCheckoutMS) {
+        this.maxCheckoutMS = heldMS;
+      }
+      if (pc.leakReported) {
+        Print.logWarn("Leaked DB connection returned after " + heldMS + " ms");
+      }
+      pc.owner = null;
+      pc.checkoutTrace = null;
+      pc.lastUseMS = nowMS;
+      if (!close) {
+        try {
+          close = pc.conn.isClosed();
+        }
+        catch (SQLException sqe) {
+          close = true;
+        }
+      }
+      if (!close) {
+        this.idle.addFirst(pc);
+      }
+      this.available.signalAll();
+    }
+    finally {
+      this.lock.unlock();
+    }
+    if (close) {
+      pc.close();
+    }
+  }
+
+  /**
+   * Marks a connection as checked out by the current thread.
+   *
+   * @param pc the connection.
+   */
+  private void _lease(PooledConnection pc) {
+    pc.checkoutMS = DateTime.getCurrentTimeMillis();
+    pc.owner = Thread.currentThread();
+    pc.leakReported = false;
+    pc.checkoutTrace = ((this.leakMS > 0L) && this.leakTrace) ? new Throwable(
+        "DB connection checkout") : null;
+    this.active.add(pc);
+    this.checkoutCount++;
+    int size = this.active.size() + this.idle.size();
+    if (size > this.peakSize) {
+      this.peakSize = size;
+    }
+  }
+
+  /**
+   * Records the time spent waiting for a checkout.
+   *
+   * @param startMS the time the checkout started.
+   * @param waited true if the checkout had to wait.
+   */
+  private void _recordWait(long startMS, boolean waited) {
+    if (waited) {
+      long waitMS = DateTime.getCurrentTimeMillis() - startMS;
+      this.waitCount++;
+      this.totalWaitMS += waitMS;
+      if (waitMS > this.maxWaitedMS) {
+        this.maxWaitedMS = waitMS;
+      }
+    }
+  }
+
+  /**
+   * Opens a new JDBC connection.
+   *
+   * @return the new connection.
+   * @throws SQLException if the connection could not be opened.
+   */
+  private Connection _openConnection() throws SQLException {
+    DBConnection.loadDriver();
+    if ((this.user == null) || this.user.equals("")) {
+      return DriverManager.getConnection(this.uri);
+    }
+    else {
+      return DriverManager.getConnection(this.uri, this.user, this.pass);
+    }
+  }
+
+  /**
+   * Validates a connection taken from the idle list.
+   *
+   * @param pc the connection.
+   * @return true if the connection is usable.
+   */
+  private boolean _isValid(PooledConnection pc) {
+    try {
+      if (pc.conn.isClosed()) {
+        return false;
+      }
+      if ((DateTime.getCurrentTimeMillis() - pc.lastUseMS) < this.validateMS) {
+        return true;
+      }
+      Statement stmt = pc.conn.createStatement();
+      try {
+        stmt.execute("SELECT 1");
+      }
+      finally {
+        stmt.close();
+      }
+      return true;
+    }
+    catch (SQLException sqe) {
+      Print.logInfo("Discarding invalid DB connection: " + sqe);
+      return false;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Starts the eviction thread, if not already running.
+   */
+  private void _startEvictor() {
+    if (this.evictor == null) {
+      this.evictor = new Thread("DBPoolEvictor") {
+        public void run() {
+          while (true) {
+            try {
+              Thread.sleep(EVICT_INTERVAL_MS);
+            }
+            catch (InterruptedException ie) {
+              // continue
+            }
+            DBConnectionPool.this.evict();
+          }
+        }
+      };
+      this.evictor.setDaemon(true);
+      this.evictor.start();
+    }
+  }
+
+  /**
+   * Closes idle connections which have exceeded the idle timeout, and reports connections which
+   * have been checked out for longer than the leak threshold.
+   */
+  public void evict() {
+    long nowMS = DateTime.getCurrentTimeMillis();
+    Vector closing = new Vector();
+    this.lock.lock();
+    try {
+
+      /* idle connections */
+      if (this.idleTimeoutMS > 0L) {
+        for (Iterator i = this.idle.iterator(); i.hasNext();) {
+          PooledConnection pc = (PooledConnection) i.next();
+          if ((nowMS - pc.lastUseMS) > this.idleTimeoutMS) {
+            i.remove();
+            closing.add(pc);
+            this.evictedCount++;
+          }
+        }
+      }
+
+      /* leaked connections */
+      if (this.leakMS > 0L) {
+        for (Iterator i = this.active.iterator(); i.hasNext();) {
+          PooledConnection pc = (PooledConnection) i.next();
+          if (!pc.leakReported && ((nowMS - pc.checkoutMS) > this.leakMS)) {
+            pc.leakReported = true;
+            this.leakCount++;
+            String owner = (pc.owner != null) ? pc.owner.getName() : "?";
+            String msg = "DB connection held by '" + owner + "' for " + (nowMS - pc.checkoutMS)
+                + " ms (possible leak)";
+            if (pc.checkoutTrace != null) {
+              Print.logStackTrace(msg + ", checked out at:", pc.checkoutTrace);
+            }
+            else {
+              Print.logWarn(msg + " [set '" + RTKey.DB_POOL_LEAK_TRACE
+                  + "=true' to log where it was checked out]");
+            }
+          }
+        }
+      }
+
+    }
+    finally {
+      this.lock.unlock();
+    }
+    for (Iterator i = closing.iterator(); i.hasNext();) {
+      ((PooledConnection) i.next()).close();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the database URI of this pool.
+   *
+   * @return the database URI.
+   */
+  public String getUri() {
+    return this.uri;
+  }
+
+  /**
+   * Returns the maximum number of connections.
+   *
+   * @return the maximum pool size.
+   */
+  public int getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Returns the number of open connections (checked out and idle).
+   *
+   * @return the pool size.
+   */
+  public int getSize() {
+    this.lock.lock();
+    try {
+      return this.active.size() + this.idle.size();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of checked out connections.
+   *
+   * @return the number of active connections.
+   */
+  public int getActiveCount() {
+    this.lock.lock();
+    try {
+      return this.active.size();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of idle connections.
+   *
+   * @return the number of idle connections.
+   */
+  public int getIdleCount() {
+    this.lock.lock();
+    try {
+      return this.idle.size();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the largest number of open connections.
+   *
+   * @return the peak pool size.
+   */
+  public int getPeakSize() {
+    this.lock.lock();
+    try {
+      return this.peakSize;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of checkouts.
+   *
+   * @return the checkout count.
+   */
+  public long getCheckoutCount() {
+    this.lock.lock();
+    try {
+      return this.checkoutCount;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the average time spent waiting, by checkouts which had to wait for a connection.
+   *
+   * @return the average wait time (milliseconds).
+   */
+  public double getAverageWaitMS() {
+    this.lock.lock();
+    try {
+      return (this.waitCount > 0L) ? ((double) this.totalWaitMS / (double) this.waitCount) : 0.0;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the longest time spent waiting for a connection.
+   *
+   * @return the maximum wait time (milliseconds).
+   */
+  public long getMaxWaitMS() {
+    this.lock.lock();
+    try {
+      return this.maxWaitedMS;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the average time a connection was checked out.
+   *
+   * @return the average checkout duration (milliseconds).
+   */
+  public double getAverageCheckoutMS() {
+    this.lock.lock();
+    try {
+      long returned = this.checkoutCount - this.active.size();
+      return (returned > 0L) ? ((double) this.totalCheckoutMS / (double) returned) : 0.0;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the longest time a connection was checked out.
+   *
+   * @return the maximum checkout duration (milliseconds).
+   */
+  public long getMaxCheckoutMS() {
+    this.lock.lock();
+    try {
+      return this.maxCheckoutMS;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of connections reported as leaked.
+   *
+   * @return the leak count.
+   */
+  public long getLeakCount() {
+    this.lock.lock();
+    try {
+      return this.leakCount;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a string representation of the pool state and metrics.
+   *
+   * @return the pool state and metrics.
+   */
+  public String toString() {
+    this.lock.lock();
+    try {
+      return this._toString();
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns a string representation of the pool state and metrics. The pool lock must be held.
+   *
+   * @return the pool state and metrics.
+   */
+  private String _toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(this.uri);
+    sb.append(": size=").append(this.getSize()).append("/").append(this.maxSize);
+    sb.append(" active=").append(this.active.size());
+    sb.append(" idle=").append(this.idle.size());
+    sb.append(" peak=").append(this.peakSize);
+    sb.append(" created=").append(this.createdCount);
+    sb.append(" checkouts=").append(this.checkoutCount);
+    sb.append(" waits=").append(this.waitCount);
+    sb.append(" avgWait=").append(Math.round(this.getAverageWaitMS())).append("ms");
+    sb.append(" maxWait=").append(this.maxWaitedMS).append("ms");
+    sb.append(" timeouts=").append(this.timeoutCount);
+    sb.append(" avgCheckout=").append(Math.round(this.getAverageCheckoutMS())).append("ms");
+    sb.append(" maxCheckout=").append(this.maxCheckoutMS).append("ms");
+    sb.append(" evicted=").append(this.evictedCount);
+    sb.append(" invalid=").append(this.invalidCount);
+    sb.append(" leaks=").append(this.leakCount);
+    return sb.toString();
+  }
+
+  // ------------------------------------------------------------------------
+
+}
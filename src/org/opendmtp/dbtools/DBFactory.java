@@ -43,6 +43,8 @@ import java.util.Vector;
 import org.opendmtp.util.FileTools;
 import org.opendmtp.util.MethodAction;
 import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
 import org.opendmtp.util.StringTools;
 
 /**
@@ -55,8 +57,16 @@ import org.opendmtp.util.StringTools;
 public class DBFactory {
 
   // ------------------------------------------------------------------------
-  /** The type of the database table. */
-  public static final String DBTABLE_TYPE = "MyISAM"; // "InnoDB"; // "MyISAM";
+  /** MyISAM table type (non-transactional, table level locking). */
+  public static final String TABLE_TYPE_MYISAM = "MyISAM";
+  /**
+   * InnoDB table type (transactional, row level locking). Rows are clustered by primary key, and
+   * plain selects are consistent snapshot reads, which neither take nor wait for row locks.
+   */
+  public static final String TABLE_TYPE_INNODB = "InnoDB";
+
+  /** The default type of the database table (see "db.tableType"). */
+  public static final String DBTABLE_TYPE = TABLE_TYPE_MYISAM;
 
   /** The Primary key of the table. */
   public static final int KEY_PRIMARY = DBField.KEY_PRIMARY;
@@ -147,9 +157,24 @@ public class DBFactory {
   /** The class of a key. */
   private Class keyClass = null;
 
+  /** The table type used when creating the table (null for the configured default). */
+  private String tableType = null;
+
   /** The class of a record. */
   private Class rcdClass = null;
 
+  /** The cached single record insert statement. */
+  private String insertSQL = null;
+
+  /** The cached key where clause. */
+  private String keyWhereSQL = null;
+
+  /** The cached leading part of the batch insert statement. */
+  private String batchInsertPrefix = null;
+
+  /** The cached trailing part of the batch insert statement. */
+  private String batchInsertSuffix = null;
+
   // ------------------------------------------------------------------------
 
   /**
@@ -445,6 +470,170 @@ public class DBFactory {
     return sb.toString();
   }
 
+  // ------------------------------------------------------------------------
+
+  /**
+   * Gets the prepared statement which inserts a single record into this table. The statement has
+   * one '?' parameter per column, in the order of the columns returned by <tt>getFields()</tt>.
+   * @return A string of the form "INSERT INTO table (col1,col2,...) VALUES (?,?,...)".
+   */
+  public String getInsertSQL() {
+    if (this.insertSQL == null) {
+      StringBuffer sb = new StringBuffer(this.getBatchInsertPrefix());
+      DBFactory.appendParameterRow(sb, this.getFields().length);
+      this.insertSQL = sb.toString();
+    }
+    return this.insertSQL;
+  }
+
+  /**
+   * Gets the prepared statement which inserts 'rows' records into this table (see
+   * <tt>getBatchInsertPrefix</tt> and <tt>getBatchInsertSuffix</tt>). The statement has one '?'
+   * parameter per column of each record.
+   * @param rows The number of records.
+   * @return A string of the form "INSERT INTO table (...) VALUES (?,...),(?,...) ON DUPLICATE ...".
+   */
+  public String getBatchInsertSQL(int rows) {
+    int cols = this.getFields().length;
+    StringBuffer sb = new StringBuffer(this.getBatchInsertPrefix());
+    for (int r = 0; r < rows; r++) {
+      if (r > 0) {
+        sb.append(",");
+      }
+      DBFactory.appendParameterRow(sb, cols);
+    }
+    sb.append(this.getBatchInsertSuffix());
+    return sb.toString();
+  }
+
+  /**
+   * Gets the where clause selecting a single record of this table by key. The clause has one '?'
+   * parameter per key column, in the order of the columns returned by <tt>getKeyFields()</tt>.
+   * @return A string of the form " WHERE (key1=? AND key2=?)".
+   */
+  public String getKeyWhereSQL() {
+    if (this.keyWhereSQL == null) {
+      DBField f[] = this.getKeyFields();
+      StringBuffer sb = new StringBuffer();
+      sb.append(" WHERE (");
+      for (int i = 0; i < f.length; i++) {
+        if (i > 0) {
+          sb.append(" AND ");
+        }
+        sb.append(f[i].getName()).append("=?");
+      }
+      sb.append(")");
+      this.keyWhereSQL = sb.toString();
+    }
+    return this.keyWhereSQL;
+  }
+
+  /**
+   * Appends a row of '?' parameters of the form "(?,?,...)".
+   * @param sb The buffer.
+   * @param cols The number of parameters.
+   */
+  private static void appendParameterRow(StringBuffer sb, int cols) {
+    sb.append("(");
+    for (int i = 0; i < cols; i++) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append("?");
+    }
+    sb.append(")");
+  }
+
+  /**
+   * Gets the leading part of a multi-row insert statement for this table, up to and including
+   * the "VALUES" keyword. The row values must be appended in the order of the columns returned
+   * by <tt>getFields()</tt>.
+   * @return A string of the form "INSERT INTO table (col1,col2,...) VALUES ".
+   */
+  public String getBatchInsertPrefix() {
+    if (this.batchInsertPrefix == null) {
+      DBField f[] = this.getFields();
+      StringBuffer sb = new StringBuffer();
+      sb.append("INSERT INTO ").append(this.getTableName()).append(" (");
+      for (int i = 0; i < f.length; i++) {
+        if (i > 0) {
+          sb.append(",");
+        }
+        sb.append(f[i].getName());
+      }
+      sb.append(") VALUES ");
+      this.batchInsertPrefix = sb.toString();
+    }
+    return this.batchInsertPrefix;
+  }
+
+  /**
+   * Gets the trailing part of a multi-row insert statement for this table, which replaces the
+   * non-key columns of any row whose key already exists (in place of a separate existence check
+   * followed by an update).
+   * @return A string of the form " ON DUPLICATE KEY UPDATE col3=VALUES(col3),...".
+   */
+  public String getBatchInsertSuffix() {
+    if (this.batchInsertSuffix == null) {
+      DBField f[] = this.getFields();
+      StringBuffer sb = new StringBuffer();
+      sb.append(" ON DUPLICATE KEY UPDATE ");
+      boolean addedField = false;
+      for (int i = 0; i < f.length; i++) {
+        if (!f[i].isPriKey()) {
+          if (addedField) {
+            sb.append(",");
+          }
+          String n = f[i].getName();
+          sb.append(n).append("=VALUES(").append(n).append(")");
+          addedField = true;
+        }
+      }
+      if (!addedField) {
+        // all columns are key columns, leave the existing row as is
+        String n = f[0].getName();
+        sb.append(n).append("=").append(n);
+      }
+      this.batchInsertSuffix = sb.toString();
+    }
+    return this.batchInsertSuffix;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Sets the table type (storage engine) used when the table is created.
+   * @param type The table type (TABLE_TYPE_MYISAM or TABLE_TYPE_INNODB), or null for the
+   * configured default ("db.tableType").
+   */
+  public void setTableType(String type) {
+    this.tableType = ((type != null) && !type.equals("")) ? type : null;
+  }
+
+  /**
+   * Gets the table type (storage engine) used when the table is created.
+   * @return The table type.
+   */
+  public String getTableType() {
+    if (this.tableType != null) {
+      return this.tableType;
+    }
+    else {
+      return RTConfig.getString(RTKey.DB_TABLE_TYPE, DBTABLE_TYPE);
+    }
+  }
+
+  /**
+   * Returns true if the table type is transactional (InnoDB). Selects on a transactional table
+   * read a consistent snapshot, and need no table locks.
+   * @return True if the table type is transactional.
+   */
+  public boolean isTransactional() {
+    return this.getTableType().equalsIgnoreCase(TABLE_TYPE_INNODB);
+  }
+
+  // ------------------------------------------------------------------------
+
   /**
    * Gets the type of the key.
    * @return The type of the key.
@@ -562,10 +751,11 @@ public class DBFactory {
    * @throws DBException If any errors occur.
    */
   public boolean tableExists() throws DBException {
+    Statement stmt = null;
     try {
       StringBuffer sb = new StringBuffer();
       sb.append("SELECT COUNT(*) FROM ").append(this.getTableName());
-      this.execute(sb.toString()); // may throw DBException, SQLException
+      stmt = this.execute(sb.toString()); // may throw DBException, SQLException
       return true;
     }
     catch (SQLException sqe) {
@@ -582,6 +772,15 @@ public class DBFactory {
         throw new DBException("Table Existance '" + dbName + "'", sqe);
       }
     }
+    finally {
+      if (stmt != null) {
+        try {
+          stmt.close(); // releases the pooled connection
+        }
+        catch (Throwable t) {
+        }
+      }
+    }
   }
 
   // ------------------------------------------------------------------------
@@ -850,11 +1049,27 @@ public class DBFactory {
     }
 
     /* table type */
-    sb.append(") type=").append(DBTABLE_TYPE);
+    // InnoDB clusters the rows by primary key
+    sb.append(") ENGINE=").append(this.getTableType());
     this.executeUpdate(sb.toString());
 
   }
 
+  /**
+   * Converts an existing table to the table type of this factory (see <tt>setTableType</tt>).
+   * The table is copied by the database, which may take some time for large tables.
+   * @throws DBException If any database access errors occur.
+   */
+  public void alterTableType() throws DBException {
+    // MySQL: alter table <TableName> engine=<TableType>
+    try {
+      this.executeUpdate("ALTER TABLE " + this.getTableName() + " ENGINE=" + this.getTableType());
+    }
+    catch (SQLException sqe) {
+      throw new DBException("Table type change", sqe);
+    }
+  }
+
   // ------------------------------------------------------------------------
 
   /**
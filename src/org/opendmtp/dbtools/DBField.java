@@ -27,6 +27,7 @@
 package org.opendmtp.dbtools;
 
 import java.lang.reflect.Constructor;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import org.opendmtp.util.Print;
@@ -799,46 +800,96 @@ public class DBField {
   }
 
   /**
-   * Return the value of the Object.
+   * Returns the bytes of a BLOB value.
    * 
-   * @param v the object to get the value from.
-   * @return string with object contents.
+   * @param v the value, preferably a byte array.
+   * @return the bytes of the value (never null).
    */
-  public String getQValue(Object v) {
-    
-    if (this.isBLOB()) {
-      byte data[] = null;
-      if (v == null) {
+  private byte[] _getBlobBytes(Object v) {
+    byte data[] = null;
+    if (v == null) {
+      data = new byte[0];
+    }
+    else if (v instanceof byte[]) {
+      // this is the preferred Object type
+      data = (byte[]) v;
+    }
+    else if (v instanceof String) {
+      String vs = (String) v;
+      if (vs.equals("")) {
         data = new byte[0];
       }
-      else if (v instanceof byte[]) {
-        // this is the preferred Object type
-        data = (byte[]) v;
-      }
-      else if (v instanceof String) {
-        String vs = (String) v;
-        if (vs.equals("")) {
-          data = new byte[0];
-        }
-        else if (vs.startsWith("0x")) {
-          data = StringTools.parseHex(vs, null);
-          if (data == null) {
-            data = StringTools.getBytes(vs.toCharArray());
-          }
-        }
-        else {
+      else if (vs.startsWith("0x")) {
+        data = StringTools.parseHex(vs, null);
+        if (data == null) {
           data = StringTools.getBytes(vs.toCharArray());
         }
       }
       else {
-        Print.logError("Unsupported BLOB object type: " + StringTools.className(v));
-        String vs = v.toString(); // no trimming
-        // Notes: Because of the current character encoding, using 'vs.getBytes()'
-        // may create a byte array with more elements that the original character
-        // array. Instead, we need to convert to a byte array char by char.
-        // data = StringTools.getBytes(vs);
         data = StringTools.getBytes(vs.toCharArray());
       }
+    }
+    else if ((v instanceof DBFieldType) && v.toString().startsWith("0x")) {
+      // binary field types are represented in hex (eg. DTProfileMask)
+      data = StringTools.parseHex(v.toString(), new byte[0]);
+    }
+    else {
+      Print.logError("Unsupported BLOB object type: " + StringTools.className(v));
+      String vs = v.toString(); // no trimming
+      // Notes: Because of the current character encoding, using 'vs.getBytes()'
+      // may create a byte array with more elements that the original character
+      // array. Instead, we need to convert to a byte array char by char.
+      // data = StringTools.getBytes(vs);
+      data = StringTools.getBytes(vs.toCharArray());
+    }
+    return data;
+  }
+
+  /**
+   * Binds a value of this field to a parameter of a prepared statement, using the same
+   * conversions as <tt>getQValue</tt>.
+   * 
+   * @param ps the prepared statement.
+   * @param ndx the parameter index (the first parameter is 1).
+   * @param v the field value (the field default value is used if null).
+   * @throws SQLException if the parameter cannot be set.
+   */
+  public void setParameter(PreparedStatement ps, int ndx, Object v) throws SQLException {
+    if (v == null) {
+      v = this.getDefaultValue();
+    }
+    if (this.isBLOB()) {
+      ps.setBytes(ndx, this._getBlobBytes(v));
+    }
+    else if (v instanceof Boolean) {
+      ps.setInt(ndx, ((Boolean) v).booleanValue() ? 1 : 0);
+    }
+    else if ((v instanceof Integer) || (v instanceof Long)) {
+      ps.setLong(ndx, ((Number) v).longValue());
+    }
+    else if ((v instanceof Float) || (v instanceof Double)) {
+      ps.setDouble(ndx, ((Number) v).doubleValue());
+    }
+    else if (v instanceof byte[]) {
+      ps.setString(ndx, "0x" + StringTools.toHexString((byte[]) v));
+    }
+    else {
+      ps.setString(ndx, (v != null) ? v.toString().trim() : "");
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Return the value of the Object.
+   * 
+   * @param v the object to get the value from.
+   * @return string with object contents.
+   */
+  public String getQValue(Object v) {
+    
+    if (this.isBLOB()) {
+      byte data[] = this._getBlobBytes(v);
       return (data.length > 0) ? ("0x" + StringTools.toHexString(data)) : "\"\"";
     }
     else {
@@ -88,6 +88,11 @@ public abstract class DBRecord
      */
     public static final int NOTIFY_GROUP    = 1;
 
+    /**
+     * Maximum number of records saved by a single batch insert statement (a power of two).
+     */
+    public static final int BATCH_MAX_ROWS  = 128;
+
     // ------------------------------------------------------------------------
 
     /**
@@ -356,6 +361,38 @@ public abstract class DBRecord
         return DBRecord.getRecordCount(fact, where.toString());
     }
     
+    /**
+     * Returns the number of records selected by a where clause with '?' parameters,
+     * using a cached prepared statement.
+     * @param fact The table factory.
+     * @param qualifier Identifies the where clause among the range counts of this table.
+     * @param where The where clause, with '?' parameter markers.
+     * @param fld The field of each parameter.
+     * @param val The value of each parameter.
+     * @return long RecordCount
+     */
+    protected static long getRecordCount(DBFactory fact, String qualifier, String where, 
+        DBField fld[], Object val[])
+        throws SQLException, DBException
+    {
+        // MySQL: SELECT count(*) FROM <TableName> <SQLWhere>
+        StringBuffer sb = new StringBuffer();
+        sb.append("SELECT ").append(FLD_count_).append(" FROM ").append(fact.getTableName()).append(" ");
+        sb.append(where);
+        String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_COUNT_RANGE, qualifier);
+        ResultSet rs = null;
+        long count = 0L;
+        try {
+            rs = DBConnection.getDefaultConnection().executeQuery(key, sb.toString(), fld, val);
+            if (rs.next()) {
+                count = rs.getLong(FLD_count_);
+            }
+        } finally {
+            if (rs != null) { rs.close(); }
+        }
+        return count;
+    }
+    
     protected static long getRecordCount(DBFactory fact, String where)
         throws SQLException, DBException
     {
@@ -520,16 +557,17 @@ public abstract class DBRecord
     protected DBRecord _reload()
         throws DBException
     {
-        Statement stmt = null;
         ResultSet rs = null;
         try {
             DBRecordKey recKey = this.getRecordKey();
+            DBFactory fact = recKey.getFactory();
             StringBuffer sb = new StringBuffer();
             // MySQL: SELECT * FROM <TableName> <KeyWhere>
-            sb.append("SELECT * FROM ").append(recKey.getTableName()).append(" ");
-            sb.append(recKey.getWhereClause());
-            stmt = this.execute(sb.toString());
-            rs = stmt.getResultSet();
+            sb.append("SELECT * FROM ").append(recKey.getTableName());
+            sb.append(fact.getKeyWhereSQL());
+            String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_SELECT_KEY, null);
+            rs = DBConnection.getDefaultConnection().executeQuery(key, sb.toString(), 
+                recKey.getKeyFields(), recKey.getKeyValues());
             if (rs.next()) {
                 this.setFieldValues(rs);
                 this.clearChanged();
@@ -544,7 +582,6 @@ public abstract class DBRecord
             throw new DBException("Reload", sqe);
         } finally {
             if (rs   != null) { try{ rs.close();   } catch (Throwable t) {} }
-            if (stmt != null) { try{ stmt.close(); } catch (Throwable t) {} }
         }
     }
 
@@ -702,29 +739,23 @@ public abstract class DBRecord
         throws SQLException, DBException
     {
         DBRecordKey recKey = this.getRecordKey();
-        StringBuffer sb = new StringBuffer();
-        sb.append("INSERT INTO ").append(recKey.getTableName());
+        DBFactory fact = recKey.getFactory();
         
         /* last update time */
         this.setLastUpdateTime(DateTime.getCurrentTimeSec());
         this.setLastUpdateUser(DBRecord.GetCurrentUser());
 
-        /* set */
-        sb.append(" SET ");
+        /* values */
         DBField field[] = recKey.getFields();
         DBFieldValues fieldValues = recKey.getFieldValues();
-        boolean addedField = false;
+        Object value[] = new Object[field.length];
         for (int i = 0; i < field.length; i++) {
-            String fldName = field[i].getName();
-            if (addedField) { sb.append(", "); }
-            String fldVal = fieldValues.toString(fldName);
-            String dbVal  = field[i].getQValue(fldVal);
-            sb.append(fldName).append("=").append(dbVal);
-            addedField = true;
+            value[i] = fieldValues.getFieldValue(field[i].getName());
         }
         
         /* execute */
-        this.executeUpdate(sb.toString());
+        String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_INSERT, null);
+        DBConnection.getDefaultConnection().executeUpdate(key, fact.getInsertSQL(), field, value);
         this.clearChanged();
 
     }
@@ -770,43 +801,119 @@ public abstract class DBRecord
     protected void _update(String updFlds[])
         throws SQLException, DBException
     {
-        java.util.List fldList = (updFlds != null)? ListTools.toList(updFlds) : null;
         DBRecordKey recKey = this.getRecordKey();
-        StringBuffer sb = new StringBuffer();
-        sb.append("UPDATE ").append(recKey.getTableName());
+        DBFactory fact = recKey.getFactory();
         
         /* last update time */
         this.setLastUpdateTime(DateTime.getCurrentTimeSec());
         this.setLastUpdateUser(DBRecord.GetCurrentUser());
         
         /* set */
-        sb.append(" SET ");
-        DBFieldValues fieldValues = recKey.getFieldValues();
-        DBField field[] = recKey.getFields();
-        boolean addedField = false;
-        for (int i = 0; i < field.length; i++) {
-            String fldName = field[i].getName();
-            if (!field[i].isPriKey() && ((fldList == null) || fldList.contains(fldName))) {
-                if (addedField) { sb.append(", "); }
-                String fldVal = fieldValues.toString(fldName);
-                String dbVal  = field[i].getQValue(fldVal);
-                sb.append(fldName).append("=").append(dbVal);
-                addedField = true;
-            }
+        DBField updField[] = DBRecord._getUpdateFields(fact, updFlds);
+        if (updField.length == 0) {
+            Print.logInfo("Nothing was updated!!!!!!");
+            this.clearChanged();
+            return;
         }
         
-        /* where */
-        sb.append(recKey.getWhereClause());
-        
         /* execute */
-        if (addedField) {
-            this.executeUpdate(sb.toString());
-        } else {
-            Print.logInfo("Nothing was updated!!!!!!");
-        }
+        DBField param[] = DBRecord._getUpdateParameters(fact, updField);
+        String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_UPDATE_KEY, 
+            DBRecord._getUpdateQualifier(updField, updFlds));
+        DBConnection.getDefaultConnection().executeUpdate(key, DBRecord._getUpdateSQL(fact, updField),
+            param, this._getUpdateValues(param));
         this.clearChanged();
         
     }
+
+    /**
+     * Returns the fields updated by an UPDATE statement.
+     * @param fact The table factory.
+     * @param updFlds Names of the fields to update (all non-key fields if null).
+     * @return The non-key fields of the table which are to be updated.
+     */
+    protected static DBField[] _getUpdateFields(DBFactory fact, String updFlds[])
+    {
+        java.util.List fldList = (updFlds != null)? ListTools.toList(updFlds) : null;
+        DBField field[] = fact.getFields();
+        Vector updField = new Vector();
+        for (int i = 0; i < field.length; i++) {
+            if (!field[i].isPriKey() && ((fldList == null) || fldList.contains(field[i].getName()))) {
+                updField.add(field[i]);
+            }
+        }
+        return (DBField[])updField.toArray(new DBField[updField.size()]);
+    }
+
+    /**
+     * Returns the statement cache qualifier of an UPDATE statement.
+     * @param updField The updated fields.
+     * @param updFlds Names of the fields to update (all non-key fields if null).
+     * @return The comma separated names of the updated fields, or null if all non-key
+     *         fields are updated.
+     */
+    protected static String _getUpdateQualifier(DBField updField[], String updFlds[])
+    {
+        if (updFlds == null) {
+            return null;
+        }
+        StringBuffer qualifier = new StringBuffer();
+        for (int i = 0; i < updField.length; i++) {
+            if (i > 0) { qualifier.append(","); }
+            qualifier.append(updField[i].getName());
+        }
+        return qualifier.toString();
+    }
+
+    /**
+     * Returns the UPDATE statement which sets the specified fields of a record, by key.
+     * @param fact The table factory.
+     * @param updField The updated fields.
+     * @return The SQL statement, with a '?' parameter marker for each updated field,
+     *         followed by one for each key field.
+     */
+    protected static String _getUpdateSQL(DBFactory fact, DBField updField[])
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("UPDATE ").append(fact.getTableName());
+        sb.append(" SET ");
+        for (int i = 0; i < updField.length; i++) {
+            if (i > 0) { sb.append(", "); }
+            sb.append(updField[i].getName()).append("=?");
+        }
+        sb.append(fact.getKeyWhereSQL());
+        return sb.toString();
+    }
+
+    /**
+     * Returns the parameter fields of an UPDATE statement.
+     * @param fact The table factory.
+     * @param updField The updated fields.
+     * @return The updated fields, followed by the key fields.
+     */
+    protected static DBField[] _getUpdateParameters(DBFactory fact, DBField updField[])
+    {
+        DBField keyField[] = fact.getKeyFields();
+        DBField param[] = new DBField[updField.length + keyField.length];
+        System.arraycopy(updField, 0, param, 0, updField.length);
+        System.arraycopy(keyField, 0, param, updField.length, keyField.length);
+        return param;
+    }
+
+    /**
+     * Returns the parameter values of an UPDATE statement for this record.
+     * @param param The parameter fields (see <tt>_getUpdateParameters</tt>).
+     * @return The current value of each parameter field.
+     */
+    protected Object[] _getUpdateValues(DBField param[])
+    {
+        DBFieldValues fieldValues = this.getRecordKey().getFieldValues();
+        Object value[] = new Object[param.length];
+        for (int i = 0; i < param.length; i++) {
+            value[i] = fieldValues.getFieldValue(param[i].getName());
+        }
+        return value;
+    }
     
     // ------------------------------------------------------------------------
 
@@ -826,7 +933,162 @@ public abstract class DBRecord
             this.insert();      // may throw DBException
         }
     }
-    
+
+    /**
+     * Saves a group of records of the same table, using multi-row insert statements
+     * of at most BATCH_MAX_ROWS records each. A record whose key already exists in the
+     * table is updated in place ("ON DUPLICATE KEY UPDATE"), so no separate existence
+     * check is made for each record.<br>
+     * Each statement saves a power-of-two number of records (eg. 37 records are saved
+     * as 32 + 4 + 1), so that a table has at most one prepared insert statement for
+     * each power of two up to BATCH_MAX_ROWS, rather than one for every batch size,
+     * in the statement cache of each connection.
+     * 
+     * @param rcd Array of records to save.
+     * @param count Number of records (from the start of the array) to save.
+     * @return The number of records saved, which is less than 'count' only if a
+     * DBException was thrown.
+     * @throws DBException Throws a DBException if a database error occurs. The records
+     * of previously executed statements remain saved.
+     */
+    public static int saveBatch(DBRecord rcd[], int count)
+        throws DBException
+    {
+        int saved = 0;
+        while (saved < count) {
+            int n = Integer.highestOneBit(Math.min(count - saved, BATCH_MAX_ROWS));
+            try {
+                DBRecord._saveBatch(rcd, saved, n);
+            } catch (SQLException sqe) {
+                rcd[saved].setLastCaughtSQLException(sqe);
+                throw new DBException("Unable to save " + n + " records starting at '" + 
+                    rcd[saved].getRecordKey() + "'", sqe);
+            }
+            saved += n;
+        }
+        return saved;
+    }
+
+    /**
+     * Generates and executes a single multi-row insert statement for the specified
+     * records.
+     * 
+     * @param rcd Array of records.
+     * @param ofs Index of the first record to save.
+     * @param n Number of records to save.
+     * @throws SQLException Throws an SQLException if an sql error occurs.
+     * @throws DBException Throws a DBException if a database error occurs.
+     */
+    protected static void _saveBatch(DBRecord rcd[], int ofs, int n)
+        throws SQLException, DBException
+    {
+        DBFactory fact = rcd[ofs].getRecordKey().getFactory();
+        DBField field[] = fact.getFields();
+        long updTime = DateTime.getCurrentTimeSec();
+        String updUser = DBRecord.GetCurrentUser();
+
+        /* values */
+        DBField param[] = new DBField[n * field.length];
+        Object value[] = new Object[n * field.length];
+        int p = 0;
+        for (int r = ofs; r < ofs + n; r++) {
+            DBRecordKey recKey = rcd[r].getRecordKey();
+            if (recKey.getFactory() != fact) {
+                throw new DBException("Batch records must be from the same table: " + recKey);
+            }
+            rcd[r].setLastUpdateTime(updTime);
+            rcd[r].setLastUpdateUser(updUser);
+            DBFieldValues fieldValues = recKey.getFieldValues();
+            for (int i = 0; i < field.length; i++) {
+                param[p] = field[i];
+                value[p] = fieldValues.getFieldValue(field[i].getName());
+                p++;
+            }
+        }
+
+        /* execute */
+        String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_INSERT_BATCH, 
+            String.valueOf(n));
+        DBConnection.getDefaultConnection().executeUpdate(key, fact.getBatchInsertSQL(n), param, value);
+        for (int r = ofs; r < ofs + n; r++) {
+            rcd[r].clearChanged();
+        }
+
+    }
+
+    /**
+     * Updates the specified fields of a group of records of the same table, by key,
+     * executing the UPDATE statement as JDBC batches of at most BATCH_MAX_ROWS records.
+     * Records which no longer exist are not re-created.
+     * 
+     * @param rcd Array of records.
+     * @param count Number of records (from the start of the array) to update.
+     * @param updFlds Names of the fields to update (all non-key fields if null).
+     * @return The number of records updated (the count).
+     * @throws DBException Throws a DBException if a database error occurs, in which case
+     *         the records of the failing batch, and the following records, may not have
+     *         been updated.
+     */
+    public static int updateBatch(DBRecord rcd[], int count, String updFlds[])
+        throws DBException
+    {
+        int updated = 0;
+        while (updated < count) {
+            int n = Math.min(count - updated, BATCH_MAX_ROWS);
+            try {
+                DBRecord._updateBatch(rcd, updated, n, updFlds);
+            } catch (SQLException sqe) {
+                rcd[updated].setLastCaughtSQLException(sqe);
+                throw new DBException("Unable to update " + n + " records starting at '" + 
+                    rcd[updated].getRecordKey() + "'", sqe);
+            }
+            updated += n;
+        }
+        return updated;
+    }
+
+    /**
+     * Executes the UPDATE statement for the specified records as a single JDBC batch.
+     * 
+     * @param rcd Array of records.
+     * @param ofs Index of the first record to update.
+     * @param n Number of records to update.
+     * @param updFlds Names of the fields to update (all non-key fields if null).
+     * @throws SQLException Throws an SQLException if an sql error occurs.
+     * @throws DBException Throws a DBException if a database error occurs.
+     */
+    protected static void _updateBatch(DBRecord rcd[], int ofs, int n, String updFlds[])
+        throws SQLException, DBException
+    {
+        DBFactory fact = rcd[ofs].getRecordKey().getFactory();
+        DBField updField[] = DBRecord._getUpdateFields(fact, updFlds);
+        if (updField.length == 0) {
+            return;
+        }
+        long updTime = DateTime.getCurrentTimeSec();
+        String updUser = DBRecord.GetCurrentUser();
+
+        /* values */
+        DBField param[] = DBRecord._getUpdateParameters(fact, updField);
+        Object value[][] = new Object[n][];
+        for (int r = ofs; r < ofs + n; r++) {
+            DBRecordKey recKey = rcd[r].getRecordKey();
+            if (recKey.getFactory() != fact) {
+                throw new DBException("Batch records must be from the same table: " + recKey);
+            }
+            rcd[r].setLastUpdateTime(updTime);
+            rcd[r].setLastUpdateUser(updUser);
+            value[r - ofs] = rcd[r]._getUpdateValues(param);
+        }
+
+        /* execute */
+        String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_UPDATE_KEY, 
+            DBRecord._getUpdateQualifier(updField, updFlds));
+        DBConnection.getDefaultConnection().executeBatch(key, DBRecord._getUpdateSQL(fact, updField),
+            param, value);
+
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -1026,7 +1288,15 @@ public abstract class DBRecord
             if (isTableLockingEnabled()) {
                 Throwable t = new Throwable();
                 t.fillInStackTrace();
-                DBConnection.getDefaultConnection().executeUpdate(sb.toString());
+                // keep the same pooled connection until the tables are unlocked
+                DBConnection dbc = DBConnection.getDefaultConnection();
+                dbc.hold();
+                try {
+                    dbc.executeUpdate(sb.toString());
+                } catch (SQLException sqe) {
+                    dbc.release();
+                    throw sqe;
+                }
                 DBRecord.lockLevel.push(t);
             }
             
@@ -1069,7 +1339,12 @@ public abstract class DBRecord
             
             String unlockSql = "UNLOCK TABLES";
             if (isTableLockingEnabled()) {
-                DBConnection.getDefaultConnection().executeUpdate(unlockSql);
+                DBConnection dbc = DBConnection.getDefaultConnection();
+                try {
+                    dbc.executeUpdate(unlockSql);
+                } finally {
+                    dbc.release(); // held by 'lockTables'
+                }
                 if (!DBRecord.lockLevel.empty()) {
                     DBRecord.lockLevel.pop();
                 } else {
@@ -1299,6 +1574,27 @@ public abstract class DBRecord
         }
     }
 
+    /**
+     * Sets the values of the specified fields to those of another record of the
+     * same table (all fields, if no field names are specified).
+     * @param src The record whose field values are copied.
+     * @param fldNames The names of the fields to copy, or null to copy all fields.
+     */
+    public void setFieldValues(DBRecord src, String fldNames[])
+    {
+        if (fldNames == null) {
+            DBField fld[] = src.getRecordKey().getFields();
+            for (int i = 0; i < fld.length; i++) {
+                String n = fld[i].getName();
+                this.setFieldValue(n, src.getFieldValue(n));
+            }
+        } else {
+            for (int i = 0; i < fldNames.length; i++) {
+                this.setFieldValue(fldNames[i], src.getFieldValue(fldNames[i]));
+            }
+        }
+    }
+
     // ------------------------------------------------------------------------
     
     /**
@@ -0,0 +1,189 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Shared cache of DBRecords with time-to-live and size-bounded eviction
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.dbtools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches records read from the database, so that records which are read repeatedly (such as the
+ * Account and Device records read when a client connects) are not selected again for every use.
+ * A cached record expires after the time-to-live, after which it is read again from the database.
+ * When the cache is full, the least recently used record is removed.
+ * <p>
+ * Cached records are shared by all threads. Changes made to a cached record are seen by the other
+ * users of the record, but are only written to the database when the record is saved.
+ *
+ * @author agent
+ */
+public class DBRecordCache {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default time-to-live of a cached record (seconds).
+   */
+  public static final long DEFAULT_TTL_SEC = 900L;
+
+  /**
+   * Default maximum number of cached records.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A cached record and the time it was loaded.
+   */
+  private static class Entry {
+    private DBRecord record = null;
+    private long loadTimeMS = 0L;
+
+    private Entry(DBRecord record, long loadTimeMS) {
+      this.record = record;
+      this.loadTimeMS = loadTimeMS;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private String name = null;
+  private long ttlMS = DEFAULT_TTL_SEC * 1000L;
+  private int maxSize = DEFAULT_MAX_SIZE;
+  private LinkedHashMap cache = null;
+
+  private long hitCount = 0L;
+  private long missCount = 0L;
+  private long expireCount = 0L;
+
+  /**
+   * Creates an empty record cache.
+   *
+   * @param name the name of this cache (for logging).
+   * @param ttlSec the time-to-live of a cached record, in seconds. Records are not cached if not
+   *          positive.
+   * @param maxSize maximum number of cached records (the default is used if not positive).
+   */
+  public DBRecordCache(String name, long ttlSec, int maxSize) {
+    this.name = name;
+    this.ttlMS = ttlSec * 1000L;
+    this.maxSize = (maxSize > 0) ? maxSize : DEFAULT_MAX_SIZE;
+    this.cache = new LinkedHashMap(16, 0.75F, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return (this.size() > DBRecordCache.this.maxSize);
+      }
+    };
+  }
+
+  /**
+   * Returns true if records are cached.
+   *
+   * @return true if the time-to-live is positive.
+   */
+  public boolean isEnabled() {
+    return (this.ttlMS > 0L);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the cached record for the specified key.
+   *
+   * @param key the record key.
+   * @return the cached record, or null if the key is not cached or has expired.
+   */
+  public synchronized DBRecord get(String key) {
+    Entry e = (Entry) this.cache.get(key);
+    if (e == null) {
+      this.missCount++;
+      return null;
+    }
+    else if ((System.currentTimeMillis() - e.loadTimeMS) >= this.ttlMS) {
+      this.cache.remove(key);
+      this.expireCount++;
+      this.missCount++;
+      return null;
+    }
+    else {
+      this.hitCount++;
+      return e.record;
+    }
+  }
+
+  /**
+   * Caches a record (unless caching is disabled).
+   *
+   * @param key the record key.
+   * @param rcd the record.
+   */
+  public synchronized void put(String key, DBRecord rcd) {
+    if ((rcd != null) && this.isEnabled()) {
+      this.cache.put(key, new Entry(rcd, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * Removes the record cached for the specified key.
+   *
+   * @param key the record key.
+   */
+  public synchronized void remove(String key) {
+    this.cache.remove(key);
+  }
+
+  /**
+   * Removes all cached records.
+   */
+  public synchronized void clear() {
+    this.cache.clear();
+  }
+
+  /**
+   * Returns the number of cached records.
+   *
+   * @return the number of cached records.
+   */
+  public synchronized int size() {
+    return this.cache.size();
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a string representation of this cache.
+   *
+   * @return the cache name, size, and hit/miss counts.
+   */
+  public synchronized String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(this.name).append(": size=").append(this.cache.size()).append("/").append(this.maxSize);
+    sb.append(" hits=").append(this.hitCount);
+    sb.append(" misses=").append(this.missCount);
+    sb.append(" expired=").append(this.expireCount);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,171 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Streaming cursor over selected database records
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.dbtools;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.opendmtp.util.Print;
+
+/**
+ * Iterates over the records selected by a query, creating each record as its row is read from
+ * the database, so that large selections are processed without holding all records in memory.
+ * The rows are streamed from the database (see <tt>DBConnection.executeStreamingQuery</tt>), and
+ * the database connection is held until the cursor is closed.
+ * <p>
+ * Example:
+ * <pre>
+ *  DBRecordCursor c = DBRecordCursor.open(EventData.getFactory(), "SELECT * FROM EventData ...");
+ *  try {
+ *     while (c.hasNext()) {
+ *        EventData ev = (EventData)c.next();
+ *        // do something with 'ev'
+ *     }
+ *  } finally {
+ *     c.close();
+ *  }
+ * </pre>
+ *
+ * @author agent
+ */
+public class DBRecordCursor {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Fetch size of the streamed query (MySQL streams rows one at a time with this value).
+   */
+  private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+  /**
+   * Executes a query, and returns a cursor over the selected records.
+   *
+   * @param fact the factory of the selected table.
+   * @param sql the query, which must select all columns of the table ("SELECT * ...").
+   * @return the cursor, which must be closed when finished.
+   * @throws DBException if the query cannot be executed.
+   */
+  public static DBRecordCursor open(DBFactory fact, String sql) throws DBException {
+    try {
+      ResultSet rs = DBConnection.getDefaultConnection().executeStreamingQuery(sql,
+          STREAMING_FETCH_SIZE);
+      return new DBRecordCursor(fact, rs);
+    }
+    catch (SQLException sqe) {
+      throw new DBException("Record Selection", sqe);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private DBFactory factory = null;
+  private ResultSet resultSet = null;
+  private DBRecord nextRecord = null;
+  private int readCount = 0;
+
+  /**
+   * Creates a cursor over the rows of a result set.
+   *
+   * @param fact the factory of the selected table.
+   * @param rs the result set.
+   */
+  public DBRecordCursor(DBFactory fact, ResultSet rs) {
+    this.factory = fact;
+    this.resultSet = rs;
+  }
+
+  /**
+   * Returns true if another record is available (reading it from the database if necessary).
+   *
+   * @return true if <tt>next</tt> will return a record.
+   * @throws DBException if the next row cannot be read.
+   */
+  public boolean hasNext() throws DBException {
+    while ((this.nextRecord == null) && (this.resultSet != null)) {
+      try {
+        if (!this.resultSet.next()) {
+          this.close();
+          break;
+        }
+        DBRecordKey rcdKey = this.factory.createKey(this.resultSet); // may throw DBException
+        if (rcdKey != null) {
+          DBRecord rcd = rcdKey.getDBRecord();
+          rcd.setFieldValues(this.resultSet);
+          this.nextRecord = rcd;
+        }
+        else {
+          Print.logError("Unable to create key: " + this.factory.getTableName());
+        }
+      }
+      catch (SQLException sqe) {
+        throw new DBException("Read next record", sqe);
+      }
+    }
+    return (this.nextRecord != null);
+  }
+
+  /**
+   * Returns the next record.
+   *
+   * @return the next record, or null if all records have been read.
+   * @throws DBException if the next row cannot be read.
+   */
+  public DBRecord next() throws DBException {
+    if (!this.hasNext()) {
+      return null;
+    }
+    DBRecord rcd = this.nextRecord;
+    this.nextRecord = null;
+    this.readCount++;
+    return rcd;
+  }
+
+  /**
+   * Returns the number of records returned by <tt>next</tt> so far.
+   *
+   * @return the number of records read.
+   */
+  public int getReadCount() {
+    return this.readCount;
+  }
+
+  /**
+   * Closes the result set (and releases the database connection). Closing the cursor before all
+   * records are read discards the remaining rows.
+   */
+  public void close() {
+    if (this.resultSet != null) {
+      try {
+        this.resultSet.close();
+      }
+      catch (Throwable t) {
+        // ignore
+      }
+      this.resultSet = null;
+    }
+  }
+
+}
@@ -30,7 +30,6 @@ package org.opendmtp.dbtools;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 import org.opendmtp.util.Print;
 
@@ -188,6 +187,22 @@ public abstract class DBRecordKey {
     return this.getFieldValues().setFieldValue(fldName, val);
   }
 
+  /**
+   * Returns the values of the key fields, in the order of the fields returned by
+   * <tt>getKeyFields()</tt>, for binding to the parameters of <tt>DBFactory.getKeyWhereSQL()</tt>.
+   * 
+   * @return Object[] Key field values.
+   */
+  protected Object[] getKeyValues() {
+    DBField kfld[] = this.getKeyFields();
+    DBFieldValues fldVals = this.getFieldValues();
+    Object v[] = new Object[kfld.length];
+    for (int i = 0; i < kfld.length; i++) {
+      v[i] = fldVals.getFieldValue(kfld[i].getName());
+    }
+    return v;
+  }
+
   // ------------------------------------------------------------------------
 
   /**
@@ -218,7 +233,9 @@ public abstract class DBRecordKey {
     if (kfld.length == 0) {
       return false;
     }
-    Statement stmt = null;
+    DBFactory fact = this.getFactory();
+    Object kval[] = this.getKeyValues();
+    String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_EXISTS_KEY, null);
     ResultSet rs = null;
     boolean exists = false;
     StringBuffer sb = new StringBuffer();
@@ -226,23 +243,27 @@ public abstract class DBRecordKey {
       String firstKey = kfld[0].getName();
       // MySQL: SELECT <Keys> FROM <TableName> <KeyWhere>
       sb.append("SELECT ").append(firstKey).append(" FROM ").append(this.getTableName());
-      sb.append(this.getWhereClause());
-      stmt = DBConnection.getDefaultConnection().execute(sb.toString()); // may throw DBException
-      rs = stmt.getResultSet();
+      sb.append(fact.getKeyWhereSQL());
+      rs = DBConnection.getDefaultConnection().executeQuery(key, sb.toString(), kfld, kval);
       exists = rs.next();
     }
     catch (SQLException sqe) {
       if (sqe.getErrorCode() == DBFactory.SQLERR_TABLE_NOTLOCKED) {
         Print.logError("SQL Lock Error: " + sqe);
         Print.logError("Hackery! Forcing lock on table: " + this.getTableName());
-        // MySQL: LOCK TABLES <TableName> READ
-        DBConnection.getDefaultConnection().execute("LOCK TABLES " + this.getTableName() + " READ")
-            .close();
-        stmt = DBConnection.getDefaultConnection().execute(sb.toString());
-        rs = stmt.getResultSet();
-        exists = rs.next();
-        // MySQL: UNLOCK TABLES
-        DBConnection.getDefaultConnection().execute("UNLOCK TABLES").close();
+        DBConnection dbc = DBConnection.getDefaultConnection();
+        dbc.hold(); // lock/select/unlock on the same pooled connection
+        try {
+          // MySQL: LOCK TABLES <TableName> READ
+          dbc.execute("LOCK TABLES " + this.getTableName() + " READ").close();
+          rs = dbc.executeQuery(key, sb.toString(), kfld, kval);
+          exists = rs.next();
+          // MySQL: UNLOCK TABLES
+          dbc.execute("UNLOCK TABLES").close();
+        }
+        finally {
+          dbc.release();
+        }
       }
       else {
         throw sqe;
@@ -252,9 +273,6 @@ public abstract class DBRecordKey {
       if (rs != null) {
         rs.close();
       }
-      if (stmt != null) {
-        stmt.close();
-      }
     }
     return exists;
   }
@@ -282,10 +300,13 @@ public abstract class DBRecordKey {
    * @throws DBException Throws a DBException if a database error occurs.
    */
   protected void _delete() throws SQLException, DBException {
+    DBFactory fact = this.getFactory();
     StringBuffer sb = new StringBuffer();
     sb.append("DELETE FROM ").append(this.getTableName());
-    sb.append(this.getWhereClause());
-    DBConnection.getDefaultConnection().executeUpdate(sb.toString());
+    sb.append(fact.getKeyWhereSQL());
+    String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_DELETE_KEY, null);
+    DBConnection.getDefaultConnection().executeUpdate(key, sb.toString(), this.getKeyFields(),
+        this.getKeyValues());
   }
 
   // ------------------------------------------------------------------------
@@ -0,0 +1,209 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Write-behind of frequently changed DBRecord fields
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.dbtools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.opendmtp.util.Print;
+
+/**
+ * Writes changes to a fixed set of fields of records of a single table behind the callers. Changed
+ * records are queued (once, however often they change), and are written periodically by a
+ * background thread with batched UPDATE statements (see <tt>DBRecord.updateBatch</tt>), or, if no
+ * fields are specified, with batched inserts which replace existing records (see
+ * <tt>DBRecord.saveBatch</tt>). Pending changes are also written when the JVM exits normally.
+ *
+ * @author agent
+ */
+public class DBRecordWriter implements Runnable {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default interval between writes (milliseconds).
+   */
+  public static final long DEFAULT_FLUSH_MS = 5000L;
+
+  // ------------------------------------------------------------------------
+
+  private String name = null;
+  private String updFlds[] = null;
+  private long flushMS = DEFAULT_FLUSH_MS;
+
+  /**
+   * Changed records, by record key, in the order they were first changed.
+   */
+  private LinkedHashMap pending = new LinkedHashMap();
+
+  private Thread thread = null;
+
+  private long writeCount = 0L;
+  private long errorCount = 0L;
+
+  /**
+   * Creates a record writer.
+   *
+   * @param name the name of this writer (also the name of its thread).
+   * @param updFlds the names of the fields written, or null to insert or replace whole records.
+   * @param flushMS the interval between writes, in milliseconds (the default is used if not
+   *          positive).
+   */
+  public DBRecordWriter(String name, String updFlds[], long flushMS) {
+    this.name = name;
+    this.updFlds = updFlds;
+    this.flushMS = (flushMS > 0L) ? flushMS : DEFAULT_FLUSH_MS;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Queues a changed record to be written. The record must be from the table of the records
+   * previously queued.
+   *
+   * @param rcd the changed record.
+   */
+  public synchronized void markChanged(DBRecord rcd) {
+    this.pending.put(rcd.getRecordKey().toString(), rcd);
+    if (this.thread == null) {
+      this.thread = new Thread(this, this.name);
+      this.thread.setDaemon(true);
+      this.thread.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(this.name + "Exit") {
+        public void run() {
+          DBRecordWriter.this.flush();
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns true if changes to the record with the specified key are waiting to be written.
+   *
+   * @param key the record key.
+   * @return true if the record is queued.
+   */
+  public synchronized boolean isPending(String key) {
+    return this.pending.containsKey(key);
+  }
+
+  /**
+   * Returns the number of records waiting to be written.
+   *
+   * @return the number of queued records.
+   */
+  public synchronized int getPendingCount() {
+    return this.pending.size();
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Writes all queued records now. Records which could not be written are queued again, unless
+   * they have been queued again in the meantime.
+   *
+   * @return the number of records written.
+   */
+  public int flush() {
+
+    /* take queued records */
+    DBRecord rcd[];
+    synchronized (this) {
+      if (this.pending.isEmpty()) {
+        return 0;
+      }
+      rcd = (DBRecord[]) this.pending.values().toArray(new DBRecord[this.pending.size()]);
+      this.pending.clear();
+    }
+
+    /* write */
+    try {
+      if (this.updFlds != null) {
+        DBRecord.updateBatch(rcd, rcd.length, this.updFlds);
+      }
+      else {
+        DBRecord.saveBatch(rcd, rcd.length);
+      }
+      synchronized (this) {
+        this.writeCount += rcd.length;
+      }
+      return rcd.length;
+    }
+    catch (DBException dbe) {
+      Print.logException(this.name + ": Unable to write " + rcd.length + " records", dbe);
+      synchronized (this) {
+        this.errorCount++;
+        LinkedHashMap requeue = new LinkedHashMap();
+        for (int i = 0; i < rcd.length; i++) {
+          requeue.put(rcd[i].getRecordKey().toString(), rcd[i]);
+        }
+        for (Iterator i = this.pending.keySet().iterator(); i.hasNext();) {
+          Object key = i.next();
+          requeue.put(key, this.pending.get(key));
+        }
+        this.pending = requeue;
+      }
+      return 0;
+    }
+
+  }
+
+  /**
+   * Writes the queued records every flush interval.
+   */
+  public void run() {
+    while (true) {
+      try {
+        Thread.sleep(this.flushMS);
+      }
+      catch (InterruptedException ie) {
+        // ignore
+      }
+      try {
+        this.flush();
+      }
+      catch (Throwable t) {
+        Print.logStackTrace(this.name + ": Unexpected error", t);
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a string representation of this writer.
+   *
+   * @return the writer name, and its pending/written/error counts.
+   */
+  public synchronized String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(this.name).append(": pending=").append(this.pending.size());
+    sb.append(" written=").append(this.writeCount);
+    sb.append(" errors=").append(this.errorCount);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,348 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Per-connection PreparedStatement cache and per-statement timing metrics
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.dbtools;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opendmtp.util.Print;
+
+/**
+ * Holds the <tt>PreparedStatement</tt>s of a single <tt>DBConnection</tt>, keyed by table and
+ * operation (see <tt>getKey</tt>). When the cache is full, the least recently used statement is
+ * closed and removed. The cache also records the number of executions and the execution time of
+ * each statement key, accumulated over all connections.
+ *
+ * @author agent
+ */
+public class DBStatementCache {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default maximum number of cached statements per connection.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  /**
+   * Operation: insert a record.
+   */
+  public static final String OP_INSERT = "insert";
+  /**
+   * Operation: insert (or update) a group of records.
+   */
+  public static final String OP_INSERT_BATCH = "insertBatch";
+  /**
+   * Operation: update a record by key.
+   */
+  public static final String OP_UPDATE_KEY = "updateByKey";
+  /**
+   * Operation: select a record by key.
+   */
+  public static final String OP_SELECT_KEY = "selectByKey";
+  /**
+   * Operation: test the existence of a record by key.
+   */
+  public static final String OP_EXISTS_KEY = "existsByKey";
+  /**
+   * Operation: delete a record by key.
+   */
+  public static final String OP_DELETE_KEY = "deleteByKey";
+  /**
+   * Operation: count the records in a range.
+   */
+  public static final String OP_COUNT_RANGE = "rangeCount";
+
+  /**
+   * Returns the cache key of an operation on a table.
+   *
+   * @param tableName the table name.
+   * @param op the operation (one of the OP_* constants).
+   * @param qualifier distinguishes variants of an operation (may be null).
+   * @return the cache key.
+   */
+  public static String getKey(String tableName, String op, String qualifier) {
+    StringBuffer sb = new StringBuffer(tableName);
+    sb.append(".").append(op);
+    if (qualifier != null) {
+      sb.append("[").append(qualifier).append("]");
+    }
+    return sb.toString();
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Cached statements, in access order.
+   */
+  private LinkedHashMap cache = null;
+  /**
+   * Maximum number of cached statements.
+   */
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  /**
+   * Creates an empty statement cache.
+   *
+   * @param maxSize maximum number of cached statements (the default is used if not positive).
+   */
+  public DBStatementCache(int maxSize) {
+    this.maxSize = (maxSize > 0) ? maxSize : DEFAULT_MAX_SIZE;
+    this.cache = new LinkedHashMap(16, 0.75F, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        if (this.size() > DBStatementCache.this.maxSize) {
+          DBStatementCache._close((PreparedStatement) eldest.getValue());
+          return true;
+        }
+        else {
+          return false;
+        }
+      }
+    };
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the cached statement for the specified key.
+   *
+   * @param key the statement key.
+   * @return the cached statement, or null if the key is not cached.
+   */
+  public PreparedStatement get(String key) {
+    return (PreparedStatement) this.cache.get(key);
+  }
+
+  /**
+   * Caches a statement, evicting the least recently used statement if the cache is full.
+   *
+   * @param key the statement key.
+   * @param ps the statement.
+   */
+  public void put(String key, PreparedStatement ps) {
+    PreparedStatement old = (PreparedStatement) this.cache.put(key, ps);
+    if ((old != null) && (old != ps)) {
+      DBStatementCache._close(old);
+    }
+  }
+
+  /**
+   * Closes and removes the statement cached for the specified key.
+   *
+   * @param key the statement key.
+   */
+  public void remove(String key) {
+    DBStatementCache._close((PreparedStatement) this.cache.remove(key));
+  }
+
+  /**
+   * Closes and removes all cached statements.
+   */
+  public void clear() {
+    for (Iterator i = this.cache.values().iterator(); i.hasNext();) {
+      DBStatementCache._close((PreparedStatement) i.next());
+    }
+    this.cache.clear();
+  }
+
+  /**
+   * Returns the number of cached statements.
+   *
+   * @return the number of cached statements.
+   */
+  public int size() {
+    return this.cache.size();
+  }
+
+  /**
+   * Closes a statement, ignoring errors.
+   *
+   * @param ps the statement (may be null).
+   */
+  private static void _close(PreparedStatement ps) {
+    if (ps != null) {
+      try {
+        ps.close();
+      }
+      catch (SQLException sqe) {
+        // ignore
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // statement timing
+
+  /**
+   * Timings, by statement key.
+   */
+  private static HashMap timingMap = new HashMap();
+
+  /**
+   * Execution count and time of a statement key.
+   */
+  public static class Timing {
+    private String key = null;
+    private long count = 0L;
+    private long totalNS = 0L;
+    private long maxNS = 0L;
+
+    private Timing(String key) {
+      this.key = key;
+    }
+
+    private Timing(Timing t) {
+      this.key = t.key;
+      this.count = t.count;
+      this.totalNS = t.totalNS;
+      this.maxNS = t.maxNS;
+    }
+
+    /**
+     * Returns the statement key.
+     *
+     * @return the statement key.
+     */
+    public String getKey() {
+      return this.key;
+    }
+
+    /**
+     * Returns the number of executions.
+     *
+     * @return the number of executions.
+     */
+    public long getCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns the total execution time.
+     *
+     * @return the total execution time, in milliseconds.
+     */
+    public double getTotalMS() {
+      return (double) this.totalNS / 1000000.0;
+    }
+
+    /**
+     * Returns the average execution time.
+     *
+     * @return the average execution time, in milliseconds.
+     */
+    public double getAverageMS() {
+      return (this.count > 0L) ? (this.getTotalMS() / (double) this.count) : 0.0;
+    }
+
+    /**
+     * Returns the longest execution time.
+     *
+     * @return the longest execution time, in milliseconds.
+     */
+    public double getMaxMS() {
+      return (double) this.maxNS / 1000000.0;
+    }
+
+    /**
+     * Returns a string representation of this timing.
+     *
+     * @return the key, count, and total/average/max times.
+     */
+    public String toString() {
+      StringBuffer sb = new StringBuffer();
+      sb.append(this.key).append(": count=").append(this.count);
+      sb.append(" total=").append((long) this.getTotalMS()).append("ms");
+      sb.append(" avg=").append(Math.round(this.getAverageMS() * 1000.0) / 1000.0).append("ms");
+      sb.append(" max=").append(Math.round(this.getMaxMS() * 1000.0) / 1000.0).append("ms");
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Records an execution of a statement.
+   *
+   * @param key the statement key.
+   * @param elapsedNS the execution time, in nanoseconds.
+   */
+  public static void recordTiming(String key, long elapsedNS) {
+    synchronized (timingMap) {
+      Timing t = (Timing) timingMap.get(key);
+      if (t == null) {
+        t = new Timing(key);
+        timingMap.put(key, t);
+      }
+      t.count++;
+      t.totalNS += elapsedNS;
+      if (elapsedNS > t.maxNS) {
+        t.maxNS = elapsedNS;
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the statement timings, sorted by key.
+   *
+   * @return the statement timings.
+   */
+  public static Timing[] getTimings() {
+    synchronized (timingMap) {
+      TreeMap sorted = new TreeMap(timingMap);
+      Timing t[] = new Timing[sorted.size()];
+      int n = 0;
+      for (Iterator i = sorted.values().iterator(); i.hasNext();) {
+        t[n++] = new Timing((Timing) i.next());
+      }
+      return t;
+    }
+  }
+
+  /**
+   * Clears the statement timings.
+   */
+  public static void resetTimings() {
+    synchronized (timingMap) {
+      timingMap.clear();
+    }
+  }
+
+  /**
+   * Logs the statement timings.
+   */
+  public static void printTimings() {
+    Timing t[] = DBStatementCache.getTimings();
+    for (int i = 0; i < t.length; i++) {
+      Print.logInfo("SQL timing " + t[i]);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+}
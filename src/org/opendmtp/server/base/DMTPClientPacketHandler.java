@@ -32,6 +32,7 @@ import org.opendmtp.codes.ServerErrors;
 import org.opendmtp.server.db.Payload;
 import org.opendmtp.server.db.PayloadTemplate;
 import org.opendmtp.util.AbstractClientPacketHandler;
+import org.opendmtp.util.ClientPacketViewHandler;
 import org.opendmtp.util.ListTools;
 import org.opendmtp.util.Print;
 import org.opendmtp.util.StringTools;
@@ -44,7 +45,8 @@ import org.opendmtp.util.StringTools;
  * @author Martin D. Flynn
  * @author Brandon Lee
  */
-public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
+public class DMTPClientPacketHandler extends AbstractClientPacketHandler implements
+    ClientPacketViewHandler {
 
   // ------------------------------------------------------------------------
 
@@ -106,6 +108,10 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
    * event error packet.
    */
   private Packet eventErrorPacket = null;
+  /**
+   * events of the current block queued for asynchronous persistence.
+   */
+  private EventPipeline.EventBlock eventBlock = null;
 
   /**
    * Constructor. Calls super and create a new FletcherChecksum instance.
@@ -204,9 +210,23 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
    * @return byte[] an array containing packet info for output.
    */
   public byte[] getHandlePacket(byte pktBytes[]) {
+    return this.getHandlePacket(pktBytes, 0, pktBytes.length);
+  }
+
+  /**
+   * Returns encoded packet informations, response is discarded if simplex connection. The packet
+   * is parsed in place (the payload of a binary packet is a view over 'pktBytes'), and nothing
+   * retains a reference to 'pktBytes' once the packet has been handled.
+   * 
+   * @param pktBytes the buffer containing the packet.
+   * @param pktOfs the offset of the packet in the buffer.
+   * @param pktLen the length of the packet.
+   * @return byte[] an array containing packet info for output.
+   */
+  public byte[] getHandlePacket(byte pktBytes[], int pktOfs, int pktLen) {
     
     String ipAddr = this.getHostAddress();
-    Packet resp[] = this._parsePacket(ipAddr, pktBytes);
+    Packet resp[] = this._parsePacket(ipAddr, pktBytes, pktOfs, pktLen);
     
     if ((resp == null) || (resp.length == 0)) {
       
@@ -217,7 +237,9 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
       
       if (resp.length == 1) {
         
-        Print.logDebug("==> " + resp[0].toString(this.encoding));
+        if (Print.isDebugLoggingLevel()) {
+          Print.logDebug("==> " + resp[0].toString(this.encoding));
+        }
         return resp[0].encode(this.encoding);
       }
       else {
@@ -226,7 +248,9 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
         
         for (int i = 0; i < resp.length; i++) {
           
-          Print.logDebug("==> " + resp[i].toString(this.encoding));
+          if (Print.isDebugLoggingLevel()) {
+            Print.logDebug("==> " + resp[i].toString(this.encoding));
+          }
           byte b[] = resp[i].encode(this.encoding);
           baos.write(b, 0, b.length);
         }
@@ -544,10 +568,78 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
    */
   private int _handleEvent(Event event) throws PacketParseException {
     
-    Print.logDebug(event.toString());
+    if (Print.isDebugLoggingLevel()) {
+      Print.logDebug(event.toString());
+    }
     return this.getDeviceId().saveEvent(event);
   }
 
+  /**
+   * Logs event and queues it for asynchronous persistence. The result is collected at
+   * end-of-block by _completeEventBlock.
+   * 
+   * @param pipeline the event pipeline.
+   * @param event the event object to save.
+   * @throws PacketParseException if deviceID is null.
+   */
+  private void _queueEvent(EventPipeline pipeline, Event event) throws PacketParseException {
+    
+    if (Print.isDebugLoggingLevel()) {
+      Print.logDebug(event.toString());
+    }
+    if (this.eventBlock == null) {
+      this.eventBlock = pipeline.createBlock(this.getDeviceId());
+    }
+    event.detach(); // the packet may be a view over the session read buffer
+    pipeline.submit(this.eventBlock, event);
+  }
+
+  /**
+   * Waits for the queued events of the current block to be saved, and sets the last valid event
+   * and event error packet from the result.
+   * 
+   * @param pipeline the event pipeline.
+   */
+  private void _completeEventBlock(EventPipeline pipeline) {
+    
+    EventPipeline.EventBlock block = this.eventBlock;
+    this.eventBlock = null;
+    if (!block.waitForCompletion(pipeline.getAckTimeoutMS())) {
+      Print.logError("Timeout waiting for events to be saved");
+    }
+    this.lastValidEvent = block.getLastValidEvent();
+    int err = block.getErrorCode();
+    if (err != ServerErrors.NAK_OK) {
+      this.eventErrorPacket = this._createEventErrorPacket(err, block.getErrorEvent());
+    }
+  }
+
+  /**
+   * Returns the error packet sent to the client for an event which could not be saved.
+   * 
+   * @param err the event insertion error.
+   * @param evData the event.
+   * @return the error packet.
+   */
+  private Packet _createEventErrorPacket(int err, Event evData) {
+    
+    long seq = evData.getSequence();
+    int seqLen = evData.getSequenceLength();
+    PacketParseException ppe = null;
+    
+    if ((seq >= 0L) && (seqLen > 0)) {
+      
+      Payload p = new Payload();
+      p.writeULong(seq, seqLen);
+      byte errData[] = p.getBytes();
+      ppe = new PacketParseException(err, evData.getPacket(), errData); // sequence
+    }
+    else {
+      ppe = new PacketParseException(err, evData.getPacket()); // errData ok
+    }
+    return ppe.createServerErrorPacket();
+  }
+
   /**
    * Not sure but I think its checking packets for errors and handles the different kinds of 
    * packets accordingly then if all is ok returns an array of packet events. Can return null.
@@ -575,7 +667,13 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
       this.eventTotalCount++;
       this.eventBlockCount++;
       
-      if (this.eventErrorPacket == null) {
+      EventPipeline pipeline = EventPipeline.getPipeline();
+      if ((this.eventErrorPacket == null) && (pipeline != null)) {
+        
+        // saved asynchronously, errors are collected at end-of-block
+        this._queueEvent(pipeline, evData);
+      }
+      else if (this.eventErrorPacket == null) {
         
         // no errors received during this block, so far
         int err = this._handleEvent(evData);
@@ -596,21 +694,7 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
           // ServerErrors.NAK_EVENT_ERROR
           Print.logError("Event insertion [" + StringTools.toHexString(err, 16) + "] "
               + ServerErrors.getErrorDescription(err));
-          long seq = evData.getSequence();
-          int seqLen = evData.getSequenceLength();
-          PacketParseException ppe = null;
-          
-          if ((seq >= 0L) && (seqLen > 0)) {
-            
-            Payload p = new Payload();
-            p.writeULong(seq, seqLen);
-            byte errData[] = p.getBytes();
-            ppe = new PacketParseException(err, packet, errData); // sequence
-          }
-          else {
-            ppe = new PacketParseException(err, packet); // errData ok
-          }
-          this.eventErrorPacket = ppe.createServerErrorPacket();
+          this.eventErrorPacket = this._createEventErrorPacket(err, evData);
         }
       }
       else {
@@ -650,6 +734,10 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
           }
         }
         this.fletcher.reset();
+        // wait for queued events to be saved
+        if (this.eventBlock != null) {
+          this._completeEventBlock(EventPipeline.getPipeline());
+        }
         // acknowledge sent events
         if (this.lastValidEvent != null) {
           // at least 1 event has been received
@@ -797,24 +885,26 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
    * Return Packet[] can be null.
    * 
    * @param ipAddr the ipaddress of the packet.
-   * @param pkt a packet representation.
+   * @param pkt a buffer containing the packet.
+   * @param pktOfs the offset of the packet in the buffer.
+   * @param pktLen the length of the packet.
    * @return Packet[] the parsed packet or null.
    */
-  private Packet[] _parsePacket(String ipAddr, byte pkt[]) {
+  private Packet[] _parsePacket(String ipAddr, byte pkt[], int pktOfs, int pktLen) {
     // 'pkt' always represents a single packet
 
     // Running Fletcher checksum 
-    this.fletcher.runningChecksum(pkt);
+    this.fletcher.runningChecksum(pkt, pktOfs, pktLen);
 
     // print packet 
-    if ((pkt != null) && (pkt.length > 0)) {
-      if (pkt[0] == Encoding.AsciiEncodingChar) {
-        int len = (pkt[pkt.length - 1] == Encoding.AsciiEndOfLineChar) ? (pkt.length - 1)
-            : pkt.length;
-        Print.logDebug("<== " + StringTools.toStringValue(pkt, 0, len));
+    if ((pkt != null) && (pktLen > 0) && Print.isDebugLoggingLevel()) {
+      if (pkt[pktOfs] == Encoding.AsciiEncodingChar) {
+        int len = (pkt[pktOfs + pktLen - 1] == Encoding.AsciiEndOfLineChar) ? (pktLen - 1)
+            : pktLen;
+        Print.logDebug("<== " + StringTools.toStringValue(pkt, pktOfs, len));
       }
       else {
-        String encPkt = StringTools.toHexString(pkt);
+        String encPkt = StringTools.toHexString(pkt, pktOfs, pktLen);
         Print.logDebug("<== 0x" + encPkt);
       }
     }
@@ -827,7 +917,7 @@ public class DMTPClientPacketHandler extends AbstractClientPacketHandler {
       // Note: 'this.deviceId' may be null here (eg. before device is defined)
       // The device id is only needed for custom payload templates when parsing
       // custom events.
-      packet = new Packet(this.deviceId, true, pkt); // client packet
+      packet = new Packet(this.deviceId, true, pkt, pktOfs, pktLen); // client packet
       if (this.encoding == Encoding.ENCODING_UNKNOWN) {
         // The first received packet establishes the encoding
         this.encoding = packet.getEncoding();
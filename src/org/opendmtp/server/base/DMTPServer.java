@@ -22,11 +22,20 @@
 // ----------------------------------------------------------------------------
 package org.opendmtp.server.base;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.DatagramSocket;
 
+import org.opendmtp.codes.Encoding;
+import org.opendmtp.codes.ServerErrors;
 import org.opendmtp.server.db.AccountDB;
 import org.opendmtp.server.db.DeviceDB;
+import org.opendmtp.server.db.Payload;
+import org.opendmtp.util.DatagramChannelThread;
 import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
+import org.opendmtp.util.ServerSocketChannelThread;
 import org.opendmtp.util.ServerSocketThread;
 
 /**
@@ -132,12 +141,45 @@ public class DMTPServer {
    * @throws Throwable if error from methods.
    */
   private DMTPServer(int port) throws Throwable {
+    this.startEventPipeline();
     this.startTCP(port);
     this.startUDP(port);
   }
 
+  /** 
+   * Starts the asynchronous event pipeline, if enabled by the "dmtp.events.async" property.
+   * Otherwise events are saved by the session thread as they are received. The excessive-events
+   * check counts saved events in memory, unless "dmtp.events.rateLimit=db" is specified. If
+   * "dmtp.journal.dir" is specified, saved events are appended to the event journal in that
+   * directory, and inserted into the database in the background.
+   * 
+   * @throws IOException if the event journal cannot be opened.
+   */
+  private void startEventPipeline() throws IOException {
+    String rateLimit = RTConfig.getString(RTKey.DMTP_EVENTS_RATE_LIMIT, "memory");
+    EventRateCounter.setInMemory(!rateLimit.equalsIgnoreCase("db"));
+    File journalDir = RTConfig.getFile(RTKey.DMTP_JOURNAL_DIR, null);
+    if (journalDir != null) {
+      EventJournal.startJournal(journalDir,
+          RTConfig.getLong(RTKey.DMTP_JOURNAL_FILE_SIZE, EventJournal.DEFAULT_FILE_SIZE),
+          RTConfig.getLong(RTKey.DMTP_JOURNAL_RETRY_MS, EventJournal.DEFAULT_RETRY_MS));
+    }
+    if (RTConfig.getBoolean(RTKey.DMTP_EVENTS_ASYNC, false)) {
+      EventPipeline.startPipeline(
+          RTConfig.getInt(RTKey.DMTP_EVENTS_WRITERS, EventPipeline.DEFAULT_WRITERS),
+          RTConfig.getInt(RTKey.DMTP_EVENTS_QUEUE_SIZE, EventPipeline.DEFAULT_QUEUE_SIZE),
+          RTConfig.getInt(RTKey.DMTP_EVENTS_BATCH_SIZE, EventPipeline.DEFAULT_BATCH_SIZE),
+          RTConfig.getLong(RTKey.DMTP_EVENTS_FLUSH_MS, EventPipeline.DEFAULT_FLUSH_MS),
+          RTConfig.getLong(RTKey.DMTP_EVENTS_ACK_TIMEOUT, EventPipeline.DEFAULT_ACK_TIMEOUT_MS));
+    }
+  }
+
   /** 
    * Creates a new thread with port number, intilizes it, starts it up and assigns to instance.
+   * The session transport is selected by the "dmtp.tcp.transport" property: "thread" (default)
+   * runs each session on its own thread, "nio" multiplexes all sessions over a few I/O threads.
+   * With the "thread" transport, "dmtp.session.threads=virtual" runs each session on a virtual
+   * thread (Java 21+) rather than on the bounded session thread pool.
    * 
    * @param port and int with the port number.
    * @throws Throwable if unable to create thread from port.
@@ -146,8 +188,18 @@ public class DMTPServer {
     ServerSocketThread sst = null;
 
     // create server socket 
+    String transport = RTConfig.getString(RTKey.DMTP_TCP_TRANSPORT, "thread");
     try {
-      sst = new ServerSocketThread(port);
+      if (transport.equalsIgnoreCase("nio")) {
+        int ioThreads = RTConfig.getInt(RTKey.DMTP_NIO_THREADS, 
+            ServerSocketChannelThread.DEFAULT_IO_THREADS);
+        int workers = RTConfig.getInt(RTKey.DMTP_NIO_WORKERS, 
+            ServerSocketChannelThread.DEFAULT_WORKER_THREADS);
+        sst = new ServerSocketChannelThread(port, ioThreads, workers);
+      }
+      else {
+        sst = new ServerSocketThread(port);
+      }
     }
     catch (Throwable t) { // trap any server exception
       Print.logException("ServerSocket error", t);
@@ -166,15 +218,39 @@ public class DMTPServer {
     sst.setLingerTimeoutSec(5);
     sst.setTerminateOnTimeout(true);
     sst.setClientPacketHandlerClass(DMTPClientPacketHandler.class);
+    sst.setZeroCopyPackets(RTConfig.getBoolean(RTKey.DMTP_PACKET_ZERO_COPY, false));
+    this.initSessionPool(sst);
+    sst.setRejectResponse(createExcessiveConnectionsResponse());
+
+    // session threads (virtual threads require Java 21+, and do not apply to "nio")
+    String sessThreads = RTConfig.getString(RTKey.DMTP_SESSION_THREADS, "platform");
+    if (sessThreads.equalsIgnoreCase("virtual")) {
+      if (sst instanceof ServerSocketChannelThread) {
+        Print.logWarn("Virtual session threads not used with the 'nio' transport");
+        sessThreads = "platform";
+      }
+      else if (sst.setVirtualSessionThreads(true)) {
+        sst.setMaximumVirtualSessions(RTConfig.getInt(RTKey.DMTP_SESSION_MAX_VIRTUAL, 
+            ServerSocketThread.DEFAULT_MAX_VIRTUAL_SESSIONS));
+      }
+      else {
+        Print.logWarn("Virtual threads not supported by this runtime, using platform threads");
+        sessThreads = "platform";
+      }
+    }
 
     // start thread 
-    Print.logInfo("DMTP: Starting TCP listener thread on port " + port + " ...");
+    Print.logInfo("DMTP: Starting TCP listener thread on port " + port + " [" + transport
+        + "/" + sessThreads.toLowerCase() + "] ...");
     sst.start();
     this.tcpThread = sst;
   }
 
   /** 
    * Startup of a thread with datagramSocket of specified port, and assigns it to instance.
+   * The datagram transport is selected by the "dmtp.udp.transport" property: "thread" (default)
+   * handles each datagram on a session thread, "nio" receives all datagrams on a single channel
+   * and hands them to a bounded pool of workers.
    * 
    * @param port the port number.
    * @throws Throwable if error occurs in creating a thread.
@@ -183,8 +259,18 @@ public class DMTPServer {
     ServerSocketThread sst = null;
 
     // create server socket 
+    String transport = RTConfig.getString(RTKey.DMTP_UDP_TRANSPORT, "thread");
     try {
-      sst = new ServerSocketThread(new DatagramSocket(port));
+      if (transport.equalsIgnoreCase("nio")) {
+        int workers = RTConfig.getInt(RTKey.DMTP_UDP_WORKERS, 
+            DatagramChannelThread.DEFAULT_WORKERS);
+        int maxQueue = RTConfig.getInt(RTKey.DMTP_UDP_QUEUE_SIZE, 
+            DatagramChannelThread.DEFAULT_QUEUE_SIZE);
+        sst = new DatagramChannelThread(port, workers, maxQueue);
+      }
+      else {
+        sst = new ServerSocketThread(new DatagramSocket(port));
+      }
     }
     catch (Throwable t) { // trap any server exception
       Print.logException("ServerSocket error", t);
@@ -205,11 +291,45 @@ public class DMTPServer {
     // session timeout 
     // This should be AccountID dependent
     sst.setClientPacketHandlerClass(DMTPClientPacketHandler.class);
+    sst.setZeroCopyPackets(RTConfig.getBoolean(RTKey.DMTP_PACKET_ZERO_COPY, false));
+    this.initSessionPool(sst);
 
     // start thread 
-    Print.logInfo("DMTP: Starting UDP listener thread on port " + port + " ...");
+    Print.logInfo("DMTP: Starting UDP listener thread on port " + port + " [" + transport
+        + "] ...");
     sst.start();
     this.udpThread = sst;
 
   }
+
+  /** 
+   * Sets the session thread pool limits of the specified thread from the runtime configuration.
+   * 
+   * @param sst the server socket thread.
+   */
+  private void initSessionPool(ServerSocketThread sst) {
+    sst.setMaximumSessionThreads(RTConfig.getInt(RTKey.DMTP_SESSION_MAX_THREADS, 
+        ServerSocketThread.DEFAULT_MAX_SESSION_THREADS));
+    sst.setSessionBacklog(RTConfig.getInt(RTKey.DMTP_SESSION_BACKLOG, 
+        ServerSocketThread.DEFAULT_SESSION_BACKLOG));
+  }
+
+  /** 
+   * Returns the binary encoded response sent to a client which is rejected because the session
+   * pool is saturated (NAK_EXCESSIVE_CONNECTIONS, followed by EOT).
+   * 
+   * @return the encoded response.
+   */
+  private static byte[] createExcessiveConnectionsResponse() {
+    Payload payload = new Payload();
+    payload.writeULong((long) ServerErrors.NAK_EXCESSIVE_CONNECTIONS, 2);
+    byte err[] = Packet.createServerPacket(Packet.PKT_SERVER_ERROR, payload).encode(
+        Encoding.ENCODING_BINARY);
+    byte eot[] = Packet.createServerPacket(Packet.PKT_SERVER_EOT).encode(Encoding.ENCODING_BINARY);
+    byte resp[] = new byte[err.length + eot.length];
+    System.arraycopy(err, 0, resp, 0, err.length);
+    System.arraycopy(eot, 0, resp, err.length, eot.length);
+    return resp;
+  }
+
 }
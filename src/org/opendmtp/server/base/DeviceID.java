@@ -22,11 +22,17 @@
 // ----------------------------------------------------------------------------
 package org.opendmtp.server.base;
 
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import org.opendmtp.codes.ServerErrors;
+import org.opendmtp.server.db.DeviceBatchDB;
 import org.opendmtp.server.db.DeviceDB;
 import org.opendmtp.server.db.PayloadTemplate;
 import org.opendmtp.util.DateTime;
+import org.opendmtp.util.GeoEvent;
 import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
 import org.opendmtp.util.StringTools;
 
 /**
@@ -68,10 +74,19 @@ public class DeviceID {
   // - Custom template type [key]
   // - Custom template definition
 
+  /**
+   * Maximum number of devices for which custom payload templates are cached.
+   */
+  public static final int MAX_TEMPLATE_CACHE_DEVICES = 10000;
+
+  // custom payload templates, by "account/device" (bounded, see _getCustomTemplates)
+  private static ConcurrentHashMap customTemplateCache = new ConcurrentHashMap();
+
   // device ID
   private DeviceDB db = null;
   private AccountID accountId = null;
   private ValidateConnection connectionValidator = null;
+  private String deviceKey = null;
 
   /**
    * Returns the DeviceDB by unique ID or null.
@@ -314,17 +329,121 @@ public class DeviceID {
    * @return returns if it was successful or not.
    */
   public boolean addClientPayloadTemplate(PayloadTemplate template) {
-    return this.db.addClientPayloadTemplate(template);
+    boolean ok = this.db.addClientPayloadTemplate(template);
+    this._invalidateClientPayloadTemplate(template.getPacketType());
+    return ok;
   }
 
   /**
-   * Returns client payload template.
+   * Returns client payload template. Templates found in the DeviceDB are cached per device for
+   * "db.templateCache.ttlSec" seconds (so that templates changed by other applications are
+   * eventually seen), or until a template is added for the same type (or the device is evicted
+   * from the cache). Templates are not cached if the time-to-live is not positive.
    * 
    * @param custType specifies the payload type.
    * @return the PayloadTemplate object of client.
    */
   public PayloadTemplate getClientPayloadTemplate(int custType) {
-    return this.db.getClientPayloadTemplate(custType);
+    if ((custType < 0) || (custType > 0xFF)) {
+      return this.db.getClientPayloadTemplate(custType);
+    }
+
+    /* cached? */
+    CustomTemplates ct = DeviceID._getCustomTemplates(this._getDeviceKey());
+    long nowMS = System.currentTimeMillis();
+    long generation;
+    synchronized (ct) {
+      if ((ct.template != null) && (ct.template[custType] != null)) {
+        if (nowMS < ct.expireMS[custType]) {
+          return ct.template[custType];
+        }
+        ct.template[custType] = null; // expired
+      }
+      generation = ct.generation;
+    }
+
+    /* get from DeviceDB */
+    PayloadTemplate plt = this.db.getClientPayloadTemplate(custType); // may return null
+    long ttlMS = RTConfig.getLong(RTKey.DB_TEMPLATE_CACHE_TTL_SEC, 300L) * 1000L;
+    if ((plt != null) && (ttlMS > 0L)) {
+      synchronized (ct) {
+        // don't cache if a template was added in the meantime
+        if (generation == ct.generation) {
+          if (ct.template == null) {
+            ct.template = new PayloadTemplate[256];
+            ct.expireMS = new long[256];
+          }
+          ct.template[custType] = plt;
+          ct.expireMS[custType] = nowMS + ttlMS;
+        }
+      }
+    }
+    return plt;
+
+  }
+
+  /**
+   * Removes the cached client payload template of the specified type for this device.
+   * 
+   * @param custType specifies the payload type.
+   */
+  private void _invalidateClientPayloadTemplate(int custType) {
+    CustomTemplates ct = DeviceID._getCustomTemplates(this._getDeviceKey());
+    synchronized (ct) {
+      ct.generation++;
+      if ((ct.template != null) && (custType >= 0) && (custType < ct.template.length)) {
+        ct.template[custType] = null;
+      }
+    }
+  }
+
+  /**
+   * The cached custom payload templates of a device. Each device has its own lock, so that
+   * template lookups by different devices do not contend.
+   */
+  private static class CustomTemplates {
+    private PayloadTemplate template[] = null; // by packet type (allocated on first template)
+    private long expireMS[] = null; // expiration time of each cached template
+    private long generation = 0L; // incremented when a template is added
+  }
+
+  /**
+   * Returns the cached custom payload templates of a device, adding an empty entry if the device
+   * is not yet cached. When the cache is full, an arbitrary device is evicted first (its templates
+   * are loaded from the DeviceDB again when next used).
+   * 
+   * @param key the "account/device" key of the device.
+   * @return the cached templates of the device.
+   */
+  private static CustomTemplates _getCustomTemplates(String key) {
+    CustomTemplates ct = (CustomTemplates) DeviceID.customTemplateCache.get(key);
+    if (ct == null) {
+      if (DeviceID.customTemplateCache.size() >= MAX_TEMPLATE_CACHE_DEVICES) {
+        Iterator i = DeviceID.customTemplateCache.keySet().iterator();
+        if (i.hasNext()) {
+          i.next();
+          i.remove();
+        }
+      }
+      ct = new CustomTemplates();
+      CustomTemplates prev = (CustomTemplates) DeviceID.customTemplateCache.putIfAbsent(key, ct);
+      if (prev != null) {
+        ct = prev;
+      }
+    }
+    return ct;
+  }
+
+  /**
+   * Returns the key used to cache the custom payload templates and event count of this device.
+   * 
+   * @return the "account/device" key.
+   */
+  private String _getDeviceKey() {
+    if (this.deviceKey == null) {
+      this.deviceKey = this.db.getAccountName() + "/" + this.db.getDeviceName();
+    }
+    return this.deviceKey;
   }
 
   /**
@@ -338,10 +457,8 @@ public class DeviceID {
     //never used variable.
     Packet packet = event.getPacket();
 
-    long timeEnd = DateTime.getCurrentTimeSec();
-    long timeStart = timeEnd - DateTime.MinuteSeconds(this.db.getLimitTimeInterval());
     if ((this.db.getMaxAllowedEvents() > 0)
-        && (this.db.getEventCount(timeStart, timeEnd) >= this.db.getMaxAllowedEvents())) {
+        && (this._getEventCount() >= this.db.getMaxAllowedEvents())) {
 
       // excessive events
       Print.logError("Excessive events");
@@ -351,14 +468,131 @@ public class DeviceID {
     else {
 
       // insert event 
-      int err = this.db.insertEvent(event.getGeoEvent());
+      int err;
+      if (EventJournal.getJournal() != null) {
+        GeoEvent geoEvents[] = new GeoEvent[] { event.getGeoEvent() };
+        err = (this._insertEvents(geoEvents, 1) == 1) ? ServerErrors.NAK_OK
+            : ServerErrors.NAK_EVENT_ERROR;
+      }
+      else {
+        err = this.db.insertEvent(event.getGeoEvent());
+      }
       // ServerErrors.NAK_DUPLICATE_EVENT
       // ServerErrors.NAK_EVENT_ERROR
       // ServerErrors.NAK_OK
+      if (err == ServerErrors.NAK_OK) {
+        this._countEvents(new Event[] { event }, 1);
+      }
       return err;
     }
   }
 
+  /**
+   * Save a group of events of this device, in order. As with <tt>saveEvent</tt>, events beyond the
+   * maximum allowed number of events in the limit time interval fail with NAK_EXCESSIVE_EVENTS,
+   * but the current event count is only checked once for the whole group.
+   * 
+   * @param events events to save.
+   * @param count number of events (from the start of the array) to save.
+   * @param result receives the error code (ServerErrors.NAK_OK if saved) of each event. Once an
+   *          event has failed, the remaining events are not saved and fail with the same code.
+   */
+  public void saveEvents(Event events[], int count, int result[]) {
+
+    /* excessive events */
+    int allowed = count;
+    if (this.db.getMaxAllowedEvents() > 0) {
+      long avail = this.db.getMaxAllowedEvents() - this._getEventCount();
+      if (avail < (long) count) {
+        allowed = (avail > 0L) ? (int) avail : 0;
+      }
+    }
+
+    /* insert events */
+    GeoEvent geoEvents[] = new GeoEvent[allowed];
+    for (int i = 0; i < allowed; i++) {
+      geoEvents[i] = events[i].getGeoEvent();
+    }
+    int saved = (allowed > 0) ? this._insertEvents(geoEvents, allowed) : 0;
+    int err = ServerErrors.NAK_EVENT_ERROR;
+    if (saved >= allowed) {
+      saved = allowed;
+      err = ServerErrors.NAK_EXCESSIVE_EVENTS;
+      if (allowed < count) {
+        Print.logError("Excessive events");
+      }
+    }
+    this._countEvents(events, saved);
+    for (int i = 0; i < count; i++) {
+      result[i] = (i < saved) ? ServerErrors.NAK_OK : err;
+    }
+
+  }
+
+  /**
+   * Inserts events into the DeviceDB, or appends them to the event journal if it is running (see
+   * <tt>EventJournal</tt>), in which case they are inserted into the DeviceDB later. Events are
+   * inserted as a group if the DeviceDB is a <tt>DeviceBatchDB</tt>, otherwise one at a time.
+   * 
+   * @param geoEvents the events.
+   * @param count number of events (from the start of the array) to insert.
+   * @return the number of events inserted (or appended).
+   */
+  private int _insertEvents(GeoEvent geoEvents[], int count) {
+    EventJournal journal = EventJournal.getJournal();
+    if (journal != null) {
+      return journal.append(this.db.getAccountName(), this.db.getDeviceName(), geoEvents, count);
+    }
+    else if (this.db instanceof DeviceBatchDB) {
+      return ((DeviceBatchDB) this.db).insertEvents(geoEvents, count);
+    }
+    else {
+      // one event at a time, up to the first failure
+      for (int i = 0; i < count; i++) {
+        if (this.db.insertEvent(geoEvents[i]) != ServerErrors.NAK_OK) {
+          return i;
+        }
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Returns the number of events saved by this device within its limit time interval. The count
+   * is kept in memory (see <tt>EventRateCounter</tt>), unless the database mode is selected, in
+   * which case the event records are counted in the database.
+   * 
+   * @return the number of events within the limit time interval.
+   */
+  private long _getEventCount() {
+    EventRateCounter erc = EventRateCounter.getCounter(this._getDeviceKey(), this.db);
+    if (erc != null) {
+      return erc.getCount();
+    }
+    else {
+      long timeEnd = DateTime.getCurrentTimeSec();
+      long timeStart = timeEnd - DateTime.MinuteSeconds(this.db.getLimitTimeInterval());
+      return this.db.getEventCount(timeStart, timeEnd);
+    }
+  }
+
+  /**
+   * Adds saved events to the in-memory event count of this device.
+   * 
+   * @param events the saved events.
+   * @param count number of events (from the start of the array) saved.
+   */
+  private void _countEvents(Event events[], int count) {
+    if ((count > 0) && (this.db.getMaxAllowedEvents() > 0)) {
+      EventRateCounter erc = EventRateCounter.getCounter(this._getDeviceKey(), this.db);
+      if (erc != null) {
+        for (int i = 0; i < count; i++) {
+          erc.addEvent(events[i].getGeoEvent().getTimestamp());
+        }
+      }
+    }
+  }
+
   /**
    * Loging error.
    * Could be for future implimentation, Nothing in method.
@@ -111,6 +111,14 @@ public class Event {
     return this.packet;
   }
 
+  /**
+   * Detaches the event packet from the buffer it was parsed from, so that this event (and its raw
+   * data) remains valid after the packet handler returns.
+   */
+  public void detach() {
+    this.packet.detach();
+  }
+
   /**
    * Returns geoEvent possibly containing fieldnames and values.
    * @return geoEvent.
@@ -272,13 +280,78 @@ public class Event {
 
   // ------------------------------------------------------------------------
 
+  /**
+   * Raw packet data, rendered (by <tt>toString</tt>) the first time it is requested, so that
+   * stores which do not persist the raw data never encode it. The payload of a binary packet may
+   * be a view over the session read buffer, which is only valid until the packet handler returns,
+   * so the raw data must be requested (if at all) before then, unless the event is detached.
+   */
+  private static class RawData {
+    private Packet packet = null;
+    private String rawData = null;
+
+    public RawData(Packet packet) {
+      this.packet = packet;
+    }
+
+    public String toString() {
+      if (this.rawData == null) {
+        this.rawData = this.packet.toString();
+        this.packet = null;
+      }
+      return this.rawData;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /* true to decode events with compiled EventDecoders, false to use '_decodeEventSwitch' */
+  private static boolean compiledDecoder = true;
+
+  /**
+   * Sets whether events are decoded with compiled <tt>EventDecoder</tt>s (the default), or with
+   * the field type switch.
+   * @param compiled True to use compiled decoders.
+   */
+  public static void setCompiledDecoder(boolean compiled) {
+    Event.compiledDecoder = compiled;
+  }
+
+  /**
+   * Returns true if events are decoded with compiled <tt>EventDecoder</tt>s.
+   * @return True if compiled decoders are used.
+   */
+  public static boolean isCompiledDecoder() {
+    return Event.compiledDecoder;
+  }
+
   private void _decodeEvent() throws PacketParseException {
+
+    /* defaults */
+    this.setEventValue(GeoEvent.FLD_rawData, new RawData(this.packet)); // rendered when requested
+    this.setEventValue(GeoEvent.FLD_timestamp, DateTime.getCurrentTimeSec());
+
+    /* parse payload (the decoder sets the status code if not specified in packet) */
+    if (Event.compiledDecoder) {
+      EventDecoder decoder = EventDecoder.GetDecoder(this.custTemplate);
+      this.custFieldLen = decoder.decode(this.packet, this.getGeoEvent());
+    }
+    else {
+      this._decodeEventSwitch();
+    }
+
+  }
+
+  /**
+   * Decodes the event payload with a switch on the type of each template field (the decoder used
+   * before templates were compiled into <tt>EventDecoder</tt>s).
+   * @throws PacketParseException If the template contains an undefined field type.
+   */
+  private void _decodeEventSwitch() throws PacketParseException {
     Payload payload = this.packet.getPayload(true);
 
     /* defaults */
-    this.setEventValue(GeoEvent.FLD_rawData, this.packet.toString());
     this.setEventValue(GeoEvent.FLD_statusCode, StatusCodes.STATUS_NONE);
-    this.setEventValue(GeoEvent.FLD_timestamp, DateTime.getCurrentTimeSec());
 
     /* parse payload */
     boolean hasStatusCode = false;
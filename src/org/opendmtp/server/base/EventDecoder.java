@@ -0,0 +1,391 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Event payload decoder compiled from a PayloadTemplate
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.base;
+
+import org.opendmtp.codes.ServerErrors;
+import org.opendmtp.codes.StatusCodes;
+
+import org.opendmtp.server.db.Payload;
+import org.opendmtp.server.db.PayloadTemplate;
+import org.opendmtp.util.GeoEvent;
+import org.opendmtp.util.GeoPoint;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Event payload decoder compiled from a <tt>PayloadTemplate</tt>. Each template field is resolved
+ * once into a field reader holding the target event field name, index, length, signedness, and
+ * scale factors, so decoding an event is a single pass over a fixed array of readers. Each decoder
+ * is held by its template (standard templates, and custom templates defined by the client with
+ * <tt>PKT_CLIENT_FORMAT_DEF_24</tt>), and is discarded with it.
+ * @author agent
+ */
+public class EventDecoder {
+
+  // ------------------------------------------------------------------------
+
+  /* reader flags */
+  private static final int FLAG_STATUS_CODE = 0x0001;
+  private static final int FLAG_GEOPOINT = 0x0002;
+
+  /**
+   * Returns the compiled decoder for the specified template, compiling it if necessary. The
+   * decoder is held by the template, so no lock is taken (two threads decoding the first event of
+   * a template may both compile it, and the template keeps one of the identical decoders).
+   * @param template Payload template.
+   * @return The decoder for the template.
+   */
+  public static EventDecoder GetDecoder(PayloadTemplate template) {
+    EventDecoder dec = (EventDecoder) template.getDecoder();
+    if (dec == null) {
+      dec = new EventDecoder(template);
+      template.setDecoder(dec);
+    }
+    return dec;
+  }
+
+  // ------------------------------------------------------------------------
+
+  private FieldReader readers[] = null;
+  private boolean repeatLast = false;
+
+  /**
+   * Compiles the fields of the specified template.
+   * @param template Payload template.
+   */
+  public EventDecoder(PayloadTemplate template) {
+    PayloadTemplate.Field fields[] = template.getFields();
+    this.readers = new FieldReader[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      this.readers[i] = _compileField(fields[i]);
+    }
+    this.repeatLast = template.getRepeatLast() && (this.readers.length > 0);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Decodes the event payload of the specified packet into a GeoEvent.
+   * @param packet Event packet.
+   * @param gev GeoEvent receiving the decoded field values.
+   * @return The number of template fields decoded.
+   * @throws PacketParseException If the template contains an undefined field type.
+   */
+  public int decode(Packet packet, GeoEvent gev) throws PacketParseException {
+    Payload payload = packet.getPayload(true);
+
+    /* parse payload */
+    int flags = 0;
+    int n = 0;
+    int last = this.readers.length - 1;
+    for (; payload.isValidLength(0); n++) {
+      FieldReader rdr;
+      if (n <= last) {
+        rdr = this.readers[n];
+      }
+      else if (this.repeatLast) {
+        rdr = this.readers[last];
+      }
+      else {
+        break;
+      }
+      rdr.read(packet, payload, gev);
+      flags |= rdr.flags;
+    }
+
+    /* set status code if not specified in packet */
+    if ((flags & FLAG_STATUS_CODE) == 0) {
+      gev.setSlotValue(GeoEvent.SLOT_statusCode, -1, ((flags & FLAG_GEOPOINT) != 0)
+          ? (long) StatusCodes.STATUS_LOCATION : (long) StatusCodes.STATUS_NONE);
+    }
+
+    return n;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Resolves a template field into a field reader.
+   * @param field Template field.
+   * @return The field reader.
+   */
+  private static FieldReader _compileField(PayloadTemplate.Field field) {
+    int type = field.getType();
+    boolean hiRes = field.isHiRes();
+    int ndx = field.getIndex();
+    int len = field.getLength();
+    switch (type) {
+
+    case PayloadTemplate.FIELD_STATUS_CODE: // %2u
+      return new LongReader(GeoEvent.FLD_statusCode, -1, len, false, 1L, FLAG_STATUS_CODE);
+    case PayloadTemplate.FIELD_TIMESTAMP: // %4u
+      return new LongReader(GeoEvent.FLD_timestamp, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_INDEX: // %4u 0 to 4294967295
+      return new LongReader(GeoEvent.FLD_index, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_POINT: // %6g                          %8g
+      return new GeoPointReader(len);
+    case PayloadTemplate.FIELD_SPEED: // %1u 0 to 255 kph             %2u 0.0 to 655.3 kph
+      return new DoubleReader(GeoEvent.FLD_speedKPH, -1, len, false, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_HEADING: // %1u 1.412 deg un.            %2u 0.00 to 360.00 deg
+      return hiRes ? new DoubleReader(GeoEvent.FLD_heading, -1, len, false, 1.0, 100.0)
+          : new DoubleReader(GeoEvent.FLD_heading, -1, len, false, 360.0, 255.0);
+    case PayloadTemplate.FIELD_ALTITUDE: // %2i -32767 to +32767 m       %3i -838860.7 to +838860.7 m
+      return new DoubleReader(GeoEvent.FLD_altitude, -1, len, true, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_DISTANCE: // %3u 0 to 16777216 km         %3u 0.0 to 1677721.6 km
+      return new DoubleReader(GeoEvent.FLD_distanceKM, -1, len, false, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_SEQUENCE: // %1u 0 to 255
+      return new SequenceReader(len);
+
+    case PayloadTemplate.FIELD_INPUT_ID: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_inputID, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_INPUT_STATE: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_inputState, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_OUTPUT_ID: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_outputID, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_OUTPUT_STATE: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_outputState, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_ELAPSED_TIME: // %3u 0 to 16777216 sec        %4u 0.000 to 4294967.295 sec
+      return new LongReader(GeoEvent.FLD_elapsedTime, ndx, len, false, hiRes ? 1L : 1000L, 0);
+    case PayloadTemplate.FIELD_COUNTER: // %4u 0 to 4294967295
+      return new LongReader(GeoEvent.FLD_counter, ndx, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_SENSOR32_LOW: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_sensor32LO, ndx, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_SENSOR32_HIGH: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_sensor32HI, ndx, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_SENSOR32_AVER: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_sensor32AV, ndx, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_TEMP_LOW: // %1i -127 to +127 C           %2i -3276.7 to +3276.7 C
+      return new DoubleReader(GeoEvent.FLD_tempLO, ndx, len, true, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_TEMP_HIGH: // %1i -127 to +127 C           %2i -3276.7 to +3276.7 C
+      return new DoubleReader(GeoEvent.FLD_tempHI, ndx, len, true, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_TEMP_AVER: // %1i -127 to +127 C           %2i -3276.7 to +3276.7 C
+      return new DoubleReader(GeoEvent.FLD_tempAV, ndx, len, true, 1.0, hiRes ? 10.0 : 1.0);
+
+    case PayloadTemplate.FIELD_GEOFENCE_ID: // %4u 0x00000000 to 0xFFFFFFFF
+      return new LongReader(GeoEvent.FLD_geofenceID, ndx, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_TOP_SPEED: // %1u 0 to 255 kph             %2u 0.0 to 655.3 kph
+      return new DoubleReader(GeoEvent.FLD_topSpeedKPH, ndx, len, false, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_STRING: // %*s may contain only 'A'..'Z', 'a'..'z, '0'..'9', '-', '.'
+      return new StringReader(ndx, len);
+    case PayloadTemplate.FIELD_BINARY: // %*b
+      return new BinaryReader(len);
+
+    case PayloadTemplate.FIELD_GPS_AGE: // %2u 0 to 65535 sec
+      return new LongReader(GeoEvent.FLD_gpsAge, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_DGPS_UPDATE: // %2u 0 to 65535 sec
+      return new LongReader(GeoEvent.FLD_gpsDgpsUpdate, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_HORZ_ACCURACY: // %1u 0 to 255 m               %2u 0.0 to 6553.5 m
+      return new DoubleReader(GeoEvent.FLD_gpsHorzAccuracy, -1, len, false, 1.0, hiRes ? 10.0
+          : 1.0);
+    case PayloadTemplate.FIELD_GPS_VERT_ACCURACY: // %1u 0 to 255 m               %2u 0.0 to 6553.5 m
+      return new DoubleReader(GeoEvent.FLD_gpsVertAccuracy, -1, len, false, 1.0, hiRes ? 10.0
+          : 1.0);
+    case PayloadTemplate.FIELD_GPS_SATELLITES: // %1u 0 to 12
+      return new LongReader(GeoEvent.FLD_gpsSatellites, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_MAG_VARIATION: // %2i -180.00 to 180.00 deg
+      return new DoubleReader(GeoEvent.FLD_gpsMagVariation, -1, len, true, 1.0, 100.0);
+    case PayloadTemplate.FIELD_GPS_QUALITY: // %1u (0=None, 1=GPS, 2=DGPS, ...)
+      return new LongReader(GeoEvent.FLD_gpsQuality, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_TYPE: // %1u (1=None, 2=2D, 3=3D, ...)
+      return new LongReader(GeoEvent.FLD_gps2D3D, -1, len, false, 1L, 0);
+    case PayloadTemplate.FIELD_GPS_GEOID_HEIGHT: // %1i -128 to +127 m           %2i -3276.7 to +3276.7 m
+      return new DoubleReader(GeoEvent.FLD_gpsGeoidHeight, -1, len, true, 1.0, hiRes ? 10.0 : 1.0);
+    case PayloadTemplate.FIELD_GPS_PDOP: // %1u 0.0 to 25.5              %2u 0.0 to 99.9
+      return new DoubleReader(GeoEvent.FLD_gpsPDOP, -1, len, true, 1.0, 10.0);
+    case PayloadTemplate.FIELD_GPS_HDOP: // %1u 0.0 to 25.5              %2u 0.0 to 99.9
+      return new DoubleReader(GeoEvent.FLD_gpsHDOP, -1, len, true, 1.0, 10.0);
+    case PayloadTemplate.FIELD_GPS_VDOP: // %1u 0.0 to 25.5              %2u 0.0 to 99.9
+      return new DoubleReader(GeoEvent.FLD_gpsVDOP, -1, len, true, 1.0, 10.0);
+
+    default:
+      // formats should be pre-validated, the error is reported if this field is reached
+      return new UndefinedReader(type);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Reads a single template field from the payload.
+   */
+  private static abstract class FieldReader {
+    protected int length = 0;
+    protected int flags = 0;
+
+    public FieldReader(int length, int flags) {
+      this.length = length;
+      this.flags = flags;
+    }
+
+    public abstract void read(Packet packet, Payload payload, GeoEvent gev)
+        throws PacketParseException;
+  }
+
+  /**
+   * Reads an integer field, scaled by a long multiplier.
+   */
+  private static class LongReader extends FieldReader {
+    private String fldName = null;
+    private int slot = GeoEvent.SLOT_NONE;
+    private int ndx = -1;
+    private boolean signed = false;
+    private long mult = 1L;
+
+    public LongReader(String fldName, int ndx, int length, boolean signed, long mult, int flags) {
+      super(length, flags);
+      this.fldName = fldName;
+      this.slot = GeoEvent.getFieldSlot(fldName);
+      this.ndx = ndx;
+      this.signed = signed;
+      this.mult = mult;
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      long v = this.signed ? payload.readLong(this.length, 0L) : payload.readULong(this.length, 0L);
+      v = (this.mult == 1L) ? v : (v * this.mult);
+      if (this.slot != GeoEvent.SLOT_NONE) {
+        gev.setSlotValue(this.slot, this.ndx, v);
+      }
+      else {
+        gev.setEventValue(this.fldName, v, this.ndx);
+      }
+    }
+  }
+
+  /**
+   * Reads an integer field, converted to a double as '(value * mult) / div'.
+   */
+  private static class DoubleReader extends FieldReader {
+    private String fldName = null;
+    private int slot = GeoEvent.SLOT_NONE;
+    private int ndx = -1;
+    private boolean signed = false;
+    private double mult = 1.0;
+    private double div = 1.0;
+
+    public DoubleReader(String fldName, int ndx, int length, boolean signed, double mult,
+        double div) {
+      super(length, 0);
+      this.fldName = fldName;
+      this.slot = GeoEvent.getFieldSlot(fldName);
+      this.ndx = ndx;
+      this.signed = signed;
+      this.mult = mult;
+      this.div = div;
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      long v = this.signed ? payload.readLong(this.length, 0L) : payload.readULong(this.length, 0L);
+      double d = ((double) v * this.mult) / this.div;
+      if (this.slot != GeoEvent.SLOT_NONE) {
+        gev.setSlotValue(this.slot, this.ndx, d);
+      }
+      else {
+        gev.setEventValue(this.fldName, d, this.ndx);
+      }
+    }
+  }
+
+  /**
+   * Reads a GPS point field.
+   */
+  private static class GeoPointReader extends FieldReader {
+    public GeoPointReader(int length) {
+      super(length, FLAG_GEOPOINT);
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      GeoPoint gp = payload.readGPS(this.length);
+      gev.setSlotValue(GeoEvent.SLOT_latitude, -1, gp.getLatitude());
+      gev.setSlotValue(GeoEvent.SLOT_longitude, -1, gp.getLongitude());
+    }
+  }
+
+  /**
+   * Reads the sequence field, and records its length.
+   */
+  private static class SequenceReader extends FieldReader {
+    public SequenceReader(int length) {
+      super(length, 0);
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      gev.setSlotValue(GeoEvent.SLOT_sequence, -1, payload.readULong(this.length, -1L));
+      gev.setSlotValue(GeoEvent.SLOT_sequenceLength, -1, (long) this.length);
+    }
+  }
+
+  /**
+   * Reads a string field.
+   */
+  private static class StringReader extends FieldReader {
+    private int ndx = -1;
+
+    public StringReader(int ndx, int length) {
+      super(length, 0);
+      this.ndx = ndx;
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      gev.setEventValue(GeoEvent.FLD_string, payload.readString(this.length), this.ndx);
+    }
+  }
+
+  /**
+   * Reads a binary field.
+   */
+  private static class BinaryReader extends FieldReader {
+    public BinaryReader(int length) {
+      super(length, 0);
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) {
+      gev.setEventValue(GeoEvent.FLD_binary, payload.readBytes(this.length));
+    }
+  }
+
+  /**
+   * Reports an undefined field type.
+   */
+  private static class UndefinedReader extends FieldReader {
+    private int type = 0;
+
+    public UndefinedReader(int type) {
+      super(0, 0);
+      this.type = type;
+    }
+
+    public void read(Packet packet, Payload payload, GeoEvent gev) throws PacketParseException {
+      // internal error (this should not occur here - formats should be pre-validated)
+      Print.logError("Field not defined: " + StringTools.toHexString(this.type, 8));
+      Payload p = new Payload();
+      p.writeULong(packet.getPacketType(), 1);
+      byte errData[] = p.getBytes();
+      throw new PacketParseException(ServerErrors.NAK_FORMAT_DEFINITION_INVALID, packet, errData); // formatType, fieldIndex
+    }
+  }
+
+}
@@ -0,0 +1,206 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Compiled/switch event decoder benchmark
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.opendmtp.codes.Encoding;
+import org.opendmtp.server.db.Payload;
+import org.opendmtp.util.GeoEvent;
+import org.opendmtp.util.GeoPoint;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Compares the time taken to decode the standard fixed event formats (<tt>ClientCustomEvent_30</tt>
+ * and <tt>ClientCustomEvent_31</tt>) with the compiled <tt>EventDecoder</tt> and with the field
+ * type switch of <tt>Event</tt>. A single event packet of each format is parsed once, and then
+ * decoded into a new <tt>Event</tt> repeatedly, so only the decoding (and the event allocation
+ * common to both decoders) is measured. Each decoder decodes a number of warm-up passes, then a
+ * number of measured passes; the average time per event is reported for each decoder. The events
+ * decoded by both decoders are also compared.
+ * <p>
+ * Options:
+ * <pre>
+ *  -events=&lt;n&gt;     Number of events decoded per pass [default 1000000]
+ *  -format=&lt;fmt&gt;   "30", "31", or "all" [default "all"]
+ *  -warmup=&lt;n&gt;     Number of warm-up passes [default 3]
+ *  -iter=&lt;n&gt;       Number of measured passes [default 5]
+ * </pre>
+ *
+ * @author agent
+ */
+public class EventDecoderBench {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates an event packet of a standard fixed format.
+   *
+   * @param type The packet type (<tt>PKT_CLIENT_FIXED_FMT_STD</tt> or <tt>_HIGH</tt>).
+   * @return The parsed packet.
+   * @throws PacketParseException If the packet cannot be parsed.
+   */
+  private static Packet createPacket(int type) throws PacketParseException {
+    boolean hiRes = (type == Packet.PKT_CLIENT_FIXED_FMT_HIGH);
+    Payload p = new Payload();
+    p.writeULong(0xF020, 2);
+    p.writeULong(1160000000L, 4);
+    p.writeGPS(new GeoPoint(39.1234, -142.5678), hiRes ? 8 : 6);
+    p.writeULong(55, hiRes ? 2 : 1);
+    p.writeULong(128, hiRes ? 2 : 1);
+    p.writeLong(-12, hiRes ? 3 : 2);
+    p.writeULong(1234, 3);
+    p.writeULong(7, 1);
+    byte pkt[] = Packet.createServerPacket(type, p).encode(Encoding.ENCODING_BINARY);
+    return new Packet(null, true, pkt);
+  }
+
+  /**
+   * Decodes an event packet with one of the decoders.
+   *
+   * @param pkt The event packet.
+   * @param compiled True to use the compiled decoder, false to use the field type switch.
+   * @return The decoded event.
+   * @throws PacketParseException If the packet cannot be decoded.
+   */
+  private static Event decode(Packet pkt, boolean compiled) throws PacketParseException {
+    Event.setCompiledDecoder(compiled);
+    return new Event(pkt);
+  }
+
+  /**
+   * Returns the serialized values of a decoded event.
+   *
+   * @param ev The event.
+   * @return The serialized event.
+   * @throws IOException If the event cannot be serialized.
+   */
+  private static byte[] getEventBytes(Event ev) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ev.getGeoEvent().writeEvent(new DataOutputStream(out));
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes an event packet repeatedly with a decoder, and returns the average time per event.
+   *
+   * @param pkt The event packet.
+   * @param compiled True to use the compiled decoder, false to use the field type switch.
+   * @param count The number of events decoded per pass.
+   * @param warmup The number of warm-up passes.
+   * @param iter The number of measured passes.
+   * @return The average time per event, in nanoseconds.
+   * @throws PacketParseException If the packet cannot be decoded.
+   */
+  private static double measure(Packet pkt, boolean compiled, int count, int warmup, int iter)
+      throws PacketParseException {
+    Event.setCompiledDecoder(compiled);
+    long sum = 0L;
+    for (int i = 0; i < (warmup * count); i++) {
+      sum += new Event(pkt).getGeoEvent().getStatusCode();
+    }
+    long startNS = System.nanoTime();
+    for (int i = 0; i < (iter * count); i++) {
+      sum += new Event(pkt).getGeoEvent().getStatusCode();
+    }
+    double ns = (double) (System.nanoTime() - startNS) / ((double) iter * count);
+    Print.logInfo((compiled ? "EventDecoder" : "Switch") + ": " + ((long) (ns * 10.0) / 10.0)
+        + " ns/event, " + (long) (1000000000.0 / ns) + " events/sec [" + sum + "]");
+    return ns;
+  }
+
+  /**
+   * Runs the comparison for an event format.
+   *
+   * @param type The packet type.
+   * @param count The number of events decoded per pass.
+   * @param warmup The number of warm-up passes.
+   * @param iter The number of measured passes.
+   * @throws PacketParseException If the packet cannot be decoded.
+   * @throws IOException If a decoded event cannot be serialized.
+   */
+  public static void run(int type, int count, int warmup, int iter) throws PacketParseException,
+      IOException {
+    String name = "0x" + StringTools.toHexString(type, 8);
+    Packet pkt = createPacket(type);
+    Print.logInfo(name + ": " + pkt);
+
+    /* compare decoded events */
+    boolean dft = Event.isCompiledDecoder();
+    try {
+      byte oldEv[] = getEventBytes(decode(pkt, false));
+      byte newEv[] = getEventBytes(decode(pkt, true));
+      Print.logInfo(name + ": identical events = " + java.util.Arrays.equals(oldEv, newEv));
+
+      /* measure */
+      double oldNS = measure(pkt, false, count, warmup, iter);
+      double newNS = measure(pkt, true, count, warmup, iter);
+      if (newNS > 0.0) {
+        Print.logInfo(name + ": speedup " + ((long) (oldNS / newNS * 100.0) / 100.0) + "x");
+      }
+    }
+    finally {
+      Event.setCompiledDecoder(dft);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Runs the comparison (see the class description for the options).
+   *
+   * @param argv The command line arguments.
+   */
+  public static void main(String argv[]) {
+    RTConfig.setCommandLineArgs(argv);
+    int count = Math.max(RTConfig.getInt("events", 1000000), 1);
+    String format = RTConfig.getString("format", "all");
+    int warmup = RTConfig.getInt("warmup", 3);
+    int iter = Math.max(RTConfig.getInt("iter", 5), 1);
+    try {
+      if (format.equalsIgnoreCase("all") || format.equals("30")) {
+        run(Packet.PKT_CLIENT_FIXED_FMT_STD, count, warmup, iter);
+      }
+      if (format.equalsIgnoreCase("all") || format.equals("31")) {
+        run(Packet.PKT_CLIENT_FIXED_FMT_HIGH, count, warmup, iter);
+      }
+    }
+    catch (PacketParseException ppe) {
+      Print.logException("Unable to decode event", ppe);
+      System.exit(1);
+    }
+    catch (IOException ioe) {
+      Print.logException("Unable to compare events", ioe);
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+}
@@ -0,0 +1,639 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Write-ahead journal of received events
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import org.opendmtp.codes.ServerErrors;
+import org.opendmtp.server.db.DeviceBatchDB;
+import org.opendmtp.server.db.DeviceDB;
+import org.opendmtp.util.FileTools;
+import org.opendmtp.util.GeoEvent;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Write-ahead journal of received events. When the journal is running, <tt>DeviceID</tt> appends
+ * the events it saves to the journal (rather than inserting them into the DeviceDB), and the
+ * events are acknowledged to the client as soon as they are forced to the storage device. Events
+ * appended concurrently by several sessions are forced together (group commit).
+ * <p>
+ * A background thread drains the journal, in order, to the DeviceDB of each device, and records
+ * how far it has drained in a checkpoint file. If the DeviceDB fails (eg. the database is down),
+ * draining is retried after the retry interval, while events continue to be received into the
+ * journal. On restart, the events appended after the last checkpoint are drained again. Events
+ * are therefore drained at least once: an event drained just before a crash may be inserted again
+ * (the SQL store replaces the existing record).
+ * <p>
+ * The journal is a sequence of files "journal.NNNNNN.log", each holding records of the form
+ * <tt>[length:4][crc32:4][account][device][event]</tt>. A new file is started when the current
+ * file reaches the file size, and on each restart. Drained files are deleted.
+ * 
+ * @author agent
+ */
+public class EventJournal implements Runnable {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default journal file size.
+   */
+  public static final long DEFAULT_FILE_SIZE = 16L * 1024L * 1024L;
+
+  /**
+   * Default time to wait before draining again after the DeviceDB failed (milliseconds).
+   */
+  public static final long DEFAULT_RETRY_MS = 10000L;
+
+  /**
+   * Maximum number of events read from the journal per drain pass.
+   */
+  private static final int DRAIN_BATCH = 256;
+
+  /**
+   * Record header size (length and CRC).
+   */
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * Name of the checkpoint file.
+   */
+  private static final String CHECKPOINT_FILE = "journal.ckpt";
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Running journal (null if events are inserted directly into the DeviceDB).
+   */
+  private static EventJournal journal = null;
+
+  /**
+   * Opens the journal in the specified directory, and starts draining it (including any events
+   * left from a previous run).
+   * 
+   * @param dir the journal directory.
+   * @param fileSize the journal file size (the default is used if not positive).
+   * @param retryMS the time to wait before draining again after the DeviceDB failed (the default
+   *          is used if not positive).
+   * @return the journal.
+   * @throws IOException if the journal cannot be opened.
+   */
+  public static synchronized EventJournal startJournal(File dir, long fileSize, long retryMS)
+      throws IOException {
+    if (journal == null) {
+      journal = new EventJournal(dir, fileSize, retryMS);
+    }
+    return journal;
+  }
+
+  /**
+   * Returns the running journal.
+   * 
+   * @return the journal, or null if events are inserted directly into the DeviceDB.
+   */
+  public static synchronized EventJournal getJournal() {
+    return journal;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * An event read from the journal.
+   */
+  private static class Entry {
+    private String accountName = null;
+    private String deviceName = null;
+    private GeoEvent event = null;
+    private long endPos = 0L; // file offset after this record
+
+    private Entry(String acct, String dev, GeoEvent event, long endPos) {
+      this.accountName = acct;
+      this.deviceName = dev;
+      this.event = event;
+      this.endPos = endPos;
+    }
+
+    private boolean isSameDevice(Entry e) {
+      return this.accountName.equals(e.accountName) && this.deviceName.equals(e.deviceName);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private File directory = null;
+  private long fileSize = DEFAULT_FILE_SIZE;
+  private long retryMS = DEFAULT_RETRY_MS;
+
+  /* appending (positions are '(fileNo << 32) | offset') */
+  private Object writeLock = new Object();
+  private Object syncLock = new Object();
+  private FileChannel writeChannel = null;
+  private int writeFileNo = 0;
+  private long writePos = 0L;
+  private long syncedPos = 0L; // guarded by 'writeLock'
+
+  /* draining */
+  private Object drainLock = new Object();
+  private int readFileNo = 0;
+  private long readOfs = 0L;
+  private long appendCount = 0L;
+  private long drainCount = 0L;
+
+  /**
+   * Opens the journal and starts the drain thread.
+   * 
+   * @param dir the journal directory.
+   * @param fileSize the journal file size.
+   * @param retryMS the time to wait before draining again after the DeviceDB failed.
+   * @throws IOException if the journal cannot be opened.
+   */
+  private EventJournal(File dir, long fileSize, long retryMS) throws IOException {
+    this.directory = dir;
+    this.fileSize = (fileSize > 0L) ? fileSize : DEFAULT_FILE_SIZE;
+    this.retryMS = (retryMS > 0L) ? retryMS : DEFAULT_RETRY_MS;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create journal directory: " + dir);
+    }
+
+    /* checkpoint */
+    this._readCheckpoint();
+
+    /* start a new file after the last existing file */
+    int lastFileNo = this.readFileNo;
+    String files[] = dir.list();
+    for (int i = 0; (files != null) && (i < files.length); i++) {
+      int fileNo = _getFileNo(files[i]);
+      if (fileNo < 0) {
+        continue;
+      }
+      else if (fileNo < this.readFileNo) {
+        new File(dir, files[i]).delete(); // already drained
+      }
+      else if (fileNo > lastFileNo) {
+        lastFileNo = fileNo;
+      }
+    }
+    this._openWriteFile(lastFileNo + 1);
+
+    /* drain */
+    Thread thread = new Thread(this, "EventJournal");
+    thread.setDaemon(true);
+    thread.start();
+    Print.logInfo("Event journal started: " + dir + " (draining from file " + this.readFileNo
+        + "@" + this.readOfs + ")");
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the file of the specified journal file number.
+   * 
+   * @param fileNo the file number.
+   * @return the journal file.
+   */
+  private File _getFile(int fileNo) {
+    return new File(this.directory, "journal." + StringTools.format(fileNo, "000000") + ".log");
+  }
+
+  /**
+   * Returns the journal file number of the specified file name.
+   * 
+   * @param name the file name.
+   * @return the file number, or -1 if the name is not a journal file name.
+   */
+  private static int _getFileNo(String name) {
+    if (name.startsWith("journal.") && name.endsWith(".log")) {
+      return StringTools.parseInt(name.substring(8, name.length() - 4), -1);
+    }
+    else {
+      return -1;
+    }
+  }
+
+  /**
+   * Starts appending to a new journal file (the caller holds the write lock, or is the
+   * constructor).
+   * 
+   * @param fileNo the file number.
+   * @throws IOException if the file cannot be created.
+   */
+  private void _openWriteFile(int fileNo) throws IOException {
+    FileOutputStream fos = new FileOutputStream(this._getFile(fileNo), false);
+    this.writeChannel = fos.getChannel();
+    this.writeFileNo = fileNo;
+    this.writePos = ((long) fileNo << 32);
+    this.syncedPos = this.writePos;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Appends events of a device to the journal, and forces them to the storage device.
+   * 
+   * @param acctName the account name of the device.
+   * @param devName the device name.
+   * @param events the events.
+   * @param count the number of events (from the start of the array) to append.
+   * @return the number of events appended (all or none).
+   */
+  public int append(String acctName, String devName, GeoEvent events[], int count) {
+    try {
+
+      /* encode records */
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      ByteArrayOutputStream rcd = new ByteArrayOutputStream();
+      DataOutputStream rout = new DataOutputStream(rcd);
+      CRC32 crc = new CRC32();
+      for (int i = 0; i < count; i++) {
+        rcd.reset();
+        rout.writeUTF(acctName);
+        rout.writeUTF(devName);
+        events[i].writeEvent(rout);
+        rout.flush();
+        byte b[] = rcd.toByteArray();
+        crc.reset();
+        crc.update(b, 0, b.length);
+        out.writeInt(b.length);
+        out.writeInt((int) crc.getValue());
+        out.write(b);
+      }
+      out.flush();
+      byte data[] = bos.toByteArray();
+
+      /* write */
+      long pos;
+      synchronized (this.writeLock) {
+        long ofs = this.writePos & 0xFFFFFFFFL;
+        if ((ofs > 0L) && ((ofs + data.length) > this.fileSize)) {
+          this.writeChannel.force(false);
+          this.writeChannel.close();
+          this.syncedPos = this.writePos; // the closed file has been forced
+          this._openWriteFile(this.writeFileNo + 1);
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        try {
+          while (bb.hasRemaining()) {
+            this.writeChannel.write(bb);
+          }
+        }
+        catch (IOException ioe) {
+          this._discardPartialWrite();
+          throw ioe;
+        }
+        this.writePos += data.length;
+        this.appendCount += count;
+        pos = this.writePos;
+      }
+
+      /* force (with the events appended concurrently) */
+      this._sync(pos);
+      synchronized (this.drainLock) {
+        this.drainLock.notify();
+      }
+      return count;
+
+    }
+    catch (IOException ioe) {
+      Print.logException("Unable to append events to journal: " + acctName + "/" + devName, ioe);
+      return 0;
+    }
+  }
+
+  /**
+   * Discards the bytes written by a failed append, so that the next record starts at
+   * <tt>writePos</tt> (the caller holds the write lock). The file is truncated back to
+   * <tt>writePos</tt>. If that fails, the next journal file is started, and the drain reader skips
+   * the incomplete record at the end of the previous file.
+   */
+  private void _discardPartialWrite() {
+    long ofs = this.writePos & 0xFFFFFFFFL;
+    try {
+      this.writeChannel.truncate(ofs);
+      this.writeChannel.position(ofs);
+      return;
+    }
+    catch (IOException ioe) {
+      Print.logError("Unable to truncate journal file, starting the next file: " + ioe);
+    }
+    try {
+      this.writeChannel.force(false);
+      this.syncedPos = this.writePos; // the closed file has been forced
+    }
+    catch (IOException ioe) {
+      Print.logError("Unable to force journal file: " + ioe);
+    }
+    try {
+      this.writeChannel.close();
+    }
+    catch (IOException ioe) {
+      // ignore
+    }
+    try {
+      this._openWriteFile(this.writeFileNo + 1);
+    }
+    catch (IOException ioe) {
+      Print.logException("Unable to start the next journal file", ioe);
+    }
+  }
+
+  /**
+   * Forces the journal to the storage device, at least up to the specified position.
+   * 
+   * @param pos the position.
+   * @throws IOException if the journal cannot be forced.
+   */
+  private void _sync(long pos) throws IOException {
+    synchronized (this.syncLock) {
+      FileChannel channel;
+      long writtenPos;
+      synchronized (this.writeLock) {
+        if (this.syncedPos >= pos) {
+          return; // forced by another append
+        }
+        channel = this.writeChannel;
+        writtenPos = this.writePos;
+      }
+      try {
+        channel.force(false);
+      }
+      catch (ClosedChannelException cce) {
+        // the file was forced and closed when the next file was started
+      }
+      synchronized (this.writeLock) {
+        if (writtenPos > this.syncedPos) {
+          this.syncedPos = writtenPos;
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Reads the checkpoint (the file and offset to drain from).
+   */
+  private void _readCheckpoint() {
+    File ckpt = new File(this.directory, CHECKPOINT_FILE);
+    if (ckpt.exists()) {
+      byte b[] = FileTools.readFile(ckpt);
+      String s[] = StringTools.parseString((b != null) ? new String(b).trim() : "", ',');
+      if (s.length == 2) {
+        this.readFileNo = StringTools.parseInt(s[0], 0);
+        this.readOfs = StringTools.parseLong(s[1], 0L);
+      }
+      else {
+        Print.logWarn("Invalid journal checkpoint, draining from start: " + ckpt);
+      }
+    }
+  }
+
+  /**
+   * Writes the checkpoint (the file and offset to drain from).
+   * 
+   * @throws IOException if the checkpoint cannot be written.
+   */
+  private void _writeCheckpoint() throws IOException {
+    File tmp = new File(this.directory, CHECKPOINT_FILE + ".tmp");
+    FileOutputStream fos = new FileOutputStream(tmp, false);
+    try {
+      fos.write((this.readFileNo + "," + this.readOfs + "\n").getBytes());
+      fos.getFD().sync();
+    }
+    finally {
+      fos.close();
+    }
+    File ckpt = new File(this.directory, CHECKPOINT_FILE);
+    if (!tmp.renameTo(ckpt)) {
+      ckpt.delete();
+      if (!tmp.renameTo(ckpt)) {
+        throw new IOException("Unable to rename journal checkpoint: " + tmp);
+      }
+    }
+  }
+
+  /**
+   * Reads the next forced events from the journal, moving to the next file (and deleting the
+   * drained file) at the end of a file which is no longer appended to.
+   * 
+   * @return the events read (empty if no events are waiting).
+   * @throws IOException if the journal cannot be read.
+   */
+  private ArrayList _readEntries() throws IOException {
+    ArrayList list = new ArrayList();
+    while (true) {
+
+      /* readable limit */
+      long limit;
+      boolean current;
+      synchronized (this.writeLock) {
+        current = (this.readFileNo >= this.writeFileNo);
+        limit = current ? (this.syncedPos & 0xFFFFFFFFL) : -1L;
+      }
+
+      /* read records */
+      File file = this._getFile(this.readFileNo);
+      long ofs = this.readOfs;
+      if (file.exists()) {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+          if (limit < 0L) {
+            limit = raf.length();
+          }
+          CRC32 crc = new CRC32();
+          while ((list.size() < DRAIN_BATCH) && ((ofs + HEADER_SIZE) <= limit)) {
+            raf.seek(ofs);
+            int len = raf.readInt();
+            int sum = raf.readInt();
+            byte b[] = null;
+            if ((len > 0) && ((ofs + HEADER_SIZE + len) <= limit)) {
+              b = new byte[len];
+              raf.readFully(b);
+              crc.reset();
+              crc.update(b, 0, b.length);
+            }
+            if ((b == null) || ((int) crc.getValue() != sum)) {
+              // the rest of the file was never acknowledged (forced data is always complete)
+              if (list.isEmpty()) {
+                Print.logWarn("Invalid journal record, rest of file skipped: " + file + "@" + ofs);
+                ofs = limit;
+              }
+              break;
+            }
+            ofs += HEADER_SIZE + len;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            String acct = in.readUTF();
+            String dev = in.readUTF();
+            GeoEvent ev = GeoEvent.readEvent(in);
+            list.add(new Entry(acct, dev, ev, ofs));
+          }
+        }
+        finally {
+          raf.close();
+        }
+      }
+      if (!list.isEmpty()) {
+        return list;
+      }
+
+      /* next file? */
+      if (current) {
+        if (ofs > this.readOfs) {
+          this.readOfs = ofs; // skipped
+          this._writeCheckpoint();
+        }
+        return list;
+      }
+      file.delete();
+      this.readFileNo++;
+      this.readOfs = 0L;
+      this._writeCheckpoint();
+
+    }
+  }
+
+  /**
+   * Inserts events of a device into its DeviceDB.
+   * 
+   * @param entries the events, all of the same device.
+   * @return true if all events were inserted (or discarded because the device no longer exists).
+   */
+  private boolean _insert(Entry entries[]) {
+    String acct = entries[0].accountName, dev = entries[0].deviceName;
+    DMTPServer.DBFactory fact = DMTPServer.getDBFactory();
+    DeviceDB db = (fact != null) ? fact.getDeviceDB(acct, dev) : null;
+    if (db == null) {
+      Print.logError("Device not found, " + entries.length + " journal events discarded: " + acct
+          + "/" + dev);
+      return true;
+    }
+    GeoEvent events[] = new GeoEvent[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      events[i] = entries[i].event;
+    }
+    int saved = 0;
+    if (db instanceof DeviceBatchDB) {
+      saved = ((DeviceBatchDB) db).insertEvents(events, events.length);
+    }
+    for (int i = Math.max(saved, 0); i < events.length; i++) {
+      // one at a time, or a duplicate was already inserted before a restart
+      int err = db.insertEvent(events[i]);
+      if ((err != ServerErrors.NAK_OK) && (err != ServerErrors.NAK_DUPLICATE_EVENT)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drains the waiting events to their DeviceDBs.
+   * 
+   * @return true if all waiting events were drained, false if a DeviceDB failed.
+   * @throws IOException if the journal cannot be read, or the checkpoint cannot be written.
+   */
+  private boolean _drain() throws IOException {
+    while (true) {
+      ArrayList list = this._readEntries();
+      if (list.isEmpty()) {
+        return true;
+      }
+      int s = 0;
+      while (s < list.size()) {
+        int e = s + 1;
+        while ((e < list.size()) && ((Entry) list.get(e)).isSameDevice((Entry) list.get(s))) {
+          e++;
+        }
+        Entry group[] = (Entry[]) list.subList(s, e).toArray(new Entry[e - s]);
+        if (!this._insert(group)) {
+          if (s > 0) {
+            this.readOfs = ((Entry) list.get(s - 1)).endPos;
+            this._writeCheckpoint();
+          }
+          return false;
+        }
+        this.drainCount += group.length;
+        s = e;
+      }
+      this.readOfs = ((Entry) list.get(list.size() - 1)).endPos;
+      this._writeCheckpoint();
+    }
+  }
+
+  /**
+   * Drains the journal as events are appended, until the JVM exits.
+   */
+  public void run() {
+    while (true) {
+      boolean drained = false;
+      try {
+        drained = this._drain();
+        if (!drained) {
+          Print.logWarn("Unable to drain journal, retry in " + this.retryMS + "ms");
+        }
+      }
+      catch (Throwable t) {
+        Print.logStackTrace("EventJournal: Unexpected error", t);
+      }
+      synchronized (this.drainLock) {
+        try {
+          this.drainLock.wait(drained ? 1000L : this.retryMS);
+        }
+        catch (InterruptedException ie) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a string representation of this journal.
+   * 
+   * @return the number of events appended and drained.
+   */
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    synchronized (this.writeLock) {
+      sb.append("EventJournal: appended=").append(this.appendCount);
+    }
+    sb.append(" drained=").append(this.drainCount);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,644 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Asynchronous event persistence pipeline
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opendmtp.codes.ServerErrors;
+import org.opendmtp.util.DateTime;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Asynchronous event persistence. Event packets are queued by the session thread, and are saved
+ * by a fixed set of writer threads, each of which drains its queue in batches (flushed when full,
+ * when the oldest queued event has waited for the flush interval, or when a session is waiting
+ * for its events). All events of a device are queued to the same writer, so they are saved in the
+ * order they were received.
+ * <p>
+ * The events received from a client in a single block are tracked by an <tt>EventBlock</tt>.
+ * Before acknowledging the block at end-of-block, the session waits for the block to complete,
+ * ie. for the batches holding all of its events to be saved. As with synchronous persistence,
+ * the first event which cannot be saved fails the block, and its remaining events are not saved.
+ * <p>
+ * Session threads may block here (while a writer queue is full, and at end-of-block). These waits
+ * use <tt>java.util.concurrent</tt> locks rather than object monitors, so that a session running
+ * on a virtual thread does not pin its carrier thread while it waits.
+ * @author agent
+ */
+public class EventPipeline {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default number of writer threads.
+   */
+  public static final int DEFAULT_WRITERS = 4;
+
+  /**
+   * Default maximum number of events queued per writer.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+  /**
+   * Default maximum number of events saved per batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  /**
+   * Default maximum time a partial batch is held before it is saved.
+   */
+  public static final long DEFAULT_FLUSH_MS = 20L;
+
+  /**
+   * Default maximum time a session waits for its events to be saved at end-of-block.
+   */
+  public static final long DEFAULT_ACK_TIMEOUT_MS = 30000L;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Running pipeline (null if events are saved synchronously).
+   */
+  private static EventPipeline pipeline = null;
+
+  /**
+   * Starts the event pipeline used by all subsequent sessions.
+   *
+   * @param writers number of writer threads (the default is used if not positive).
+   * @param queueSize maximum number of events queued per writer (the default is used if not
+   *          positive).
+   * @param batchSize maximum number of events saved per batch (the default is used if not
+   *          positive).
+   * @param flushMS maximum time a partial batch is held (the default is used if negative).
+   * @param ackTimeoutMS maximum time a session waits for its events to be saved at end-of-block
+   *          (the default is used if not positive).
+   * @return the pipeline.
+   */
+  public static synchronized EventPipeline startPipeline(int writers, int queueSize,
+      int batchSize, long flushMS, long ackTimeoutMS) {
+    if (pipeline == null) {
+      pipeline = new EventPipeline(writers, queueSize, batchSize, flushMS, ackTimeoutMS);
+    }
+    return pipeline;
+  }
+
+  /**
+   * Returns the running event pipeline.
+   *
+   * @return the pipeline, or null if events are saved synchronously.
+   */
+  public static synchronized EventPipeline getPipeline() {
+    return pipeline;
+  }
+
+  // ------------------------------------------------------------------------
+
+  private Writer writers[] = null;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private long flushMS = DEFAULT_FLUSH_MS;
+  private long ackTimeoutMS = DEFAULT_ACK_TIMEOUT_MS;
+
+  /**
+   * Creates the pipeline and starts the writer threads.
+   *
+   * @param writers number of writer threads.
+   * @param queueSize maximum number of events queued per writer.
+   * @param batchSize maximum number of events saved per batch.
+   * @param flushMS maximum time a partial batch is held.
+   * @param ackTimeoutMS maximum time a session waits for its events at end-of-block.
+   */
+  private EventPipeline(int writers, int queueSize, int batchSize, long flushMS,
+      long ackTimeoutMS) {
+    this.batchSize = (batchSize > 0) ? batchSize : DEFAULT_BATCH_SIZE;
+    this.flushMS = (flushMS >= 0L) ? flushMS : DEFAULT_FLUSH_MS;
+    this.ackTimeoutMS = (ackTimeoutMS > 0L) ? ackTimeoutMS : DEFAULT_ACK_TIMEOUT_MS;
+    int qsize = Math.max((queueSize > 0) ? queueSize : DEFAULT_QUEUE_SIZE, this.batchSize);
+    this.writers = new Writer[(writers > 0) ? writers : DEFAULT_WRITERS];
+    for (int i = 0; i < this.writers.length; i++) {
+      this.writers[i] = new Writer(i, qsize);
+      this.writers[i].start();
+    }
+    Print.logInfo("Event pipeline started: writers=" + this.writers.length + ", batch="
+        + this.batchSize + ", flush=" + this.flushMS + "ms");
+  }
+
+  /**
+   * Returns the maximum number of events saved per batch.
+   *
+   * @return the batch size.
+   */
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Returns the maximum time a session waits for its events to be saved at end-of-block.
+   *
+   * @return the timeout (in milliseconds).
+   */
+  public long getAckTimeoutMS() {
+    return this.ackTimeoutMS;
+  }
+
+  /**
+   * Returns the number of events currently queued (or being saved) by all writers.
+   *
+   * @return the number of queued events.
+   */
+  public int getQueuedCount() {
+    int n = 0;
+    for (int i = 0; i < this.writers.length; i++) {
+      n += this.writers[i].getQueuedCount();
+    }
+    return n;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates a new block for the events of the specified device.
+   *
+   * @param devId the device.
+   * @return the new block.
+   */
+  public EventBlock createBlock(DeviceID devId) {
+    AccountID acctId = devId.getAccountID();
+    String key = ((acctId != null) ? acctId.getAccountName() : "") + "/" + devId.getDeviceName();
+    int ndx = (key.hashCode() & 0x7FFFFFFF) % this.writers.length;
+    return new EventBlock(devId, this.writers[ndx]);
+  }
+
+  /**
+   * Queues an event for persistence. The event must already be detached from the buffer it was
+   * parsed from. Blocks while the writer queue of the device is full.
+   *
+   * @param block the block to which the event belongs.
+   * @param event the event.
+   */
+  public void submit(EventBlock block, Event event) {
+    block._eventQueued(event);
+    block.writer.put(new Entry(block, event));
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Tracks the events of a single client block.
+   */
+  public static class EventBlock {
+
+    private DeviceID deviceId = null;
+    private Writer writer = null;
+    private int pending = 0;
+    private Event lastQueuedEvent = null;
+    private Event lastValidEvent = null;
+    private int errCode = ServerErrors.NAK_OK;
+    private Event errEvent = null;
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition completed = this.lock.newCondition();
+
+    /**
+     * Creates a block for the specified device.
+     *
+     * @param devId the device.
+     * @param writer the writer of the device events.
+     */
+    private EventBlock(DeviceID devId, Writer writer) {
+      this.deviceId = devId;
+      this.writer = writer;
+    }
+
+    /**
+     * Counts a queued event.
+     *
+     * @param event the event.
+     */
+    private void _eventQueued(Event event) {
+      this.lock.lock();
+      try {
+        this.pending++;
+        this.lastQueuedEvent = event;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Returns true if an event of this block could not be saved (in which case the remaining
+     * events of the block are not saved).
+     *
+     * @return true if the block has failed.
+     */
+    public boolean hasFailed() {
+      return (this.getErrorCode() != ServerErrors.NAK_OK);
+    }
+
+    /**
+     * Records the result of saving an event.
+     *
+     * @param event the event.
+     * @param err the result.
+     */
+    private void _eventSaved(Event event, int err) {
+      this.lock.lock();
+      try {
+        if (this.errCode != ServerErrors.NAK_OK) {
+          // block already failed (by timeout)
+        }
+        else if ((err == ServerErrors.NAK_OK) || (err == ServerErrors.NAK_DUPLICATE_EVENT)) {
+          // duplicate events are quietly ignored
+          this.lastValidEvent = event;
+        }
+        else {
+          this.errCode = err;
+          this.errEvent = event;
+        }
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Counts completed events (after the batch holding them has been saved).
+     *
+     * @param count the number of completed events.
+     */
+    private void _eventsCompleted(int count) {
+      this.lock.lock();
+      try {
+        this.pending -= count;
+        if (this.pending <= 0) {
+          this.completed.signalAll();
+        }
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Waits until all queued events of this block have been saved. If this does not occur within
+     * the specified time, the block fails with NAK_EVENT_ERROR (reported against the last queued
+     * event), and its remaining events are not saved.
+     *
+     * @param timeoutMS maximum wait time (in milliseconds).
+     * @return true if the block completed, false if the wait timed out.
+     */
+    public boolean waitForCompletion(long timeoutMS) {
+      this.writer.requestFlush();
+      this.lock.lock();
+      try {
+        long endMS = DateTime.getCurrentTimeMillis() + timeoutMS;
+        while (this.pending > 0) {
+          long waitMS = endMS - DateTime.getCurrentTimeMillis();
+          if (waitMS <= 0L) {
+            if (this.errCode == ServerErrors.NAK_OK) {
+              this.errCode = ServerErrors.NAK_EVENT_ERROR;
+              this.errEvent = this.lastQueuedEvent;
+            }
+            return false;
+          }
+          try {
+            this.completed.await(waitMS, TimeUnit.MILLISECONDS);
+          }
+          catch (InterruptedException ie) {
+            // ignore
+          }
+        }
+        return true;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Returns the last event which was saved (or was a duplicate) before the block failed.
+     *
+     * @return the last valid event, or null if no event was saved.
+     */
+    public Event getLastValidEvent() {
+      this.lock.lock();
+      try {
+        return this.lastValidEvent;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Returns the error which failed this block.
+     *
+     * @return the error code, or NAK_OK.
+     */
+    public int getErrorCode() {
+      this.lock.lock();
+      try {
+        return this.errCode;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Returns the event which could not be saved.
+     *
+     * @return the failed event, or null if the block has not failed.
+     */
+    public Event getErrorEvent() {
+      this.lock.lock();
+      try {
+        return this.errEvent;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A queued event.
+   */
+  private static class Entry {
+    private EventBlock block = null;
+    private Event event = null;
+
+    public Entry(EventBlock block, Event event) {
+      this.block = block;
+      this.event = event;
+    }
+  }
+
+  /**
+   * Writer thread, saving the events of its queue in batches.
+   */
+  private class Writer extends Thread {
+
+    private Entry queue[] = null;
+    private int head = 0;
+    private int count = 0;
+    private int active = 0;
+    private long firstQueuedMS = 0L;
+    private boolean flushRequested = false;
+    private Event group[] = null;
+    private int result[] = null;
+    private boolean grouped[] = null;
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition notEmpty = this.lock.newCondition();
+    private Condition notFull = this.lock.newCondition();
+
+    /**
+     * Creates a writer thread.
+     *
+     * @param id the writer number.
+     * @param queueSize maximum number of queued events.
+     */
+    public Writer(int id, int queueSize) {
+      super("EventWriter_" + id);
+      this.setDaemon(true);
+      this.queue = new Entry[queueSize];
+    }
+
+    /**
+     * Returns the number of events queued (or being saved).
+     *
+     * @return the number of events.
+     */
+    public int getQueuedCount() {
+      this.lock.lock();
+      try {
+        return this.count + this.active;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Queues an event, waiting while the queue is full.
+     *
+     * @param entry the event.
+     */
+    public void put(Entry entry) {
+      this.lock.lock();
+      try {
+        while (this.count >= this.queue.length) {
+          this.notFull.awaitUninterruptibly();
+        }
+        if (this.count == 0) {
+          this.firstQueuedMS = DateTime.getCurrentTimeMillis();
+        }
+        this.queue[(this.head + this.count) % this.queue.length] = entry;
+        this.count++;
+        if ((this.count >= EventPipeline.this.batchSize) || (this.count == 1)) {
+          this.notEmpty.signal();
+        }
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Saves the queued events now, rather than waiting for a full batch.
+     */
+    public void requestFlush() {
+      this.lock.lock();
+      try {
+        this.flushRequested = true;
+        this.notEmpty.signal();
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Takes the next batch from the queue, waiting until it is full, its oldest event has waited
+     * for the flush interval, or a flush is requested.
+     *
+     * @param batch the array receiving the batch.
+     * @return the number of events in the batch.
+     */
+    private int _takeBatch(Entry batch[]) {
+      this.lock.lock();
+      try {
+        this.active = 0;
+        while (true) {
+          if (this.count > 0) {
+            long heldMS = DateTime.getCurrentTimeMillis() - this.firstQueuedMS;
+            long flushMS = EventPipeline.this.flushMS;
+            if ((this.count >= batch.length) || this.flushRequested || (heldMS >= flushMS)) {
+              break;
+            }
+            this._wait(flushMS - heldMS);
+          }
+          else {
+            this.flushRequested = false;
+            this._wait(0L);
+          }
+        }
+        int n = Math.min(this.count, batch.length);
+        for (int i = 0; i < n; i++) {
+          batch[i] = this.queue[this.head];
+          this.queue[this.head] = null;
+          this.head = (this.head + 1) % this.queue.length;
+        }
+        this.count -= n;
+        this.active = n;
+        if (this.count == 0) {
+          this.flushRequested = false;
+        }
+        else {
+          // remaining events have waited at least as long as the batch
+          this.firstQueuedMS = DateTime.getCurrentTimeMillis();
+        }
+        this.notFull.signalAll(); // wake sessions waiting for room
+        return n;
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+
+    /**
+     * Waits until events are queued (or a flush is requested). The writer lock must be held.
+     *
+     * @param waitMS maximum wait time (0 to wait until signalled).
+     */
+    private void _wait(long waitMS) {
+      try {
+        if (waitMS > 0L) {
+          this.notEmpty.await(waitMS, TimeUnit.MILLISECONDS);
+        }
+        else {
+          this.notEmpty.await();
+        }
+      }
+      catch (InterruptedException ie) {
+        // ignore
+      }
+    }
+
+    /**
+     * Saves batches of queued events.
+     */
+    public void run() {
+      Entry batch[] = new Entry[EventPipeline.this.batchSize];
+      while (true) {
+        int n = this._takeBatch(batch);
+        try {
+          this._saveBatch(batch, n);
+        }
+        catch (Throwable t) {
+          Print.logException("Unexpected exception: ", t);
+        }
+        finally {
+          for (int i = 0; i < n; i++) {
+            batch[i].block._eventsCompleted(1);
+            batch[i] = null;
+          }
+        }
+      }
+    }
+
+    /**
+     * Saves a batch of events. The events of each block in the batch are saved together (with a
+     * single <tt>DeviceID.saveEvents</tt> call), in queued order.
+     *
+     * @param batch the batch.
+     * @param n the number of events in the batch.
+     */
+    private void _saveBatch(Entry batch[], int n) {
+      if ((this.group == null) || (this.group.length < n)) {
+        this.group = new Event[n];
+        this.result = new int[n];
+        this.grouped = new boolean[n];
+      }
+      for (int i = 0; i < n; i++) {
+        this.grouped[i] = false;
+      }
+      for (int i = 0; i < n; i++) {
+        if (this.grouped[i]) {
+          continue;
+        }
+
+        /* gather the events of this block */
+        EventBlock block = batch[i].block;
+        int g = 0;
+        for (int j = i; j < n; j++) {
+          if (!this.grouped[j] && (batch[j].block == block)) {
+            this.grouped[j] = true;
+            this.group[g++] = batch[j].event;
+          }
+        }
+        if (block.hasFailed()) {
+          // ignore the remaining events of a failed block
+          continue;
+        }
+
+        /* save */
+        try {
+          block.deviceId.saveEvents(this.group, g, this.result);
+        }
+        catch (Throwable t) {
+          Print.logException("Event insertion error", t);
+          for (int k = 0; k < g; k++) {
+            this.result[k] = ServerErrors.NAK_EVENT_ERROR;
+          }
+        }
+        for (int k = 0; k < g; k++) {
+          int err = this.result[k];
+          if ((err != ServerErrors.NAK_OK) && (err != ServerErrors.NAK_DUPLICATE_EVENT)) {
+            Print.logError("Event insertion [" + StringTools.toHexString(err, 16) + "] "
+                + ServerErrors.getErrorDescription(err));
+            block._eventSaved(this.group[k], err);
+            break; // the remaining events of the block failed with it
+          }
+          block._eventSaved(this.group[k], err);
+        }
+        for (int k = 0; k < g; k++) {
+          this.group[k] = null;
+        }
+
+      }
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+}
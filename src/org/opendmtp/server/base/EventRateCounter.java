@@ -0,0 +1,343 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  In-memory sliding-window count of the events saved by a device
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.base;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opendmtp.server.db.DeviceDB;
+import org.opendmtp.server.db.DeviceEventCounts;
+import org.opendmtp.util.DateTime;
+import org.opendmtp.util.Print;
+
+/**
+ * Counts the events saved by a device over its limit time interval, so that the excessive-events
+ * check does not need to count the device's event records in the database for every event.
+ * <p>
+ * Events are counted in a ring of per-minute buckets, by event timestamp. The window covers the
+ * limit time interval plus the current (partial) minute, so the count may include up to a minute
+ * of events older than the interval, but never omits an event within it. A counter is shared by
+ * all sessions of a device. It is seeded from the database when first loaded (and again when it
+ * has been idle for longer than the interval, since another server may have saved events in the
+ * meantime), and is then updated as events are saved. Devices implementing
+ * <tt>DeviceEventCounts</tt> seed each minute of the window with the events saved in that minute;
+ * for other devices the event count of the interval is spread evenly over the window, so the
+ * seeded events expire a minute at a time rather than all at once.
+ * <p>
+ * In database mode (see <tt>setInMemory</tt>) counters are not used, and the excessive-events
+ * check counts the event records in the database.
+ * @author agent
+ */
+public class EventRateCounter {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * True if event counts are kept in memory, false to count the event records in the database.
+   */
+  private static volatile boolean inMemory = true;
+
+  /**
+   * Counters, by "account/device".
+   */
+  private static ConcurrentHashMap counterMap = new ConcurrentHashMap();
+
+  /**
+   * Time (minutes) idle counters were last removed.
+   */
+  private static volatile long lastPurgeMinute = 0L;
+
+  /**
+   * Sets the excessive-events check mode.
+   *
+   * @param mem true to keep event counts in memory, false to count the event records in the
+   *          database.
+   */
+  public static void setInMemory(boolean mem) {
+    EventRateCounter.inMemory = mem;
+    if (!mem) {
+      counterMap.clear();
+    }
+  }
+
+  /**
+   * Returns true if event counts are kept in memory.
+   *
+   * @return true if event counts are kept in memory.
+   */
+  public static boolean isInMemory() {
+    return EventRateCounter.inMemory;
+  }
+
+  /**
+   * Returns the counter of the specified device, loading it if necessary. Returns null in database
+   * mode.
+   *
+   * @param key the "account/device" key of the device.
+   * @param db the device.
+   * @return the event counter, or null if event counts are not kept in memory.
+   */
+  public static EventRateCounter getCounter(String key, DeviceDB db) {
+    int interval = db.getLimitTimeInterval();
+    long nowMin = DateTime.getCurrentTimeSec() / 60L;
+    if (!EventRateCounter.inMemory) {
+      return null;
+    }
+    EventRateCounter._purge(nowMin);
+    EventRateCounter erc = (EventRateCounter) counterMap.get(key);
+    while ((erc == null) || (erc.interval != interval)) {
+      EventRateCounter newErc = new EventRateCounter(interval);
+      if (erc == null) {
+        erc = (EventRateCounter) counterMap.putIfAbsent(key, newErc);
+        if (erc == null) {
+          erc = newErc;
+        }
+      }
+      else if (counterMap.replace(key, erc, newErc)) {
+        erc = newErc;
+      }
+      else {
+        erc = (EventRateCounter) counterMap.get(key); // replaced by another session
+      }
+    }
+    erc._seed(db, nowMin);
+    return erc;
+  }
+
+  /**
+   * Removes the counters which have been idle for longer than their interval (at most once a
+   * minute). Sessions purging concurrently in the same minute only repeat each other's work.
+   *
+   * @param nowMin the current time, in minutes.
+   */
+  private static void _purge(long nowMin) {
+    if (nowMin != lastPurgeMinute) {
+      lastPurgeMinute = nowMin;
+      for (Iterator i = counterMap.values().iterator(); i.hasNext();) {
+        EventRateCounter erc = (EventRateCounter) i.next();
+        if (erc._isIdle(nowMin)) {
+          i.remove();
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private int interval = 0;
+  private long bucketMinute[] = null;
+  private int bucketCount[] = null;
+  private long total = 0L;
+  private long lastUseMinute = -1L;
+  private boolean seeded = false;
+  private ReentrantLock seedLock = new ReentrantLock();
+
+  /**
+   * Creates an empty counter.
+   *
+   * @param interval the limit time interval, in minutes.
+   */
+  private EventRateCounter(int interval) {
+    this.interval = interval;
+    int size = ((interval > 0) ? interval : 0) + 1;
+    this.bucketMinute = new long[size];
+    this.bucketCount = new int[size];
+    for (int i = 0; i < size; i++) {
+      this.bucketMinute[i] = -1L;
+    }
+  }
+
+  /**
+   * Returns true if no event has been counted within the window.
+   *
+   * @param nowMin the current time, in minutes.
+   * @return true if this counter is idle.
+   */
+  private synchronized boolean _isIdle(long nowMin) {
+    return (this.lastUseMinute < 0L) || ((nowMin - this.lastUseMinute) >= this.bucketMinute.length);
+  }
+
+  /**
+   * Returns true if this counter must be seeded from the database.
+   *
+   * @param nowMin the current time, in minutes.
+   * @return true if this counter has not been seeded, or has been idle for the window.
+   */
+  private synchronized boolean _needsSeed(long nowMin) {
+    return !this.seeded || this._isIdle(nowMin);
+  }
+
+  /**
+   * Seeds this counter from the event records in the database, unless it has been in use within
+   * the window. Only one session queries the database: the others wait on the seed lock until the
+   * counter has been seeded. The seed lock is a <tt>ReentrantLock</tt> rather than the counter
+   * monitor, so sessions waiting on the query do not pin the carriers of virtual threads, and
+   * events may still be counted meanwhile. An event is saved before it is counted, so the query
+   * may include the events counted meanwhile: the seed replaces the counts of the minutes it
+   * covers, and only events counted in later minutes are kept.
+   *
+   * @param db the device.
+   * @param nowMin the current time, in minutes.
+   */
+  private void _seed(DeviceDB db, long nowMin) {
+    if (!this._needsSeed(nowMin)) {
+      return;
+    }
+    this.seedLock.lock();
+    try {
+      if (!this._needsSeed(nowMin)) {
+        return; // seeded by another session
+      }
+      int size = this.bucketMinute.length;
+      long minStart = nowMin - size + 1L;
+      long counts[] = null;
+      if (db instanceof DeviceEventCounts) {
+        counts = ((DeviceEventCounts) db).getEventCountsByMinute(minStart, size);
+      }
+      else {
+        long timeEnd = DateTime.getCurrentTimeSec();
+        long timeStart = timeEnd - DateTime.MinuteSeconds(this.interval);
+        long count = db.getEventCount(timeStart, timeEnd);
+        if (count >= 0L) {
+          // spread over the window, with the remainder in the most recent minutes
+          counts = new long[size];
+          for (int i = 0; i < size; i++) {
+            counts[i] = (count / size) + ((i >= (size - (count % size))) ? 1L : 0L);
+          }
+        }
+      }
+      synchronized (this) {
+        if ((counts == null) || (counts.length != size)) {
+          // database error: try again on the next load
+          Print.logWarn("Unable to seed event count: " + db);
+          return;
+        }
+        long curMin = DateTime.getCurrentTimeSec() / 60L; // may have moved on during the query
+        for (int i = 0; i < size; i++) {
+          long n = counts[i];
+          this._set(curMin, minStart + i, (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n);
+        }
+        this.seeded = true;
+      }
+    }
+    finally {
+      this.seedLock.unlock();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Removes the buckets which have left the window.
+   *
+   * @param nowMin the current time, in minutes.
+   */
+  private void _expire(long nowMin) {
+    long oldest = nowMin - this.bucketMinute.length + 1L;
+    for (int i = 0; i < this.bucketMinute.length; i++) {
+      if ((this.bucketMinute[i] >= 0L) && (this.bucketMinute[i] < oldest)) {
+        this.total -= this.bucketCount[i];
+        this.bucketMinute[i] = -1L;
+        this.bucketCount[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Adds events to the bucket of the specified minute, if it is within the window.
+   *
+   * @param nowMin the current time, in minutes.
+   * @param evMin the event time, in minutes (future times are counted in the current minute).
+   * @param n the number of events.
+   */
+  private void _add(long nowMin, long evMin, int n) {
+    this.lastUseMinute = nowMin;
+    if (evMin > nowMin) {
+      evMin = nowMin;
+    }
+    else if (evMin <= (nowMin - this.bucketMinute.length)) {
+      return; // already outside the window
+    }
+    int ndx = (int) (evMin % this.bucketMinute.length);
+    if (this.bucketMinute[ndx] != evMin) {
+      this.total -= this.bucketCount[ndx];
+      this.bucketMinute[ndx] = evMin;
+      this.bucketCount[ndx] = 0;
+    }
+    this.bucketCount[ndx] += n;
+    this.total += n;
+  }
+
+  /**
+   * Sets the number of events of the specified minute, if it is within the window.
+   *
+   * @param nowMin the current time, in minutes.
+   * @param evMin the event time, in minutes (not in the future).
+   * @param n the number of events.
+   */
+  private void _set(long nowMin, long evMin, int n) {
+    int ndx = (int) (evMin % this.bucketMinute.length);
+    if (this.bucketMinute[ndx] == evMin) {
+      this.total -= this.bucketCount[ndx];
+      this.bucketCount[ndx] = 0;
+    }
+    this._add(nowMin, evMin, n);
+  }
+
+  /**
+   * Returns the number of events within the window.
+   *
+   * @return the event count.
+   */
+  public synchronized long getCount() {
+    long nowMin = DateTime.getCurrentTimeSec() / 60L;
+    if (this.lastUseMinute >= 0L) {
+      this._expire(nowMin);
+    }
+    return this.total;
+  }
+
+  /**
+   * Counts a saved event.
+   *
+   * @param timestamp the event timestamp, in seconds.
+   */
+  public synchronized void addEvent(long timestamp) {
+    long nowMin = DateTime.getCurrentTimeSec() / 60L;
+    this._add(nowMin, timestamp / 60L, 1);
+  }
+
+  /**
+   * Returns a string representation of this counter.
+   *
+   * @return the interval and event count.
+   */
+  public String toString() {
+    return "interval=" + this.interval + "min count=" + this.getCount();
+  }
+
+}
@@ -92,7 +92,19 @@ public class FletcherChecksum {
    */
   public void runningChecksum(byte b[]) {
     if (b != null) {
-      for (int i = 0; i < b.length; i++) {
+      this.runningChecksum(b, 0, b.length);
+    }
+  }
+
+  /**
+   * Runs fletcher checksum algorithm over a range of the data in byte array.
+   * @param b Byte array to run checksum on.
+   * @param ofs Offset of the first byte.
+   * @param len Number of bytes.
+   */
+  public void runningChecksum(byte b[], int ofs, int len) {
+    if (b != null) {
+      for (int i = ofs; i < ofs + len; i++) {
         C[0] = C[0] + ((int) b[i] & 0xFF);
         C[1] = C[1] + C[0];
       }
@@ -450,24 +450,19 @@ public class Packet {
       ClientTemplate_Account_ID, ClientTemplate_Device_ID, ClientTemplate_ProvertyValue,
       ClientTemplate_CustomDef, ClientTemplate_Diagnostic, ClientTemplate_Error };
 
+  // packet type to template index (events first, then the others)
+  private static PayloadTemplate ClientPayloadTemplate_index[] = IndexPayloadTemplates(
+      new PayloadTemplate[][] { ClientEventPayloadTemplate_table,
+          ClientStandardPayloadTemplate_table });
+
   /**
    * Gets payload template.
    * @param type Integer payload template type.
    * @return Payload template.
    */
   public static PayloadTemplate GetClientPayloadTemplate(int type) {
-    // These need to be in a hash table
-    // first try events
-    for (int i = 0; i < ClientEventPayloadTemplate_table.length; i++) {
-      if (type == ClientEventPayloadTemplate_table[i].getPacketType()) {
-        return ClientEventPayloadTemplate_table[i];
-      }
-    }
-    // then try the others
-    for (int i = 0; i < ClientStandardPayloadTemplate_table.length; i++) {
-      if (type == ClientStandardPayloadTemplate_table[i].getPacketType()) {
-        return ClientStandardPayloadTemplate_table[i];
-      }
+    if ((type >= 0) && (type < ClientPayloadTemplate_index.length)) {
+      return ClientPayloadTemplate_index[type];
     }
     return null;
   }
@@ -512,21 +507,41 @@ public class Packet {
       ServerTemplate_EndOfBlock_Done, ServerTemplate_Ack, ServerTemplate_GetProperty,
       ServerTemplate_SetProperty, ServerTemplate_Error, ServerTemplate_EndOfTransmission };
 
+  // packet type to template index
+  private static PayloadTemplate ServerPayloadTemplate_index[] = IndexPayloadTemplates(
+      new PayloadTemplate[][] { ServerStandardPayloadTemplate_table });
+
   /**
    * Returns payload template.
    * @param type Integer payload template field type.
    * @return Payload template field.
    */
   public static PayloadTemplate GetServerPayloadTemplate(int type) {
-    // These need to be in a hash table
-    for (int i = 0; i < ServerStandardPayloadTemplate_table.length; i++) {
-      if (type == ServerStandardPayloadTemplate_table[i].getPacketType()) {
-        return ServerStandardPayloadTemplate_table[i];
-      }
+    if ((type >= 0) && (type < ServerPayloadTemplate_index.length)) {
+      return ServerPayloadTemplate_index[type];
     }
     return null;
   }
 
+  /**
+   * Returns a dense 256 entry index of the specified template tables, indexed by packet type.
+   * If more than one template has the same packet type, the first one found is used.
+   * @param tables Template tables, in search order.
+   * @return Template index.
+   */
+  private static PayloadTemplate[] IndexPayloadTemplates(PayloadTemplate tables[][]) {
+    PayloadTemplate index[] = new PayloadTemplate[256];
+    for (int t = 0; t < tables.length; t++) {
+      for (int i = 0; i < tables[t].length; i++) {
+        int type = tables[t][i].getPacketType();
+        if ((type >= 0) && (type < index.length) && (index[type] == null)) {
+          index[type] = tables[t][i];
+        }
+      }
+    }
+    return index;
+  }
+
   // ------------------------------------------------------------------------
 
   /**
@@ -681,18 +696,41 @@ public class Packet {
    * @throws PacketParseException Packet error.
    */
   public Packet(DeviceID devId, boolean isClient, byte pkt[]) throws PacketParseException {
+    this(devId, isClient, pkt, 0, pkt.length);
+  }
+
+  /**
+   * Constructor with client and packet parameters. The packet occupies 'pktLen' bytes of 'pkt'
+   * starting at 'pktOfs'. The payload of a binary packet is a view over 'pkt' (no bytes are
+   * copied), so 'pkt' must remain unchanged for as long as the payload of this packet is used.
+   * @param devId Not needed for server packets.
+   * @param isClient Boolean is client packet.
+   * @param pkt Byte array containing the actual packet.
+   * @param pktOfs Integer offset of the packet.
+   * @param pktLen Integer length of the packet.
+   * @throws PacketParseException Packet error.
+   */
+  public Packet(DeviceID devId, boolean isClient, byte pkt[], int pktOfs, int pktLen)
+      throws PacketParseException {
     // 'pkt' always contains only a single packet
     this.deviceId = devId; // not needed for server packets
     this.isClient = isClient;
     this.encoding = Encoding.ENCODING_UNKNOWN;
-    if (pkt.length < 3) {
+    if (pktLen < 3) {
 
-      this.header = (pkt.length > 0) ? ((int) pkt[0] & 0xFF) : 0x00;
-      this.type = (pkt.length > 1) ? ((int) pkt[1] & 0xFF) : 0x00;
+      this.header = (pktLen > 0) ? ((int) pkt[pktOfs] & 0xFF) : 0x00;
+      this.type = (pktLen > 1) ? ((int) pkt[pktOfs + 1] & 0xFF) : 0x00;
       throw new PacketParseException(ServerErrors.NAK_PACKET_LENGTH, this); // errData ok
 
     }
-    else if (pkt[0] == Encoding.AsciiEncodingChar) {
+    else if (pkt[pktOfs] == Encoding.AsciiEncodingChar) {
+
+      /* ASCII packets are decoded into a new payload, parse a copy if necessary */
+      if ((pktOfs != 0) || (pktLen != pkt.length)) {
+        byte p[] = new byte[pktLen];
+        System.arraycopy(pkt, pktOfs, p, 0, pktLen);
+        pkt = p;
+      }
 
       /* checksum */
       int pLen = 1; // start with first character after AsciiEndOfLineChar
@@ -769,28 +807,28 @@ public class Packet {
       }
 
     }
-    else if (pkt[0] == (byte) HEADER_BASIC) {
+    else if (pkt[pktOfs] == (byte) HEADER_BASIC) {
 
       /* binary header */
       this.encoding = Encoding.ENCODING_BINARY;
-      this.header = (int) pkt[0] & 0xFF;
-      this.type = (int) pkt[1] & 0xFF;
+      this.header = (int) pkt[pktOfs] & 0xFF;
+      this.type = (int) pkt[pktOfs + 1] & 0xFF;
 
       /* check payload length */
-      int len = (int) pkt[2] & 0xFF;
-      if (len != pkt.length - 3) {
+      int len = (int) pkt[pktOfs + 2] & 0xFF;
+      if (len != pktLen - 3) {
         throw new PacketParseException(ServerErrors.NAK_PACKET_LENGTH, this); // errData ok
       }
 
-      /* payload */
-      this.payload = new Payload(pkt, 3, len);
+      /* payload (view) */
+      this.payload = new Payload(pkt, pktOfs + 3, len, false);
 
     }
     else {
 
       this.encoding = Encoding.ENCODING_UNKNOWN;
-      this.header = (int) pkt[0] & 0xFF;
-      this.type = (int) pkt[1] & 0xFF;
+      this.header = (int) pkt[pktOfs] & 0xFF;
+      this.type = (int) pkt[pktOfs + 1] & 0xFF;
       throw new PacketParseException(ServerErrors.NAK_PACKET_HEADER, this); // errData ok
 
     }
@@ -946,6 +984,16 @@ public class Packet {
     return this.payload;
   }
 
+  /**
+   * Copies the payload of this packet out of the buffer it was parsed from (if it is a view), so
+   * that the packet remains valid after the packet handler returns.
+   */
+  public void detach() {
+    if (this.payload != null) {
+      this.payload.detach();
+    }
+  }
+
   /**
    * Gets packet payload template.
    * @return packet payload template.
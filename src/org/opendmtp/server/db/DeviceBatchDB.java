@@ -0,0 +1,49 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Device which can insert a group of events at once
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.db;
+
+import org.opendmtp.util.GeoEvent;
+
+/**
+ * Optional extension of <tt>DeviceDB</tt> for devices whose event store can insert a group of
+ * events at once (eg. with a single multi-row INSERT statement). Events of other devices are
+ * inserted one at a time with <tt>insertEvent</tt>.
+ * 
+ * @author agent
+ */
+public interface DeviceBatchDB extends DeviceDB {
+
+  /**
+   * Insert a group of events for device, in order. Insertion stops at the first event which
+   * cannot be inserted.
+   * @param events Events to insert.
+   * @param count Number of events (from the start of the array) to insert.
+   * @return Number of events inserted. If less than count, the event at this index failed with
+   *         ServerErrors.NAK_EVENT_ERROR.
+   */
+  public int insertEvents(GeoEvent events[], int count);
+
+}
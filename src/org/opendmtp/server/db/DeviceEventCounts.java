@@ -0,0 +1,48 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Device which can count its events per minute
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server.db;
+
+/**
+ * Optional extension of <tt>DeviceDB</tt> for devices whose event store can count the events of a
+ * time interval per minute in a single query. The in-memory event rate counter uses it to seed
+ * each minute of its window with the events saved in that minute. For other devices the counter
+ * is seeded from <tt>getEventCount</tt>, spread evenly over the window.
+ * 
+ * @author agent
+ */
+public interface DeviceEventCounts extends DeviceDB {
+
+  /**
+   * Get the number of events logged by the device in each minute of a time interval.
+   * 
+   * @param minuteStart the first minute of the interval (seconds / 60).
+   * @param minutes the number of minutes in the interval.
+   * @return an array of 'minutes' counts, where element 'i' holds the events of minute
+   *         'minuteStart + i', or null if the events could not be counted.
+   */
+  public long[] getEventCountsByMinute(long minuteStart, int minutes);
+
+}
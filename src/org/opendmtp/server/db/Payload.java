@@ -41,6 +41,8 @@ public class Payload {
   // ------------------------------------------------------------------------
 
   private byte payload[] = null;
+  private int offset = 0; // start of payload in 'payload' (non-zero for views)
+  private boolean view = false; // true if 'payload' is owned by the creator of this Payload
   private int size = 0;
   private int index = 0;
 
@@ -69,6 +71,19 @@ public class Payload {
    * @param len Integer length.
    */
   public Payload(byte b[], int ofs, int len) {
+    this(b, ofs, len, true);
+  }
+
+  /**
+   * Payload constuctor with byte array, offset index and length parameters. If 'copy' is false,
+   * the Payload is a view over the specified byte array (no bytes are copied), and is only valid
+   * for as long as the caller leaves the specified bytes unchanged.
+   * @param b Byte array.
+   * @param ofs Integer offset index.
+   * @param len Integer length.
+   * @param copy False to create a view over the byte array.
+   */
+  public Payload(byte b[], int ofs, int len, boolean copy) {
     // (data source)
     if ((b == null) || (ofs >= b.length)) {
       this.payload = new byte[0];
@@ -80,6 +95,16 @@ public class Payload {
       this.size = b.length;
       this.index = 0;
     }
+    else if (!copy) {
+      if (len > (b.length - ofs)) {
+        len = b.length - ofs;
+      }
+      this.payload = b;
+      this.offset = ofs;
+      this.size = len;
+      this.index = 0;
+      this.view = true;
+    }
     else {
       if (len > (b.length - ofs)) {
         len = b.length - ofs;
@@ -100,12 +125,34 @@ public class Payload {
     return this.size;
   }
 
+  /**
+   * If this Payload is a view over the byte array of its creator, copies the viewed bytes into a
+   * new array, so that the Payload remains valid after the creator reuses its array.
+   */
+  public void detach() {
+    if (this.view) {
+      byte n[] = new byte[this.size];
+      System.arraycopy(this.payload, this.offset, n, 0, this.size);
+      this.payload = n;
+      this.offset = 0;
+      this.view = false;
+    }
+  }
+
   // ------------------------------------------------------------------------
 
   private byte[] _getBytes() {
     return this.payload;
   }
 
+  /**
+   * Returns the number of bytes which may be written to the payload (from its start).
+   * @return Payload capacity.
+   */
+  private int _getCapacity() {
+    return this.payload.length - this.offset;
+  }
+
   /**
    * Return the full payload (regardless of the state of 'this.index').
    * @return Byte array representing full payload.
@@ -113,12 +160,12 @@ public class Payload {
   public byte[] getBytes() {
     // return the full payload (regardless of the state of 'this.index')
     byte b[] = this._getBytes();
-    if (this.size == b.length) {
+    if ((this.offset == 0) && (this.size == b.length)) {
       return b;
     }
     else {
       byte n[] = new byte[this.size];
-      System.arraycopy(b, 0, n, 0, this.size);
+      System.arraycopy(b, this.offset, n, 0, this.size);
       return n;
     }
   }
@@ -180,7 +227,7 @@ public class Payload {
     }
     else {
       byte b[] = this._getBytes();
-      long val = _decodeLong(b, this.index, maxLen, true, dft);
+      long val = _decodeLong(b, this.offset + this.index, maxLen, true, dft);
       this.index += maxLen;
       return val;
     }
@@ -210,7 +257,7 @@ public class Payload {
     }
     else {
       byte b[] = this._getBytes();
-      long val = _decodeLong(b, this.index, maxLen, false, dft);
+      long val = _decodeLong(b, this.offset + this.index, maxLen, false, dft);
       this.index += maxLen;
       return val;
     }
@@ -239,7 +286,7 @@ public class Payload {
     }
     else {
       byte n[] = new byte[maxLen];
-      System.arraycopy(this._getBytes(), this.index, n, 0, maxLen);
+      System.arraycopy(this._getBytes(), this.offset + this.index, n, 0, maxLen);
       this.index += maxLen;
       return n;
     }
@@ -260,9 +307,10 @@ public class Payload {
     else {
       int m;
       byte b[] = this._getBytes();
-      for (m = 0; (m < maxLen) && ((this.index + m) < this.size) && (b[this.index + m] != 0); m++)
+      int bOfs = this.offset + this.index;
+      for (m = 0; (m < maxLen) && ((this.index + m) < this.size) && (b[bOfs + m] != 0); m++)
         ;
-      String s = StringTools.toStringValue(b, this.index, m);
+      String s = StringTools.toStringValue(b, bOfs, m);
       this.index += m;
       if (m < maxLen) {
         this.index++;
@@ -289,13 +337,15 @@ public class Payload {
     }
     else if (length < 8) {
       // 6 <= len < 8
-      GeoPoint gp = GeoPoint.decodeGeoPoint(this._getBytes(), this.index, length);
+      GeoPoint gp = GeoPoint.decodeGeoPoint(this._getBytes(), this.offset + this.index,
+          length);
       this.index += maxLen; // 6
       return gp;
     }
     else {
       // 8 <= len
-      GeoPoint gp = GeoPoint.decodeGeoPoint(this._getBytes(), this.index, length);
+      GeoPoint gp = GeoPoint.decodeGeoPoint(this._getBytes(), this.offset + this.index,
+          length);
       this.index += maxLen; // 8
       return gp;
     }
@@ -330,12 +380,12 @@ public class Payload {
       // nothing to write
       return length;
     }
-    else if ((this.index + length) > b.length) {
+    else if ((this.index + length) > this._getCapacity()) {
       // no room left
       return 0;
     }
     else {
-      _encodeLong(b, this.index, length, val);
+      _encodeLong(b, this.offset + this.index, length, val);
       this.index += length;
       if (this.size < this.index) {
         this.size = this.index;
@@ -363,7 +413,8 @@ public class Payload {
    */
   public int writeBytes(byte n[], int length) {
     byte b[] = this._getBytes();
-    int maxLen = ((this.index + length) <= b.length) ? length : (b.length - this.index);
+    int cap = this._getCapacity();
+    int maxLen = ((this.index + length) <= cap) ? length : (cap - this.index);
     if ((n == null) || (n.length == 0)) {
       // nothing to write
       return 0;
@@ -374,9 +425,9 @@ public class Payload {
     }
     else {
       int m = (n.length < maxLen) ? n.length : maxLen;
-      System.arraycopy(n, 0, b, this.index, m);
+      System.arraycopy(n, 0, b, this.offset + this.index, m);
       for (; m < maxLen; m++) {
-        b[m] = 0;
+        b[this.offset + this.index + m] = 0;
       }
       this.index += m;
       if (this.size < this.index) {
@@ -395,7 +446,8 @@ public class Payload {
    */
   public int writeString(String s, int length) {
     byte b[] = this._getBytes();
-    int maxLen = ((this.index + length) <= b.length) ? length : (b.length - this.index);
+    int cap = this._getCapacity();
+    int maxLen = ((this.index + length) <= cap) ? length : (cap - this.index);
     if (s == null) {
       // nothing to write
       return 0;
@@ -407,10 +459,10 @@ public class Payload {
     else {
       byte n[] = StringTools.getBytes(s);
       int m = (n.length < maxLen) ? n.length : maxLen;
-      System.arraycopy(n, 0, b, this.index, m);
+      System.arraycopy(n, 0, b, this.offset + this.index, m);
       this.index += m;
       if (m < maxLen) {
-        b[this.index++] = (byte) 0; // terminate string
+        b[this.offset + this.index++] = (byte) 0; // terminate string
         m++;
       }
       if (this.size < this.index) {
@@ -429,14 +481,15 @@ public class Payload {
    */
   public int writeGPS(GeoPoint gp, int length) {
     byte b[] = this._getBytes();
-    int maxLen = ((this.index + length) <= b.length) ? length : (b.length - this.index);
+    int cap = this._getCapacity();
+    int maxLen = ((this.index + length) <= cap) ? length : (cap - this.index);
     if (maxLen < 6) {
       // not enough bytes to encode GeoPoint
       return 0;
     }
     else if (length < 8) {
       // 6 <= len < 8
-      GeoPoint.encodeGeoPoint(gp, b, this.index, length);
+      GeoPoint.encodeGeoPoint(gp, b, this.offset + this.index, length);
       this.index += 6;
       if (this.size < this.index) {
         this.size = this.index;
@@ -445,7 +498,7 @@ public class Payload {
     }
     else {
       // 8 <= len
-      GeoPoint.encodeGeoPoint(gp, b, this.index, length);
+      GeoPoint.encodeGeoPoint(gp, b, this.offset + this.index, length);
       this.index += 8;
       if (this.size < this.index) {
         this.size = this.index;
@@ -460,7 +513,7 @@ public class Payload {
    * @return String representation of payload.
    */
   public String toString() {
-    return StringTools.toHexString(this.payload, 0, this.size);
+    return StringTools.toHexString(this.payload, this.offset, this.size);
   }
 
   // ------------------------------------------------------------------------
@@ -252,6 +252,7 @@ public class PayloadTemplate {
   private int customType = -1; // undefined
   private Field fields[] = null;
   private boolean repeatLast = false;
+  private volatile Object decoder = null; // compiled by the event decoder on first use
 
   /**
    * Payload template constructor with type and field parameters.
@@ -321,6 +322,22 @@ public class PayloadTemplate {
     return this.repeatLast;
   }
 
+  /**
+   * Gets the decoder compiled from this template.
+   * @return The compiled decoder, or null if this template has not been compiled.
+   */
+  public Object getDecoder() {
+    return this.decoder;
+  }
+
+  /**
+   * Sets the decoder compiled from this template. The decoder lives as long as this template.
+   * @param decoder The compiled decoder.
+   */
+  public void setDecoder(Object decoder) {
+    this.decoder = decoder;
+  }
+
   // ------------------------------------------------------------------------
   // ------------------------------------------------------------------------
   // ------------------------------------------------------------------------
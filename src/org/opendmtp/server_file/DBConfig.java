@@ -110,6 +110,18 @@ public class DBConfig {
     Print.logInfo("Account/Device Events will be stored in directory '"
         + DeviceDBImpl.getDataStoreDirectory() + "'");
 
+    /* keep the event files open? */
+    if (RTConfig.getBoolean(RTKey.FILE_WRITER_POOL, false)) {
+      String commit = RTConfig.getString(RTKey.FILE_POOL_COMMIT, "flush");
+      DeviceDBImpl.setWriterPool(new FileWriterPool(
+          RTConfig.getInt(RTKey.FILE_POOL_MAX_OPEN, FileWriterPool.DEFAULT_MAX_OPEN),
+          RTConfig.getInt(RTKey.FILE_POOL_BUFFER_SIZE, FileWriterPool.DEFAULT_BUFFER_SIZE),
+          RTConfig.getLong(RTKey.FILE_POOL_FLUSH_MS, FileWriterPool.DEFAULT_FLUSH_MS),
+          RTConfig.getLong(RTKey.FILE_POOL_IDLE_SEC, FileWriterPool.DEFAULT_IDLE_SEC),
+          FileWriterPool.getCommitPolicy(commit, FileWriterPool.COMMIT_FLUSH)));
+      Print.logInfo("Event files are kept open (commit=" + commit + ")");
+    }
+
     /* register OpenDMTP protocol DB interface */
     DMTPServer.setDBFactory(new DBConfig.DMTP_DBFactory());
 
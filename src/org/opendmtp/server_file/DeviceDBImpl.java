@@ -28,19 +28,17 @@ package org.opendmtp.server_file;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 
 import org.opendmtp.codes.Encoding;
 import org.opendmtp.codes.ServerErrors;
 import org.opendmtp.codes.StatusCodes;
-import org.opendmtp.server.db.DeviceDB;
+import org.opendmtp.server.db.DeviceBatchDB;
 import org.opendmtp.server.db.PayloadTemplate;
-import org.opendmtp.util.DateTime;
+import org.opendmtp.util.FastFormat;
 import org.opendmtp.util.FileTools;
 import org.opendmtp.util.GeoEvent;
 import org.opendmtp.util.GeoPoint;
 import org.opendmtp.util.Print;
-import org.opendmtp.util.StringTools;
 
 /**
  * Manages information about a device.
@@ -48,7 +46,7 @@ import org.opendmtp.util.StringTools;
  * @author Martin D. Flynn
  * @author George Lee
  */
-public class DeviceDBImpl implements DeviceDB {
+public class DeviceDBImpl implements DeviceBatchDB {
 
   /** Maximum number of allowed events. */
   private static final int MAX_ALLOWED_EVENTS = -1; // no limit
@@ -106,7 +104,27 @@ public class DeviceDBImpl implements DeviceDB {
     return dataStoreDirectory;
   }
 
-  private static HashMap customPayloadTemplates = new HashMap();
+  /** Pool of open event files (null if each event opens and closes its file). */
+  private static FileWriterPool writerPool = null;
+
+  /**
+   * Set the pool of open files used to write events. If null, the event file is opened and closed
+   * for each event.
+   * 
+   * @param pool The file writer pool (or null).
+   */
+  public static void setWriterPool(FileWriterPool pool) {
+    writerPool = pool;
+  }
+
+  /**
+   * Get the pool of open files used to write events.
+   * 
+   * @return The file writer pool, or null if each event opens and closes its file.
+   */
+  public static FileWriterPool getWriterPool() {
+    return writerPool;
+  }
 
   private String accountId = null;
 
@@ -116,6 +134,8 @@ public class DeviceDBImpl implements DeviceDB {
 
   private boolean isActive = true;
 
+  private TemplateRegistry.DeviceTemplates templates = null;
+
   private int limitTimeInterval = LIMIT_TIME_INTERVAL;
 
   private int maxAllowedEvents = MAX_ALLOWED_EVENTS;
@@ -136,6 +156,8 @@ public class DeviceDBImpl implements DeviceDB {
 
   private long lastDuplexConnectionTime = 0L;
 
+  private File dataFile = null;
+
   /**
    * Create a new DeviceDB with the specified account ID and deviceID.
    * 
@@ -345,17 +367,15 @@ public class DeviceDBImpl implements DeviceDB {
   }
 
   /**
-   * Add a payload template to the collection of custom templates. Uses the packet type as the key
-   * for the HashMap. Returns true if the addition is successful.
+   * Add a payload template to the custom templates of this device. The template is saved in the
+   * template file of the device. Returns true if the addition is successful.
    * 
    * @param template The PayloadTemplate to be added to the collection.
    * @return True if the payload template is successfully added, false otherwise.
    */
   public boolean addClientPayloadTemplate(PayloadTemplate template) {
     if (template != null) {
-      int custType = template.getPacketType();
-      customPayloadTemplates.put(new Integer(custType), template);
-      return true;
+      return this._getTemplates().add(template);
     }
     else {
       return false;
@@ -363,37 +383,61 @@ public class DeviceDBImpl implements DeviceDB {
   }
 
   /**
-   * Get the PayloadTemplate from the collection using the packet type as the key.
+   * Get the PayloadTemplate of this device for the specified packet type.
    * 
-   * @param custType The key for the PayloadTemplate.
-   * @return The PayloadTemplate from the HashMap with the specified key.
+   * @param custType The packet type of the PayloadTemplate.
+   * @return The PayloadTemplate, or null if none has been added for the packet type.
    */
   public PayloadTemplate getClientPayloadTemplate(int custType) {
-    return (PayloadTemplate) customPayloadTemplates.get(new Integer(custType));
+    return this._getTemplates().get(custType);
   }
 
   /**
-   * Create a file for an event and store it in the data store directory.
+   * Get the custom payload templates of this device.
    * 
-   * @param geoEvent The event to be stored into the directory.
-   * @return Server error code NAK_OK if the file is saved correctly, NAK_EVENT_ERROR otherwise.
+   * @return The templates of this device.
    */
-  public int insertEvent(GeoEvent geoEvent) {
+  private TemplateRegistry.DeviceTemplates _getTemplates() {
+    if (this.templates == null) {
+      this.templates = TemplateRegistry.getDeviceTemplates(this.accountId, this.deviceId);
+    }
+    return this.templates;
+  }
+
+  /**
+   * Get the file in which the events of this device are stored.
+   * 
+   * @return The "account_device.csv" file in the data store directory.
+   */
+  private File _getDataFile() {
+    if (this.dataFile == null) {
+      // "account$device.csv"
+      StringBuffer sb = new StringBuffer();
+      sb.append(this.getAccountName());
+      sb.append("_");
+      sb.append(this.getDeviceName());
+      sb.append(".csv");
+      this.dataFile = new File(DeviceDBImpl.getDataStoreDirectory(), sb.toString());
+    }
+    return this.dataFile;
+  }
 
-    /* directory */
-    File storeDir = DeviceDBImpl.getDataStoreDirectory();
+  /**
+   * Formats the date and time of the CSV records (in the default TimeZone).
+   */
+  private static final FastFormat.Timestamp CSV_TIME_FORMAT = new FastFormat.Timestamp(
+      "yyyy/MM/dd,HH:mm:ss", null);
 
-    /* file */
-    // "account$device.csv"
-    StringBuffer sb = new StringBuffer();
-    sb.append(this.getAccountName());
-    sb.append("_");
-    sb.append(this.getDeviceName());
-    sb.append(".csv");
-    File dataFile = new File(storeDir, sb.toString());
+  /**
+   * Format an event as a CSV record.
+   * 
+   * @param geoEvent The event.
+   * @param fmt The buffer to which the record (including the line terminator) is appended.
+   */
+  private void _formatEvent(GeoEvent geoEvent, StringBuffer fmt) {
 
     /* extract */
-    DateTime ts = new DateTime(geoEvent.getTimestamp());
+    long ts = geoEvent.getTimestamp();
     int statusCode = geoEvent.getStatusCode();
     String statusDesc = StatusCodes.GetCodeDescription(statusCode);
     GeoPoint gp = geoEvent.getGeoPoint();
@@ -403,33 +447,81 @@ public class DeviceDBImpl implements DeviceDB {
 
     /* format */
     // YYYY/MM/DD,hh:mm:ss,<status>,<latitude>,<logitude>,<speed>,<heading>,<altitude>
-    StringBuffer fmt = new StringBuffer();
-    ts.format("yyyy/MM/dd,HH:mm:ss", fmt, null); // local TimeZone
-    // ts.gmtFormat("yyyy/MM/dd,HH:mm:ss",fmt); // GMT TimeZone
-    fmt.append(",");
+    CSV_TIME_FORMAT.append(fmt, ts); // local TimeZone
+    fmt.append(',');
     fmt.append(statusDesc);
-    fmt.append(",");
-    fmt.append(gp.getLatitudeString());
-    fmt.append(",");
-    fmt.append(gp.getLongitudeString());
-    fmt.append(",");
-    fmt.append(StringTools.format(speed, "0.0"));
-    fmt.append(",");
-    fmt.append(StringTools.format(heading, "0.0"));
-    fmt.append(",");
-    fmt.append(StringTools.format(altitude, "0.0"));
-    fmt.append("\n");
-
-    /* save */
+    fmt.append(',');
+    FastFormat.Decimal.COORD.append(fmt, gp.getLatitude());
+    fmt.append(',');
+    FastFormat.Decimal.COORD.append(fmt, gp.getLongitude());
+    fmt.append(',');
+    FastFormat.Decimal.TENTHS.append(fmt, speed);
+    fmt.append(',');
+    FastFormat.Decimal.TENTHS.append(fmt, heading);
+    fmt.append(',');
+    FastFormat.Decimal.TENTHS.append(fmt, altitude);
+    fmt.append('\n');
+
+  }
+
+  /**
+   * Append CSV records to the file of this device.
+   * 
+   * @param fmt The records.
+   * @return Server error code NAK_OK if the records are saved, NAK_EVENT_ERROR otherwise.
+   */
+  private int _saveRecords(StringBuffer fmt) {
+    File file = this._getDataFile();
     try {
-      // Print.logDebug("Writing CSV record to file: " + dataFile);
-      FileTools.writeFile(fmt.toString().getBytes(), dataFile, true);
+      // Print.logDebug("Writing CSV record to file: " + file);
+      byte data[] = fmt.toString().getBytes();
+      if (writerPool != null) {
+        writerPool.write(file, data, 0, data.length);
+      }
+      else {
+        FileTools.writeFile(data, file, true);
+      }
       return ServerErrors.NAK_OK;
     }
     catch (IOException ioe) {
-      Print.logException("Unable to save to file: " + dataFile, ioe);
+      Print.logException("Unable to save to file: " + file, ioe);
       return ServerErrors.NAK_EVENT_ERROR;
     }
+  }
+
+  /**
+   * Create a file for an event and store it in the data store directory.
+   * 
+   * @param geoEvent The event to be stored into the directory.
+   * @return Server error code NAK_OK if the file is saved correctly, NAK_EVENT_ERROR otherwise.
+   */
+  public int insertEvent(GeoEvent geoEvent) {
+    StringBuffer fmt = new StringBuffer();
+    this._formatEvent(geoEvent, fmt);
+    return this._saveRecords(fmt);
+  }
 
+  /**
+   * Store a group of events, in order, stopping at the first event which cannot be saved. When
+   * the event files are kept open, the events are written (and committed) together.
+   * 
+   * @param geoEvents The events to be stored.
+   * @param count The number of events to store.
+   * @return The number of events saved.
+   */
+  public int insertEvents(GeoEvent geoEvents[], int count) {
+    if (writerPool != null) {
+      StringBuffer fmt = new StringBuffer();
+      for (int i = 0; i < count; i++) {
+        this._formatEvent(geoEvents[i], fmt);
+      }
+      return (this._saveRecords(fmt) == ServerErrors.NAK_OK) ? count : 0;
+    }
+    for (int i = 0; i < count; i++) {
+      if (this.insertEvent(geoEvents[i]) != ServerErrors.NAK_OK) {
+        return i;
+      }
+    }
+    return count;
   }
 }
@@ -0,0 +1,402 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Bounded pool of open, buffered append-only files
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opendmtp.util.Print;
+
+/**
+ * Keeps the files appended to by the file store open, so that a file is not opened and closed for
+ * every event. Each open file has a write buffer, which is written to the file when it is full,
+ * when the oldest buffered data has waited for the flush interval, or at the end of each
+ * <tt>write</tt> (commit), depending on the commit policy:
+ * <ul>
+ * <li>COMMIT_BUFFERED: data is written when the buffer is full, or after the flush interval.</li>
+ * <li>COMMIT_FLUSH: data is also written at each commit.</li>
+ * <li>COMMIT_FSYNC: data is also written, and forced to the storage device, at each commit.</li>
+ * </ul>
+ * The file store uses COMMIT_FLUSH unless configured otherwise. With COMMIT_BUFFERED, events which
+ * have already been acknowledged to the client are lost if the server stops before the buffer is
+ * written, so it should only be enabled where that loss is acceptable.
+ * A group of events saved together is written, and committed, at once (group commit). At most <tt>maxOpen</tt>
+ * files are kept open; when another file is opened, the least recently used file is flushed and
+ * closed. Files which have not been written for the idle timeout are also closed.
+ *
+ * @author agent
+ */
+public class FileWriterPool implements Runnable {
+
+  // ------------------------------------------------------------------------
+
+  /** Write data at each commit only when the buffer is full, or after the flush interval. */
+  public static final int COMMIT_BUFFERED = 0;
+
+  /** Also write data at each commit. */
+  public static final int COMMIT_FLUSH = 1;
+
+  /** Also write data, and force it to the storage device, at each commit. */
+  public static final int COMMIT_FSYNC = 2;
+
+  /** Default maximum number of open files. */
+  public static final int DEFAULT_MAX_OPEN = 64;
+
+  /** Default write buffer size (per open file). */
+  public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+  /** Default maximum time data is held in a write buffer (milliseconds). */
+  public static final long DEFAULT_FLUSH_MS = 1000L;
+
+  /** Default time after which an unused file is closed (seconds). */
+  public static final long DEFAULT_IDLE_SEC = 120L;
+
+  /**
+   * Returns the commit policy with the specified name.
+   *
+   * @param name "buffered", "flush", or "fsync".
+   * @param dft The policy returned if the name is not recognized.
+   * @return The commit policy.
+   */
+  public static int getCommitPolicy(String name, int dft) {
+    if ("buffered".equalsIgnoreCase(name)) {
+      return COMMIT_BUFFERED;
+    }
+    else if ("flush".equalsIgnoreCase(name)) {
+      return COMMIT_FLUSH;
+    }
+    else if ("fsync".equalsIgnoreCase(name)) {
+      return COMMIT_FSYNC;
+    }
+    else {
+      return dft;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * An open file and its write buffer.
+   */
+  private static class OpenFile {
+    private File file = null;
+    private FileOutputStream fos = null;
+    private FileChannel channel = null;
+    private ByteBuffer buffer = null;
+    private long bufferTimeMS = 0L; // time the oldest buffered data was added
+    private long lastUseMS = 0L;
+    private boolean closed = false;
+
+    private OpenFile(File file, int bufferSize) throws IOException {
+      this.file = file;
+      this.fos = new FileOutputStream(file, true);
+      this.channel = this.fos.getChannel();
+      this.buffer = ByteBuffer.allocate(bufferSize);
+      this.lastUseMS = System.currentTimeMillis();
+    }
+
+    /* append data (the caller holds the lock on this file) */
+    private void _write(byte data[], int ofs, int len) throws IOException {
+      if (len > this.buffer.remaining()) {
+        this._flush(false);
+      }
+      if (len > this.buffer.capacity()) {
+        ByteBuffer bb = ByteBuffer.wrap(data, ofs, len);
+        while (bb.hasRemaining()) {
+          this.channel.write(bb);
+        }
+      }
+      else {
+        if (this.buffer.position() == 0) {
+          this.bufferTimeMS = System.currentTimeMillis();
+        }
+        this.buffer.put(data, ofs, len);
+      }
+      this.lastUseMS = System.currentTimeMillis();
+    }
+
+    /* write the buffered data (the caller holds the lock on this file) */
+    private void _flush(boolean sync) throws IOException {
+      if (this.buffer.position() > 0) {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+          this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+      }
+      if (sync) {
+        this.channel.force(false);
+      }
+    }
+
+    /* flush and close (the caller holds the lock on this file) */
+    private void _close() {
+      if (!this.closed) {
+        this.closed = true;
+        try {
+          this._flush(false);
+        }
+        catch (IOException ioe) {
+          Print.logException("Unable to flush file: " + this.file, ioe);
+        }
+        try {
+          this.fos.close();
+        }
+        catch (IOException ioe) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private int maxOpen = DEFAULT_MAX_OPEN;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+  private long flushMS = DEFAULT_FLUSH_MS;
+  private long idleMS = DEFAULT_IDLE_SEC * 1000L;
+  private int commitPolicy = COMMIT_BUFFERED;
+
+  /** Open files, by path, in access order. */
+  private LinkedHashMap openFiles = null;
+
+  /** Files removed from the open files, to be closed (guarded by the open files lock). */
+  private ArrayList evicted = new ArrayList();
+
+  private long openCount = 0L;
+
+  /**
+   * Creates a file writer pool, and starts its background flush thread.
+   *
+   * @param maxOpen Maximum number of open files.
+   * @param bufferSize Write buffer size, per open file.
+   * @param flushMS Maximum time data is held in a write buffer (milliseconds).
+   * @param idleSec Time after which an unused file is closed (seconds).
+   * @param commitPolicy One of the COMMIT_* policies.
+   */
+  public FileWriterPool(int maxOpen, int bufferSize, long flushMS, long idleSec, int commitPolicy) {
+    this.maxOpen = (maxOpen > 0) ? maxOpen : DEFAULT_MAX_OPEN;
+    this.bufferSize = (bufferSize > 0) ? bufferSize : DEFAULT_BUFFER_SIZE;
+    this.flushMS = (flushMS > 0L) ? flushMS : DEFAULT_FLUSH_MS;
+    this.idleMS = ((idleSec > 0L) ? idleSec : DEFAULT_IDLE_SEC) * 1000L;
+    this.commitPolicy = commitPolicy;
+    this.openFiles = new LinkedHashMap(16, 0.75F, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        if (this.size() > FileWriterPool.this.maxOpen) {
+          // closed by '_getOpenFile', outside of the open files lock
+          FileWriterPool.this.evicted.add(eldest.getValue());
+          return true;
+        }
+        else {
+          return false;
+        }
+      }
+    };
+    Thread thread = new Thread(this, "FileWriterPool");
+    thread.setDaemon(true);
+    thread.start();
+    Runtime.getRuntime().addShutdownHook(new Thread("FileWriterPoolExit") {
+      public void run() {
+        FileWriterPool.this.closeAll();
+      }
+    });
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the open file for the specified path, opening it if necessary.
+   *
+   * @param file The file.
+   * @return The open file.
+   * @throws IOException If the file cannot be opened.
+   */
+  private OpenFile _getOpenFile(File file) throws IOException {
+    String path = file.getPath();
+    OpenFile of;
+    Object close[] = null;
+    synchronized (this.openFiles) {
+      of = (OpenFile) this.openFiles.get(path);
+      if (of == null) {
+        of = new OpenFile(file, this.bufferSize);
+        this.openFiles.put(path, of);
+        this.openCount++;
+        if (!this.evicted.isEmpty()) {
+          close = this.evicted.toArray();
+          this.evicted.clear();
+        }
+      }
+    }
+    for (int i = 0; (close != null) && (i < close.length); i++) {
+      OpenFile lru = (OpenFile) close[i];
+      synchronized (lru) {
+        lru._close();
+      }
+    }
+    return of;
+  }
+
+  /**
+   * Appends a group of records to a file, and commits them according to the commit policy.
+   *
+   * @param file The file.
+   * @param data The records.
+   * @param ofs The offset of the records in the data array.
+   * @param len The length of the records.
+   * @throws IOException If the file cannot be opened or written.
+   */
+  public void write(File file, byte data[], int ofs, int len) throws IOException {
+    while (true) {
+      OpenFile of = this._getOpenFile(file);
+      synchronized (of) {
+        if (of.closed) {
+          continue; // closed in the meantime, open again
+        }
+        try {
+          of._write(data, ofs, len);
+          if (this.commitPolicy != COMMIT_BUFFERED) {
+            of._flush(this.commitPolicy == COMMIT_FSYNC);
+          }
+        }
+        catch (IOException ioe) {
+          // discard the handle, the file is opened again on the next write
+          this._remove(of);
+          throw ioe;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Closes and removes an open file (the caller holds the lock on the file).
+   *
+   * @param of The open file.
+   */
+  private void _remove(OpenFile of) {
+    of._close();
+    synchronized (this.openFiles) {
+      if (this.openFiles.get(of.file.getPath()) == of) {
+        this.openFiles.remove(of.file.getPath());
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the open files.
+   *
+   * @return The open files.
+   */
+  private OpenFile[] _getOpenFiles() {
+    synchronized (this.openFiles) {
+      return (OpenFile[]) this.openFiles.values().toArray(new OpenFile[this.openFiles.size()]);
+    }
+  }
+
+  /**
+   * Writes the buffered data which has waited for the flush interval, and closes the files which
+   * have not been used for the idle timeout.
+   */
+  public void flushExpired() {
+    long nowMS = System.currentTimeMillis();
+    OpenFile of[] = this._getOpenFiles();
+    for (int i = 0; i < of.length; i++) {
+      synchronized (of[i]) {
+        if (of[i].closed) {
+          continue;
+        }
+        else if ((nowMS - of[i].lastUseMS) >= this.idleMS) {
+          this._remove(of[i]);
+        }
+        else if ((of[i].buffer.position() > 0) && ((nowMS - of[i].bufferTimeMS) >= this.flushMS)) {
+          try {
+            of[i]._flush(false);
+          }
+          catch (IOException ioe) {
+            Print.logException("Unable to flush file: " + of[i].file, ioe);
+            this._remove(of[i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Flushes and closes all open files.
+   */
+  public void closeAll() {
+    OpenFile of[] = this._getOpenFiles();
+    for (int i = 0; i < of.length; i++) {
+      synchronized (of[i]) {
+        this._remove(of[i]);
+      }
+    }
+  }
+
+  /**
+   * Flushes expired buffers and closes idle files, until the JVM exits.
+   */
+  public void run() {
+    long sleepMS = Math.min(this.flushMS, 1000L);
+    while (true) {
+      try {
+        Thread.sleep(sleepMS);
+      }
+      catch (InterruptedException ie) {
+        // ignore
+      }
+      try {
+        this.flushExpired();
+      }
+      catch (Throwable t) {
+        Print.logStackTrace("FileWriterPool: Unexpected error", t);
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a string representation of this pool.
+   *
+   * @return The number of open files, and the number of times a file was opened.
+   */
+  public String toString() {
+    synchronized (this.openFiles) {
+      StringBuffer sb = new StringBuffer();
+      sb.append("FileWriterPool: open=").append(this.openFiles.size()).append("/").append(this.maxOpen);
+      sb.append(" opened=").append(this.openCount);
+      return sb.toString();
+    }
+  }
+
+}
@@ -0,0 +1,213 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Per-device custom payload template registry
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendmtp.server.db.PayloadTemplate;
+import org.opendmtp.util.FileTools;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Registry of the custom payload templates of the devices of the file store (and of the segment
+ * log store). The templates of each device are loaded from the file "account_device.templates" in
+ * the store directory when the device is first used, and the file is rewritten whenever a template
+ * is added.
+ * <p>
+ * Template lookups take no lock and allocate nothing: the templates of a device are held in an
+ * array indexed by packet type, which is replaced (never modified) when a template is added.
+ * <p>
+ * Each line of a template file holds one template, as comma separated hex values:
+ * <tt>type,repeatLast,field,field,...</tt>, where each field is encoded as
+ * <tt>[hiRes:1][type:7][index:8][length:8]</tt> (see <tt>PayloadTemplate.Field(long)</tt>).
+ * 
+ * @author agent
+ */
+public class TemplateRegistry {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * The custom payload templates of a device.
+   */
+  public static class DeviceTemplates {
+    private File file = null;
+    private volatile PayloadTemplate templates[] = new PayloadTemplate[256];
+
+    private DeviceTemplates(File file) {
+      this.file = file;
+    }
+
+    /**
+     * Returns the template for the specified packet type.
+     * 
+     * @param custType The packet type.
+     * @return The template, or null if none has been added for the packet type.
+     */
+    public PayloadTemplate get(int custType) {
+      PayloadTemplate t[] = this.templates;
+      return ((custType >= 0) && (custType < t.length)) ? t[custType] : null;
+    }
+
+    /**
+     * Adds (or replaces) a template, and rewrites the template file of the device. The template
+     * is only added if the file is saved.
+     * 
+     * @param template The template.
+     * @return True if the template was added and saved.
+     */
+    public synchronized boolean add(PayloadTemplate template) {
+      int custType = template.getPacketType();
+      if ((custType < 0) || (custType >= this.templates.length)) {
+        return false;
+      }
+      PayloadTemplate t[] = this.templates.clone();
+      t[custType] = template;
+      try {
+        this._save(t);
+        this.templates = t; // published only once saved
+        return true;
+      }
+      catch (IOException ioe) {
+        Print.logException("Unable to save templates: " + this.file, ioe);
+        return false;
+      }
+    }
+
+    /**
+     * Loads the template file of the device (the caller holds the only reference).
+     */
+    private void _load() {
+      if (!this.file.exists()) {
+        return;
+      }
+      byte b[] = FileTools.readFile(this.file);
+      String lines[] = StringTools.parseString((b != null) ? new String(b) : "", '\n');
+      for (int i = 0; i < lines.length; i++) {
+        String v[] = StringTools.parseString(lines[i].trim(), ',');
+        if (v.length < 2) {
+          continue; // blank line
+        }
+        int custType = (int) StringTools.parseHexLong(v[0], -1L);
+        if ((custType < 0) || (custType >= this.templates.length)) {
+          Print.logWarn("Invalid template type, ignored: " + this.file + " [" + v[0] + "]");
+          continue;
+        }
+        boolean repeatLast = v[1].equals("1");
+        PayloadTemplate.Field fld[] = new PayloadTemplate.Field[v.length - 2];
+        for (int f = 0; f < fld.length; f++) {
+          fld[f] = new PayloadTemplate.Field(StringTools.parseHexLong(v[f + 2], 0L));
+        }
+        this.templates[custType] = new PayloadTemplate(custType, fld, repeatLast);
+      }
+    }
+
+    /**
+     * Writes the template file of the device (the caller holds the lock on this object).
+     * 
+     * @param t The templates, by packet type.
+     * @throws IOException If the file cannot be written.
+     */
+    private void _save(PayloadTemplate t[]) throws IOException {
+      StringBuffer sb = new StringBuffer();
+      for (int i = 0; i < t.length; i++) {
+        if (t[i] == null) {
+          continue;
+        }
+        sb.append(Integer.toHexString(i));
+        sb.append(t[i].getRepeatLast() ? ",1" : ",0");
+        PayloadTemplate.Field fld[] = t[i].getFields();
+        for (int f = 0; (fld != null) && (f < fld.length); f++) {
+          long mask = (fld[f].isHiRes() ? 0x800000L : 0L) | ((long) (fld[f].getType() & 0x7F) << 16)
+              | ((long) (fld[f].getIndex() & 0xFF) << 8) | (long) (fld[f].getLength() & 0xFF);
+          sb.append(",").append(Long.toHexString(mask));
+        }
+        sb.append("\n");
+      }
+      File tmp = new File(this.file.getPath() + ".tmp");
+      FileOutputStream fos = new FileOutputStream(tmp, false);
+      try {
+        fos.write(sb.toString().getBytes());
+        fos.getFD().sync();
+      }
+      finally {
+        fos.close();
+      }
+      if (!tmp.renameTo(this.file)) {
+        this.file.delete();
+        if (!tmp.renameTo(this.file)) {
+          throw new IOException("Unable to rename template file: " + tmp);
+        }
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /** The templates of the devices loaded so far, by template file path. */
+  private static ConcurrentHashMap deviceTemplates = new ConcurrentHashMap();
+
+  /**
+   * Returns the custom payload templates of a device of the file store, loading them from its
+   * template file the first time the device is used.
+   * 
+   * @param acctId The account ID.
+   * @param devId The device ID.
+   * @return The templates of the device.
+   */
+  public static DeviceTemplates getDeviceTemplates(String acctId, String devId) {
+    return TemplateRegistry.getDeviceTemplates(DeviceDBImpl.getDataStoreDirectory(), acctId, devId);
+  }
+
+  /**
+   * Returns the custom payload templates of a device, loading them from its template file in the
+   * specified directory the first time the device is used.
+   * 
+   * @param dir The directory of the template file.
+   * @param acctId The account ID.
+   * @param devId The device ID.
+   * @return The templates of the device.
+   */
+  public static DeviceTemplates getDeviceTemplates(File dir, String acctId, String devId) {
+    File file = new File(dir, acctId + "_" + devId + ".templates");
+    String key = file.getPath();
+    DeviceTemplates dt = (DeviceTemplates) deviceTemplates.get(key);
+    if (dt == null) {
+      DeviceTemplates loaded = new DeviceTemplates(file);
+      loaded._load();
+      dt = (DeviceTemplates) deviceTemplates.putIfAbsent(key, loaded);
+      if (dt == null) {
+        dt = loaded;
+      }
+    }
+    return dt;
+  }
+
+}
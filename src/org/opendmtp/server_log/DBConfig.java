@@ -0,0 +1,123 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Segment log store configuration
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_log;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.opendmtp.server.base.DMTPServer;
+import org.opendmtp.server.db.AccountDB;
+import org.opendmtp.server.db.DeviceDB;
+
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
+
+/**
+ * Configures and initializes the segment log data store for the DMTP Server. Also provides a class
+ * that creates Device and Account DB's.
+ * 
+ * @author agent
+ */
+public class DBConfig {
+
+  /** Default event log directory. */
+  private static final String DEFAULT_LOG_DIR = "./data/log";
+
+  /**
+   * Contains methods that create new AccountDBImpl's and DeviceDBImpl's.
+   * 
+   * @author agent
+   */
+  private static class DMTP_DBFactory implements DMTPServer.DBFactory {
+
+    /**
+     * Create a new Account DB.
+     * 
+     * @param acctName The name or ID of the account.
+     * @return A new AccountDBImpl object.
+     */
+    public AccountDB getAccountDB(String acctName) {
+      return new AccountDBImpl(acctName);
+    }
+
+    /**
+     * Create a new Device DB. This method always returns null.
+     * 
+     * @param uniqId The ID of the device.
+     * @return Returns null always.
+     */
+    public DeviceDB getDeviceDB(long uniqId) {
+      return null;
+    }
+
+    /**
+     * Create a new Device DB with the specified ID and name.
+     * 
+     * @param acctId The account ID for the deviceDB.
+     * @param devName The name of the device for the deviceDB.
+     * @return A new DeviceDB with the specified account ID and device name.
+     */
+    public DeviceDB getDeviceDB(String acctId, String devName) {
+      return new DeviceDBImpl(acctId, devName);
+    }
+  }
+
+  /**
+   * Initialize the server and the RTConfig. Also opens (and recovers) the event log.
+   * 
+   * @param argv Command line parameters to pass to RTConfig.
+   * @param interactive Sets RTConfig options when set to true. Does nothing if set to false.
+   */
+  public static void init(String argv[], boolean interactive) {
+
+    /* command line options */
+    RTConfig.setCommandLineArgs(argv);
+    if (interactive) {
+      RTConfig.setFile(RTKey.LOG_FILE, null); // no log file
+      Print.setLogHeaderLevel(Print.LOG_WARN); // include log header on WARN/ERROR/FATAL
+      RTConfig.setBoolean(RTKey.LOG_INCL_DATE, false); // exclude date
+      RTConfig.setBoolean(RTKey.LOG_INCL_STACKFRAME, true); // include stackframe
+    }
+
+    /* open the event log */
+    File logDir = RTConfig.getFile(Main.ARG_LOGDIR, new File(DEFAULT_LOG_DIR));
+    int segSize = RTConfig.getInt(RTKey.SEGLOG_SEGMENT_SIZE, SegmentLog.DEFAULT_SEGMENT_SIZE);
+    boolean fsync = RTConfig.getBoolean(RTKey.SEGLOG_FSYNC, true);
+    try {
+      DeviceDBImpl.setEventLog(new SegmentLog(logDir, segSize, fsync));
+    }
+    catch (IOException ioe) {
+      Print.logException("Unable to open event log: " + logDir, ioe);
+      System.exit(1);
+    }
+    Print.logInfo("Account/Device Events will be appended to log '" + logDir + "'");
+
+    /* register OpenDMTP protocol DB interface */
+    DMTPServer.setDBFactory(new DBConfig.DMTP_DBFactory());
+
+  }
+}
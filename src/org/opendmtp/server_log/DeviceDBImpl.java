@@ -0,0 +1,393 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Segment log store device
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_log;
+
+import java.io.IOException;
+
+import org.opendmtp.codes.Encoding;
+import org.opendmtp.codes.ServerErrors;
+import org.opendmtp.server.db.DeviceBatchDB;
+import org.opendmtp.server.db.PayloadTemplate;
+import org.opendmtp.server_file.TemplateRegistry;
+import org.opendmtp.util.GeoEvent;
+import org.opendmtp.util.Print;
+
+/**
+ * A device whose events are appended to the segment log. As with the file store, all devices are
+ * active, and have no event or connection limits.
+ * 
+ * @author agent
+ */
+public class DeviceDBImpl implements DeviceBatchDB {
+
+  /** Maximum number of allowed events. */
+  private static final int MAX_ALLOWED_EVENTS = -1; // no limit
+
+  /** Time interval (in minutes) over which the limits apply. */
+  private static final int LIMIT_TIME_INTERVAL = 0;
+
+  /** No connection limit. */
+  private static final int NO_LIMIT = -1;
+
+  /** Supported packet encoding methods. */
+  private static final int SUPPORTED_ENCODING = Encoding.SUPPORTED_ENCODING_BINARY
+      | Encoding.SUPPORTED_ENCODING_BASE64 | Encoding.SUPPORTED_ENCODING_HEX;
+
+  /** The event log. */
+  private static SegmentLog eventLog = null;
+
+  /**
+   * Set the event log in which the events of all devices are stored.
+   * 
+   * @param log The event log.
+   */
+  public static void setEventLog(SegmentLog log) {
+    eventLog = log;
+  }
+
+  /**
+   * Get the event log in which the events of all devices are stored.
+   * 
+   * @return The event log.
+   */
+  public static SegmentLog getEventLog() {
+    return eventLog;
+  }
+
+  private String accountId = null;
+
+  private String deviceId = null;
+
+  private int supportedEncodings = SUPPORTED_ENCODING;
+
+  private byte totalConnectionProfile[] = new byte[0];
+
+  private long lastTotalConnectionTime = 0L;
+
+  private byte duplexConnectionProfile[] = new byte[0];
+
+  private long lastDuplexConnectionTime = 0L;
+
+  private TemplateRegistry.DeviceTemplates templates = null;
+
+  private int deviceKey = 0;
+
+  /**
+   * Create a new DeviceDB with the specified account ID and device ID.
+   * 
+   * @param acctId The ID of the account.
+   * @param devId The ID of the device. Also used as the description of the device.
+   */
+  public DeviceDBImpl(String acctId, String devId) {
+    this.accountId = acctId;
+    this.deviceId = devId;
+  }
+
+  /**
+   * Get the name of the account.
+   * 
+   * @return The account ID of the DeviceDB.
+   */
+  public String getAccountName() {
+    return this.accountId;
+  }
+
+  /**
+   * Get the name of the device.
+   * 
+   * @return The device ID of the DeviceDB.
+   */
+  public String getDeviceName() {
+    return this.deviceId;
+  }
+
+  /**
+   * Get the description of the device.
+   * 
+   * @return The device ID.
+   */
+  public String getDescription() {
+    return this.deviceId;
+  }
+
+  /**
+   * Check to see if the device is active.
+   * 
+   * @return True always.
+   */
+  public boolean isActive() {
+    return true;
+  }
+
+  /**
+   * Get the maximum number of allowed events for the device.
+   * 
+   * @return -1 (no limit).
+   */
+  public int getMaxAllowedEvents() {
+    return MAX_ALLOWED_EVENTS;
+  }
+
+  /**
+   * Get the number of events that occurred between two timestamps, from the event log index.
+   * 
+   * @param timeStart The start time of the time interval.
+   * @param timeEnd The end time of the time interval.
+   * @return The number of events that occurred in the interval.
+   */
+  public long getEventCount(long timeStart, long timeEnd) {
+    return eventLog.getEventCount(this.accountId, this.deviceId, timeStart, timeEnd);
+  }
+
+  /**
+   * Get the events that occurred between two timestamps, from the event log.
+   * 
+   * @param timeStart The start time of the time interval.
+   * @param timeEnd The end time of the time interval.
+   * @param limit The maximum number of (most recent) events returned, or 0 for no limit.
+   * @return The events, in the order they were received.
+   */
+  public GeoEvent[] getRangeEvents(long timeStart, long timeEnd, int limit) {
+    return eventLog.getRangeEvents(this.accountId, this.deviceId, timeStart, timeEnd, limit);
+  }
+
+  /**
+   * Get the time interval over which the event and connection limits apply.
+   * 
+   * @return The limit time interval (in minutes).
+   */
+  public int getLimitTimeInterval() {
+    return LIMIT_TIME_INTERVAL;
+  }
+
+  /**
+   * Get the maximum number of total connections.
+   * 
+   * @return -1 (no limit).
+   */
+  public int getMaxTotalConnections() {
+    return NO_LIMIT;
+  }
+
+  /**
+   * Get the maximum number of total connections per minute.
+   * 
+   * @return -1 (no limit).
+   */
+  public int getMaxTotalConnectionsPerMinute() {
+    return NO_LIMIT;
+  }
+
+  /**
+   * Get the byte mask for the device's total connection profile.
+   * 
+   * @return The total connection profile for the device.
+   */
+  public byte[] getTotalConnectionProfile() {
+    return this.totalConnectionProfile;
+  }
+
+  /**
+   * Set the byte mask for the device's total connection profile.
+   * 
+   * @param profile The new total connection profile for the device.
+   */
+  public void setTotalConnectionProfile(byte[] profile) {
+    this.totalConnectionProfile = profile;
+  }
+
+  /**
+   * Get the time of the last total connection.
+   * 
+   * @return The time of the last total connection.
+   */
+  public long getLastTotalConnectionTime() {
+    return this.lastTotalConnectionTime;
+  }
+
+  /**
+   * Set the time of the last total connection.
+   * 
+   * @param time The time of the total connection.
+   */
+  public void setLastTotalConnectionTime(long time) {
+    this.lastTotalConnectionTime = time;
+  }
+
+  /**
+   * Get the maximum number of duplex connections.
+   * 
+   * @return -1 (no limit).
+   */
+  public int getMaxDuplexConnections() {
+    return NO_LIMIT;
+  }
+
+  /**
+   * Get the maximum number of duplex connections per minute.
+   * 
+   * @return -1 (no limit).
+   */
+  public int getMaxDuplexConnectionsPerMinute() {
+    return NO_LIMIT;
+  }
+
+  /**
+   * Get the byte mask of the device's duplex connection profile.
+   * 
+   * @return The duplex connection profile for the device.
+   */
+  public byte[] getDuplexConnectionProfile() {
+    return this.duplexConnectionProfile;
+  }
+
+  /**
+   * Set the byte mask of the device's duplex connection profile.
+   * 
+   * @param profile The new duplex connection profile.
+   */
+  public void setDuplexConnectionProfile(byte[] profile) {
+    this.duplexConnectionProfile = profile;
+  }
+
+  /**
+   * Get the time of the last duplex connection.
+   * 
+   * @return The time of the last duplex connection.
+   */
+  public long getLastDuplexConnectionTime() {
+    return this.lastDuplexConnectionTime;
+  }
+
+  /**
+   * Set the time of the last duplex connection.
+   * 
+   * @param time The time of the last duplex connection.
+   */
+  public void setLastDuplexConnectionTime(long time) {
+    this.lastDuplexConnectionTime = time;
+  }
+
+  /**
+   * Check to see if an encoding method is supported by the device.
+   * 
+   * @param encoding The encoding mask.
+   * @return True if the encoding method is supported, false otherwise.
+   */
+  public boolean supportsEncoding(int encoding) {
+    return ((this.supportedEncodings & encoding) != 0);
+  }
+
+  /**
+   * Remove an encoding method currently supported by the device (for this session).
+   * 
+   * @param encoding The encoding mask.
+   */
+  public void removeEncoding(int encoding) {
+    this.supportedEncodings &= ~encoding;
+  }
+
+  /**
+   * Add a payload template to the custom templates of this device. The template is saved in the
+   * template file of the device, in the event log directory (see <tt>TemplateRegistry</tt>).
+   * 
+   * @param template The PayloadTemplate to be added.
+   * @return True if the payload template is added and saved, false otherwise.
+   */
+  public boolean addClientPayloadTemplate(PayloadTemplate template) {
+    if (template != null) {
+      return this._getTemplates().add(template);
+    }
+    else {
+      return false;
+    }
+  }
+
+  /**
+   * Get a payload template added for this device.
+   * 
+   * @param custType The packet type.
+   * @return The PayloadTemplate, or null if not found.
+   */
+  public PayloadTemplate getClientPayloadTemplate(int custType) {
+    return this._getTemplates().get(custType);
+  }
+
+  /**
+   * Get the custom payload templates of this device.
+   * 
+   * @return The templates of this device.
+   */
+  private TemplateRegistry.DeviceTemplates _getTemplates() {
+    if (this.templates == null) {
+      this.templates = TemplateRegistry.getDeviceTemplates(eventLog.getDirectory(),
+          this.accountId, this.deviceId);
+    }
+    return this.templates;
+  }
+
+  /**
+   * Append an event to the event log.
+   * 
+   * @param geoEvent The event.
+   * @return Server error code NAK_OK if the event is saved, NAK_EVENT_ERROR otherwise.
+   */
+  public int insertEvent(GeoEvent geoEvent) {
+    return (this.insertEvents(new GeoEvent[] { geoEvent }, 1) == 1) ? ServerErrors.NAK_OK
+        : ServerErrors.NAK_EVENT_ERROR;
+  }
+
+  /**
+   * Append a group of events to the event log. The events are synced together.
+   * 
+   * @param geoEvents The events.
+   * @param count The number of events to store.
+   * @return The number of events saved (all or none).
+   */
+  public int insertEvents(GeoEvent geoEvents[], int count) {
+    try {
+      if (this.deviceKey <= 0) {
+        this.deviceKey = eventLog.getDeviceKey(this.accountId, this.deviceId);
+      }
+      eventLog.append(this.deviceKey, geoEvents, count);
+      return count;
+    }
+    catch (IOException ioe) {
+      Print.logException("Unable to append events: " + this, ioe);
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the account and device IDs.
+   * 
+   * @return The "account/device" IDs.
+   */
+  public String toString() {
+    return this.accountId + "/" + this.deviceId;
+  }
+
+}
@@ -0,0 +1,783 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Append-only event log in memory-mapped, size-rotated segment files
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.opendmtp.util.GeoEvent;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Stores the events of all devices in an append-only log of fixed-layout binary records. The log
+ * is a sequence of segment files ("events.NNNNNN.seg") of a fixed size. The segment being appended
+ * to is memory-mapped; when it is full, the next segment is created. Full segments are mapped
+ * again (read-only) when their records are read, and at most <tt>MAX_READ_SEGMENTS</tt> of them
+ * are kept mapped (the others are released to be unmapped by the garbage collector).
+ * <p>
+ * Each record holds a CRC of its contents. The records appended by <tt>append</tt> are copied
+ * into the segment while holding the log lock, and are then forced to the storage device (if
+ * enabled) after the lock is released, together with the records appended concurrently by other
+ * sessions (group commit), so that a group of events (ie. a client block) is synced at most once.
+ * <p>
+ * Devices are identified in the records by a numeric key, assigned when the device is first seen
+ * and recorded in the "devices.txt" dictionary. Each record also holds the position of the
+ * previous record of the same device. In memory, a sparse index of each device groups its
+ * records into blocks of <tt>INDEX_BLOCK_SIZE</tt> records, holding the block's count, minimum
+ * and maximum timestamps, and last record position. Counting or reading the events in a time
+ * range only reads the records of the blocks which partially overlap the range.
+ * <p>
+ * The log is scanned when it is opened, to rebuild the index. Records with an invalid CRC are
+ * skipped; in the last segment, such a record (or an empty slot) marks the end of the log. When a
+ * record of a device does not point to the previous indexed record of the device (because a
+ * record between them was skipped), the index starts a new block, so that reading a block never
+ * follows the chain into a skipped record.
+ * <p>
+ * Record layout (RECORD_SIZE bytes, big-endian):
+ * <pre>
+ *   0 int    device key (0 = empty slot)
+ *   4 int    status code
+ *   8 long   timestamp (seconds)
+ *  16 long   position of the previous record of the device (-1 if none)
+ *  24 double latitude
+ *  32 double longitude
+ *  40 float  speed (kph)
+ *  44 float  heading
+ *  48 float  altitude (meters)
+ *  52 float  distance (km)
+ *  56 float  top speed (kph)
+ *  60 int    geofence ID #1
+ *  64 int    geofence ID #2
+ *  68 int    sequence (-1 if none)
+ *  72 int    reserved
+ *  76 int    CRC32 of bytes 0..75
+ * </pre>
+ * A record position is the segment number (high 32 bits) and the offset in the segment.
+ * <p>
+ * The log is guarded by a <tt>java.util.concurrent</tt> lock rather than the object monitor, since
+ * it is held across file I/O (and a monitor held while blocked would pin the carrier thread of a
+ * session running on a virtual thread).
+ *
+ * @author agent
+ */
+public class SegmentLog {
+
+  // ------------------------------------------------------------------------
+
+  /** Size of an event record. */
+  public static final int RECORD_SIZE = 80;
+
+  /** Offset of the CRC in a record. */
+  private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+  /** Default segment file size. */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** Number of records of a device per index block. */
+  public static final int INDEX_BLOCK_SIZE = 32;
+
+  /** Maximum number of full segments kept mapped for reading. */
+  public static final int MAX_READ_SEGMENTS = 4;
+
+  /** Device dictionary file name. */
+  private static final String DEVICE_FILE = "devices.txt";
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * The sparse index of the records of a device.
+   */
+  private static class DeviceIndex {
+    private int key = 0;
+    private String accountID = null;
+    private String deviceID = null;
+    private long lastPos = -1L;
+    private long eventCount = 0L;
+    private int nBlocks = 0;
+    private int blkCount[] = new int[4];
+    private long blkMinTime[] = new long[4];
+    private long blkMaxTime[] = new long[4];
+    private long blkLastPos[] = new long[4];
+
+    private DeviceIndex(int key, String acctID, String devID) {
+      this.key = key;
+      this.accountID = acctID;
+      this.deviceID = devID;
+    }
+
+    /* add a record to the index (in a new block if 'newBlock', or if the last block is full) */
+    private void add(long time, long pos, boolean newBlock) {
+      int b = this.nBlocks - 1;
+      if ((b < 0) || newBlock || (this.blkCount[b] >= INDEX_BLOCK_SIZE)) {
+        if (this.nBlocks == this.blkCount.length) {
+          int n = this.nBlocks * 2;
+          int cnt[] = new int[n];
+          long min[] = new long[n], max[] = new long[n], last[] = new long[n];
+          System.arraycopy(this.blkCount, 0, cnt, 0, this.nBlocks);
+          System.arraycopy(this.blkMinTime, 0, min, 0, this.nBlocks);
+          System.arraycopy(this.blkMaxTime, 0, max, 0, this.nBlocks);
+          System.arraycopy(this.blkLastPos, 0, last, 0, this.nBlocks);
+          this.blkCount = cnt;
+          this.blkMinTime = min;
+          this.blkMaxTime = max;
+          this.blkLastPos = last;
+        }
+        b = this.nBlocks++;
+        this.blkCount[b] = 0;
+        this.blkMinTime[b] = time;
+        this.blkMaxTime[b] = time;
+      }
+      this.blkCount[b]++;
+      if (time < this.blkMinTime[b]) {
+        this.blkMinTime[b] = time;
+      }
+      if (time > this.blkMaxTime[b]) {
+        this.blkMaxTime[b] = time;
+      }
+      this.blkLastPos[b] = pos;
+      this.lastPos = pos;
+      this.eventCount++;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private File directory = null;
+  private int segmentSize = DEFAULT_SEGMENT_SIZE;
+  private boolean fsync = true;
+
+  /** Full segments mapped for reading, by segment number (least recently used first). */
+  private LinkedHashMap readSegments = new LinkedHashMap(16, 0.75F, true) {
+    protected boolean removeEldestEntry(Map.Entry eldest) {
+      return (this.size() > MAX_READ_SEGMENTS);
+    }
+  };
+
+  /** Segment being appended to, and the offset of the next record. */
+  private MappedByteBuffer current = null;
+  private int currentSegment = -1;
+  private int writeOffset = 0;
+
+  /** Full segments not yet forced to the storage device. */
+  private ArrayList unsynced = new ArrayList();
+
+  /** Position up to which the appended records have been forced. */
+  private long syncedPos = -1L;
+
+  /** Device indexes, by key (Integer) and by "account/device". */
+  private HashMap deviceByKey = new HashMap();
+  private HashMap deviceByName = new HashMap();
+  private int nextDeviceKey = 1;
+
+  private CRC32 crc = new CRC32();
+  private byte record[] = new byte[RECORD_SIZE];
+
+  /** Guards the segments, the write position and the device indexes. */
+  private ReentrantLock lock = new ReentrantLock();
+
+  /** Held while forcing appended records (acquired before 'lock', never while holding it). */
+  private ReentrantLock syncLock = new ReentrantLock();
+
+  /**
+   * Opens the event log in the specified directory, creating it if necessary, and rebuilds the
+   * device indexes.
+   *
+   * @param dir The log directory.
+   * @param segmentSize The size of new segment files (rounded down to a whole number of records).
+   * @param fsync True to force appended records to the storage device at the end of each append.
+   * @throws IOException If the log cannot be opened.
+   */
+  public SegmentLog(File dir, int segmentSize, boolean fsync) throws IOException {
+    this.directory = dir;
+    this.segmentSize = (((segmentSize > 0) ? segmentSize : DEFAULT_SEGMENT_SIZE) / RECORD_SIZE)
+        * RECORD_SIZE;
+    this.fsync = fsync;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create log directory: " + dir);
+    }
+    this._loadDevices();
+    this._recover();
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the log directory.
+   *
+   * @return The directory of the segment files and the device dictionary.
+   */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the file of the specified segment.
+   *
+   * @param segNo The segment number.
+   * @return The segment file.
+   */
+  private File _getSegmentFile(int segNo) {
+    String n = StringTools.format(segNo, "000000");
+    return new File(this.directory, "events." + n + ".seg");
+  }
+
+  /**
+   * Maps a segment file, creating it (with the segment size) if it does not exist.
+   *
+   * @param segNo The segment number.
+   * @param write True to map the segment for appending, false to map an existing segment
+   *          read-only.
+   * @return The mapped segment.
+   * @throws IOException If the segment cannot be mapped.
+   */
+  private MappedByteBuffer _mapSegment(int segNo, boolean write) throws IOException {
+    File file = this._getSegmentFile(segNo);
+    RandomAccessFile raf = new RandomAccessFile(file, write ? "rw" : "r");
+    try {
+      long size = raf.length();
+      if (write && (size == 0L)) {
+        size = this.segmentSize;
+        raf.setLength(size);
+      }
+      FileChannel fc = raf.getChannel();
+      return fc.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0L,
+          size);
+      // the mapping remains valid after the file is closed
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns the mapped segment with the specified number, mapping a full segment for reading if
+   * it is not mapped (the caller holds the log lock).
+   *
+   * @param segNo The segment number.
+   * @return The mapped segment, or null if it does not exist or cannot be mapped.
+   */
+  private MappedByteBuffer _getSegment(int segNo) {
+    if (segNo == this.currentSegment) {
+      return this.current;
+    }
+    else if ((segNo < 0) || (segNo > this.currentSegment)) {
+      return null;
+    }
+    Integer key = new Integer(segNo);
+    MappedByteBuffer seg = (MappedByteBuffer) this.readSegments.get(key);
+    if (seg == null) {
+      try {
+        seg = this._mapSegment(segNo, false);
+        this.readSegments.put(key, seg);
+      }
+      catch (IOException ioe) {
+        Print.logException("Unable to map segment: " + this._getSegmentFile(segNo), ioe);
+        return null;
+      }
+    }
+    return seg;
+  }
+
+  /**
+   * Reads the device dictionary.
+   *
+   * @throws IOException If the dictionary cannot be read.
+   */
+  private void _loadDevices() throws IOException {
+    File file = new File(this.directory, DEVICE_FILE);
+    if (!file.isFile()) {
+      return;
+    }
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    try {
+      for (String line = br.readLine(); line != null; line = br.readLine()) {
+        // key,account,device
+        String f[] = StringTools.parseString(line, ',');
+        if (f.length >= 3) {
+          int key = StringTools.parseInt(f[0], 0);
+          if (key > 0) {
+            this._addDevice(new DeviceIndex(key, f[1], f[2]));
+          }
+        }
+      }
+    }
+    finally {
+      br.close();
+    }
+  }
+
+  /**
+   * Adds a device index.
+   *
+   * @param di The device index.
+   */
+  private void _addDevice(DeviceIndex di) {
+    this.deviceByKey.put(new Integer(di.key), di);
+    this.deviceByName.put(di.accountID + "/" + di.deviceID, di);
+    if (di.key >= this.nextDeviceKey) {
+      this.nextDeviceKey = di.key + 1;
+    }
+  }
+
+  /**
+   * Scans all segments, validating the records and rebuilding the device indexes, and positions
+   * the log after the last valid record.
+   *
+   * @throws IOException If a segment cannot be mapped.
+   */
+  private void _recover() throws IOException {
+    int lastSeg = 0;
+    while (this._getSegmentFile(lastSeg + 1).isFile()) {
+      lastSeg++;
+    }
+    long records = 0L, invalid = 0L;
+    for (int s = 0; s <= lastSeg; s++) {
+      MappedByteBuffer seg = this._mapSegment(s, (s == lastSeg));
+      int end = (seg.capacity() / RECORD_SIZE) * RECORD_SIZE;
+      int ofs = 0;
+      for (; ofs < end; ofs += RECORD_SIZE) {
+        int key = seg.getInt(ofs);
+        if (key == 0) {
+          break; // end of segment
+        }
+        else if (!this._isValid(seg, ofs)) {
+          if (s == lastSeg) {
+            Print.logWarn("Incomplete record, log truncated: " + this._getSegmentFile(s) + "@"
+                + ofs);
+            break;
+          }
+          invalid++;
+          continue;
+        }
+        DeviceIndex di = (DeviceIndex) this.deviceByKey.get(new Integer(key));
+        if (di == null) {
+          invalid++;
+          continue;
+        }
+        // a record which does not follow the last indexed record starts a new block
+        boolean chained = (seg.getLong(ofs + 16) == di.lastPos);
+        di.add(seg.getLong(ofs + 8), SegmentLog._position(s, ofs), !chained);
+        records++;
+      }
+      if (s == lastSeg) {
+        // clear anything after the last valid record (incomplete writes)
+        for (int z = ofs; z < end; z += RECORD_SIZE) {
+          if (seg.getInt(z) != 0) {
+            seg.putInt(z, 0);
+          }
+        }
+        this.current = seg;
+        this.currentSegment = s;
+        this.writeOffset = ofs;
+      }
+    }
+    Print.logInfo("Opened event log '" + this.directory + "': segments=" + (lastSeg + 1)
+        + " devices=" + this.deviceByKey.size() + " records=" + records
+        + ((invalid > 0L) ? (" invalid=" + invalid) : ""));
+  }
+
+  /**
+   * Returns true if the CRC of a record is valid.
+   *
+   * @param seg The segment.
+   * @param ofs The record offset.
+   * @return True if the record is valid.
+   */
+  private boolean _isValid(ByteBuffer seg, int ofs) {
+    for (int i = 0; i < CRC_OFFSET; i++) {
+      this.record[i] = seg.get(ofs + i);
+    }
+    this.crc.reset();
+    this.crc.update(this.record, 0, CRC_OFFSET);
+    return ((int) this.crc.getValue() == seg.getInt(ofs + CRC_OFFSET));
+  }
+
+  /**
+   * Returns the position of a record.
+   *
+   * @param segNo The segment number.
+   * @param ofs The offset in the segment.
+   * @return The record position.
+   */
+  private static long _position(int segNo, int ofs) {
+    return ((long) segNo << 32) | ((long) ofs & 0xFFFFFFFFL);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the key of a device, registering the device if it is not yet known.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @return The device key.
+   * @throws IOException If a new device cannot be recorded in the dictionary.
+   */
+  public int getDeviceKey(String acctID, String devID) throws IOException {
+    this.lock.lock();
+    try {
+      DeviceIndex di = (DeviceIndex) this.deviceByName.get(acctID + "/" + devID);
+      if (di == null) {
+        if ((acctID.indexOf(',') >= 0) || (devID.indexOf(',') >= 0)) {
+          throw new IOException("Invalid account/device ID: " + acctID + "/" + devID);
+        }
+        di = new DeviceIndex(this.nextDeviceKey, acctID, devID);
+        // record the device before any of its events
+        FileOutputStream fos = new FileOutputStream(new File(this.directory, DEVICE_FILE), true);
+        try {
+          fos.write((di.key + "," + acctID + "," + devID + "\n").getBytes());
+          fos.getFD().sync();
+        }
+        finally {
+          fos.close();
+        }
+        this._addDevice(di);
+      }
+      return di.key;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Appends a group of events of a device to the log. The events are forced to the storage device
+   * before returning, if enabled (after the log lock is released, see <tt>_sync</tt>).
+   *
+   * @param devKey The device key (see <tt>getDeviceKey</tt>).
+   * @param events The events.
+   * @param count The number of events (from the start of the array) to append.
+   * @throws IOException If the events cannot be appended.
+   */
+  public void append(int devKey, GeoEvent events[], int count) throws IOException {
+    long pos;
+    boolean rotated = false;
+    this.lock.lock();
+    try {
+      DeviceIndex di = (DeviceIndex) this.deviceByKey.get(new Integer(devKey));
+      if (di == null) {
+        throw new IOException("Unknown device key: " + devKey);
+      }
+      for (int i = 0; i < count; i++) {
+        if ((this.writeOffset + RECORD_SIZE) > this.current.capacity()) {
+          this._rotate();
+          rotated = true;
+        }
+        GeoEvent ev = events[i];
+        ByteBuffer rec = ByteBuffer.wrap(this.record);
+        rec.putInt(devKey);
+        rec.putInt(ev.getStatusCode());
+        rec.putLong(ev.getTimestamp());
+        rec.putLong(di.lastPos);
+        rec.putDouble(ev.getLatitude());
+        rec.putDouble(ev.getLongitude());
+        rec.putFloat((float) ev.getSpeed());
+        rec.putFloat((float) ev.getHeading());
+        rec.putFloat((float) ev.getAltitude());
+        rec.putFloat((float) ev.getDistance());
+        rec.putFloat((float) ev.getTopSpeed());
+        rec.putInt((int) ev.getGeofence(0));
+        rec.putInt((int) ev.getGeofence(1));
+        rec.putInt((int) ev.getSequence());
+        rec.putInt(0);
+        this.crc.reset();
+        this.crc.update(this.record, 0, CRC_OFFSET);
+        rec.putInt((int) this.crc.getValue());
+        this.current.position(this.writeOffset);
+        this.current.put(this.record, 0, RECORD_SIZE);
+        di.add(ev.getTimestamp(), SegmentLog._position(this.currentSegment, this.writeOffset),
+            false);
+        this.writeOffset += RECORD_SIZE;
+      }
+      pos = SegmentLog._position(this.currentSegment, this.writeOffset);
+    }
+    finally {
+      this.lock.unlock();
+    }
+    if (this.fsync || rotated) {
+      // full segments are always forced
+      this._sync(pos);
+    }
+  }
+
+  /**
+   * Starts a new segment. The full segment is forced to the storage device by the next
+   * <tt>_sync</tt>, and is kept mapped for reading.
+   *
+   * @throws IOException If the new segment cannot be created.
+   */
+  private void _rotate() throws IOException {
+    int segNo = this.currentSegment + 1;
+    MappedByteBuffer seg = this._mapSegment(segNo, true);
+    this.unsynced.add(this.current);
+    this.readSegments.put(new Integer(this.currentSegment), this.current);
+    this.current = seg;
+    this.currentSegment = segNo;
+    this.writeOffset = 0;
+  }
+
+  /**
+   * Forces the appended records to the storage device, at least up to the specified position.
+   * The segments are forced without holding the log lock, so sessions may append (and read) in
+   * the meantime; a session waiting to force finds its records already forced if they were
+   * appended before another session started forcing.
+   *
+   * @param pos The position.
+   */
+  private void _sync(long pos) {
+    this.syncLock.lock();
+    try {
+      MappedByteBuffer seg[];
+      long writtenPos;
+      this.lock.lock();
+      try {
+        if (this.syncedPos >= pos) {
+          return; // forced by another append
+        }
+        seg = new MappedByteBuffer[this.unsynced.size() + 1];
+        for (int i = 0; i < (seg.length - 1); i++) {
+          seg[i] = (MappedByteBuffer) this.unsynced.get(i);
+        }
+        seg[seg.length - 1] = this.current;
+        writtenPos = SegmentLog._position(this.currentSegment, this.writeOffset);
+      }
+      finally {
+        this.lock.unlock();
+      }
+      for (int i = 0; i < seg.length; i++) {
+        seg[i].force();
+      }
+      this.lock.lock();
+      try {
+        this.unsynced.subList(0, seg.length - 1).clear();
+        if (writtenPos > this.syncedPos) {
+          this.syncedPos = writtenPos;
+        }
+      }
+      finally {
+        this.lock.unlock();
+      }
+    }
+    finally {
+      this.syncLock.unlock();
+    }
+  }
+
+  /**
+   * Forces all appended records to the storage device.
+   */
+  public void sync() {
+    long pos;
+    this.lock.lock();
+    try {
+      if (this.current == null) {
+        return;
+      }
+      pos = SegmentLog._position(this.currentSegment, this.writeOffset);
+    }
+    finally {
+      this.lock.unlock();
+    }
+    this._sync(pos);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the number of events of a device in a time range.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @param timeStart The start of the range (inclusive, seconds).
+   * @param timeEnd The end of the range (inclusive, seconds).
+   * @return The number of events.
+   */
+  public long getEventCount(String acctID, String devID, long timeStart,
+      long timeEnd) {
+    this.lock.lock();
+    try {
+      DeviceIndex di = (DeviceIndex) this.deviceByName.get(acctID + "/" + devID);
+      if (di == null) {
+        return 0L;
+      }
+      long count = 0L;
+      for (int b = 0; b < di.nBlocks; b++) {
+        if ((di.blkMaxTime[b] < timeStart) || (di.blkMinTime[b] > timeEnd)) {
+          continue; // no event in range
+        }
+        else if ((di.blkMinTime[b] >= timeStart) && (di.blkMaxTime[b] <= timeEnd)) {
+          count += di.blkCount[b]; // all events in range
+        }
+        else {
+          count += this._scanBlock(di, b, timeStart, timeEnd, null);
+        }
+      }
+      return count;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the events of a device in a time range, in the order they were received.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @param timeStart The start of the range (inclusive, seconds).
+   * @param timeEnd The end of the range (inclusive, seconds).
+   * @param limit The maximum number of events returned (the most recent are returned), or 0 for no
+   *          limit.
+   * @return The events.
+   */
+  public GeoEvent[] getRangeEvents(String acctID, String devID, long timeStart,
+      long timeEnd, int limit) {
+    this.lock.lock();
+    try {
+      DeviceIndex di = (DeviceIndex) this.deviceByName.get(acctID + "/" + devID);
+      ArrayList list = new ArrayList();
+      if (di != null) {
+        ArrayList blk = new ArrayList();
+        for (int b = di.nBlocks - 1; b >= 0; b--) {
+          if ((di.blkMaxTime[b] < timeStart) || (di.blkMinTime[b] > timeEnd)) {
+            continue;
+          }
+          blk.clear();
+          this._scanBlock(di, b, timeStart, timeEnd, blk); // newest first
+          for (int i = 0; i < blk.size(); i++) {
+            if ((limit > 0) && (list.size() >= limit)) {
+              break;
+            }
+            list.add(blk.get(i));
+          }
+          if ((limit > 0) && (list.size() >= limit)) {
+            break;
+          }
+        }
+      }
+      GeoEvent ev[] = new GeoEvent[list.size()];
+      for (int i = 0; i < ev.length; i++) {
+        ev[i] = (GeoEvent) list.get(ev.length - 1 - i);
+      }
+      return ev;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Reads the records of an index block, newest first.
+   *
+   * @param di The device index.
+   * @param b The block.
+   * @param timeStart The start of the time range.
+   * @param timeEnd The end of the time range.
+   * @param events Receives the events in the range (may be null to only count the events).
+   * @return The number of events in the range.
+   */
+  private int _scanBlock(DeviceIndex di, int b, long timeStart, long timeEnd, ArrayList events) {
+    int count = 0;
+    long pos = di.blkLastPos[b];
+    for (int n = 0; (n < di.blkCount[b]) && (pos >= 0L); n++) {
+      MappedByteBuffer seg = this._getSegment((int) (pos >>> 32));
+      int ofs = (int) (pos & 0xFFFFFFFFL);
+      if ((seg == null) || (seg.getInt(ofs) != di.key)) {
+        Print.logError("Invalid record position: " + di.accountID + "/" + di.deviceID + " " + pos);
+        break;
+      }
+      long time = seg.getLong(ofs + 8);
+      if ((time >= timeStart) && (time <= timeEnd)) {
+        count++;
+        if (events != null) {
+          events.add(this._readEvent(seg, ofs));
+        }
+      }
+      pos = seg.getLong(ofs + 16);
+    }
+    return count;
+  }
+
+  /**
+   * Creates the event stored in a record.
+   *
+   * @param seg The segment.
+   * @param ofs The record offset.
+   * @return The event.
+   */
+  private GeoEvent _readEvent(ByteBuffer seg, int ofs) {
+    GeoEvent ev = new GeoEvent();
+    ev.setEventValue(GeoEvent.FLD_statusCode, (long) seg.getInt(ofs + 4));
+    ev.setEventValue(GeoEvent.FLD_timestamp, seg.getLong(ofs + 8));
+    ev.setEventValue(GeoEvent.FLD_latitude, seg.getDouble(ofs + 24));
+    ev.setEventValue(GeoEvent.FLD_longitude, seg.getDouble(ofs + 32));
+    ev.setEventValue(GeoEvent.FLD_speedKPH, (double) seg.getFloat(ofs + 40));
+    ev.setEventValue(GeoEvent.FLD_heading, (double) seg.getFloat(ofs + 44));
+    ev.setEventValue(GeoEvent.FLD_altitude, (double) seg.getFloat(ofs + 48));
+    ev.setEventValue(GeoEvent.FLD_distanceKM, (double) seg.getFloat(ofs + 52));
+    ev.setEventValue(GeoEvent.FLD_topSpeedKPH, (double) seg.getFloat(ofs + 56));
+    ev.setEventValue(GeoEvent.FLD_geofenceID, (long) seg.getInt(ofs + 60), 0);
+    ev.setEventValue(GeoEvent.FLD_geofenceID, (long) seg.getInt(ofs + 64), 1);
+    int seq = seg.getInt(ofs + 68);
+    if (seq >= 0) {
+      ev.setEventValue(GeoEvent.FLD_sequence, (long) seq);
+    }
+    return ev;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns a string representation of this log.
+   *
+   * @return The directory, and the number of segments and devices.
+   */
+  public String toString() {
+    this.lock.lock();
+    try {
+      return "SegmentLog " + this.directory + ": segments=" + (this.currentSegment + 1)
+          + " devices=" + this.deviceByKey.size() + " offset=" + this.writeOffset;
+    }
+    finally {
+      this.lock.unlock();
+    }
+  }
+
+}
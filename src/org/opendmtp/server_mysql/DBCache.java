@@ -0,0 +1,527 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Account/Device record cache and connection profile write-behind
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_mysql;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendmtp.dbtools.DBException;
+import org.opendmtp.dbtools.DBFactory;
+import org.opendmtp.dbtools.DBRecordCache;
+import org.opendmtp.dbtools.DBRecordWriter;
+import org.opendmtp.server_mysql.db.Account;
+import org.opendmtp.server.db.PayloadTemplate;
+import org.opendmtp.server_mysql.db.Device;
+import org.opendmtp.server_mysql.db.DeviceLastLocation;
+import org.opendmtp.server_mysql.db.EventData;
+import org.opendmtp.server_mysql.db.EventTemplate;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
+
+/**
+ * Caches the Account and Device records read by the server when a client connects, so that a
+ * client reconnecting frequently does not cause these records to be selected again on each
+ * connection. Cached records expire after "db.cache.ttlSec" seconds (so that changes made to these
+ * records by other applications are eventually seen), and at most "db.cache.maxSize" records of
+ * each table are cached.
+ * <p>
+ * Each session is given its own copy of a cached Device, so that the cached record is never read
+ * and written by several sessions at once. The connection profiles and last connection times of a
+ * Device are updated on every connection: a session changing one of these fields also sets it in
+ * the cached record (reading the device again if it has expired), and queues a copy of the cached
+ * connection fields. These changes are written behind, every "db.cache.writeBehindMS"
+ * milliseconds, with batched UPDATE statements for all changed devices. The writer thread only
+ * reads these queued copies, and a session holding an older copy of a device changes only the
+ * fields it sets, so it does not overwrite the changes of other sessions.
+ * <p>
+ * The custom payload templates of the devices are also cached, by account, device, and packet
+ * type, for "db.templateCache.ttlSec" seconds (after which the EventTemplate table is read again).
+ * Packet types for which no template is defined are cached for "db.templateCache.negativeTtlSec"
+ * seconds, so that a device sending unknown custom packets does not cause a select per packet.
+ * <p>
+ * The last known location of each device (its most recent event with a valid GPS fix) is kept in
+ * memory, by account, and is written behind to the DeviceLastLocation table, so that the current
+ * location of every device of an account is available without querying the EventData table.
+ * The DeviceLastLocation table is created when last locations are first used, if it does not
+ * exist. If it cannot be created (or read), last locations are not tracked, and the table is
+ * checked again after <tt>LAST_LOCATION_RETRY_MS</tt>, rather than on every event.
+ *
+ * @author agent
+ */
+public class DBCache {
+
+  /** The Device fields updated when a client connects. */
+  private static final String CONNECTION_FIELDS[] = { Device.FLD_lastTotalConnectTime,
+      Device.FLD_totalProfileMask, Device.FLD_lastDuplexConnectTime, Device.FLD_duplexProfileMask, };
+
+  /** Cached Account records, by account ID. */
+  private static DBRecordCache accountCache = null;
+
+  /** Cached Device records, by account/device ID (and by "#" unique ID). */
+  private static DBRecordCache deviceCache = null;
+
+  /** Writes the changed Device connection fields. */
+  private static DBRecordWriter connectionWriter = null;
+
+  /**
+   * A cached custom payload template lookup.
+   */
+  private static class TemplateEntry {
+    private PayloadTemplate template = null; // null if the packet type is not defined
+    private long expireMS = 0L;
+
+    private TemplateEntry(PayloadTemplate template, long expireMS) {
+      this.template = template;
+      this.expireMS = expireMS;
+    }
+  }
+
+  /** Cached custom payload templates, by account/device/type (guarded by its own lock). */
+  private static LinkedHashMap templateCache = null;
+  private static long templateTtlMS = 0L;
+  private static long templateNegTtlMS = 0L;
+  private static long templateGeneration = 0L;
+  private static long templateHits = 0L;
+  private static long templateMisses = 0L;
+
+  /** Last known locations: account ID to (device ID to DeviceLastLocation) maps. */
+  private static ConcurrentHashMap lastLocations = new ConcurrentHashMap();
+
+  /** Accounts whose last locations have all been read from the DeviceLastLocation table. */
+  private static ConcurrentHashMap lastLocationAccounts = new ConcurrentHashMap();
+
+  /** Writes the changed last locations. */
+  private static DBRecordWriter lastLocationWriter = null;
+
+  /** Time after which an unavailable DeviceLastLocation table is checked again (milliseconds). */
+  public static final long LAST_LOCATION_RETRY_MS = 10L * 60L * 1000L;
+
+  /** True once the DeviceLastLocation table is known to exist. */
+  private static volatile boolean lastLocationTable = false;
+
+  /** Time before which the DeviceLastLocation table is not checked again (guarded by its lock). */
+  private static long lastLocationCheckMS = 0L;
+  private static Object lastLocationLock = new Object();
+
+  /**
+   * Creates the caches and the connection writer, if not yet created.
+   */
+  private static synchronized void _init() {
+    if (deviceCache == null) {
+      long ttlSec = RTConfig.getLong(RTKey.DB_CACHE_TTL_SEC, DBRecordCache.DEFAULT_TTL_SEC);
+      int maxSize = RTConfig.getInt(RTKey.DB_CACHE_MAX_SIZE, DBRecordCache.DEFAULT_MAX_SIZE);
+      long writeMS = RTConfig.getLong(RTKey.DB_CACHE_WRITE_BEHIND_MS,
+          DBRecordWriter.DEFAULT_FLUSH_MS);
+      accountCache = new DBRecordCache("AccountCache", ttlSec, maxSize);
+      deviceCache = new DBRecordCache("DeviceCache", ttlSec, maxSize);
+      connectionWriter = new DBRecordWriter("DeviceConnectionWriter", CONNECTION_FIELDS, writeMS);
+      lastLocationWriter = new DBRecordWriter("LastLocationWriter", null, writeMS);
+      templateTtlMS = RTConfig.getLong(RTKey.DB_TEMPLATE_CACHE_TTL_SEC, 300L) * 1000L;
+      templateNegTtlMS = RTConfig.getLong(RTKey.DB_TEMPLATE_CACHE_NEG_TTL_SEC, 30L) * 1000L;
+      final int maxTemplates = maxSize;
+      templateCache = new LinkedHashMap(16, 0.75F, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+          return (this.size() > maxTemplates);
+        }
+      };
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the Account with the specified ID, from the cache if possible.
+   *
+   * @param acctID The account ID.
+   * @return The Account, or null if it does not exist.
+   * @throws DBException If an error occurs while reading the account.
+   */
+  public static Account getAccount(String acctID) throws DBException {
+    DBCache._init();
+    if (acctID == null) {
+      return null;
+    }
+    Account acct = (Account) accountCache.get(acctID);
+    if (acct == null) {
+      acct = Account.getAccount(acctID);
+      accountCache.put(acctID, acct);
+    }
+    return acct;
+  }
+
+  /**
+   * Returns a copy of the Device with the specified account and device IDs, from the cache if
+   * possible.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @return The Device, or null if it does not exist.
+   * @throws DBException If an error occurs while reading the device.
+   */
+  public static Device getDevice(String acctID, String devID) throws DBException {
+    DBCache._init();
+    if ((acctID == null) || (devID == null)) {
+      return null;
+    }
+    return DBCache._copyDevice(DBCache._getDevice(acctID, devID), null);
+  }
+
+  /**
+   * Returns the cached Device with the specified account and device IDs, reading it if necessary.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @return The cached Device, or null if it does not exist.
+   * @throws DBException If an error occurs while reading the device.
+   */
+  private static Device _getDevice(String acctID, String devID) throws DBException {
+    String key = new Device.Key(acctID, devID).toString();
+    Device dev = (Device) deviceCache.get(key);
+    if (dev == null) {
+      if (connectionWriter.isPending(key)) {
+        // write the pending changes before reading the device again
+        connectionWriter.flush();
+      }
+      dev = Device.getDevice(acctID, devID);
+      deviceCache.put(key, dev);
+    }
+    return dev;
+  }
+
+  /**
+   * Returns a copy of the Device with the specified unique ID, from the cache if possible.
+   *
+   * @param uniqID The unique ID.
+   * @return The Device, or null if it does not exist.
+   * @throws DBException If an error occurs while reading the device.
+   */
+  public static Device getDevice(long uniqID) throws DBException {
+    DBCache._init();
+    String uniqKey = "#" + uniqID;
+    Device dev = (Device) deviceCache.get(uniqKey);
+    if (dev == null) {
+      dev = Device.getDevice(uniqID);
+      if (dev != null) {
+        // share the record cached by account/device ID
+        String key = dev.getRecordKey().toString();
+        Device cached = (Device) deviceCache.get(key);
+        if (cached != null) {
+          dev = cached;
+        }
+        else {
+          if (connectionWriter.isPending(key)) {
+            // write the pending changes and read the device again
+            connectionWriter.flush();
+            dev = Device.getDevice(uniqID);
+          }
+          deviceCache.put(key, dev);
+        }
+      }
+      deviceCache.put(uniqKey, dev);
+    }
+    return DBCache._copyDevice(dev, null);
+  }
+
+  /**
+   * Returns a copy of a Device, made while holding its lock.
+   *
+   * @param dev The Device.
+   * @param fldNames The names of the fields copied (besides the key), or null to copy all fields.
+   * @return The copy, or null if the Device is null.
+   */
+  private static Device _copyDevice(Device dev, String fldNames[]) {
+    if (dev == null) {
+      return null;
+    }
+    Device copy = new Device(new Device.Key(dev.getAccountID(), dev.getDeviceID()));
+    synchronized (dev) {
+      copy.setFieldValues(dev, fldNames);
+    }
+    copy.clearChanged();
+    return copy;
+  }
+
+  /**
+   * Sets a connection field of the cached Device to its value in a session copy of the Device,
+   * and queues the connection fields of the cached Device to be written. If the Device is no
+   * longer cached, it is read again first (after its pending changes have been written), so that
+   * a copy held by a long session does not overwrite the changes of other sessions.
+   *
+   * @param dev The session copy of the Device.
+   * @param fldName The connection field which changed (one of the profile mask or last connection
+   *          time fields).
+   */
+  public static void connectionChanged(Device dev, String fldName) {
+    DBCache._init();
+    Device cached = null;
+    try {
+      cached = DBCache._getDevice(dev.getAccountID(), dev.getDeviceID());
+    }
+    catch (DBException dbe) {
+      Print.logException("Unable to read device: " + dev.getRecordKey(), dbe);
+    }
+    if (cached == null) {
+      cached = dev;
+    }
+    else {
+      synchronized (cached) {
+        cached.setFieldValue(fldName, dev.getFieldValue(fldName));
+      }
+    }
+    connectionWriter.markChanged(DBCache._copyDevice(cached, CONNECTION_FIELDS));
+  }
+
+  /**
+   * Returns the custom payload template of a device, from the cache if possible.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @param custType The packet type.
+   * @return The template, or null if no template is defined for the packet type.
+   */
+  public static PayloadTemplate getPayloadTemplate(String acctID, String devID, int custType) {
+    DBCache._init();
+    if (templateTtlMS <= 0L) {
+      return EventTemplate.GetPayloadTemplate(acctID, devID, custType);
+    }
+    String key = acctID + "/" + devID + "/" + custType;
+    long generation;
+    synchronized (templateCache) {
+      TemplateEntry te = (TemplateEntry) templateCache.get(key);
+      if ((te != null) && (System.currentTimeMillis() < te.expireMS)) {
+        templateHits++;
+        return te.template;
+      }
+      templateMisses++;
+      generation = templateGeneration;
+    }
+    PayloadTemplate pt = EventTemplate.GetPayloadTemplate(acctID, devID, custType);
+    synchronized (templateCache) {
+      // don't cache if a template was saved in the meantime
+      if (generation == templateGeneration) {
+        long ttlMS = (pt != null) ? templateTtlMS : templateNegTtlMS;
+        templateCache.put(key, new TemplateEntry(pt, System.currentTimeMillis() + ttlMS));
+      }
+    }
+    return pt;
+  }
+
+  /**
+   * Saves the custom payload template of a device, and caches it.
+   *
+   * @param acctID The account ID.
+   * @param devID The device ID.
+   * @param pt The template.
+   * @return True if the template was saved.
+   */
+  public static boolean setPayloadTemplate(String acctID, String devID, PayloadTemplate pt) {
+    DBCache._init();
+    boolean saved = EventTemplate.SetPayloadTemplate(acctID, devID, pt);
+    if (templateTtlMS > 0L) {
+      String key = acctID + "/" + devID + "/" + pt.getPacketType();
+      synchronized (templateCache) {
+        templateGeneration++;
+        if (saved) {
+          templateCache.put(key, new TemplateEntry(pt, System.currentTimeMillis() + templateTtlMS));
+        }
+        else {
+          templateCache.remove(key);
+        }
+      }
+    }
+    return saved;
+  }
+
+  /**
+   * Returns the last location map of an account, creating it if necessary.
+   *
+   * @param acctID The account ID.
+   * @return The map of device ID to DeviceLastLocation.
+   */
+  private static ConcurrentHashMap _getLastLocationMap(String acctID) {
+    ConcurrentHashMap devMap = (ConcurrentHashMap) lastLocations.get(acctID);
+    if (devMap == null) {
+      devMap = new ConcurrentHashMap();
+      ConcurrentHashMap prior = (ConcurrentHashMap) lastLocations.putIfAbsent(acctID, devMap);
+      if (prior != null) {
+        devMap = prior;
+      }
+    }
+    return devMap;
+  }
+
+  /**
+   * Returns true if the DeviceLastLocation table exists, creating it if necessary. If the table
+   * does not exist and cannot be created, it is not checked again for
+   * <tt>LAST_LOCATION_RETRY_MS</tt>.
+   *
+   * @return True if the DeviceLastLocation table exists.
+   */
+  private static boolean _hasLastLocationTable() {
+    if (lastLocationTable) {
+      return true;
+    }
+    long nowMS = System.currentTimeMillis();
+    synchronized (lastLocationLock) {
+      if (nowMS < lastLocationCheckMS) {
+        return false; // checked recently (or being checked by another thread)
+      }
+      lastLocationCheckMS = nowMS + LAST_LOCATION_RETRY_MS;
+    }
+    DBFactory fact = DeviceLastLocation.getFactory();
+    try {
+      if (!fact.tableExists()) {
+        Print.logInfo("Creating table: " + fact.getTableName());
+        fact.createTable();
+      }
+      lastLocationTable = true;
+    }
+    catch (DBException dbe) {
+      Print.logException("Table unavailable, last locations are not tracked for "
+          + (LAST_LOCATION_RETRY_MS / 1000L) + " seconds: " + fact.getTableName(), dbe);
+    }
+    return lastLocationTable;
+  }
+
+  /**
+   * Returns the last location map of an account, reading the stored locations of the account
+   * from the DeviceLastLocation table if not yet read. If they cannot be read, they are read again
+   * on the next call (or, if the table is unavailable, once it is available again).
+   *
+   * @param acctID The account ID.
+   * @return The map of device ID to DeviceLastLocation.
+   */
+  private static ConcurrentHashMap _loadLastLocations(String acctID) {
+    ConcurrentHashMap devMap = DBCache._getLastLocationMap(acctID);
+    if (!lastLocationAccounts.containsKey(acctID) && DBCache._hasLastLocationTable()) {
+      try {
+        DeviceLastLocation stored[] = DeviceLastLocation.getLastLocations(acctID);
+        for (int i = 0; i < stored.length; i++) {
+          // locations updated in the meantime are newer
+          devMap.putIfAbsent(stored[i].getDeviceID(), stored[i]);
+        }
+        lastLocationAccounts.put(acctID, Boolean.TRUE);
+      }
+      catch (DBException dbe) {
+        Print.logException("Unable to read last locations: " + acctID, dbe);
+      }
+    }
+    return devMap;
+  }
+
+  /**
+   * Updates the last known location of a device with a saved event. Events without a valid GPS
+   * fix, and events older than the known location, are ignored. The first time an account is
+   * seen, the locations of its devices are read from the DeviceLastLocation table, so that events
+   * resent by a device after a server restart do not replace a more recent location. Locations
+   * are not tracked while the DeviceLastLocation table is unavailable.
+   *
+   * @param ev The saved event.
+   */
+  public static void updateLastLocation(EventData ev) {
+    DBCache._init();
+    if (!DBCache._hasLastLocationTable()) {
+      return;
+    }
+    DeviceLastLocation loc = DeviceLastLocation.createLastLocation(ev);
+    if (loc == null) {
+      return;
+    }
+    ConcurrentHashMap devMap = DBCache._loadLastLocations(ev.getAccountID());
+    String devID = ev.getDeviceID();
+    while (true) {
+      DeviceLastLocation last = (DeviceLastLocation) devMap.get(devID);
+      if (last == null) {
+        if (devMap.putIfAbsent(devID, loc) == null) {
+          break;
+        }
+      }
+      else if (last.getTimestamp() > loc.getTimestamp()) {
+        return; // older than the known location
+      }
+      else if (devMap.replace(devID, last, loc)) {
+        break;
+      }
+    }
+    lastLocationWriter.markChanged(loc);
+  }
+
+  /**
+   * Returns the last known locations of all devices of an account. The locations are read from
+   * the DeviceLastLocation table the first time an account is requested, and are then kept current
+   * by <tt>updateLastLocation</tt>. (Applications which do not save the events themselves, such as
+   * the web services, should read <tt>DeviceLastLocation.getLastLocations</tt> instead.)
+   *
+   * @param acctID The account ID.
+   * @return The last locations, ordered by device ID.
+   */
+  public static DeviceLastLocation[] getLastLocations(String acctID) {
+    DBCache._init();
+    if ((acctID == null) || acctID.equals("")) {
+      return new DeviceLastLocation[0];
+    }
+    ConcurrentHashMap devMap = DBCache._loadLastLocations(acctID);
+    DeviceLastLocation loc[] = (DeviceLastLocation[]) devMap.values().toArray(
+        new DeviceLastLocation[0]);
+    Arrays.sort(loc, new Comparator() {
+      public int compare(Object o1, Object o2) {
+        return ((DeviceLastLocation) o1).getDeviceID().compareTo(
+            ((DeviceLastLocation) o2).getDeviceID());
+      }
+    });
+    return loc;
+  }
+
+  /**
+   * Writes all pending Device connection and last location changes now.
+   *
+   * @return The number of records written.
+   */
+  public static int flush() {
+    DBCache._init();
+    return connectionWriter.flush() + lastLocationWriter.flush();
+  }
+
+  /**
+   * Logs the cache and writer statistics.
+   */
+  public static void printStatus() {
+    DBCache._init();
+    Print.logInfo(accountCache.toString());
+    Print.logInfo(deviceCache.toString());
+    Print.logInfo(connectionWriter.toString());
+    Print.logInfo(lastLocationWriter.toString());
+    synchronized (templateCache) {
+      Print.logInfo("TemplateCache: size=" + templateCache.size() + " hits=" + templateHits
+          + " misses=" + templateMisses);
+    }
+  }
+
+}
@@ -33,6 +33,7 @@ import org.opendmtp.server.db.AccountDB;
 import org.opendmtp.server.db.DeviceDB;
 import org.opendmtp.server_mysql.db.Account;
 import org.opendmtp.server_mysql.db.Device;
+import org.opendmtp.server_mysql.db.DeviceLastLocation;
 import org.opendmtp.server_mysql.db.EventData;
 import org.opendmtp.server_mysql.db.EventTemplate;
 import org.opendmtp.server.base.DMTPServer;
@@ -51,7 +52,7 @@ public class DBConfig {
 
   /** Stores the factory classes for the Account, Device, EventTemplate, and EventData classes. */
   private static DBFactory DB_TABLES[] = { Account.getFactory(), Device.getFactory(),
-      EventTemplate.getFactory(), EventData.getFactory(), };
+      EventTemplate.getFactory(), EventData.getFactory(), DeviceLastLocation.getFactory(), };
 
   /**
    * Class that retrieves Account DB's and Device DB's.
@@ -70,7 +71,7 @@ public class DBConfig {
      */
     public AccountDB getAccountDB(String acctName) {
       try {
-        Account db = Account.getAccount(acctName);
+        Account db = DBCache.getAccount(acctName);
         return (db != null) ? new AccountDBImpl(db) : null;
       }
       catch (DBException dbe) {
@@ -88,7 +89,7 @@ public class DBConfig {
      */
     public DeviceDB getDeviceDB(long uniqId) {
       try {
-        Device db = Device.getDevice(uniqId);
+        Device db = DBCache.getDevice(uniqId);
         return (db != null) ? new DeviceDBImpl(db) : null;
       }
       catch (DBException dbe) {
@@ -107,7 +108,7 @@ public class DBConfig {
      */
     public DeviceDB getDeviceDB(String acctId, String devName) {
       try {
-        Device db = Device.getDevice(acctId, devName);
+        Device db = DBCache.getDevice(acctId, devName);
         return (db != null) ? new DeviceDBImpl(db) : null;
       }
       catch (DBException dbe) {
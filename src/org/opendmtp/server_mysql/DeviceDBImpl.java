@@ -33,12 +33,12 @@ import org.opendmtp.codes.Encoding;
 import org.opendmtp.codes.ServerErrors;
 import org.opendmtp.dbtools.DBEdit;
 import org.opendmtp.dbtools.DBException;
-import org.opendmtp.server.db.DeviceDB;
+import org.opendmtp.server.db.DeviceBatchDB;
+import org.opendmtp.server.db.DeviceEventCounts;
 import org.opendmtp.server.db.PayloadTemplate;
 import org.opendmtp.server_mysql.db.Account;
 import org.opendmtp.server_mysql.db.Device;
 import org.opendmtp.server_mysql.db.EventData;
-import org.opendmtp.server_mysql.db.EventTemplate;
 import org.opendmtp.server_mysql.dbtypes.DTProfileMask;
 import org.opendmtp.util.GeoEvent;
 import org.opendmtp.util.Print;
@@ -50,7 +50,7 @@ import org.opendmtp.util.RTConfig;
  * @author Martin D. Flynn
  * @author George Lee
  */
-public class DeviceDBImpl implements DeviceDB {
+public class DeviceDBImpl implements DeviceEventCounts, DeviceBatchDB {
 
   /** The device used by this DeviceDBImpl. */
   private Device device = null;
@@ -129,6 +129,25 @@ public class DeviceDBImpl implements DeviceDB {
     }
   }
 
+  /**
+   * Get the number of events logged by this device in each minute of a time interval. Returns null
+   * if there is an error in retrieving the number of event records.
+   * 
+   * @param minuteStart The first minute of the time interval (seconds / 60).
+   * @param minutes The number of minutes in the time interval.
+   * @return The number of events in each minute of the time interval.
+   */
+  public long[] getEventCountsByMinute(long minuteStart, int minutes) {
+    try {
+      return EventData.getRecordCountsByMinute(this.getAccountName(), this.getDeviceName(),
+          minuteStart, minutes);
+    }
+    catch (DBException dbe) {
+      dbe.printException();
+      return null;
+    }
+  }
+
   /**
    * Get the maximum time interval between packets.
    * 
@@ -170,6 +189,7 @@ public class DeviceDBImpl implements DeviceDB {
   /**
    * Set the byte mask of the total connection profile for the device. Sets the limit time interval
    * of the mask using getLimitTimeInterval().
+   * The change is written to the database in the background (see DBCache).
    * 
    * @param profile The new byte mask of the profile.
    */
@@ -177,6 +197,7 @@ public class DeviceDBImpl implements DeviceDB {
     DTProfileMask mask = new DTProfileMask(profile);
     mask.setLimitTimeInterval(this.getLimitTimeInterval());
     this.device.setTotalProfileMask(mask);
+    DBCache.connectionChanged(this.device, Device.FLD_totalProfileMask);
   }
 
   /**
@@ -190,11 +211,13 @@ public class DeviceDBImpl implements DeviceDB {
 
   /**
    * Set the time of the last total connection.
+   * The change is written to the database in the background (see DBCache).
    * 
    * @param time The new time of the last total connection.
    */
   public void setLastTotalConnectionTime(long time) {
     this.device.setLastTotalConnectTime(time);
+    DBCache.connectionChanged(this.device, Device.FLD_lastTotalConnectTime);
   }
 
   /**
@@ -228,6 +251,7 @@ public class DeviceDBImpl implements DeviceDB {
 
   /**
    * Set the byte mask associated with the duplex connection profile for the device.
+   * The change is written to the database in the background (see DBCache).
    * 
    * @param profile The byte string of the new duplex connection profile.
    */
@@ -235,6 +259,7 @@ public class DeviceDBImpl implements DeviceDB {
     DTProfileMask mask = new DTProfileMask(profile);
     mask.setLimitTimeInterval(this.getLimitTimeInterval());
     this.device.setDuplexProfileMask(mask);
+    DBCache.connectionChanged(this.device, Device.FLD_duplexProfileMask);
   }
 
   /**
@@ -248,11 +273,13 @@ public class DeviceDBImpl implements DeviceDB {
 
   /**
    * Set the time of the last duplex connection to the device.
+   * The change is written to the database in the background (see DBCache).
    * 
    * @param time The new time of the last duplex connection.
    */
   public void setLastDuplexConnectionTime(long time) {
     this.device.setLastDuplexConnectTime(time);
+    DBCache.connectionChanged(this.device, Device.FLD_lastDuplexConnectTime);
   }
 
   /**
@@ -291,18 +318,18 @@ public class DeviceDBImpl implements DeviceDB {
    * @return True if the template was saved successfully, false otherwise.
    */
   public boolean addClientPayloadTemplate(PayloadTemplate template) {
-    return EventTemplate.SetPayloadTemplate(this.getAccountName(), this.getDeviceName(), template);
+    return DBCache.setPayloadTemplate(this.getAccountName(), this.getDeviceName(), template);
   }
 
   /**
    * Get the PayloadTemplate associated with the custType. Returns null if the template is not
-   * found.
+   * found. Templates (and unknown types) are cached (see DBCache).
    * 
    * @param custType The key used to retrieve the PayloadTemplate.
    * @return The PayloadTemplate associated with the key or null if the template is not found.
    */
   public PayloadTemplate getClientPayloadTemplate(int custType) {
-    return EventTemplate.GetPayloadTemplate(this.getAccountName(), this.getDeviceName(), custType);
+    return DBCache.getPayloadTemplate(this.getAccountName(), this.getDeviceName(), custType);
   }
 
   /**
@@ -314,6 +341,75 @@ public class DeviceDBImpl implements DeviceDB {
    */
   public int insertEvent(GeoEvent geoEvent) {
 
+    /* populate record */
+    EventData evdb = this._createEventData(geoEvent);
+
+    /* save */
+    try {
+      evdb.save();
+    }
+    catch (DBException dbe) {
+      return ServerErrors.NAK_EVENT_ERROR;
+    }
+
+    /* last known location */
+    DBCache.updateLastLocation(evdb);
+
+    /* check rules and return */
+    this.device.checkEventRules(evdb);
+    return ServerErrors.NAK_OK;
+
+  }
+
+  /**
+   * Add a group of events to the records associated with this device, using multi-row inserts.
+   * 
+   * @param geoEvents The events to be recorded and saved.
+   * @param count The number of events to save.
+   * @return The number of events saved. If less than count, the event at this index could not be
+   *         saved (ServerErrors.NAK_EVENT_ERROR).
+   */
+  public int insertEvents(GeoEvent geoEvents[], int count) {
+
+    /* populate records */
+    EventData evdb[] = new EventData[count];
+    for (int i = 0; i < count; i++) {
+      evdb[i] = this._createEventData(geoEvents[i]);
+    }
+
+    /* save */
+    int saved;
+    try {
+      saved = EventData.saveEvents(evdb, count);
+    }
+    catch (DBException dbe) {
+      Print.logException("Unable to save events", dbe);
+      // report the whole group as failed, any records saved before the failure are
+      // simply replaced when the client resends them.
+      saved = 0;
+    }
+
+    /* last known location */
+    for (int i = 0; i < saved; i++) {
+      DBCache.updateLastLocation(evdb[i]);
+    }
+
+    /* check rules and return */
+    for (int i = 0; i < saved; i++) {
+      this.device.checkEventRules(evdb[i]);
+    }
+    return saved;
+
+  }
+
+  /**
+   * Creates the EventData record for an event of this device.
+   * 
+   * @param geoEvent The event.
+   * @return The populated (unsaved) record.
+   */
+  private EventData _createEventData(GeoEvent geoEvent) {
+
     /* create key */
     EventData.Key evKey = new EventData.Key(this.getAccountName(), this.getDeviceName(), geoEvent
         .getTimestamp(), geoEvent.getStatusCode());
@@ -331,18 +427,7 @@ public class DeviceDBImpl implements DeviceDB {
     evdb.setFieldValue(EventData.FLD_topSpeedKPH, geoEvent.getTopSpeed());
     evdb.setFieldValue(EventData.FLD_geofenceID1, geoEvent.getGeofence(0));
     evdb.setFieldValue(EventData.FLD_geofenceID2, geoEvent.getGeofence(1));
-
-    /* save */
-    try {
-      evdb.save();
-    }
-    catch (DBException dbe) {
-      return ServerErrors.NAK_EVENT_ERROR;
-    }
-
-    /* check rules and return */
-    this.device.checkEventRules(evdb);
-    return ServerErrors.NAK_OK;
+    return evdb;
 
   }
 
@@ -0,0 +1,297 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Concurrent event ingest/query benchmark
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_mysql;
+
+import org.opendmtp.codes.StatusCodes;
+import org.opendmtp.dbtools.DBException;
+import org.opendmtp.dbtools.DBRecord;
+import org.opendmtp.server_mysql.db.EventData;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+
+/**
+ * Measures the latency of event inserts into the EventData table while report queries run
+ * concurrently. The benchmark runs in two phases of equal length: ingest only (the baseline),
+ * then ingest with concurrent range queries. If inserts stall behind report queries (as when the
+ * queries lock the EventData table), the insert latency of the second phase is much higher than
+ * that of the baseline.
+ * <p>
+ * Options:
+ * <pre>
+ *  -account=&lt;id&gt;   Account ID of the benchmark events [default "bench"]
+ *  -ingest=&lt;n&gt;     Number of inserting threads (one device each) [default 4]
+ *  -query=&lt;n&gt;      Number of querying threads [default 2]
+ *  -batch=&lt;n&gt;      Events per insert [default 10]
+ *  -limit=&lt;n&gt;      Events per query [default 1000]
+ *  -sec=&lt;n&gt;        Length of each phase, in seconds [default 20]
+ *  -lock          Lock the EventData table around each query (requires "db.tableLocking=true")
+ * </pre>
+ * The events are inserted with the account ID "bench" (by default), and devices "bench0",
+ * "bench1", ..., and may be deleted after the benchmark.
+ *
+ * @author agent
+ */
+public class EventBench {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Latency statistics.
+   */
+  private static class Stats {
+    private static final int MAX_MS = 10000;
+    private String name = null;
+    private long count = 0L;
+    private long totalMS = 0L;
+    private long maxMS = 0L;
+    private long hist[] = new long[MAX_MS + 1]; // count by latency (milliseconds)
+
+    private Stats(String name) {
+      this.name = name;
+    }
+
+    private synchronized void add(long ms) {
+      this.count++;
+      this.totalMS += ms;
+      this.maxMS = Math.max(this.maxMS, ms);
+      this.hist[(int) Math.min(ms, (long) MAX_MS)]++;
+    }
+
+    private synchronized long percentile(double p) {
+      long n = (long) Math.ceil(this.count * p);
+      long c = 0L;
+      for (int i = 0; i < this.hist.length; i++) {
+        c += this.hist[i];
+        if ((c >= n) && (c > 0L)) {
+          return i;
+        }
+      }
+      return 0L;
+    }
+
+    public synchronized String toString() {
+      StringBuffer sb = new StringBuffer();
+      sb.append(this.name).append(": count=").append(this.count);
+      if (this.count > 0L) {
+        sb.append(" avg=").append(this.totalMS / this.count).append("ms");
+        sb.append(" p50=").append(this.percentile(0.50)).append("ms");
+        sb.append(" p99=").append(this.percentile(0.99)).append("ms");
+        sb.append(" max=").append(this.maxMS).append("ms");
+      }
+      return sb.toString();
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private String accountID = null;
+  private int ingestThreads = 0;
+  private int queryThreads = 0;
+  private int batchSize = 0;
+  private long queryLimit = 0L;
+  private boolean lockQuery = false;
+
+  private volatile boolean running = false;
+  private long nextTimestamp[] = null; // next event timestamp, per device
+
+  /**
+   * Creates the benchmark.
+   *
+   * @param acctID The account ID of the benchmark events.
+   * @param ingest The number of inserting threads.
+   * @param query The number of querying threads.
+   * @param batch The number of events per insert.
+   * @param limit The number of events per query.
+   * @param lock True to lock the EventData table around each query.
+   */
+  public EventBench(String acctID, int ingest, int query, int batch, long limit, boolean lock) {
+    this.accountID = acctID;
+    this.ingestThreads = Math.max(ingest, 1);
+    this.queryThreads = Math.max(query, 0);
+    this.batchSize = Math.max(batch, 1);
+    this.queryLimit = Math.max(limit, 1L);
+    this.lockQuery = lock;
+    this.nextTimestamp = new long[this.ingestThreads];
+    long now = System.currentTimeMillis() / 1000L;
+    for (int i = 0; i < this.nextTimestamp.length; i++) {
+      this.nextTimestamp[i] = now;
+    }
+  }
+
+  /**
+   * Returns the device ID of an inserting thread.
+   *
+   * @param ndx The thread index.
+   * @return The device ID.
+   */
+  private String getDeviceID(int ndx) {
+    return "bench" + ndx;
+  }
+
+  /**
+   * Inserts batches of events for a device until the phase ends.
+   *
+   * @param ndx The thread (and device) index.
+   * @param stats The insert latency statistics.
+   */
+  private void ingest(int ndx, Stats stats) {
+    String devID = this.getDeviceID(ndx);
+    EventData ev[] = new EventData[this.batchSize];
+    while (this.running) {
+      for (int i = 0; i < ev.length; i++) {
+        long ts = this.nextTimestamp[ndx]++;
+        EventData.Key key = new EventData.Key(this.accountID, devID, ts,
+            StatusCodes.STATUS_LOCATION);
+        ev[i] = (EventData) key.getDBRecord();
+        ev[i].setDataSource("bench");
+        ev[i].setLatitude(39.0 + (ts % 1000L) / 10000.0);
+        ev[i].setLongitude(-142.0 - (ts % 1000L) / 10000.0);
+        ev[i].setSpeedKPH(50.0);
+      }
+      long startMS = System.currentTimeMillis();
+      try {
+        EventData.saveEvents(ev, ev.length);
+        stats.add(System.currentTimeMillis() - startMS);
+      }
+      catch (DBException dbe) {
+        Print.logException("Insert failed", dbe);
+        this.running = false;
+      }
+    }
+  }
+
+  /**
+   * Runs range queries over the benchmark devices until the phase ends.
+   *
+   * @param ndx The thread index.
+   * @param stats The query latency statistics.
+   */
+  private void query(int ndx, Stats stats) {
+    int dev = ndx;
+    while (this.running) {
+      String devID = this.getDeviceID(dev++ % this.ingestThreads);
+      long startMS = System.currentTimeMillis();
+      try {
+        if (this.lockQuery) {
+          // the former locked read path, for comparison
+          try {
+            DBRecord.lockTables(new String[] { EventData.TABLE_NAME }, null);
+            EventData.getRangeEvents(this.accountID, devID, -1L, -1L, EventData.LIMIT_TYPE_LAST,
+                this.queryLimit);
+          }
+          finally {
+            DBRecord.unlockTables();
+          }
+        }
+        else {
+          EventData.getRangeEvents(this.accountID, devID, -1L, -1L, EventData.LIMIT_TYPE_LAST,
+              this.queryLimit);
+        }
+        stats.add(System.currentTimeMillis() - startMS);
+      }
+      catch (DBException dbe) {
+        Print.logException("Query failed", dbe);
+        this.running = false;
+      }
+    }
+  }
+
+  /**
+   * Runs one phase of the benchmark.
+   *
+   * @param name The phase name.
+   * @param query The number of querying threads.
+   * @param sec The length of the phase, in seconds.
+   */
+  private void runPhase(String name, int query, long sec) {
+    final Stats ins = new Stats(name + " insert");
+    final Stats qry = new Stats(name + " query");
+    Thread t[] = new Thread[this.ingestThreads + query];
+    this.running = true;
+    for (int i = 0; i < t.length; i++) {
+      final int ndx = i;
+      t[i] = new Thread("EventBench_" + i) {
+        public void run() {
+          if (ndx < EventBench.this.ingestThreads) {
+            EventBench.this.ingest(ndx, ins);
+          }
+          else {
+            EventBench.this.query(ndx - EventBench.this.ingestThreads, qry);
+          }
+        }
+      };
+      t[i].start();
+    }
+    try {
+      Thread.sleep(sec * 1000L);
+    }
+    catch (InterruptedException ie) {
+      // ignore
+    }
+    this.running = false;
+    for (int i = 0; i < t.length; i++) {
+      try {
+        t[i].join();
+      }
+      catch (InterruptedException ie) {
+        // ignore
+      }
+    }
+    Print.logInfo(ins.toString());
+    if (query > 0) {
+      Print.logInfo(qry.toString());
+    }
+  }
+
+  /**
+   * Runs the benchmark: ingest only, then ingest with concurrent queries.
+   *
+   * @param sec The length of each phase, in seconds.
+   */
+  public void run(long sec) {
+    Print.logInfo("EventData table type: " + EventData.getFactory().getTableType()
+        + (this.lockQuery ? " (locked queries)" : ""));
+    this.runPhase("Baseline", 0, sec);
+    this.runPhase("Concurrent", this.queryThreads, sec);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Runs the benchmark (see the class description for the options).
+   *
+   * @param argv The command line arguments.
+   */
+  public static void main(String argv[]) {
+    DBConfig.init(argv, true);
+    EventBench bench = new EventBench(RTConfig.getString("account", "bench"), RTConfig.getInt(
+        "ingest", 4), RTConfig.getInt("query", 2), RTConfig.getInt("batch", 10), RTConfig.getLong(
+        "limit", 1000L), RTConfig.getBoolean("lock", false));
+    bench.run(RTConfig.getLong("sec", 20L));
+    System.exit(0);
+  }
+
+}
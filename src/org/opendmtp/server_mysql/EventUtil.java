@@ -29,12 +29,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 
-import org.opendmtp.codes.StatusCodes;
 import org.opendmtp.dbtools.DBException;
+import org.opendmtp.dbtools.DBRecordCursor;
 import org.opendmtp.server_mysql.db.Account;
 import org.opendmtp.server_mysql.db.Device;
+import org.opendmtp.server_mysql.db.DeviceLastLocation;
 import org.opendmtp.server_mysql.db.EventData;
-import org.opendmtp.util.DateTime;
+import org.opendmtp.util.FastFormat;
 import org.opendmtp.util.GeoPoint;
 import org.opendmtp.util.Print;
 import org.opendmtp.util.RTConfig;
@@ -53,8 +54,12 @@ public class EventUtil {
   /** Max number of events to return in a given interval. */
   public static final long DFT_LIMIT = 30L;
 
-  /** Max number of events to save in memory. */
-  public static final long MAX_LIMIT = 200L;
+  /**
+   * Max number of events to return in a given interval. Events are streamed from the database
+   * (see <tt>writeEvents(OutputStream, DBRecordCursor, int, int, boolean)</tt>), so this limit
+   * only bounds the size of a single report.
+   */
+  public static final long MAX_LIMIT = 100000L;
 
   /** Integer representation for unknown format. */
   public static final int FORMAT_UNKNOWN = 0;
@@ -101,6 +106,13 @@ public class EventUtil {
     this.device = dev;
   }
 
+  /**
+   * EventUtil class constructor. Writes the last known locations of several devices.
+   */
+  public EventUtil() {
+    this(null);
+  }
+
   /**
    * Write events that belong to this device using the CSV format.
    * 
@@ -111,81 +123,43 @@ public class EventUtil {
    */
   private boolean writeEvents_CSV(PrintWriter out, EventData evdata[]) throws IOException {
     // we assume that the specified events belong to this device
-
-    /* fields to place in CSV format */
-    String evFields[] = new String[] { EventData.FLD_timestamp, EventData.FLD_statusCode,
-        EventData.FLD_latitude, EventData.FLD_longitude, EventData.FLD_speedKPH,
-        EventData.FLD_heading, EventData.FLD_altitude, };
-
-    /* print header */
-    out.println("Date,Time,Code,Latitude,Longitude,Speed,Heading,Altitude");
-
-    /* print events */
+    this.writeHeader_CSV(out);
     for (int i = 0; i < evdata.length; i++) {
-      String rcd = evdata[i].formatAsCSVRecord(evFields);
-      out.println(rcd);
+      this.writeEvent_CSV(out, evdata[i]);
     }
-
     return true;
   }
 
-  // ------------------------------------------------------------------------
+  /**
+   * Write the CSV header.
+   * 
+   * @param out PrintWriter object used to write output.
+   */
+  private void writeHeader_CSV(PrintWriter out) {
+    out.print(EventWriter.CSV_HEADER);
+  }
 
-  private static final String STYLE_DEFAULT = "DefaultStyle";
-  private static final String STYLE_START_MOTION = "StartMotionStyle";
-  private static final String STYLE_START_MOTION_LAST = "StartMotionLastStyle";
-  private static final String STYLE_IN_MOTION = "InMotionStyle";
-  private static final String STYLE_IN_MOTION_LAST = "InMotionLastStyle";
-  private static final String STYLE_STOP_MOTION = "StopMotionStyle";
-  private static final String STYLE_STOP_MOTION_LAST = "StopMotionLastStyle";
-
-  private static final int ICON_RED_CAR[] = new int[] { 224, 192 };
-  private static final int ICON_RED_CAR_CIRCLE[] = new int[] { 224, 224 };
-  private static final int ICON_GREEN_CAR[] = new int[] { 192, 0 };
-  private static final int ICON_GREEN_CAR_CIRCLE[] = new int[] { 192, 32 };
-  private static final int ICON_YELLOW_CAR[] = new int[] { 224, 128 };
-  private static final int ICON_YELLOW_CAR_CIRCLE[] = new int[] { 224, 160 };
+  /**
+   * Write the last location CSV header (which starts with the device ID).
+   * 
+   * @param out PrintWriter object used to write output.
+   */
+  private void writeLocationHeader_CSV(PrintWriter out) {
+    out.print(EventWriter.CSV_NAMED_HEADER);
+  }
 
   /**
-   * Create and return a style for the KML formatted output.
+   * Write a single event as a CSV record.
    * 
-   * @param name Name of the created style.
-   * @param icon Icons to be used in the style.
-   * @return The KML style format, represented as a string.
+   * @param out PrintWriter object used to write output.
+   * @param ev The event to be written.
    */
-  private String createStyle(String name, int icon[]) {
-    StringBuffer st = new StringBuffer();
-    st.append("    <Style id=\"" + name + "\">\n");
-    st.append("      <BalloonStyle id=\"DefaultBalloonStyle\">\n");
-    st.append("        <text><![CDATA[<b>$[name]</b><br/><br/>$[description]]]></text>\n");
-    st.append("      </BalloonStyle>\n");
-    st.append("      <IconStyle id=\"DefaultIconStyle\">\n");
-    st.append("        <color>ffffffff</color>\n");
-    st.append("        <scale>0.70</scale>\n");
-    st.append("        <Icon>\n");
-    st.append("          <href>root://icons/palette-4.png</href>\n");
-    st.append("          <x>" + icon[0] + "</x>\n");
-    st.append("          <y>" + icon[1] + "</y>\n");
-    st.append("          <w>32</w>\n");
-    st.append("          <h>32</h>\n");
-    st.append("        </Icon>\n");
-    st.append("      </IconStyle>\n");
-    st.append("      <LabelStyle id=\"DefaultLabelStyle\">\n");
-    st.append("        <color>ffffffff</color>\n");
-    st.append("        <scale>0.70</scale>\n");
-    st.append("      </LabelStyle>\n");
-    st.append("      <LineStyle id=\"DefaultLineStyle\">\n");
-    st.append("        <color>ff0000ff</color>\n");
-    st.append("        <width>15</width>\n");
-    st.append("      </LineStyle>\n");
-    st.append("      <PolyStyle id=\"DefaultPolyStyle\">\n");
-    st.append("        <color>7f7faaaa</color>\n");
-    st.append("        <colorMode>normal</colorMode>\n");
-    st.append("      </PolyStyle>\n");
-    st.append("    </Style>\n");
-    return st.toString();
+  private void writeEvent_CSV(PrintWriter out, EventData ev) {
+    out.println(ev.formatAsCSVRecord(EventWriter.CSV_FIELDS));
   }
 
+  // ------------------------------------------------------------------------
+
   /**
    * Output events that belong to this device using the KML format. Returns true when the method
    * successfully outputs the event.
@@ -197,71 +171,79 @@ public class EventUtil {
    */
   private boolean writeEvents_KML(PrintWriter out, EventData evdata[]) throws IOException {
     // we assume that the specified events belong to this device
-
-    /* header */
-    out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-    out.println("<kml xmlns=\"http://earth.google.com/kml/2.0\">");
-    out.println("  <Document>");
-
-    /* styles */
-    out.println(createStyle(STYLE_DEFAULT, ICON_GREEN_CAR));
-    out.println(createStyle(STYLE_START_MOTION, ICON_GREEN_CAR));
-    out.println(createStyle(STYLE_START_MOTION_LAST, ICON_GREEN_CAR_CIRCLE));
-    out.println(createStyle(STYLE_STOP_MOTION, ICON_RED_CAR));
-    out.println(createStyle(STYLE_STOP_MOTION_LAST, ICON_RED_CAR_CIRCLE));
-    out.println(createStyle(STYLE_IN_MOTION, ICON_GREEN_CAR));
-    out.println(createStyle(STYLE_IN_MOTION_LAST, ICON_GREEN_CAR_CIRCLE));
-
-    /* placemarks */
-    StringBuffer pm = new StringBuffer();
+    this.writeHeader_KML(out);
     for (int i = 0; i < evdata.length; i++) {
       boolean isLast = (i == (evdata.length - 1));
-      DateTime dt = new DateTime(evdata[i].getTimestamp());
-      String datStr = dt.toString();
-      int code = evdata[i].getStatusCode();
-      String codStr = evdata[i].getStatusCodeString();
-      GeoPoint gp = evdata[i].getGeoPoint();
-      String latStr = gp.getLatitudeString();
-      String lonStr = gp.getLongitudeString();
-      long altStr = Math.round(evdata[i].getAltitude());
-      String spdStr = StringTools.format(evdata[i].getSpeedKPH() * GeoPoint.MILES_PER_KILOMETER,
-          "#0.0");
-      pm.setLength(0);
-      pm.append("    <Placemark>\n");
-      pm.append("      <name>").append(codStr).append("</name>\n");
-      pm.append("      <description><![CDATA[" + datStr + "<br/>Speed: " + spdStr
-          + " mph]]></description>\n");
-      String style = STYLE_DEFAULT;
-      switch (code) {
-      case StatusCodes.STATUS_MOTION_START:
-        style = isLast ? STYLE_START_MOTION_LAST : STYLE_START_MOTION;
-        break;
-      case StatusCodes.STATUS_MOTION_STOP:
-        style = isLast ? STYLE_STOP_MOTION_LAST : STYLE_STOP_MOTION;
-        break;
-      case StatusCodes.STATUS_MOTION_IN_MOTION:
-        style = isLast ? STYLE_IN_MOTION_LAST : STYLE_IN_MOTION;
-        break;
-      }
-      pm.append("      <styleUrl>#" + style + "</styleUrl>\n");
-      pm.append("      <Point>\n");
-      pm.append("        <coordinates>").append(lonStr + "," + latStr + ",0").append(
-          "</coordinates>\n");
-      pm.append("      </Point>\n");
-      pm.append("    </Placemark>\n");
-      out.println(pm.toString());
+      this.writePlacemark_KML(out, evdata[i], null, isLast);
     }
+    this.writeTrailer_KML(out);
+    return true;
+  }
+
+  /**
+   * Write the KML header and styles.
+   * 
+   * @param out PrintWriter object used to write output.
+   */
+  private void writeHeader_KML(PrintWriter out) {
+    out.print(EventWriter.KML_HEADER);
+  }
 
-    /* trailer */
-    out.println("  </Document>");
-    out.println("</kml>");
+  /**
+   * Write a single event as a KML placemark.
+   * 
+   * @param out PrintWriter object used to write output.
+   * @param ev The event to be written.
+   * @param name The placemark name, or null for the status code description.
+   * @param isLast True if this is the last event written (which is shown with a circled icon).
+   */
+  private void writePlacemark_KML(PrintWriter out, EventData ev, String name, boolean isLast) {
+    int code = ev.getStatusCode();
+    String codStr = (name != null) ? name : ev.getStatusCodeString();
+    double speedMPH = ev.getSpeedKPH() * GeoPoint.MILES_PER_KILOMETER;
+    StringBuffer pm = new StringBuffer(512);
+    pm.append("    <Placemark>\n");
+    pm.append("      <name>").append(codStr).append("</name>\n");
+    pm.append("      <description><![CDATA[");
+    EventWriter.KML_TIME_FORMAT.append(pm, ev.getTimestamp());
+    pm.append("<br/>Speed: ");
+    FastFormat.Decimal.TENTHS.append(pm, speedMPH);
+    pm.append(" mph]]></description>\n");
+    String style = EventWriter.getPlacemarkStyle(code, isLast);
+    pm.append("      <styleUrl>#").append(style).append("</styleUrl>\n");
+    pm.append("      <Point>\n");
+    pm.append("        <coordinates>");
+    FastFormat.Decimal.COORD.append(pm, ev.getLongitude()).append(',');
+    FastFormat.Decimal.COORD.append(pm, ev.getLatitude()).append(",0");
+    pm.append("</coordinates>\n");
+    pm.append("      </Point>\n");
+    pm.append("    </Placemark>\n");
+    out.println(pm.toString());
+  }
 
-    return true;
+  /**
+   * Write the KML trailer.
+   * 
+   * @param out PrintWriter object used to write output.
+   */
+  private void writeTrailer_KML(PrintWriter out) {
+    out.print(EventWriter.KML_TRAILER);
   }
 
   /**
-   * Write events to an output stream using the indicated format. If the format is unrecognized, the
-   * method returns false and no output is written.
+   * Returns true if the format is a recognized output format.
+   * 
+   * @param format Integer representation of the output file's format type.
+   * @return True if the format is CSV or KML.
+   */
+  private static boolean isOutputFormat(int format) {
+    return (format == FORMAT_CSV) || (format == FORMAT_KML);
+  }
+
+  /**
+   * Write events to an output stream using the indicated format (see <tt>EventWriter</tt>). If the
+   * format is unrecognized, the method returns false and no output is written. The output stream
+   * is flushed, but not closed.
    * 
    * @param out Output stream to write the events to.
    * @param evdata Events to be written.
@@ -271,7 +253,59 @@ public class EventUtil {
    * @throws IOException Thrown if there is an error with the OutputStream object.
    */
   public boolean writeEvents(OutputStream out, EventData evdata[], int format) throws IOException {
-    return this.writeEvents(new PrintWriter(out), evdata, format);
+    if ((out == null) || (evdata == null) || !isOutputFormat(format)) {
+      return false;
+    }
+    EventWriter ew = new EventWriter(out, format);
+    ew.writeHeader(false);
+    for (int i = 0; i < evdata.length; i++) {
+      ew.writeEvent(evdata[i], null, (i == (evdata.length - 1)));
+    }
+    ew.writeTrailer();
+    ew.flush();
+    return true;
+  }
+
+  /**
+   * Write the events read from a cursor to an output stream using the indicated format (see
+   * <tt>EventWriter</tt>). Each event is written as it is read from the database, and the output
+   * is written in chunks of the specified size, so the number of events written is not limited by
+   * the available memory. If the format is unrecognized, the method returns false and no output is
+   * written. The output stream is flushed, but not closed, and the cursor is not closed.
+   * 
+   * @param out Output stream to write the events to.
+   * @param cursor Cursor over the events to be written.
+   * @param format Integer representation of the output file's format type.
+   * @param chunkSize The size of the chunks written to the output stream (the default is used if
+   *          not positive).
+   * @param flushChunks True to flush the output stream after each chunk (for a chunked HTTP
+   *          response).
+   * @return True if the output is written successfully. Returns false if the format is
+   *         unrecognized.
+   * @throws IOException Thrown if there is an error with the OutputStream object.
+   * @throws DBException Thrown if the events cannot be read from the database. The output written
+   *           so far has been flushed.
+   */
+  public boolean writeEvents(OutputStream out, DBRecordCursor cursor, int format, int chunkSize,
+      boolean flushChunks) throws IOException, DBException {
+    if ((out == null) || (cursor == null) || !isOutputFormat(format)) {
+      return false;
+    }
+    EventWriter ew = new EventWriter(out, format, chunkSize, flushChunks);
+    try {
+      ew.writeHeader(false);
+      while (cursor.hasNext()) {
+        EventData ev = (EventData) cursor.next();
+        ew.writeEvent(ev, null, !cursor.hasNext());
+      }
+      ew.writeTrailer();
+    }
+    catch (DBException dbe) {
+      ew.flush(); // the events read so far
+      throw dbe;
+    }
+    ew.flush();
+    return true;
   }
 
   /**
@@ -297,6 +331,111 @@ public class EventUtil {
     return false;
   }
 
+  /**
+   * Write the events read from a cursor using the indicated format. Each event is written as it is
+   * read from the database, so the number of events written is not limited by the available
+   * memory. If the format is unrecognized, the method returns false and no output is written. The
+   * cursor is not closed.
+   * 
+   * @param out PrintWriter object used to write output.
+   * @param cursor Cursor over the events to be written.
+   * @param format Integer representation of the output file's format type.
+   * @return True if the output is written successfully. Returns false if the format is
+   *         unrecognized.
+   * @throws IOException Thrown if there is an error with the PrintWriter object.
+   * @throws DBException Thrown if the events cannot be read from the database.
+   */
+  public boolean writeEvents(PrintWriter out, DBRecordCursor cursor, int format)
+      throws IOException, DBException {
+    if ((out == null) || (cursor == null)) {
+      return false;
+    }
+    switch (format) {
+    case FORMAT_CSV:
+      this.writeHeader_CSV(out);
+      while (cursor.hasNext()) {
+        this.writeEvent_CSV(out, (EventData) cursor.next());
+      }
+      return true;
+    case FORMAT_KML:
+      this.writeHeader_KML(out);
+      while (cursor.hasNext()) {
+        EventData ev = (EventData) cursor.next();
+        this.writePlacemark_KML(out, ev, null, !cursor.hasNext());
+      }
+      this.writeTrailer_KML(out);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Write the last known locations of several devices using the indicated format. In CSV format
+   * each record starts with the device ID; in KML format each placemark is named by its device ID.
+   * If the format is unrecognized, the method returns false and no output is written.
+   * 
+   * @param out PrintWriter object used to write output.
+   * @param loc The last locations to be written.
+   * @param format Integer representation of the output file's format type.
+   * @return True if the output is written successfully. Returns false if the format is
+   *         unrecognized.
+   * @throws IOException Thrown if there is an error with the PrintWriter object.
+   */
+  public boolean writeLastLocations(PrintWriter out, DeviceLastLocation loc[], int format)
+      throws IOException {
+    if ((out == null) || (loc == null)) {
+      return false;
+    }
+    switch (format) {
+    case FORMAT_CSV:
+      this.writeLocationHeader_CSV(out);
+      for (int i = 0; i < loc.length; i++) {
+        out.print(loc[i].getDeviceID());
+        out.print(",");
+        this.writeEvent_CSV(out, loc[i].toEventData());
+      }
+      return true;
+    case FORMAT_KML:
+      this.writeHeader_KML(out);
+      for (int i = 0; i < loc.length; i++) {
+        // each location is the last event of its device
+        this.writePlacemark_KML(out, loc[i].toEventData(), loc[i].getDeviceID(), true);
+      }
+      this.writeTrailer_KML(out);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Write the last known locations of several devices to an output stream using the indicated
+   * format (see <tt>EventWriter</tt>). In CSV format each record starts with the device ID; in KML
+   * format each placemark is named by its device ID. If the format is unrecognized, the method
+   * returns false and no output is written. The output stream is flushed, but not closed.
+   * 
+   * @param out Output stream to write the locations to.
+   * @param loc The last locations to be written.
+   * @param format Integer representation of the output file's format type.
+   * @return True if the output is written successfully. Returns false if the format is
+   *         unrecognized.
+   * @throws IOException Thrown if there is an error with the OutputStream object.
+   */
+  public boolean writeLastLocations(OutputStream out, DeviceLastLocation loc[], int format)
+      throws IOException {
+    if ((out == null) || (loc == null) || !isOutputFormat(format)) {
+      return false;
+    }
+    EventWriter ew = new EventWriter(out, format);
+    ew.writeHeader(true);
+    for (int i = 0; i < loc.length; i++) {
+      // each location is the last event of its device
+      ew.writeEvent(loc[i].toEventData(), loc[i].getDeviceID(), true);
+    }
+    ew.writeTrailer();
+    ew.flush();
+    return true;
+  }
+
   /**
    * Creates an OutputStream that writes to the file specified by outFile. If outFile is null, the
    * empty string, or "stdout", OutputStream writes to the standard output. If outFile is "stderr",
@@ -454,35 +593,32 @@ public class EventUtil {
         System.exit(1);
       }
 
-      /* extract records */
-      // this assumes that the number of returned records is reasonable and fits in memory
-      EventData evdata[] = null;
+      /* output records */
+      int outFmt = EventUtil.parseOutputFormat(RTConfig.getString(ARG_FORMAT, null), FORMAT_CSV);
+      EventUtil evUtil = new EventUtil(dev);
+      DBRecordCursor cursor = null;
       try {
         if ((startTime <= 0L) && (endTime <= 0L)) {
-          evdata = dev.getLatestEvents(limit);
+          cursor = dev.getLatestEventCursor(limit);
         }
         else {
-          evdata = dev.getRangeEvents(startTime, endTime, Device.LIMIT_TYPE_FIRST, limit);
-        }
-        if (evdata == null) {
-          evdata = new EventData[0];
+          cursor = dev.getRangeEventCursor(startTime, endTime, Device.LIMIT_TYPE_FIRST, limit);
         }
+        evUtil.writeEvents(fos, cursor, outFmt, EventWriter.DEFAULT_BUFFER_SIZE, false);
       }
       catch (DBException dbe) {
         dbe.printException();
         System.exit(99);
       }
-
-      /* output records */
-      int outFmt = EventUtil.parseOutputFormat(RTConfig.getString(ARG_FORMAT, null), FORMAT_CSV);
-      EventUtil evUtil = new EventUtil(dev);
-      try {
-        evUtil.writeEvents(fos, evdata, outFmt);
-      }
       catch (IOException t) {
         Print.logException("Error writing events", t);
         System.exit(1);
       }
+      finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
 
       /* close output file */
       EventUtil.closeOutputStream(fos);
@@ -0,0 +1,581 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Streaming CSV/KML event writer
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_mysql;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.opendmtp.codes.StatusCodes;
+import org.opendmtp.server_mysql.db.EventData;
+import org.opendmtp.util.FastFormat;
+import org.opendmtp.util.GeoPoint;
+import org.opendmtp.util.StringTools;
+
+/**
+ * Writes events as CSV records or KML placemarks directly to an OutputStream. The static parts of
+ * the output (the CSV header, the KML header and styles, and the fixed parts of each placemark)
+ * are encoded to bytes once, when this class is loaded. The values of each event are formatted
+ * directly into a fixed write buffer (see <tt>FastFormat</tt>), so that writing an event creates
+ * no objects.
+ * <p>
+ * The write buffer is written to the OutputStream when it is full (a chunk). If chunk flushing is
+ * enabled, the OutputStream is also flushed after each chunk, so that a servlet response of
+ * unknown length is sent with chunked transfer encoding as it is written, rather than being
+ * buffered by the container. The output is encoded in UTF-8. An EventWriter is not thread-safe.
+ *
+ * @author agent
+ */
+public class EventWriter {
+
+  // ------------------------------------------------------------------------
+
+  /** Default write buffer (chunk) size. */
+  public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+  /** Minimum write buffer size (larger than any single formatted value). */
+  private static final int MIN_BUFFER_SIZE = 256;
+
+  // ------------------------------------------------------------------------
+
+  /** CSV header. */
+  static final String CSV_HEADER = "Date,Time,Code,Latitude,Longitude,Speed,Heading,Altitude\n";
+
+  /** CSV header of named records (which start with the device ID). */
+  static final String CSV_NAMED_HEADER = "Device," + CSV_HEADER;
+
+  /** Fields written to CSV records. */
+  static final String CSV_FIELDS[] = new String[] { EventData.FLD_timestamp,
+      EventData.FLD_statusCode, EventData.FLD_latitude, EventData.FLD_longitude,
+      EventData.FLD_speedKPH, EventData.FLD_heading, EventData.FLD_altitude, };
+
+  /** Index of the first decimal field of CSV records. */
+  private static final int CSV_FIRST_DECIMAL = 2;
+
+  /**
+   * Formatters of the decimal fields of CSV records (by field index), from the field formats, or
+   * null if a field format is not a fixed-precision format (the records are then formatted by
+   * <tt>EventData.appendCSVRecord</tt>).
+   */
+  private static final FastFormat.Decimal CSV_DECIMAL[] = new FastFormat.Decimal[CSV_FIELDS.length];
+  private static boolean csvDecimals = true;
+  static {
+    for (int i = CSV_FIRST_DECIMAL; i < CSV_FIELDS.length; i++) {
+      String fmt = EventData.getFactory().getField(CSV_FIELDS[i]).getFormat();
+      CSV_DECIMAL[i] = FastFormat.Decimal.forPattern(fmt);
+      csvDecimals = csvDecimals && (CSV_DECIMAL[i] != null);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  private static final String STYLE_DEFAULT = "DefaultStyle";
+  private static final String STYLE_START_MOTION = "StartMotionStyle";
+  private static final String STYLE_START_MOTION_LAST = "StartMotionLastStyle";
+  private static final String STYLE_IN_MOTION = "InMotionStyle";
+  private static final String STYLE_IN_MOTION_LAST = "InMotionLastStyle";
+  private static final String STYLE_STOP_MOTION = "StopMotionStyle";
+  private static final String STYLE_STOP_MOTION_LAST = "StopMotionLastStyle";
+
+  private static final int ICON_RED_CAR[] = new int[] { 224, 192 };
+  private static final int ICON_RED_CAR_CIRCLE[] = new int[] { 224, 224 };
+  private static final int ICON_GREEN_CAR[] = new int[] { 192, 0 };
+  private static final int ICON_GREEN_CAR_CIRCLE[] = new int[] { 192, 32 };
+
+  /**
+   * Create and return a style for the KML formatted output.
+   * 
+   * @param name Name of the created style.
+   * @param icon Icons to be used in the style.
+   * @return The KML style format, represented as a string.
+   */
+  private static String createStyle(String name, int icon[]) {
+    StringBuffer st = new StringBuffer();
+    st.append("    <Style id=\"" + name + "\">\n");
+    st.append("      <BalloonStyle id=\"DefaultBalloonStyle\">\n");
+    st.append("        <text><![CDATA[<b>$[name]</b><br/><br/>$[description]]]></text>\n");
+    st.append("      </BalloonStyle>\n");
+    st.append("      <IconStyle id=\"DefaultIconStyle\">\n");
+    st.append("        <color>ffffffff</color>\n");
+    st.append("        <scale>0.70</scale>\n");
+    st.append("        <Icon>\n");
+    st.append("          <href>root://icons/palette-4.png</href>\n");
+    st.append("          <x>" + icon[0] + "</x>\n");
+    st.append("          <y>" + icon[1] + "</y>\n");
+    st.append("          <w>32</w>\n");
+    st.append("          <h>32</h>\n");
+    st.append("        </Icon>\n");
+    st.append("      </IconStyle>\n");
+    st.append("      <LabelStyle id=\"DefaultLabelStyle\">\n");
+    st.append("        <color>ffffffff</color>\n");
+    st.append("        <scale>0.70</scale>\n");
+    st.append("      </LabelStyle>\n");
+    st.append("      <LineStyle id=\"DefaultLineStyle\">\n");
+    st.append("        <color>ff0000ff</color>\n");
+    st.append("        <width>15</width>\n");
+    st.append("      </LineStyle>\n");
+    st.append("      <PolyStyle id=\"DefaultPolyStyle\">\n");
+    st.append("        <color>7f7faaaa</color>\n");
+    st.append("        <colorMode>normal</colorMode>\n");
+    st.append("      </PolyStyle>\n");
+    st.append("    </Style>\n");
+    st.append("\n");
+    return st.toString();
+  }
+
+  /** KML header and styles. */
+  static final String KML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<kml xmlns=\"http://earth.google.com/kml/2.0\">\n" + "  <Document>\n"
+      + createStyle(STYLE_DEFAULT, ICON_GREEN_CAR)
+      + createStyle(STYLE_START_MOTION, ICON_GREEN_CAR)
+      + createStyle(STYLE_START_MOTION_LAST, ICON_GREEN_CAR_CIRCLE)
+      + createStyle(STYLE_STOP_MOTION, ICON_RED_CAR)
+      + createStyle(STYLE_STOP_MOTION_LAST, ICON_RED_CAR_CIRCLE)
+      + createStyle(STYLE_IN_MOTION, ICON_GREEN_CAR)
+      + createStyle(STYLE_IN_MOTION_LAST, ICON_GREEN_CAR_CIRCLE);
+
+  /** KML trailer. */
+  static final String KML_TRAILER = "  </Document>\n" + "</kml>\n";
+
+  /**
+   * Returns the style of a placemark.
+   * 
+   * @param code The status code of the event.
+   * @param isLast True if the event is the last event written (which is shown with a circled
+   *          icon).
+   * @return The style name.
+   */
+  static String getPlacemarkStyle(int code, boolean isLast) {
+    switch (code) {
+    case StatusCodes.STATUS_MOTION_START:
+      return isLast ? STYLE_START_MOTION_LAST : STYLE_START_MOTION;
+    case StatusCodes.STATUS_MOTION_STOP:
+      return isLast ? STYLE_STOP_MOTION_LAST : STYLE_STOP_MOTION;
+    case StatusCodes.STATUS_MOTION_IN_MOTION:
+      return isLast ? STYLE_IN_MOTION_LAST : STYLE_IN_MOTION;
+    default:
+      return STYLE_DEFAULT;
+    }
+  }
+
+  /**
+   * Formats the placemark date (as <tt>DateTime.toString</tt>, in the default TimeZone).
+   */
+  static final FastFormat.Timestamp KML_TIME_FORMAT = new FastFormat.Timestamp(
+      "EEE MMM dd HH:mm:ss zzz yyyy", null);
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Encodes a string in UTF-8.
+   * 
+   * @param s The string.
+   * @return The encoded bytes.
+   */
+  private static byte[] getBytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    }
+    catch (java.io.UnsupportedEncodingException uee) {
+      // UTF-8 is always supported
+      return s.getBytes();
+    }
+  }
+
+  private static final byte CSV_HEADER_BYTES[] = getBytes(CSV_HEADER);
+  private static final byte CSV_NAMED_HEADER_BYTES[] = getBytes(CSV_NAMED_HEADER);
+  private static final byte KML_HEADER_BYTES[] = getBytes(KML_HEADER);
+  private static final byte KML_TRAILER_BYTES[] = getBytes(KML_TRAILER);
+
+  /* fixed parts of a placemark (<name>...<description>...<styleUrl>...<coordinates>) */
+  private static final byte PM_NAME[] = getBytes("    <Placemark>\n      <name>");
+  private static final byte PM_DESCRIPTION[] = getBytes("</name>\n"
+      + "      <description><![CDATA[");
+  private static final byte PM_SPEED[] = getBytes("<br/>Speed: ");
+  private static final byte PM_END[] = getBytes(",0</coordinates>\n" + "      </Point>\n"
+      + "    </Placemark>\n" + "\n");
+
+  /**
+   * The end of the description, the style, and the start of the coordinates, by status code and
+   * "last" flag. The index is <tt>(motion-code-index * 2) + (isLast ? 1 : 0)</tt>, where the
+   * motion code index is 0 for other codes.
+   */
+  private static final byte PM_STYLE[][] = new byte[8][];
+  static {
+    int code[] = new int[] { StatusCodes.STATUS_LOCATION, StatusCodes.STATUS_MOTION_START,
+        StatusCodes.STATUS_MOTION_STOP, StatusCodes.STATUS_MOTION_IN_MOTION };
+    for (int i = 0; i < PM_STYLE.length; i++) {
+      String style = getPlacemarkStyle(code[i / 2], ((i % 2) == 1));
+      PM_STYLE[i] = getBytes(" mph]]></description>\n" + "      <styleUrl>#" + style
+          + "</styleUrl>\n" + "      <Point>\n" + "        <coordinates>");
+    }
+  }
+
+  /**
+   * Returns the index of the style bytes (see <tt>PM_STYLE</tt>) of a placemark.
+   * 
+   * @param code The status code of the event.
+   * @param isLast True if the event is the last event written.
+   * @return The index.
+   */
+  private static int getStyleIndex(int code, boolean isLast) {
+    int ndx;
+    switch (code) {
+    case StatusCodes.STATUS_MOTION_START:
+      ndx = 1;
+      break;
+    case StatusCodes.STATUS_MOTION_STOP:
+      ndx = 2;
+      break;
+    case StatusCodes.STATUS_MOTION_IN_MOTION:
+      ndx = 3;
+      break;
+    default:
+      ndx = 0;
+      break;
+    }
+    return (ndx * 2) + (isLast ? 1 : 0);
+  }
+
+  // ------------------------------------------------------------------------
+
+  private OutputStream out = null;
+  private boolean csv = false;
+  private boolean flushChunks = false;
+
+  /** Write buffer. */
+  private byte buf[] = null;
+  private int bufLen = 0;
+
+  /** Formatting buffers (reused for each event). */
+  private StringBuffer fmt = new StringBuffer(128);
+  private char chars[] = new char[128];
+
+  private long byteCount = 0L;
+  private long chunkCount = 0L;
+
+  /**
+   * Creates a writer of events in the indicated format, with the default buffer size, which does
+   * not flush the OutputStream after each chunk.
+   * 
+   * @param out The OutputStream.
+   * @param format <tt>EventUtil.FORMAT_CSV</tt> or <tt>EventUtil.FORMAT_KML</tt>.
+   */
+  public EventWriter(OutputStream out, int format) {
+    this(out, format, DEFAULT_BUFFER_SIZE, false);
+  }
+
+  /**
+   * Creates a writer of events in the indicated format.
+   * 
+   * @param out The OutputStream.
+   * @param format <tt>EventUtil.FORMAT_CSV</tt> or <tt>EventUtil.FORMAT_KML</tt> (any other
+   *          format is written as KML).
+   * @param bufferSize The write buffer (chunk) size (the default is used if not positive, and
+   *          small sizes are increased to a minimum size).
+   * @param flushChunks True to flush the OutputStream after each chunk.
+   */
+  public EventWriter(OutputStream out, int format, int bufferSize, boolean flushChunks) {
+    this.out = out;
+    this.csv = (format == EventUtil.FORMAT_CSV);
+    this.buf = new byte[(bufferSize > 0) ? Math.max(bufferSize, MIN_BUFFER_SIZE)
+        : DEFAULT_BUFFER_SIZE];
+    this.flushChunks = flushChunks;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Writes the CSV header, or the KML header and styles.
+   * 
+   * @param named True if the CSV records start with the device ID (see
+   *          <tt>writeEvent</tt>).
+   * @throws IOException If the output cannot be written.
+   */
+  public void writeHeader(boolean named) throws IOException {
+    if (this.csv) {
+      this._put(named ? CSV_NAMED_HEADER_BYTES : CSV_HEADER_BYTES);
+    }
+    else {
+      this._put(KML_HEADER_BYTES);
+    }
+  }
+
+  /**
+   * Writes an event, as a CSV record or a KML placemark.
+   * 
+   * @param ev The event.
+   * @param name The device ID which starts the CSV record, or the placemark name (or null for
+   *          none, or the status code description, respectively).
+   * @param isLast True if this is the last event written (which is shown with a circled icon).
+   * @throws IOException If the output cannot be written.
+   */
+  public void writeEvent(EventData ev, String name, boolean isLast) throws IOException {
+    if (this.csv) {
+      if (name != null) {
+        this._put(name);
+        this._put((byte) ',');
+      }
+      if (csvDecimals) {
+        this._putCSVRecord(ev);
+      }
+      else {
+        StringBuffer sb = this.fmt;
+        sb.setLength(0);
+        this._put(ev.appendCSVRecord(sb, CSV_FIELDS));
+      }
+      this._put((byte) '\n');
+    }
+    else {
+      int code = ev.getStatusCode();
+      this._put(PM_NAME);
+      this._put((name != null) ? name : ev.getStatusCodeString());
+      this._put(PM_DESCRIPTION);
+      this._reserve(KML_TIME_FORMAT.getMaxBytes());
+      this.bufLen = KML_TIME_FORMAT.put(this.buf, this.bufLen, ev.getTimestamp());
+      this._put(PM_SPEED);
+      this._put(FastFormat.Decimal.TENTHS, ev.getSpeedKPH() * GeoPoint.MILES_PER_KILOMETER);
+      this._put(PM_STYLE[getStyleIndex(code, isLast)]);
+      this._put(FastFormat.Decimal.COORD, ev.getLongitude());
+      this._put((byte) ',');
+      this._put(FastFormat.Decimal.COORD, ev.getLatitude());
+      this._put(PM_END);
+    }
+  }
+
+  /**
+   * Writes the fields of a CSV record (as <tt>EventData.appendCSVRecord</tt>).
+   * 
+   * @param ev The event.
+   * @throws IOException If the output cannot be written.
+   */
+  private void _putCSVRecord(EventData ev) throws IOException {
+    for (int i = 0; i < CSV_FIELDS.length; i++) {
+      if (i > 0) {
+        this._put((byte) ',');
+      }
+      Object val = ev.getFieldValue(CSV_FIELDS[i]);
+      if (val == null) {
+        // empty
+      }
+      else if (i >= CSV_FIRST_DECIMAL) {
+        this._put(CSV_DECIMAL[i], ((Double) val).doubleValue());
+      }
+      else if (i == 0) {
+        this._reserve(EventData.CSV_TIME_FORMAT.getMaxBytes());
+        long time = ((Long) val).longValue();
+        this.bufLen = EventData.CSV_TIME_FORMAT.put(this.buf, this.bufLen, time);
+      }
+      else {
+        int code = ((Integer) val).intValue();
+        StatusCodes.Code c = StatusCodes.GetCode(code);
+        this._put((c != null) ? c.getDescription() : ("0x" + StringTools.toHexString(code)));
+      }
+    }
+  }
+
+  /**
+   * Writes the KML trailer (CSV has none).
+   * 
+   * @throws IOException If the output cannot be written.
+   */
+  public void writeTrailer() throws IOException {
+    if (!this.csv) {
+      this._put(KML_TRAILER_BYTES);
+    }
+  }
+
+  /**
+   * Writes a line of text (such as an error message which truncates the output).
+   * 
+   * @param s The text.
+   * @throws IOException If the output cannot be written.
+   */
+  public void writeLine(String s) throws IOException {
+    this._put(s);
+    this._put((byte) '\n');
+  }
+
+  /**
+   * Writes an error message which truncates the output. In KML the message is written as an XML
+   * comment, followed by the trailer, so that the document remains well-formed.
+   * 
+   * @param msg The error message (which must not contain "--").
+   * @throws IOException If the output cannot be written.
+   */
+  public void writeError(String msg) throws IOException {
+    if (this.csv) {
+      this.writeLine("");
+      this.writeLine(msg);
+    }
+    else {
+      this.writeLine("    <!-- " + msg + " -->");
+      this.writeTrailer();
+    }
+  }
+
+  /**
+   * Writes the buffered output, and flushes the OutputStream. The OutputStream is not closed.
+   * 
+   * @throws IOException If the output cannot be written.
+   */
+  public void flush() throws IOException {
+    this._writeChunk();
+    this.out.flush();
+  }
+
+  // ------------------------------------------------------------------------
+
+  /* write the buffered bytes to the OutputStream */
+  private void _writeChunk() throws IOException {
+    if (this.bufLen > 0) {
+      this.out.write(this.buf, 0, this.bufLen);
+      this.byteCount += this.bufLen;
+      this.chunkCount++;
+      this.bufLen = 0;
+      if (this.flushChunks) {
+        this.out.flush();
+      }
+    }
+  }
+
+  /* make room for the specified number of bytes (at most the minimum buffer size) */
+  private void _reserve(int len) throws IOException {
+    if ((this.buf.length - this.bufLen) < len) {
+      this._writeChunk();
+    }
+  }
+
+  /* append a formatted decimal value */
+  private void _put(FastFormat.Decimal df, double val) throws IOException {
+    this._reserve(FastFormat.Decimal.MAX_BYTES);
+    int ofs = df.put(this.buf, this.bufLen, val);
+    if (ofs >= 0) {
+      this.bufLen = ofs;
+    }
+    else {
+      // not a number, or too large
+      StringBuffer sb = this.fmt;
+      sb.setLength(0);
+      this._put(df.append(sb, val));
+    }
+  }
+
+  /* append a byte */
+  private void _put(byte b) throws IOException {
+    if (this.bufLen == this.buf.length) {
+      this._writeChunk();
+    }
+    this.buf[this.bufLen++] = b;
+  }
+
+  /* append bytes */
+  private void _put(byte b[]) throws IOException {
+    int ofs = 0;
+    while (ofs < b.length) {
+      if (this.bufLen == this.buf.length) {
+        this._writeChunk();
+      }
+      int n = Math.min(b.length - ofs, this.buf.length - this.bufLen);
+      System.arraycopy(b, ofs, this.buf, this.bufLen, n);
+      this.bufLen += n;
+      ofs += n;
+    }
+  }
+
+  /* append the characters of a formatting buffer, encoded in UTF-8 */
+  private void _put(StringBuffer sb) throws IOException {
+    int len = sb.length();
+    if (len > this.chars.length) {
+      this.chars = new char[Math.max(len, this.chars.length * 2)];
+    }
+    sb.getChars(0, len, this.chars, 0);
+    this._put(this.chars, len);
+  }
+
+  /* append a string, encoded in UTF-8 */
+  private void _put(String s) throws IOException {
+    int len = s.length();
+    if (len > this.chars.length) {
+      this.chars = new char[Math.max(len, this.chars.length * 2)];
+    }
+    s.getChars(0, len, this.chars, 0);
+    this._put(this.chars, len);
+  }
+
+  /* append characters, encoded in UTF-8 */
+  private void _put(char ch[], int len) throws IOException {
+    for (int i = 0; i < len; i++) {
+      int c = ch[i];
+      this._reserve(4);
+      if (c < 0x80) {
+        this.buf[this.bufLen++] = (byte) c;
+      }
+      else if (c < 0x800) {
+        this.buf[this.bufLen++] = (byte) (0xC0 | (c >> 6));
+        this.buf[this.bufLen++] = (byte) (0x80 | (c & 0x3F));
+      }
+      else if ((c >= 0xD800) && (c <= 0xDBFF) && ((i + 1) < len) && (ch[i + 1] >= 0xDC00)
+          && (ch[i + 1] <= 0xDFFF)) {
+        // surrogate pair
+        int cp = 0x10000 + ((c - 0xD800) << 10) + (ch[++i] - 0xDC00);
+        this.buf[this.bufLen++] = (byte) (0xF0 | (cp >> 18));
+        this.buf[this.bufLen++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        this.buf[this.bufLen++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        this.buf[this.bufLen++] = (byte) (0x80 | (cp & 0x3F));
+      }
+      else if ((c >= 0xD800) && (c <= 0xDFFF)) {
+        // unpaired surrogate
+        this.buf[this.bufLen++] = (byte) '?';
+      }
+      else {
+        this.buf[this.bufLen++] = (byte) (0xE0 | (c >> 12));
+        this.buf[this.bufLen++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        this.buf[this.bufLen++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the number of bytes written to the OutputStream.
+   * 
+   * @return The number of bytes written (excluding buffered bytes).
+   */
+  public long getByteCount() {
+    return this.byteCount;
+  }
+
+  /**
+   * Returns the number of chunks written to the OutputStream.
+   * 
+   * @return The number of chunks written.
+   */
+  public long getChunkCount() {
+    return this.chunkCount;
+  }
+
+}
@@ -0,0 +1,215 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  CSV/KML event writer benchmark
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_mysql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import org.opendmtp.codes.StatusCodes;
+import org.opendmtp.server_mysql.db.EventData;
+import org.opendmtp.util.Print;
+import org.opendmtp.util.RTConfig;
+
+/**
+ * Compares the time taken to render a track of events as CSV or KML with the PrintWriter writers
+ * of <tt>EventUtil</tt> and with the byte writer <tt>EventWriter</tt>. The events are created in
+ * memory (no database is used), and the output is discarded. Each writer renders the track a
+ * number of times to warm up, then a number of measured times; the average time per track is
+ * reported for each writer. The output of both writers is also compared.
+ * <p>
+ * Options:
+ * <pre>
+ *  -events=&lt;n&gt;     Number of events in the track [default 100000]
+ *  -format=&lt;fmt&gt;   "csv", "kml", or "all" [default "all"]
+ *  -warmup=&lt;n&gt;     Number of warm-up renderings [default 5]
+ *  -iter=&lt;n&gt;       Number of measured renderings [default 10]
+ * </pre>
+ *
+ * @author agent
+ */
+public class EventWriterBench {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * An OutputStream which counts, and discards, the bytes written.
+   */
+  private static class NullOutputStream extends OutputStream {
+    private long count = 0L;
+
+    public void write(int b) {
+      this.count++;
+    }
+
+    public void write(byte b[], int ofs, int len) {
+      this.count += len;
+    }
+  }
+
+  /**
+   * Renders a track with one of the writers.
+   */
+  private static abstract class Renderer {
+    private String name = null;
+
+    private Renderer(String name) {
+      this.name = name;
+    }
+
+    abstract void render(OutputStream out, EventData ev[], int fmt) throws IOException;
+  }
+
+  private static final Renderer PRINT_WRITER = new Renderer("PrintWriter") {
+    void render(OutputStream out, EventData ev[], int fmt) throws IOException {
+      // the former 'EventUtil.writeEvents(OutputStream,...)'
+      PrintWriter pw = new PrintWriter(out);
+      new EventUtil().writeEvents(pw, ev, fmt);
+      pw.flush();
+    }
+  };
+
+  private static final Renderer EVENT_WRITER = new Renderer("EventWriter") {
+    void render(OutputStream out, EventData ev[], int fmt) throws IOException {
+      new EventUtil().writeEvents(out, ev, fmt);
+    }
+  };
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates a track of events.
+   *
+   * @param count The number of events.
+   * @return The events.
+   */
+  private static EventData[] createTrack(int count) {
+    int code[] = new int[] { StatusCodes.STATUS_MOTION_START, StatusCodes.STATUS_MOTION_IN_MOTION,
+        StatusCodes.STATUS_LOCATION, StatusCodes.STATUS_MOTION_STOP };
+    long ts = 1160000000L;
+    EventData ev[] = new EventData[count];
+    for (int i = 0; i < ev.length; i++) {
+      EventData.Key key = new EventData.Key("bench", "bench0", ts + (i * 30L), code[i % 4]);
+      ev[i] = (EventData) key.getDBRecord();
+      ev[i].setLatitude(39.0 + (i % 10000) / 10000.0);
+      ev[i].setLongitude(-142.0 - (i % 10000) / 7000.0);
+      ev[i].setSpeedKPH((i % 1300) / 10.0);
+      ev[i].setHeading((i * 7) % 360);
+      ev[i].setAltitude(100.0 + (i % 500) * 1.25);
+    }
+    return ev;
+  }
+
+  /**
+   * Renders a track repeatedly with a writer, and returns the average time per track.
+   *
+   * @param r The writer.
+   * @param ev The track.
+   * @param fmt The output format.
+   * @param warmup The number of warm-up renderings.
+   * @param iter The number of measured renderings.
+   * @return The average time per track, in milliseconds.
+   * @throws IOException If the output cannot be written.
+   */
+  private static double measure(Renderer r, EventData ev[], int fmt, int warmup, int iter)
+      throws IOException {
+    for (int i = 0; i < warmup; i++) {
+      r.render(new NullOutputStream(), ev, fmt);
+    }
+    NullOutputStream out = new NullOutputStream();
+    long startNS = System.nanoTime();
+    for (int i = 0; i < iter; i++) {
+      r.render(out, ev, fmt);
+    }
+    double ms = (System.nanoTime() - startNS) / 1000000.0 / iter;
+    Print.logInfo(r.name + ": " + (long) ms + " ms/track, "
+        + (long) (ev.length * 1000.0 / ms) + " events/sec, " + (out.count / iter) + " bytes");
+    return ms;
+  }
+
+  /**
+   * Runs the comparison for an output format.
+   *
+   * @param ev The track.
+   * @param fmt The output format.
+   * @param warmup The number of warm-up renderings.
+   * @param iter The number of measured renderings.
+   * @throws IOException If the output cannot be written.
+   */
+  public static void run(EventData ev[], int fmt, int warmup, int iter) throws IOException {
+    String name = (fmt == EventUtil.FORMAT_CSV) ? "CSV" : "KML";
+    Print.logInfo(name + ": " + ev.length + " events");
+
+    /* compare output */
+    // the PrintWriter writers end lines with the platform line separator
+    ByteArrayOutputStream oldOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream newOut = new ByteArrayOutputStream();
+    PRINT_WRITER.render(oldOut, ev, fmt);
+    EVENT_WRITER.render(newOut, ev, fmt);
+    Print.logInfo(name + ": identical output = "
+        + java.util.Arrays.equals(oldOut.toByteArray(), newOut.toByteArray()));
+    oldOut = null;
+    newOut = null;
+
+    /* measure */
+    double oldMS = measure(PRINT_WRITER, ev, fmt, warmup, iter);
+    double newMS = measure(EVENT_WRITER, ev, fmt, warmup, iter);
+    if (newMS > 0.0) {
+      Print.logInfo(name + ": speedup " + ((long) (oldMS / newMS * 100.0) / 100.0) + "x");
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Runs the comparison (see the class description for the options).
+   *
+   * @param argv The command line arguments.
+   */
+  public static void main(String argv[]) {
+    DBConfig.init(argv, true);
+    int count = RTConfig.getInt("events", 100000);
+    String format = RTConfig.getString("format", "all");
+    int warmup = RTConfig.getInt("warmup", 5);
+    int iter = Math.max(RTConfig.getInt("iter", 10), 1);
+    EventData ev[] = createTrack(Math.max(count, 1));
+    try {
+      if (format.equalsIgnoreCase("all") || format.equalsIgnoreCase("csv")) {
+        run(ev, EventUtil.FORMAT_CSV, warmup, iter);
+      }
+      if (format.equalsIgnoreCase("all") || format.equalsIgnoreCase("kml")) {
+        run(ev, EventUtil.FORMAT_KML, warmup, iter);
+      }
+    }
+    catch (IOException ioe) {
+      Print.logException("Error writing events", ioe);
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+}
@@ -34,6 +34,7 @@ import org.opendmtp.dbtools.DBException;
 import org.opendmtp.dbtools.DBFactory;
 import org.opendmtp.dbtools.DBField;
 import org.opendmtp.dbtools.DBRecord;
+import org.opendmtp.dbtools.DBRecordCursor;
 import org.opendmtp.dbtools.DBRecordKey;
 import org.opendmtp.server_mysql.DBConfig;
 import org.opendmtp.server_mysql.dbtypes.DTProfileMask;
@@ -681,6 +682,35 @@ public class Device extends DBRecord {
         LIMIT_TYPE_LAST, limit);
   }
 
+  /**
+   * Opens a cursor over the events of this device in the specified time range (see
+   * <tt>EventData.getRangeEventCursor</tt>). The cursor must be closed by the caller.
+   * 
+   * @param timeStart The start time.
+   * @param timeEnd The end time.
+   * @param limitType The limit type.
+   * @param limit The limit value.
+   * @return The event cursor.
+   * @throws DBException If the events cannot be selected.
+   */
+  public DBRecordCursor getRangeEventCursor(long timeStart, long timeEnd, int limitType,
+      long limit) throws DBException {
+    return EventData.getRangeEventCursor(this.getAccountID(), this.getDeviceID(), timeStart,
+        timeEnd, limitType, limit);
+  }
+
+  /**
+   * Opens a cursor over the most recent limit events. The cursor must be closed by the caller.
+   * 
+   * @param limit The limit value.
+   * @return The event cursor.
+   * @throws DBException If the events cannot be selected.
+   */
+  public DBRecordCursor getLatestEventCursor(long limit) throws DBException {
+    return EventData.getRangeEventCursor(this.getAccountID(), this.getDeviceID(), -1L, -1L,
+        LIMIT_TYPE_LAST, limit);
+  }
+
   /**
    * Overidden method that returns the account ID and device ID.
    * 
@@ -0,0 +1,344 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Last known location of each device
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.server_mysql.db;
+
+import org.opendmtp.dbtools.DBException;
+import org.opendmtp.dbtools.DBFactory;
+import org.opendmtp.dbtools.DBField;
+import org.opendmtp.dbtools.DBRecord;
+import org.opendmtp.dbtools.DBRecordKey;
+import org.opendmtp.util.GeoPoint;
+
+/**
+ * Holds the last known location of each device: the most recent event with a valid GPS fix.
+ * The table has one compact row per device, so the current location of every device of an
+ * account is read with a single key range select, instead of one sorted EventData query per
+ * device.
+ * 
+ * @author agent
+ */
+public class DeviceLastLocation extends DBRecord {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Name of the table in the database.
+   */
+  public static final String TABLE_NAME = "DeviceLastLocation";
+
+  /* field definition */
+  /**
+   * Name of database field holding account ID.
+   */
+  public static final String FLD_accountID = EventData.FLD_accountID;
+  /**
+   * Name of database field holding device ID.
+   */
+  public static final String FLD_deviceID = EventData.FLD_deviceID;
+  /**
+   * Name of database field holding the event timestamp.
+   */
+  public static final String FLD_timestamp = EventData.FLD_timestamp;
+  /**
+   * Name of database field holding the event status code.
+   */
+  public static final String FLD_statusCode = EventData.FLD_statusCode;
+  /**
+   * Name of database field holding latitude.
+   */
+  public static final String FLD_latitude = EventData.FLD_latitude;
+  /**
+   * Name of database field holding longitude.
+   */
+  public static final String FLD_longitude = EventData.FLD_longitude;
+  /**
+   * Name of database field holding speed.
+   */
+  public static final String FLD_speedKPH = EventData.FLD_speedKPH;
+  /**
+   * Name of database field holding heading.
+   */
+  public static final String FLD_heading = EventData.FLD_heading;
+  /**
+   * Name of database field holding altitude.
+   */
+  public static final String FLD_altitude = EventData.FLD_altitude;
+  private static DBField FieldInfo[] = {
+      new DBField(FLD_accountID, String.class, DBField.TYPE_STRING(32), "title=Account_ID key=true"),
+      new DBField(FLD_deviceID, String.class, DBField.TYPE_STRING(32), "title=Device_ID key=true"),
+      new DBField(FLD_timestamp, Long.TYPE, DBField.TYPE_UINT32, "title=Timestamp"),
+      new DBField(FLD_statusCode, Integer.TYPE, DBField.TYPE_UINT32, "title=Status_Code"),
+      new DBField(FLD_latitude, Double.TYPE, DBField.TYPE_DOUBLE, "title=Latitude format=#0.00000"),
+      new DBField(FLD_longitude, Double.TYPE, DBField.TYPE_DOUBLE,
+          "title=Longitude format=#0.00000"),
+      new DBField(FLD_speedKPH, Double.TYPE, DBField.TYPE_DOUBLE, "title=Speed_KPH format=#0.0"),
+      new DBField(FLD_heading, Double.TYPE, DBField.TYPE_DOUBLE, "title=Heading format=#0.0"),
+      new DBField(FLD_altitude, Double.TYPE, DBField.TYPE_DOUBLE, "title=Altitude format=#0.0"), };
+
+  /**
+   * Specifies the keys used in the SQL database.
+   * 
+   * @author agent
+   */
+  public static class Key extends DBRecordKey {
+
+    /**
+     * Basic constructor, just calls superclass constructor.
+     */
+    public Key() {
+      super();
+    }
+
+    /**
+     * Creates a new record key for a device.
+     *  
+     * @param acctId account ID to add as key.
+     * @param devId device ID to add as key.
+     */
+    public Key(String acctId, String devId) {
+      super.setFieldValue(FLD_accountID, acctId);
+      super.setFieldValue(FLD_deviceID, devId);
+    }
+
+    /**
+     * Returns the factory associated with database.
+     * 
+     * @return The factory associated with database.
+     * @see org.opendmtp.dbtools.DBRecordKey#getFactory()
+     */
+    public DBFactory getFactory() {
+      return DeviceLastLocation.getFactory();
+    }
+  }
+
+  /* factory constructor */
+  private static DBFactory factory = null;
+
+  /**
+   * Gets the DBFactory, creating a new factory if one does not already exist.
+   * 
+   * @return The DBFactory (possibly new).
+   */
+  public static DBFactory getFactory() {
+    if (factory == null) {
+      factory = new DBFactory(TABLE_NAME, FieldInfo, KEY_PRIMARY, DeviceLastLocation.class,
+          DeviceLastLocation.Key.class);
+      // updated for every device several times a minute, read by the account
+      factory.setTableType(DBFactory.TABLE_TYPE_INNODB);
+    }
+    return factory;
+  }
+
+  /* Bean instance */
+  /**
+   * Constructs a new instance.
+   */
+  public DeviceLastLocation() {
+    super();
+  }
+
+  /* database record */
+  /**
+   * Constructs a new instance using the supplied Key.
+   * 
+   * @param key Key to be used for new object.
+   */
+  public DeviceLastLocation(DeviceLastLocation.Key key) {
+    super(key);
+  }
+
+  // ------------------------------------------------------------------------
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates the last location record of an event. The record is not saved.
+   * 
+   * @param ev the event.
+   * @return the last location record, or null if the event has no valid GPS fix.
+   */
+  public static DeviceLastLocation createLastLocation(EventData ev) {
+    if (!ev.getGeoPoint().isValid()) {
+      return null;
+    }
+    DeviceLastLocation.Key key = new DeviceLastLocation.Key(ev.getAccountID(), ev.getDeviceID());
+    DeviceLastLocation loc = (DeviceLastLocation) key.getDBRecord();
+    loc.setFieldValue(FLD_timestamp, ev.getTimestamp());
+    loc.setFieldValue(FLD_statusCode, ev.getStatusCode());
+    loc.setFieldValue(FLD_latitude, ev.getLatitude());
+    loc.setFieldValue(FLD_longitude, ev.getLongitude());
+    loc.setFieldValue(FLD_speedKPH, ev.getSpeedKPH());
+    loc.setFieldValue(FLD_heading, ev.getHeading());
+    loc.setFieldValue(FLD_altitude, ev.getAltitude());
+    return loc;
+  }
+
+  // MySQL: select * from DeviceLastLocation where (accountID='<acct>') order by deviceID
+  /**
+   * Reads the last locations of all devices of an account from the database, with a single
+   * select.
+   * 
+   * @param acctId account ID to match.
+   * @return the last locations, ordered by device ID.
+   * @throws DBException if a database error is encountered.
+   */
+  public static DeviceLastLocation[] getLastLocations(String acctId) throws DBException {
+    if ((acctId == null) || acctId.equals("")) {
+      return new DeviceLastLocation[0];
+    }
+    StringBuffer wh = new StringBuffer();
+    wh.append(" WHERE (").append(FLD_accountID).append("='").append(acctId).append("')");
+    wh.append(" ORDER BY ").append(FLD_deviceID);
+    DeviceLastLocation loc[] = (DeviceLastLocation[]) DBRecord.select(getFactory(), wh
+        .toString());
+    return (loc != null) ? loc : new DeviceLastLocation[0];
+  }
+
+  // ------------------------------------------------------------------------
+  // ------------------------------------------------------------------------
+  // Bean access fields below
+
+  /**
+   * Returns account ID from database field.
+   * 
+   * @return account ID String, or empty String if value is null in database. 
+   */
+  public String getAccountID() {
+    String v = (String) this.getFieldValue(FLD_accountID);
+    return (v != null) ? v : "";
+  }
+
+  /**
+   * Returns device ID from database field.
+   * 
+   * @return device ID String, or empty String if value is null in database. 
+   */
+  public String getDeviceID() {
+    String v = (String) this.getFieldValue(FLD_deviceID);
+    return (v != null) ? v : "";
+  }
+
+  /**
+   * Returns the event timestamp from database field.
+   * 
+   * @return timestamp, or 0 if value is null in database.
+   */
+  public long getTimestamp() {
+    Long v = (Long) this.getFieldValue(FLD_timestamp);
+    return (v != null) ? v.longValue() : 0L;
+  }
+
+  /**
+   * Returns the event status code from database field.
+   * 
+   * @return status code, or 0 if value is null in database.
+   */
+  public int getStatusCode() {
+    Integer v = (Integer) this.getFieldValue(FLD_statusCode);
+    return (v != null) ? v.intValue() : 0;
+  }
+
+  /**
+   * Returns latitude from database field.
+   * 
+   * @return latitude, or 0.0 if value is null in database.
+   */
+  public double getLatitude() {
+    Double v = (Double) this.getFieldValue(FLD_latitude);
+    return (v != null) ? v.doubleValue() : 0.0;
+  }
+
+  /**
+   * Returns longitude from database field.
+   * 
+   * @return longitude, or 0.0 if value is null in database.
+   */
+  public double getLongitude() {
+    Double v = (Double) this.getFieldValue(FLD_longitude);
+    return (v != null) ? v.doubleValue() : 0.0;
+  }
+
+  /**
+   * Returns the location as a GeoPoint.
+   * 
+   * @return the location.
+   */
+  public GeoPoint getGeoPoint() {
+    return new GeoPoint(this.getLatitude(), this.getLongitude());
+  }
+
+  /**
+   * Returns speed from database field.
+   * 
+   * @return speed in kilometers per hour, or 0.0 if value is null in database.
+   */
+  public double getSpeedKPH() {
+    Double v = (Double) this.getFieldValue(FLD_speedKPH);
+    return (v != null) ? v.doubleValue() : 0.0;
+  }
+
+  /**
+   * Returns heading from database field.
+   * 
+   * @return heading, or 0.0 if value is null in database.
+   */
+  public double getHeading() {
+    Double v = (Double) this.getFieldValue(FLD_heading);
+    return (v != null) ? v.doubleValue() : 0.0;
+  }
+
+  /**
+   * Returns altitude from database field.
+   * 
+   * @return altitude, or 0.0 if value is null in database.
+   */
+  public double getAltitude() {
+    Double v = (Double) this.getFieldValue(FLD_altitude);
+    return (v != null) ? v.doubleValue() : 0.0;
+  }
+
+  // Bean access fields above
+  // ------------------------------------------------------------------------
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates an (unsaved) EventData record holding this location, so that it can be written with
+   * the event report formats.
+   * 
+   * @return the event record.
+   */
+  public EventData toEventData() {
+    EventData.Key key = new EventData.Key(this.getAccountID(), this.getDeviceID(), this
+        .getTimestamp(), this.getStatusCode());
+    EventData ev = (EventData) key.getDBRecord();
+    ev.setLatitude(this.getLatitude());
+    ev.setLongitude(this.getLongitude());
+    ev.setSpeedKPH(this.getSpeedKPH());
+    ev.setHeading(this.getHeading());
+    ev.setAltitude(this.getAltitude());
+    return ev;
+  }
+
+}
@@ -24,16 +24,23 @@
 // ----------------------------------------------------------------------------
 package org.opendmtp.server_mysql.db;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import org.opendmtp.codes.StatusCodes;
+import org.opendmtp.dbtools.DBConnection;
 import org.opendmtp.dbtools.DBException;
 import org.opendmtp.dbtools.DBFactory;
 import org.opendmtp.dbtools.DBField;
 import org.opendmtp.dbtools.DBRecord;
+import org.opendmtp.dbtools.DBRecordCursor;
 import org.opendmtp.dbtools.DBRecordKey;
+import org.opendmtp.dbtools.DBStatementCache;
 import org.opendmtp.util.DateTime;
+import org.opendmtp.util.FastFormat;
 import org.opendmtp.util.GeoPoint;
+import org.opendmtp.util.RTConfig;
+import org.opendmtp.util.RTKey;
 import org.opendmtp.util.StringTools;
 
 /**
@@ -185,7 +192,7 @@ public class EventData extends DBRecord {
       super.setFieldValue(FLD_accountID, acctId);
       super.setFieldValue(FLD_deviceID, devId);
       super.setFieldValue(FLD_timestamp, timestamp);
-      super.setFieldValue(FLD_statusCode, statusCode);
+      super.setFieldValue(FLD_statusCode, (int) statusCode); // Integer field
     }
 
     /**
@@ -223,6 +230,10 @@ public class EventData extends DBRecord {
     if (factory == null) {
       factory = new DBFactory(TABLE_NAME, FieldInfo, KEY_PRIMARY, EventData.class,
           EventData.Key.class);
+      // InnoDB: rows clustered by (accountID, deviceID, timestamp, statusCode), and lock-free
+      // (consistent snapshot) range reads which do not stall the concurrent event inserts
+      factory.setTableType(RTConfig.getString(RTKey.DB_EVENT_TABLE_TYPE,
+          DBFactory.TABLE_TYPE_INNODB));
     }
     return factory;
   }
@@ -590,6 +601,12 @@ public class EventData extends DBRecord {
   // ------------------------------------------------------------------------
   // ------------------------------------------------------------------------
 
+  /**
+   * Formats the timestamp of CSV records (in GMT).
+   */
+  public static final FastFormat.Timestamp CSV_TIME_FORMAT = new FastFormat.Timestamp(
+      "yyyy/MM/dd,HH:mm:ss", DateTime.getGMTTimeZone());
+
   /**
    * Formats a set of fields from the database as a record of comma separated
    * values (CSV).
@@ -598,7 +615,18 @@ public class EventData extends DBRecord {
    * @return CSV formatted record
    */
   public String formatAsCSVRecord(String fields[]) {
-    StringBuffer sb = new StringBuffer();
+    return this.appendCSVRecord(new StringBuffer(), fields).toString();
+  }
+
+  /**
+   * Appends a set of fields from the database to a buffer, as a record of comma
+   * separated values (CSV).
+   * 
+   * @param sb the buffer.
+   * @param fields the names of the fields to be formatted.
+   * @return the buffer.
+   */
+  public StringBuffer appendCSVRecord(StringBuffer sb, String fields[]) {
     if (fields != null) {
       // DBFactory fact = EventData.getFactory();
       for (int i = 0; i < fields.length; i++) {
@@ -611,8 +639,7 @@ public class EventData extends DBRecord {
           Class typeClass = dbFld.getTypeClass();
           if (fields[i].equals(FLD_timestamp)) {
             long time = ((Long) val).longValue();
-            DateTime dt = new DateTime(time);
-            sb.append(dt.gmtFormat("yyyy/MM/dd,HH:mm:ss"));
+            CSV_TIME_FORMAT.append(sb, time);
           }
           else if (fields[i].equals(FLD_statusCode)) {
             int code = ((Integer) val).intValue();
@@ -627,7 +654,11 @@ public class EventData extends DBRecord {
           else if ((typeClass == Double.class) || (typeClass == Double.TYPE)) {
             double d = ((Double) val).doubleValue();
             String fmt = dbFld.getFormat();
-            if ((fmt != null) && !fmt.equals("")) {
+            FastFormat.Decimal df = FastFormat.Decimal.forPattern(fmt);
+            if (df != null) {
+              df.append(sb, d);
+            }
+            else if ((fmt != null) && !fmt.equals("")) {
               sb.append(StringTools.format(d, fmt));
             }
             else {
@@ -640,12 +671,28 @@ public class EventData extends DBRecord {
         }
       }
     }
-    return sb.toString();
+    return sb;
   }
 
   // ------------------------------------------------------------------------
   // ------------------------------------------------------------------------
 
+  /**
+   * Saves a group of event records with multi-row insert statements. An event whose key
+   * already exists replaces the existing record, as with <tt>save()</tt>.
+   * 
+   * @param events array of event records to save.
+   * @param count number of records (from the start of the array) to save.
+   * @return number of records saved.
+   * @throws DBException if a database error occurs, after saving the records of any
+   * previously executed statements.
+   */
+  public static int saveEvents(EventData events[], int count) throws DBException {
+    return DBRecord.saveBatch(events, count);
+  }
+
+  // ------------------------------------------------------------------------
+
   // MySQL: where ( <Condition...> )
   /**
    * Assembles an SQL query string (?) in the supplied buffer, based on the other
@@ -777,14 +824,10 @@ public class EventData extends DBRecord {
     }
 
     /* get events */
-    EventData ae[] = null;
-    try {
-      DBRecord.lockTables(new String[] { TABLE_NAME }, null);
-      ae = (EventData[]) DBRecord.select(EventData.getFactory(), wh.toString());
-    }
-    finally {
-      DBRecord.unlockTables();
-    }
+    // No table lock: the select is a single statement, which reads a consistent snapshot of an
+    // InnoDB table without locking any rows (and holds only its own implicit read lock on a
+    // MyISAM table), so event inserts are not stalled behind report queries.
+    EventData ae[] = (EventData[]) DBRecord.select(EventData.getFactory(), wh.toString());
     if (ae == null) {
       // no records
       return new EventData[0];
@@ -808,6 +851,71 @@ public class EventData extends DBRecord {
 
   // ------------------------------------------------------------------------
 
+  // MySQL: select * from EventData <Where> order by <FLD_timestamp> limit <Limit>
+  // MySQL: select * from (select * from EventData <Where> order by <FLD_timestamp> desc
+  //        limit <Limit>) as ev order by <FLD_timestamp>
+  /**
+   * Opens a cursor over the events of a particular account/device over a specified time
+   * interval, in ascending time order. Unlike <tt>getRangeEvents</tt>, the events are read from
+   * the database as the cursor is advanced, so any number of events may be selected. The cursor
+   * must be closed by the caller.
+   * 
+   * @param acctId account ID to match
+   * @param devId device ID to match
+   * @param timeStart start of time interval to search
+   * @param timeEnd end of time interval to search
+   * @param limitType LIMIT_TYPE_FIRST for the first <tt>limit</tt> events of the interval,
+   *          LIMIT_TYPE_LAST for the last <tt>limit</tt> events.
+   * @param limit maximum number of events (no limit if not positive).
+   * @return cursor over the matching EventData records.
+   * @throws DBException if a database error is encountered.
+   */
+  public static DBRecordCursor getRangeEventCursor(String acctId, String devId, long timeStart,
+      long timeEnd, int limitType, long limit) throws DBException {
+
+    /* where clause */
+    StringBuffer wh = new StringBuffer();
+    if ((acctId == null) || acctId.equals("") || (devId == null) || devId.equals("")
+        || ((timeStart > 0L) && (timeEnd > 0L) && (timeStart > timeEnd))) {
+      // invalid account/device/time range, select nothing
+      wh.append(" WHERE (0=1)");
+    }
+    else {
+      EventData.getWhereClause(wh, acctId, devId, timeStart, timeEnd, null /* statCode[] */,
+          false /* gpsRequired */, null /* andSelect */);
+    }
+
+    /* select */
+    StringBuffer sb = new StringBuffer();
+    if ((limitType == LIMIT_TYPE_LAST) && (limit > 0)) {
+      // select the last events in descending order, then reorder to ascending order
+      sb.append("SELECT * FROM (");
+      sb.append("SELECT * FROM ").append(TABLE_NAME).append(wh);
+      sb.append(" ORDER BY ").append(FLD_timestamp).append(" DESC");
+      sb.append(" LIMIT ").append(limit);
+      sb.append(") AS ev ORDER BY ").append(FLD_timestamp);
+    }
+    else {
+      sb.append("SELECT * FROM ").append(TABLE_NAME).append(wh);
+      sb.append(" ORDER BY ").append(FLD_timestamp);
+      if (limit > 0) {
+        sb.append(" LIMIT ").append(limit);
+      }
+    }
+
+    /* open cursor */
+    return DBRecordCursor.open(EventData.getFactory(), sb.toString());
+
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Where clause of the account/device time range count.
+   */
+  private static final String RANGE_COUNT_WHERE = "WHERE (" + FLD_accountID + "=? AND "
+      + FLD_deviceID + "=? AND " + FLD_timestamp + ">=? AND " + FLD_timestamp + "<=?)";
+
   /**
    * Counts the number of events in the database from a particular account/device over
    * a specified time interval.
@@ -821,6 +929,19 @@ public class EventData extends DBRecord {
    */
   public static long getRecordCount(String acctId, String devId, long timeStart, long timeEnd)
       throws DBException {
+    if ((timeStart >= 0L) && (timeEnd >= timeStart)) {
+      // the common (rate limit) case, counted with a cached prepared statement
+      DBFactory fact = EventData.getFactory();
+      DBField fld[] = new DBField[] { fact.getField(FLD_accountID), fact.getField(FLD_deviceID),
+          fact.getField(FLD_timestamp), fact.getField(FLD_timestamp) };
+      Object val[] = new Object[] { acctId, devId, new Long(timeStart), new Long(timeEnd) };
+      try {
+        return DBRecord.getRecordCount(fact, "time", RANGE_COUNT_WHERE, fld, val);
+      }
+      catch (SQLException sqe) {
+        throw new DBException("Getting record count", sqe);
+      }
+    }
     StringBuffer wh = new StringBuffer();
     EventData.getWhereClause(wh, acctId, devId, timeStart, timeEnd, null /* statCode[] */,
         false /* gpsRequired */, null /* andSelect */);
@@ -832,4 +953,61 @@ public class EventData extends DBRecord {
     }
   }
 
+  // MySQL: select (timestamp DIV 60) as minute, count(*) from EventData <Where>
+  //        group by minute
+  /**
+   * Counts the number of events in the database from a particular account/device in each minute
+   * of a specified time interval.
+   * 
+   * @param acctId account ID to match
+   * @param devId device ID to match
+   * @param minuteStart first minute of the time interval (seconds / 60)
+   * @param minutes number of minutes in the time interval
+   * @return Number of database records in each minute, where element 'i' holds the records of
+   *         minute 'minuteStart + i'.
+   * @throws DBException if a database error is encountered.
+   */
+  public static long[] getRecordCountsByMinute(String acctId, String devId, long minuteStart,
+      int minutes) throws DBException {
+    long counts[] = new long[(minutes > 0) ? minutes : 0];
+    if (counts.length == 0) {
+      return counts;
+    }
+    DBFactory fact = EventData.getFactory();
+    StringBuffer sb = new StringBuffer();
+    sb.append("SELECT (").append(FLD_timestamp).append(" DIV 60) AS minute, ");
+    sb.append(DBRecord.FLD_count_).append(" FROM ").append(fact.getTableName()).append(" ");
+    sb.append(RANGE_COUNT_WHERE).append(" GROUP BY minute");
+    String key = DBStatementCache.getKey(fact.getTableName(), DBStatementCache.OP_COUNT_RANGE,
+        "minute");
+    DBField fld[] = new DBField[] { fact.getField(FLD_accountID), fact.getField(FLD_deviceID),
+        fact.getField(FLD_timestamp), fact.getField(FLD_timestamp) };
+    Object val[] = new Object[] { acctId, devId, new Long(minuteStart * 60L),
+        new Long((minuteStart + counts.length) * 60L - 1L) };
+    ResultSet rs = null;
+    try {
+      rs = DBConnection.getDefaultConnection().executeQuery(key, sb.toString(), fld, val);
+      while (rs.next()) {
+        long ndx = rs.getLong(1) - minuteStart;
+        if ((ndx >= 0L) && (ndx < counts.length)) {
+          counts[(int) ndx] = rs.getLong(2);
+        }
+      }
+      return counts;
+    }
+    catch (SQLException sqe) {
+      throw new DBException("Getting record counts", sqe);
+    }
+    finally {
+      if (rs != null) {
+        try {
+          rs.close();
+        }
+        catch (SQLException sqe) {
+          // ignore
+        }
+      }
+    }
+  }
+
 }
@@ -110,7 +110,7 @@ public class EventTemplate extends DBRecord {
      * @see org.opendmtp.dbtools.DBRecordKey#getFactory()
      */
     public DBFactory getFactory() {
-      return Device.getFactory();
+      return EventTemplate.getFactory();
     }
   }
 
@@ -317,6 +317,9 @@ public class EventTemplate extends DBRecord {
     this.setFieldValue(FLD_repeatLast, pt.getRepeatLast());
     PayloadTemplate.Field flds[] = pt.getFields();
     DTTemplate template = this.getTemplate();
+    if (template == null) {
+      template = new DTTemplate(); // new record
+    }
     template.clearFields();
     for (int i = 0; i < flds.length; i++) {
       int type = flds[i].getType();
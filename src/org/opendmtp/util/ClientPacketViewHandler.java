@@ -0,0 +1,51 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Socket client packet handler which accepts packets as buffer views
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.util;
+
+/**
+ * Optional extension of <tt>ClientPacketHandler</tt> for handlers which can parse a packet in
+ * place. When zero-copy packets are enabled (see <tt>ServerSocketThread.setZeroCopyPackets</tt>),
+ * the transports pass packets to handlers implementing this interface as a view over the session
+ * packet buffer, rather than as a new array per packet. Other handlers always receive a copy.
+ * 
+ * @author agent
+ */
+public interface ClientPacketViewHandler extends ClientPacketHandler {
+
+  /**
+   * Process packet and return response. The packet occupies 'cmdLen' bytes of 'cmd' starting at
+   * 'cmdOfs', and 'cmd' may be reused by the caller once this method returns, so it must not be
+   * retained by the handler.
+   * 
+   * @param cmd buffer containing the packet to be processed.
+   * @param cmdOfs offset of the packet in the buffer.
+   * @param cmdLen length of the packet.
+   * @return an array containing packet information for output.
+   * @throws Exception if problem encountered while handling packet.
+   */
+  public byte[] getHandlePacket(byte cmd[], int cmdOfs, int cmdLen) throws Exception;
+
+}
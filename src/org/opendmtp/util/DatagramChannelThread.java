@@ -0,0 +1,400 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Shared UDP receive path with per-datagram handler dispatch
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * UDP server thread which receives all datagrams on a single <tt>DatagramChannel</tt>. Each
+ * datagram is received into a buffer taken from a fixed pool of reusable buffers, and is then
+ * handed to a bounded pool of worker threads, which split the datagram into packets and pass them
+ * to a <tt>ClientPacketHandler</tt> (no session thread is created). If no buffer is free (ie. the
+ * workers have fallen behind by more than the maximum queue size), the datagram is dropped.
+ * Packet framing configuration is inherited from <tt>ServerSocketThread</tt>.
+ *
+ * @author agent
+ */
+public class DatagramChannelThread extends ServerSocketThread {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default number of worker threads.
+   */
+  public static final int DEFAULT_WORKERS = 4;
+
+  /**
+   * Default maximum number of datagrams queued for the workers.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Datagram channel.
+   */
+  private DatagramChannel channel = null;
+  /**
+   * Worker thread pool.
+   */
+  private ThreadPool workerPool = null;
+  /**
+   * Number of worker threads.
+   */
+  private int workerCount = DEFAULT_WORKERS;
+  /**
+   * Maximum number of queued datagrams.
+   */
+  private int maxQueueSize = DEFAULT_QUEUE_SIZE;
+  /**
+   * Free receive buffers.
+   */
+  private ByteBuffer freeBuffers[] = null;
+  /**
+   * Number of free receive buffers.
+   */
+  private int freeCount = 0;
+
+  /**
+   * Lock for the buffer pool and counters.
+   */
+  private Object poolLock = new Object();
+  /**
+   * Number of datagrams received.
+   */
+  private long receivedCount = 0L;
+  /**
+   * Number of datagrams dropped because no buffer was available.
+   */
+  private long droppedCount = 0L;
+  /**
+   * Number of datagrams currently queued for (or being handled by) a worker.
+   */
+  private int queuedCount = 0;
+  /**
+   * Number of datagrams processed.
+   */
+  private long processedCount = 0L;
+  /**
+   * Packet framer of each worker thread, reused for every datagram the worker handles.
+   */
+  private ThreadLocal workerFramer = new ThreadLocal() {
+    protected Object initialValue() {
+      return new PacketFramer(null);
+    }
+  };
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates a new thread and a new datagram channel bound to a specified port, using the default
+   * number of workers and queue size.
+   *
+   * @param port a port number
+   * @throws IOException if an error occured
+   */
+  public DatagramChannelThread(int port) throws IOException {
+    this(port, DEFAULT_WORKERS, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * Creates a new thread and a new datagram channel bound to a specified port.
+   *
+   * @param port a port number
+   * @param workers number of worker threads (the default is used if not positive)
+   * @param maxQueue maximum number of queued datagrams (the default is used if not positive)
+   * @throws IOException if an error occured
+   */
+  public DatagramChannelThread(int port, int workers, int maxQueue) throws IOException {
+    super();
+    this.channel = DatagramChannel.open();
+    this.channel.socket().bind(new InetSocketAddress(port));
+    this.workerCount = (workers > 0) ? workers : DEFAULT_WORKERS;
+    this.maxQueueSize = (maxQueue > 0) ? maxQueue : DEFAULT_QUEUE_SIZE;
+    this.workerPool = new ThreadPool("DatagramWorker", this.workerCount);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the number of datagrams received.
+   *
+   * @return number of datagrams received
+   */
+  public long getReceivedCount() {
+    synchronized (this.poolLock) {
+      return this.receivedCount;
+    }
+  }
+
+  /**
+   * Returns the number of datagrams dropped because the worker queue was full.
+   *
+   * @return number of datagrams dropped
+   */
+  public long getDroppedCount() {
+    synchronized (this.poolLock) {
+      return this.droppedCount;
+    }
+  }
+
+  /**
+   * Returns the number of datagrams currently queued for (or being handled by) a worker.
+   *
+   * @return number of datagrams queued
+   */
+  public int getQueuedCount() {
+    synchronized (this.poolLock) {
+      return this.queuedCount;
+    }
+  }
+
+  /**
+   * Returns the number of datagrams processed.
+   *
+   * @return number of datagrams processed
+   */
+  public long getProcessedCount() {
+    synchronized (this.poolLock) {
+      return this.processedCount;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Implements a run() method of the Thread interface. Receives datagrams and queues each for a
+   * worker thread.
+   */
+  public void run() {
+
+    /* allocate buffer pool */
+    int buffSize = this.getMaximumPacketLength();
+    synchronized (this.poolLock) {
+      this.freeBuffers = new ByteBuffer[this.maxQueueSize + 1];
+      for (int i = 0; i < this.freeBuffers.length; i++) {
+        this.freeBuffers[i] = ByteBuffer.allocate(buffSize);
+      }
+      this.freeCount = this.freeBuffers.length;
+    }
+
+    /* receive datagrams */
+    ByteBuffer bb = this._borrowBuffer();
+    while (true) {
+
+      /* wait for datagram */
+      SocketAddress addr = null;
+      try {
+        bb.clear();
+        addr = this.channel.receive(bb);
+        if (addr == null) {
+          continue;
+        }
+        bb.flip();
+      }
+      catch (IOException ioe) {
+        Print.logError("Connection - " + ioe);
+        if (!this.channel.isOpen()) {
+          break;
+        }
+        continue; // go back and wait again
+      }
+
+      /* queue for worker */
+      ByteBuffer next = this._borrowBuffer();
+      if (next == null) {
+        // no free buffer, drop this datagram and reuse its buffer
+        synchronized (this.poolLock) {
+          this.receivedCount++;
+          this.droppedCount++;
+        }
+        continue;
+      }
+      synchronized (this.poolLock) {
+        this.receivedCount++;
+        this.queuedCount++;
+      }
+      this.workerPool.run(new DatagramJob(addr, bb));
+      bb = next;
+
+    }
+  }
+
+  /**
+   * Takes a buffer from the free buffer pool.
+   *
+   * @return a free buffer, or null if none are available
+   */
+  private ByteBuffer _borrowBuffer() {
+    synchronized (this.poolLock) {
+      if (this.freeCount > 0) {
+        ByteBuffer bb = this.freeBuffers[--this.freeCount];
+        this.freeBuffers[this.freeCount] = null;
+        return bb;
+      }
+      else {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Returns a buffer to the free buffer pool.
+   *
+   * @param bb buffer
+   */
+  private void _returnBuffer(ByteBuffer bb) {
+    synchronized (this.poolLock) {
+      this.freeBuffers[this.freeCount++] = bb;
+      this.queuedCount--;
+      this.processedCount++;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Handles the packets contained in a single datagram.
+   *
+   * @author agent
+   */
+  private class DatagramJob implements Runnable {
+
+    private SocketAddress addr = null;
+    private ByteBuffer data = null;
+
+    /**
+     * Creates a job for the specified datagram.
+     *
+     * @param addr sender address
+     * @param data datagram data
+     */
+    public DatagramJob(SocketAddress addr, ByteBuffer data) {
+      this.addr = addr;
+      this.data = data;
+    }
+
+    /**
+     * Splits the datagram into packets and passes each to the client packet handler.
+     */
+    public void run() {
+      try {
+        this._handleDatagram();
+      }
+      catch (Throwable t) {
+        Print.logException("Unexpected exception: ", t);
+      }
+      finally {
+        DatagramChannelThread.this._returnBuffer(this.data);
+      }
+    }
+
+    /**
+     * Splits the datagram into packets and passes each to the client packet handler.
+     */
+    private void _handleDatagram() {
+      byte b[] = this.data.array();
+      int len = this.data.limit();
+
+      /* client session handler */
+      InetAddress inetAddr = null;
+      if (this.addr instanceof InetSocketAddress) {
+        inetAddr = ((InetSocketAddress) this.addr).getAddress();
+      }
+      ClientPacketHandler clientHandler = DatagramChannelThread.this.getClientPacketHandler();
+      if (clientHandler != null) {
+        clientHandler.sessionStarted(inetAddr, false, DatagramChannelThread.this.isTextPackets());
+      }
+
+      /* handle packets */
+      PacketFramer framer = (PacketFramer) DatagramChannelThread.this.workerFramer.get();
+      framer.setClientPacketHandler(clientHandler);
+      int ofs = 0;
+      while (ofs < len) {
+        ofs += framer.append(b, ofs, len - ofs);
+        if (!framer.isComplete()) {
+          if (!DatagramChannelThread.this.isTextPackets()) {
+            // incomplete binary packet at the end of the datagram
+            break;
+          }
+        }
+        boolean view = framer.isPacketView();
+        int lineLen = framer.getPacketLength();
+        byte line[] = view ? framer.getPacketBuffer() : framer.getPacket();
+        if (view) {
+          framer.reset();
+        }
+
+        /* send packet to listeners */
+        if (!view && DatagramChannelThread.this.hasListeners()) {
+          try {
+            DatagramChannelThread.this.invokeListeners(line);
+          }
+          catch (Throwable t) {
+            // a listener can terminate this session
+            break;
+          }
+        }
+
+        /* handle packet (simplex, any response is discarded) */
+        if (clientHandler != null) {
+          try {
+            if (view) {
+              ((ClientPacketViewHandler) clientHandler).getHandlePacket(line, 0, lineLen);
+            }
+            else {
+              clientHandler.getHandlePacket(line);
+            }
+            if (clientHandler.terminateSession()) {
+              break;
+            }
+          }
+          catch (Throwable t) {
+            // the ClientPacketHandler can terminate this session
+            Print.logException("Unexpected exception: ", t);
+            break;
+          }
+        }
+
+      }
+
+      /* client session terminated */
+      if (clientHandler != null) {
+        clientHandler.sessionTerminated(null, (long) len, 0L);
+      }
+
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+}
@@ -1341,6 +1341,11 @@ public class DateTime implements Comparable, Cloneable {
     }
   }
 
+  /**
+   * Date formatters by pattern (per thread, as SimpleDateFormat instances are not thread-safe).
+   */
+  private static ThreadLocalMap formatMap = new ThreadLocalMap(java.util.HashMap.class);
+
   /**
    * Returns formatted representation of current time.
    * 
@@ -1350,7 +1355,11 @@ public class DateTime implements Comparable, Cloneable {
    * @return current time in String format, "Oct 22, 2003 7:23:18 PM".
    */
   public String format(String fmt, StringBuffer sb, TimeZone tz) {
-    SimpleDateFormat sdf = new SimpleDateFormat(fmt);
+    SimpleDateFormat sdf = (SimpleDateFormat) formatMap.get(fmt);
+    if (sdf == null) {
+      sdf = new SimpleDateFormat(fmt);
+      formatMap.put(fmt, sdf);
+    }
     sdf.setTimeZone(this._timeZone(tz));
     if (sb == null) {
       sb = new StringBuffer();
@@ -0,0 +1,575 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Thread-safe decimal and timestamp formatters
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.util;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable (and therefore thread-safe) formatters for the numbers and times written for every
+ * event by the CSV and KML output paths. The formatters append directly to a caller supplied
+ * buffer, without creating a <tt>DecimalFormat</tt> or <tt>SimpleDateFormat</tt> and without
+ * creating intermediate strings.
+ * <ul>
+ * <li><tt>Decimal</tt>: fixed-precision decimals, as formatted by a <tt>DecimalFormat</tt> pattern
+ * such as "0.0" or "###0.00000" (US locale, rounded half-even).</li>
+ * <li><tt>Timestamp</tt>: times (in seconds), as formatted by a <tt>SimpleDateFormat</tt> pattern
+ * made of the letters "yyyy", "MM", "MMM", "dd", "EEE", "HH", "mm", "ss" and "zzz".</li>
+ * </ul>
+ *
+ * @author agent
+ */
+public class FastFormat {
+
+  // ------------------------------------------------------------------------
+
+  /** Powers of ten, by exponent. */
+  private static final long POW10[] = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+      10000000L, 100000000L, 1000000000L };
+
+  /** Largest magnitude formatted without <tt>BigDecimal</tt> (2^53, exact as a double). */
+  private static final double MAX_EXACT = 9007199254740992.0;
+
+  /**
+   * Appends a non-negative number with at least the specified number of digits.
+   *
+   * @param sb The buffer.
+   * @param val The number.
+   * @param digits The minimum number of digits (zero padded).
+   */
+  private static void _appendDigits(StringBuffer sb, long val, int digits) {
+    for (int d = digits - 1; d > 0; d--) {
+      if ((d < POW10.length) && (val < POW10[d])) {
+        sb.append('0');
+      }
+    }
+    sb.append(val);
+  }
+
+  /**
+   * Puts a non-negative number with at least the specified number of digits into a byte array.
+   *
+   * @param b The byte array.
+   * @param ofs The offset of the number.
+   * @param val The number.
+   * @param digits The minimum number of digits (zero padded).
+   * @return The offset following the number.
+   */
+  private static int _putDigits(byte b[], int ofs, long val, int digits) {
+    int n = 1;
+    for (long v = val / 10L; v > 0L; v /= 10L) {
+      n++;
+    }
+    for (; n < digits; digits--) {
+      b[ofs++] = (byte) '0';
+    }
+    for (int i = ofs + n - 1; i >= ofs; i--) {
+      b[i] = (byte) ('0' + (int) (val % 10L));
+      val /= 10L;
+    }
+    return ofs + n;
+  }
+
+  /**
+   * Puts the ASCII characters of a string into a byte array.
+   *
+   * @param b The byte array.
+   * @param ofs The offset of the characters.
+   * @param s The characters.
+   * @return The offset following the characters.
+   */
+  private static int _putBytes(byte b[], int ofs, byte s[]) {
+    System.arraycopy(s, 0, b, ofs, s.length);
+    return ofs + s.length;
+  }
+
+  /**
+   * Returns the ASCII characters of a string (other characters are replaced by '?').
+   *
+   * @param s The string.
+   * @return The characters.
+   */
+  private static byte[] _getBytes(String s) {
+    byte b[] = new byte[s.length()];
+    for (int i = 0; i < b.length; i++) {
+      char ch = s.charAt(i);
+      b[i] = (ch < 0x80) ? (byte) ch : (byte) '?';
+    }
+    return b;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A fixed-precision decimal formatter. The integer part has at least one digit, and the
+   * fraction has exactly <tt>fracDigits</tt> digits.
+   */
+  public static final class Decimal {
+
+    /** One fraction digit (speed, heading, altitude). */
+    public static final Decimal TENTHS = new Decimal(1);
+
+    /** Five fraction digits (latitude, longitude). */
+    public static final Decimal COORD = new Decimal(5);
+
+    /** Maximum number of bytes put by <tt>put</tt>. */
+    public static final int MAX_BYTES = 27;
+
+    /** Formatters by DecimalFormat pattern (null values are not stored). */
+    private static ConcurrentHashMap patternMap = new ConcurrentHashMap();
+
+    /**
+     * Returns the formatter equivalent to a DecimalFormat pattern of the form "#0.000" (any
+     * number of '#' and '0' integer digits, and only '0' fraction digits).
+     *
+     * @param fmt The DecimalFormat pattern.
+     * @return The formatter, or null if the pattern is not a simple fixed-precision pattern.
+     */
+    public static Decimal forPattern(String fmt) {
+      if (fmt == null) {
+        return null;
+      }
+      Decimal df = (Decimal) patternMap.get(fmt);
+      if (df == null) {
+        int p = fmt.indexOf('.');
+        String intPart = (p >= 0) ? fmt.substring(0, p) : fmt;
+        String fracPart = (p >= 0) ? fmt.substring(p + 1) : "";
+        boolean ok = intPart.endsWith("0") && (fracPart.length() < POW10.length);
+        for (int i = 0; ok && (i < intPart.length()); i++) {
+          char ch = intPart.charAt(i);
+          ok = (ch == '#') || ((ch == '0') && (intPart.indexOf('#', i) < 0));
+        }
+        for (int i = 0; ok && (i < fracPart.length()); i++) {
+          ok = (fracPart.charAt(i) == '0');
+        }
+        if (!ok || (intPart.length() - intPart.lastIndexOf('#') > 2)) {
+          return null; // more than one minimum integer digit, or not fixed-precision
+        }
+        df = new Decimal(fracPart.length());
+        patternMap.put(fmt, df);
+      }
+      return df;
+    }
+
+    private int fracDigits = 0;
+    private long scale = 1L;
+    private String pattern = null;
+
+    /**
+     * Creates a fixed-precision decimal formatter.
+     *
+     * @param fracDigits The number of fraction digits (0 to 9).
+     */
+    public Decimal(int fracDigits) {
+      this.fracDigits = Math.max(0, Math.min(fracDigits, POW10.length - 1));
+      this.scale = POW10[this.fracDigits];
+      StringBuffer sb = new StringBuffer("0");
+      for (int i = 0; i < this.fracDigits; i++) {
+        sb.append((i == 0) ? ".0" : "0");
+      }
+      this.pattern = sb.toString();
+    }
+
+    /**
+     * Appends a formatted value to a buffer.
+     *
+     * @param sb The buffer.
+     * @param val The value.
+     * @return The buffer.
+     */
+    public StringBuffer append(StringBuffer sb, double val) {
+      if (!this._isExact(val)) {
+        // rare, formatted as before
+        sb.append(StringTools.format(val, this.pattern));
+        return sb;
+      }
+      long units = this._round(val);
+      if (_isNegative(val)) {
+        sb.append('-');
+      }
+      sb.append(units / this.scale);
+      if (this.fracDigits > 0) {
+        sb.append('.');
+        FastFormat._appendDigits(sb, units % this.scale, this.fracDigits);
+      }
+      return sb;
+    }
+
+    /**
+     * Puts a formatted value into a byte array, which must have room for <tt>MAX_BYTES</tt>
+     * bytes. Values which are not a number, or too large (see <tt>MAX_EXACT</tt>), are not put,
+     * and must be formatted with <tt>append</tt>.
+     *
+     * @param b The byte array.
+     * @param ofs The offset of the value.
+     * @param val The value.
+     * @return The offset following the value, or -1 if the value was not put.
+     */
+    public int put(byte b[], int ofs, double val) {
+      if (!this._isExact(val)) {
+        return -1;
+      }
+      long units = this._round(val);
+      if (_isNegative(val)) {
+        b[ofs++] = (byte) '-';
+      }
+      ofs = FastFormat._putDigits(b, ofs, units / this.scale, 1);
+      if (this.fracDigits > 0) {
+        b[ofs++] = (byte) '.';
+        ofs = FastFormat._putDigits(b, ofs, units % this.scale, this.fracDigits);
+      }
+      return ofs;
+    }
+
+    /* true if the value is scaled to a long exactly (not NaN, infinite, or too large) */
+    private boolean _isExact(double val) {
+      return !Double.isNaN(val) && ((Math.abs(val) * this.scale) < MAX_EXACT);
+    }
+
+    /* the absolute value, in units of the last fraction digit, rounded half-even */
+    private long _round(double val) {
+      double abs = Math.abs(val);
+      double scaled = abs * this.scale;
+      long units = (long) scaled;
+      double rem = scaled - units;
+      if (Math.abs(rem - 0.5) < 1.0E-6) {
+        // (nearly) a tie, which depends on the exact decimal value of the double
+        units = new BigDecimal(abs).setScale(this.fracDigits, BigDecimal.ROUND_HALF_EVEN)
+            .unscaledValue().longValue();
+      }
+      else if (rem > 0.5) {
+        units++;
+      }
+      return units;
+    }
+
+    /* true if formatted with a sign (as DecimalFormat, also if negative and rounded to zero) */
+    private static boolean _isNegative(double val) {
+      return (val < 0.0) || ((val == 0.0) && ((1.0 / val) < 0.0));
+    }
+
+    /**
+     * Formats a value.
+     *
+     * @param val The value.
+     * @return The formatted value.
+     */
+    public String format(double val) {
+      return this.append(new StringBuffer(), val).toString();
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A timestamp formatter for a fixed pattern and time zone.
+   */
+  public static final class Timestamp {
+
+    private static final int T_LITERAL = 0;
+    private static final int T_YEAR = 1;
+    private static final int T_MONTH = 2;
+    private static final int T_MONTH_NAME = 3;
+    private static final int T_DAY = 4;
+    private static final int T_WEEKDAY = 5;
+    private static final int T_HOUR = 6;
+    private static final int T_MINUTE = 7;
+    private static final int T_SECOND = 8;
+    private static final int T_ZONE = 9;
+
+    private static final String MONTH_NAME[] = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul",
+        "Aug", "Sep", "Oct", "Nov", "Dec" };
+    private static final String WEEKDAY_NAME[] = { "Thu", "Fri", "Sat", "Sun", "Mon", "Tue",
+        "Wed" }; // starting with 1970/01/01
+    private static final byte MONTH_BYTES[][] = new byte[MONTH_NAME.length][];
+    private static final byte WEEKDAY_BYTES[][] = new byte[WEEKDAY_NAME.length][];
+    static {
+      for (int i = 0; i < MONTH_NAME.length; i++) {
+        MONTH_BYTES[i] = FastFormat._getBytes(MONTH_NAME[i]);
+      }
+      for (int i = 0; i < WEEKDAY_NAME.length; i++) {
+        WEEKDAY_BYTES[i] = FastFormat._getBytes(WEEKDAY_NAME[i]);
+      }
+    }
+
+    private int token[] = null;
+    private String literal[] = null;
+    private TimeZone timeZone = null;
+    private boolean fixedOffset = false;
+    private String stdName = null;
+    private String dstName = null;
+    private byte literalBytes[][] = null;
+    private byte stdBytes[] = null;
+    private byte dstBytes[] = null;
+    private int maxBytes = 0;
+
+    /**
+     * Creates a timestamp formatter.
+     *
+     * @param fmt The SimpleDateFormat pattern, of the letters "yyyy", "MM", "MMM", "dd", "EEE",
+     *          "HH", "mm", "ss" and "zzz", and literal characters.
+     * @param tz The time zone, or null for the default time zone (see
+     *          <tt>DateTime.getDefaultTimeZone</tt>).
+     * @throws IllegalArgumentException If the pattern contains other letters.
+     */
+    public Timestamp(String fmt, TimeZone tz) {
+      this.timeZone = (TimeZone) ((tz != null) ? tz : DateTime.getDefaultTimeZone()).clone();
+      this.fixedOffset = !this.timeZone.useDaylightTime();
+      this.stdName = this.timeZone.getDisplayName(false, TimeZone.SHORT, Locale.US);
+      this.dstName = this.timeZone.getDisplayName(true, TimeZone.SHORT, Locale.US);
+
+      /* parse pattern */
+      java.util.Vector tok = new java.util.Vector();
+      java.util.Vector lit = new java.util.Vector();
+      for (int i = 0; i < fmt.length();) {
+        char ch = fmt.charAt(i);
+        int n = 1;
+        while (((i + n) < fmt.length()) && (fmt.charAt(i + n) == ch)) {
+          n++;
+        }
+        int t;
+        if ((ch == 'y') && (n == 4)) {
+          t = T_YEAR;
+        }
+        else if ((ch == 'M') && (n == 2)) {
+          t = T_MONTH;
+        }
+        else if ((ch == 'M') && (n == 3)) {
+          t = T_MONTH_NAME;
+        }
+        else if ((ch == 'd') && (n == 2)) {
+          t = T_DAY;
+        }
+        else if ((ch == 'E') && (n == 3)) {
+          t = T_WEEKDAY;
+        }
+        else if ((ch == 'H') && (n == 2)) {
+          t = T_HOUR;
+        }
+        else if ((ch == 'm') && (n == 2)) {
+          t = T_MINUTE;
+        }
+        else if ((ch == 's') && (n == 2)) {
+          t = T_SECOND;
+        }
+        else if ((ch == 'z') && (n == 3)) {
+          t = T_ZONE;
+        }
+        else if (Character.isLetter(ch) || (ch == '\'')) {
+          throw new IllegalArgumentException("Unsupported pattern: " + fmt);
+        }
+        else {
+          t = T_LITERAL;
+          n = 1;
+        }
+        tok.add(new Integer(t));
+        lit.add((t == T_LITERAL) ? String.valueOf(ch) : null);
+        i += n;
+      }
+      this.token = new int[tok.size()];
+      this.literal = (String[]) lit.toArray(new String[lit.size()]);
+      for (int i = 0; i < this.token.length; i++) {
+        this.token[i] = ((Integer) tok.get(i)).intValue();
+      }
+
+      /* bytes */
+      this.literalBytes = new byte[this.literal.length][];
+      this.stdBytes = FastFormat._getBytes(this.stdName);
+      this.dstBytes = FastFormat._getBytes(this.dstName);
+      for (int i = 0; i < this.token.length; i++) {
+        switch (this.token[i]) {
+        case T_LITERAL:
+          this.literalBytes[i] = FastFormat._getBytes(this.literal[i]);
+          this.maxBytes += this.literalBytes[i].length;
+          break;
+        case T_YEAR:
+          this.maxBytes += 11; // including a sign
+          break;
+        case T_ZONE:
+          this.maxBytes += Math.max(this.stdBytes.length, this.dstBytes.length);
+          break;
+        default:
+          this.maxBytes += 3;
+          break;
+        }
+      }
+
+    }
+
+    /**
+     * Appends a formatted time to a buffer.
+     *
+     * @param sb The buffer.
+     * @param timeSec The time, in seconds since January 1, 1970 GMT.
+     * @return The buffer.
+     */
+    public StringBuffer append(StringBuffer sb, long timeSec) {
+      int offsetMS = this._getOffset(timeSec);
+      long local = timeSec + (offsetMS / 1000);
+      long days = (local >= 0L) ? (local / 86400L) : ((local - 86399L) / 86400L);
+      long secOfDay = local - (days * 86400L);
+      long date = _getDate(days);
+      long year = date >> 9, month = (date >> 5) & 0xFL, day = date & 0x1FL;
+      for (int i = 0; i < this.token.length; i++) {
+        switch (this.token[i]) {
+        case T_YEAR:
+          FastFormat._appendDigits(sb, year, 4);
+          break;
+        case T_MONTH:
+          FastFormat._appendDigits(sb, month, 2);
+          break;
+        case T_MONTH_NAME:
+          sb.append(MONTH_NAME[(int) month - 1]);
+          break;
+        case T_DAY:
+          FastFormat._appendDigits(sb, day, 2);
+          break;
+        case T_WEEKDAY:
+          sb.append(WEEKDAY_NAME[(int) (((days % 7L) + 7L) % 7L)]);
+          break;
+        case T_HOUR:
+          FastFormat._appendDigits(sb, secOfDay / 3600L, 2);
+          break;
+        case T_MINUTE:
+          FastFormat._appendDigits(sb, (secOfDay / 60L) % 60L, 2);
+          break;
+        case T_SECOND:
+          FastFormat._appendDigits(sb, secOfDay % 60L, 2);
+          break;
+        case T_ZONE:
+          sb.append((offsetMS != this.timeZone.getRawOffset()) ? this.dstName : this.stdName);
+          break;
+        default:
+          sb.append(this.literal[i]);
+          break;
+        }
+      }
+      return sb;
+
+    }
+
+    /**
+     * Returns the maximum number of bytes put by <tt>put</tt>.
+     *
+     * @return The maximum length of a formatted time.
+     */
+    public int getMaxBytes() {
+      return this.maxBytes;
+    }
+
+    /**
+     * Puts a formatted time into a byte array, which must have room for <tt>getMaxBytes</tt>
+     * bytes. Characters other than ASCII are put as '?'.
+     *
+     * @param b The byte array.
+     * @param ofs The offset of the formatted time.
+     * @param timeSec The time, in seconds since January 1, 1970 GMT.
+     * @return The offset following the formatted time.
+     */
+    public int put(byte b[], int ofs, long timeSec) {
+      int offsetMS = this._getOffset(timeSec);
+      long local = timeSec + (offsetMS / 1000);
+      long days = (local >= 0L) ? (local / 86400L) : ((local - 86399L) / 86400L);
+      long secOfDay = local - (days * 86400L);
+      long date = _getDate(days);
+      long year = date >> 9, month = (date >> 5) & 0xFL, day = date & 0x1FL;
+      for (int i = 0; i < this.token.length; i++) {
+        switch (this.token[i]) {
+        case T_YEAR:
+          if (year < 0L) {
+            b[ofs++] = (byte) '-';
+          }
+          ofs = FastFormat._putDigits(b, ofs, Math.abs(year), 4);
+          break;
+        case T_MONTH:
+          ofs = FastFormat._putDigits(b, ofs, month, 2);
+          break;
+        case T_MONTH_NAME:
+          ofs = FastFormat._putBytes(b, ofs, MONTH_BYTES[(int) month - 1]);
+          break;
+        case T_DAY:
+          ofs = FastFormat._putDigits(b, ofs, day, 2);
+          break;
+        case T_WEEKDAY:
+          ofs = FastFormat._putBytes(b, ofs, WEEKDAY_BYTES[(int) (((days % 7L) + 7L) % 7L)]);
+          break;
+        case T_HOUR:
+          ofs = FastFormat._putDigits(b, ofs, secOfDay / 3600L, 2);
+          break;
+        case T_MINUTE:
+          ofs = FastFormat._putDigits(b, ofs, (secOfDay / 60L) % 60L, 2);
+          break;
+        case T_SECOND:
+          ofs = FastFormat._putDigits(b, ofs, secOfDay % 60L, 2);
+          break;
+        case T_ZONE:
+          boolean dst = (offsetMS != this.timeZone.getRawOffset());
+          ofs = FastFormat._putBytes(b, ofs, dst ? this.dstBytes : this.stdBytes);
+          break;
+        default:
+          ofs = FastFormat._putBytes(b, ofs, this.literalBytes[i]);
+          break;
+        }
+      }
+      return ofs;
+    }
+
+    /**
+     * Formats a time.
+     *
+     * @param timeSec The time, in seconds since January 1, 1970 GMT.
+     * @return The formatted time.
+     */
+    public String format(long timeSec) {
+      return this.append(new StringBuffer(), timeSec).toString();
+    }
+
+    /* the offset of the time zone from GMT at the specified time (milliseconds) */
+    private int _getOffset(long timeSec) {
+      return this.fixedOffset ? this.timeZone.getRawOffset() : this.timeZone
+          .getOffset(timeSec * 1000L);
+    }
+
+    /* the civil date of a day since 1970/01/01, as ((year << 9) | (month << 5) | day) */
+    private static long _getDate(long days) {
+      long z = days + 719468L;
+      long era = ((z >= 0L) ? z : (z - 146096L)) / 146097L;
+      long doe = z - (era * 146097L);
+      long yoe = (doe - (doe / 1460L) + (doe / 36524L) - (doe / 146096L)) / 365L;
+      long doy = doe - ((365L * yoe) + (yoe / 4L) - (yoe / 100L));
+      long mp = ((5L * doy) + 2L) / 153L;
+      long day = doy - (((153L * mp) + 2L) / 5L) + 1L;
+      long month = (mp < 10L) ? (mp + 3L) : (mp - 9L);
+      long year = (yoe + (era * 400L)) + ((month <= 2L) ? 1L : 0L);
+      return (year << 9) | (month << 5) | day;
+    }
+
+  }
+
+}
@@ -25,6 +25,9 @@
 // ----------------------------------------------------------------------------
 package org.opendmtp.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Container for GPS event information.
@@ -210,13 +213,393 @@ public class GeoEvent {
 
   // ------------------------------------------------------------------------
 
+  // Numeric values of the fields defined above are held in primitive slots (one long per field,
+  // holding either a long, or the bits of a double), with bitmasks recording which slots are set
+  // and which hold doubles. Each indexed field has a small array of slots, where position 0
+  // holds the non-indexed value and position 'ndx+1' holds index 'ndx'. Any other value (Strings,
+  // byte arrays, unknown field names, etc) is held in the field map.
+  //
+  // Slot ids are '0..n' for scalar fields and '-1..-n' for indexed fields. Callers on a hot path
+  // should resolve a field name to its slot id once (with <tt>getFieldSlot</tt>, or one of the
+  // SLOT_ constants below) and use the slot accessors, which do no map lookup and no allocation.
+
+  /**
+   * Slot id returned by <tt>getFieldSlot</tt> for fields which are not held in a slot.
+   */
+  public static final int SLOT_NONE = Integer.MIN_VALUE;
+
+  /* scalar slot ids (index into SCALAR_FIELDS) */
+  public static final int SLOT_statusCode = 0;
+  public static final int SLOT_timestamp = 1;
+  public static final int SLOT_latitude = 2;
+  public static final int SLOT_longitude = 3;
+  public static final int SLOT_speedKPH = 4;
+  public static final int SLOT_heading = 5;
+  public static final int SLOT_altitude = 6;
+  public static final int SLOT_distanceKM = 7;
+  public static final int SLOT_sequence = 8;
+  public static final int SLOT_sequenceLength = 9;
+  public static final int SLOT_index = 10;
+  public static final int SLOT_inputID = 11;
+  public static final int SLOT_inputState = 12;
+  public static final int SLOT_outputID = 13;
+  public static final int SLOT_outputState = 14;
+  public static final int SLOT_gpsAge = 15;
+  public static final int SLOT_gpsDgpsUpdate = 16;
+  public static final int SLOT_gpsHorzAccuracy = 17;
+  public static final int SLOT_gpsVertAccuracy = 18;
+  public static final int SLOT_gpsSatellites = 19;
+  public static final int SLOT_gpsMagVariation = 20;
+  public static final int SLOT_gpsQuality = 21;
+  public static final int SLOT_gps2D3D = 22;
+  public static final int SLOT_gpsGeoidHeight = 23;
+  public static final int SLOT_gpsPDOP = 24;
+  public static final int SLOT_gpsHDOP = 25;
+  public static final int SLOT_gpsVDOP = 26;
+
+  /* indexed slot ids (index '-id-1' into INDEXED_FIELDS) */
+  public static final int SLOT_geofenceID = -1;
+  public static final int SLOT_topSpeedKPH = -2;
+  public static final int SLOT_elapsedTime = -3;
+  public static final int SLOT_counter = -4;
+  public static final int SLOT_sensor32LO = -5;
+  public static final int SLOT_sensor32HI = -6;
+  public static final int SLOT_sensor32AV = -7;
+  public static final int SLOT_tempLO = -8;
+  public static final int SLOT_tempHI = -9;
+  public static final int SLOT_tempAV = -10;
+
+  /* must be in SLOT_ order */
+  private static final String SCALAR_FIELDS[] = { FLD_statusCode, FLD_timestamp, FLD_latitude,
+      FLD_longitude, FLD_speedKPH, FLD_heading, FLD_altitude, FLD_distanceKM, FLD_sequence,
+      FLD_sequenceLength, FLD_index, FLD_inputID, FLD_inputState, FLD_outputID, FLD_outputState,
+      FLD_gpsAge, FLD_gpsDgpsUpdate, FLD_gpsHorzAccuracy, FLD_gpsVertAccuracy, FLD_gpsSatellites,
+      FLD_gpsMagVariation, FLD_gpsQuality, FLD_gps2D3D, FLD_gpsGeoidHeight, FLD_gpsPDOP,
+      FLD_gpsHDOP, FLD_gpsVDOP };
+
+  /* must be in SLOT_ order */
+  private static final String INDEXED_FIELDS[] = { FLD_geofenceID, FLD_topSpeedKPH,
+      FLD_elapsedTime, FLD_counter, FLD_sensor32LO, FLD_sensor32HI, FLD_sensor32AV, FLD_tempLO,
+      FLD_tempHI, FLD_tempAV };
+
+  /* maximum slot position of an indexed field (positions are tracked in a 64-bit mask) */
+  private static final int MAX_INDEXED_POSITION = 63;
+
+  /* field name to slot id */
+  private static final java.util.HashMap FieldSlots = new java.util.HashMap();
+  static {
+    for (int i = 0; i < SCALAR_FIELDS.length; i++) {
+      FieldSlots.put(SCALAR_FIELDS[i], new Integer(i));
+    }
+    for (int i = 0; i < INDEXED_FIELDS.length; i++) {
+      FieldSlots.put(INDEXED_FIELDS[i], new Integer(-(i + 1)));
+    }
+  }
+
+  private long scalarValue[] = null;
+  private long scalarSet = 0L;
+  private long scalarDouble = 0L;
+  private long indexedValue[][] = null;
+  private long indexedSet[] = null;
+  private long indexedDouble[] = null;
   private OrderedMap fieldMap = null;
+  private boolean fieldMapHasSlots = false; // true if the field map holds slot field values
 
   /**
-   * Initializes field map.
+   * Initializes field storage.
    */
   public GeoEvent() {
-    this.fieldMap = new OrderedMap();
+    this.scalarValue = new long[SCALAR_FIELDS.length];
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the slot id of the specified field name.
+   * 
+   * @param fldName name of field.
+   * @return the slot id, or SLOT_NONE if the field value is not held in a slot.
+   */
+  public static int getFieldSlot(String fldName) {
+    Integer slot = (fldName != null) ? (Integer) FieldSlots.get(fldName) : null;
+    return (slot != null) ? slot.intValue() : SLOT_NONE;
+  }
+
+  /**
+   * Returns true if the specified slot id and index identify a slot.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @return true if the value is held in a slot.
+   */
+  private static boolean _isSlot(int slot, int ndx) {
+    if ((slot >= 0) && (slot < SCALAR_FIELDS.length)) {
+      // scalar fields are not indexed
+      return (ndx < 0);
+    }
+    else if ((slot < 0) && (slot >= -INDEXED_FIELDS.length)) {
+      // indexed fields
+      return (ndx >= -1) && ((ndx + 1) <= MAX_INDEXED_POSITION);
+    }
+    else {
+      return false;
+    }
+  }
+
+  /* slot keys pack a slot id and index into a single non-negative int */
+  private static final int KEY_NONE = -1;
+  private static final int KEY_NDX_BITS = 6;
+  private static final int KEY_NDX_MASK = (1 << KEY_NDX_BITS) - 1;
+
+  /**
+   * Returns the slot key of the specified field name. A name of the form "field.ndx" is accepted
+   * for indexed fields.
+   * 
+   * @param fldName name of field.
+   * @param ndx index of array value in field, or -1 if field is not an array type.
+   * @return the slot key, or KEY_NONE if the field value is not held in a slot.
+   */
+  private static int _getSlotKey(String fldName, int ndx) {
+    int slot = getFieldSlot(fldName);
+    if ((slot == SLOT_NONE) && (ndx < 0) && (fldName != null)) {
+      // check for "field.ndx" (only indexed fields)
+      int p = fldName.lastIndexOf('.');
+      if (p > 0) {
+        slot = getFieldSlot(fldName.substring(0, p));
+        ndx = StringTools.parseInt(fldName.substring(p + 1), -1);
+        if ((slot >= 0) || (ndx < 0)) {
+          slot = SLOT_NONE;
+        }
+      }
+    }
+    if (!_isSlot(slot, ndx)) {
+      return KEY_NONE;
+    }
+    return ((slot + INDEXED_FIELDS.length) << KEY_NDX_BITS) | (ndx + 1);
+  }
+
+  /* slot id of a slot key */
+  private static int _keySlot(int key) {
+    return (key >> KEY_NDX_BITS) - INDEXED_FIELDS.length;
+  }
+
+  /* index of a slot key */
+  private static int _keyNdx(int key) {
+    return (key & KEY_NDX_MASK) - 1;
+  }
+
+  /**
+   * Stores a numeric value in the slot of the specified field.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @param bits the long value, or the bits of the double value.
+   * @param isDouble true if the value is a double.
+   */
+  private void _setSlot(int slot, int ndx, long bits, boolean isDouble) {
+    if (slot >= 0) {
+      long mask = 1L << slot;
+      this.scalarValue[slot] = bits;
+      this.scalarSet |= mask;
+      this.scalarDouble = isDouble ? (this.scalarDouble | mask) : (this.scalarDouble & ~mask);
+    }
+    else {
+      int f = -slot - 1, pos = ndx + 1;
+      if (this.indexedValue == null) {
+        this.indexedValue = new long[INDEXED_FIELDS.length][];
+        this.indexedSet = new long[INDEXED_FIELDS.length];
+        this.indexedDouble = new long[INDEXED_FIELDS.length];
+      }
+      long v[] = this.indexedValue[f];
+      if ((v == null) || (v.length <= pos)) {
+        long n[] = new long[Math.max(pos + 1, 4)];
+        if (v != null) {
+          System.arraycopy(v, 0, n, 0, v.length);
+        }
+        this.indexedValue[f] = v = n;
+      }
+      long mask = 1L << pos;
+      v[pos] = bits;
+      this.indexedSet[f] |= mask;
+      this.indexedDouble[f] = isDouble ? (this.indexedDouble[f] | mask)
+          : (this.indexedDouble[f] & ~mask);
+    }
+  }
+
+  /**
+   * Clears the slot of the specified field.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   */
+  private void _clearSlot(int slot, int ndx) {
+    if (slot >= 0) {
+      this.scalarSet &= ~(1L << slot);
+    }
+    else if (this.indexedSet != null) {
+      this.indexedSet[-slot - 1] &= ~(1L << (ndx + 1));
+    }
+  }
+
+  /**
+   * Returns true if the slot of the specified field holds a value.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @return true if the slot is set.
+   */
+  private boolean _isSlotSet(int slot, int ndx) {
+    if (slot >= 0) {
+      return (this.scalarSet & (1L << slot)) != 0L;
+    }
+    else {
+      return (this.indexedSet != null) && ((this.indexedSet[-slot - 1] & (1L << (ndx + 1))) != 0L);
+    }
+  }
+
+  /**
+   * Returns true if the slot of the specified field holds a double.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @return true if the slot holds a double.
+   */
+  private boolean _isSlotDouble(int slot, int ndx) {
+    if (slot >= 0) {
+      return (this.scalarDouble & (1L << slot)) != 0L;
+    }
+    else {
+      return (this.indexedDouble[-slot - 1] & (1L << (ndx + 1))) != 0L;
+    }
+  }
+
+  /**
+   * Returns the bits held in the slot of the specified field.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @return the long value, or the bits of the double value.
+   */
+  private long _getSlot(int slot, int ndx) {
+    return (slot >= 0) ? this.scalarValue[slot] : this.indexedValue[-slot - 1][ndx + 1];
+  }
+
+  /**
+   * Stores a numeric value in a slot, removing any value previously held in the field map.
+   * 
+   * @param slot slot id.
+   * @param ndx index of array value in field, or -1.
+   * @param bits the long value, or the bits of the double value.
+   * @param isDouble true if the value is a double.
+   */
+  private void _setNumber(int slot, int ndx, long bits, boolean isDouble) {
+    this._setSlot(slot, ndx, bits, isDouble);
+    if (this.fieldMapHasSlots) {
+      this.fieldMap.remove(_getMapKey(_getSlotName(slot), ndx));
+    }
+  }
+
+  /**
+   * Returns the field name of the specified slot.
+   * 
+   * @param slot slot id.
+   * @return the field name.
+   */
+  private static String _getSlotName(int slot) {
+    return (slot >= 0) ? SCALAR_FIELDS[slot] : INDEXED_FIELDS[-slot - 1];
+  }
+
+  /**
+   * Returns the field map key of the specified field.
+   * 
+   * @param fldName name of field.
+   * @param ndx index of array value in field, or -1.
+   * @return the field map key.
+   */
+  private static String _getMapKey(String fldName, int ndx) {
+    return (ndx < 0) ? fldName : (fldName + "." + ndx);
+  }
+
+  /**
+   * Returns the value held in the field map for the specified field.
+   * 
+   * @param fldName name of field.
+   * @param ndx index of array value in field, or -1.
+   * @return the stored Object, or null if none.
+   */
+  private Object _getMapValue(String fldName, int ndx) {
+    if ((this.fieldMap == null) || (this.fieldMap.size() == 0)) {
+      return null;
+    }
+    return this.fieldMap.get(_getMapKey(fldName, ndx));
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Sets the long value of the specified slot.
+   * 
+   * @param slot slot id, as returned by <tt>getFieldSlot</tt>.
+   * @param ndx index of array value in field to set, or -1 if field is not an array type.
+   * @param val new value to be stored in field.
+   */
+  public void setSlotValue(int slot, int ndx, long val) {
+    if (_isSlot(slot, ndx)) {
+      this._setNumber(slot, ndx, val, false);
+    }
+  }
+
+  /**
+   * Sets the double value of the specified slot.
+   * 
+   * @param slot slot id, as returned by <tt>getFieldSlot</tt>.
+   * @param ndx index of array value in field to set, or -1 if field is not an array type.
+   * @param val new value to be stored in field.
+   */
+  public void setSlotValue(int slot, int ndx, double val) {
+    if (_isSlot(slot, ndx)) {
+      this._setNumber(slot, ndx, Double.doubleToRawLongBits(val), true);
+    }
+  }
+
+  /**
+   * Gets the value of the specified slot as a long.
+   * 
+   * @param slot slot id, as returned by <tt>getFieldSlot</tt>.
+   * @param ndx index of array value in field to retrieve, or -1 if field is not an array type.
+   * @param dft default value to return if the field has no value.
+   * @return the stored value as a long.
+   */
+  public long getSlotLong(int slot, int ndx, long dft) {
+    if (!_isSlot(slot, ndx)) {
+      return dft;
+    }
+    else if (this._isSlotSet(slot, ndx)) {
+      long bits = this._getSlot(slot, ndx);
+      return this._isSlotDouble(slot, ndx) ? (long) Double.longBitsToDouble(bits) : bits;
+    }
+    Object val = this.fieldMapHasSlots ? this._getMapValue(_getSlotName(slot), ndx) : null;
+    return (val instanceof Number) ? ((Number) val).longValue() : dft;
+  }
+
+  /**
+   * Gets the value of the specified slot as a double.
+   * 
+   * @param slot slot id, as returned by <tt>getFieldSlot</tt>.
+   * @param ndx index of array value in field to retrieve, or -1 if field is not an array type.
+   * @param dft default value to return if the field has no value.
+   * @return the stored value as a double.
+   */
+  public double getSlotDouble(int slot, int ndx, double dft) {
+    if (!_isSlot(slot, ndx)) {
+      return dft;
+    }
+    else if (this._isSlotSet(slot, ndx)) {
+      long bits = this._getSlot(slot, ndx);
+      return this._isSlotDouble(slot, ndx) ? Double.longBitsToDouble(bits) : (double) bits;
+    }
+    Object val = this.fieldMapHasSlots ? this._getMapValue(_getSlotName(slot), ndx) : null;
+    return (val instanceof Number) ? ((Number) val).doubleValue() : dft;
   }
 
   // ------------------------------------------------------------------------
@@ -229,12 +612,26 @@ public class GeoEvent {
    * @param ndx index of array value in field to set, if -1 if field is not an array type.
    */
   public void setEventValue(String fldName, Object newVal, int ndx) {
-    if (ndx < 0) {
-      this.fieldMap.put(fldName, newVal);
+    int key = _getSlotKey(fldName, ndx);
+    if (key != KEY_NONE) {
+      int slot = _keySlot(key), slotNdx = _keyNdx(key);
+      if ((newVal instanceof Long) || (newVal instanceof Integer) || (newVal instanceof Short)
+          || (newVal instanceof Byte)) {
+        this._setNumber(slot, slotNdx, ((Number) newVal).longValue(), false);
+        return;
+      }
+      else if (newVal instanceof Double) {
+        this._setNumber(slot, slotNdx, Double.doubleToRawLongBits(((Double) newVal)
+            .doubleValue()), true);
+        return;
+      }
+      this._clearSlot(slot, slotNdx);
+      this.fieldMapHasSlots = true;
     }
-    else {
-      this.fieldMap.put(fldName + "." + ndx, newVal);
+    if (this.fieldMap == null) {
+      this.fieldMap = new OrderedMap();
     }
+    this.fieldMap.put(_getMapKey(fldName, ndx), newVal);
   }
 
   /**
@@ -255,7 +652,13 @@ public class GeoEvent {
    * @param ndx index of array value in field to set.
    */
   public void setEventValue(String fldName, long val, int ndx) {
-    this.setEventValue(fldName, new Long(val), ndx);
+    int key = _getSlotKey(fldName, ndx);
+    if (key != KEY_NONE) {
+      this._setNumber(_keySlot(key), _keyNdx(key), val, false);
+    }
+    else {
+      this.setEventValue(fldName, new Long(val), ndx);
+    }
   }
 
   /**
@@ -265,7 +668,7 @@ public class GeoEvent {
    * @param val new value to be stored in field.
    */
   public void setEventValue(String fldName, long val) {
-    this.setEventValue(fldName, new Long(val), -1);
+    this.setEventValue(fldName, val, -1);
   }
 
   /**
@@ -276,7 +679,13 @@ public class GeoEvent {
    * @param ndx index of array value in field to set.
    */
   public void setEventValue(String fldName, double val, int ndx) {
-    this.setEventValue(fldName, new Double(val), ndx);
+    int key = _getSlotKey(fldName, ndx);
+    if (key != KEY_NONE) {
+      this._setNumber(_keySlot(key), _keyNdx(key), Double.doubleToRawLongBits(val), true);
+    }
+    else {
+      this.setEventValue(fldName, new Double(val), ndx);
+    }
   }
 
   /**
@@ -286,33 +695,11 @@ public class GeoEvent {
    * @param val new value to be stored in field.
    */
   public void setEventValue(String fldName, double val) {
-    this.setEventValue(fldName, new Double(val), -1);
+    this.setEventValue(fldName, val, -1);
   }
 
   // ------------------------------------------------------------------------
 
-  /**
-   * Gets the event value stored in the specified field name as an Object.
-   * 
-   * @param fldName name of field to retrieve value from.
-   * @param ndx index of array value in field to retrieve, if -1 if field is not an array type.
-   * @return the stored Object.
-   */
-  private Object getEventValue(String fldName, int ndx) {
-    String fn = (ndx < 0) ? fldName : (fldName + "." + ndx);
-    return this.fieldMap.get(fn);
-  }
-
-  /**
-   * Gets the event value stored in the specified field name as an Object.
-   * 
-   * @param fldName name of field to retrieve value from.
-   * @return the stored Object.
-   */
-  private Object getEventValue(String fldName) {
-    return this.getEventValue(fldName, -1);
-  }
-
   /**
    * Gets the event value stored in the specified field name as a String.
    * 
@@ -322,8 +709,14 @@ public class GeoEvent {
    * @return the stored value as a String.
    */
   public String getStringValue(String fldName, String dft, int ndx) {
-    String fn = (ndx < 0) ? fldName : (fldName + "." + ndx);
-    Object val = this.getEventValue(fn);
+    int key = _getSlotKey(fldName, ndx);
+    if ((key != KEY_NONE) && this._isSlotSet(_keySlot(key), _keyNdx(key))) {
+      int slot = _keySlot(key), slotNdx = _keyNdx(key);
+      long bits = this._getSlot(slot, slotNdx);
+      return this._isSlotDouble(slot, slotNdx) ? String.valueOf(Double.longBitsToDouble(bits))
+          : String.valueOf(bits);
+    }
+    Object val = this._getMapValue(fldName, ndx);
     if (val instanceof byte[]) {
       return "0x" + StringTools.toHexString((byte[]) val);
     }
@@ -355,8 +748,7 @@ public class GeoEvent {
    * @return the stored value as a byte array.
    */
   public byte[] getByteValue(String fldName, byte[] dft, int ndx) {
-    String fn = (ndx < 0) ? fldName : (fldName + "." + ndx);
-    Object val = this.getEventValue(fn);
+    Object val = this._getMapValue(fldName, ndx);
     if (val instanceof byte[]) {
       return (byte[]) val;
     }
@@ -385,8 +777,11 @@ public class GeoEvent {
    * @return the stored value as a Long.
    */
   public long getLongValue(String fldName, long dft, int ndx) {
-    String fn = (ndx < 0) ? fldName : (fldName + "." + ndx);
-    Object val = this.getEventValue(fn);
+    int key = _getSlotKey(fldName, ndx);
+    if (key != KEY_NONE) {
+      return this.getSlotLong(_keySlot(key), _keyNdx(key), dft);
+    }
+    Object val = this._getMapValue(fldName, ndx);
     if (val instanceof Number) {
       return ((Number) val).longValue();
     }
@@ -415,8 +810,11 @@ public class GeoEvent {
    * @return the stored value as a Double.
    */
   public double getDoubleValue(String fldName, double dft, int ndx) {
-    String fn = (ndx < 0) ? fldName : (fldName + "." + ndx);
-    Object val = this.getEventValue(fn);
+    int key = _getSlotKey(fldName, ndx);
+    if (key != KEY_NONE) {
+      return this.getSlotDouble(_keySlot(key), _keyNdx(key), dft);
+    }
+    Object val = this._getMapValue(fldName, ndx);
     if (val instanceof Number) {
       return ((Number) val).doubleValue();
     }
@@ -453,7 +851,7 @@ public class GeoEvent {
    * @return the status code field from the database, or -1 if field is null.
    */
   public int getStatusCode() {
-    return (int) this.getLongValue(FLD_statusCode, -1L);
+    return (int) this.getSlotLong(SLOT_statusCode, -1, -1L);
   }
 
   /**
@@ -462,7 +860,7 @@ public class GeoEvent {
    * @return the timestamp field from the database, or -1 if field is null.
    */
   public long getTimestamp() {
-    return this.getLongValue(FLD_timestamp, -1L);
+    return this.getSlotLong(SLOT_timestamp, -1, -1L);
   }
 
   /**
@@ -471,7 +869,7 @@ public class GeoEvent {
    * @return the latitude field from the database, or 0 if field is null.
    */
   public double getLatitude() {
-    return this.getDoubleValue(FLD_latitude, 0.0);
+    return this.getSlotDouble(SLOT_latitude, -1, 0.0);
   }
 
   /**
@@ -480,7 +878,7 @@ public class GeoEvent {
    * @return the longitude field from the database, or 0 if field is null.
    */
   public double getLongitude() {
-    return this.getDoubleValue(FLD_longitude, 0.0);
+    return this.getSlotDouble(SLOT_longitude, -1, 0.0);
   }
 
   /**
@@ -498,7 +896,7 @@ public class GeoEvent {
    * @return the speed field from the database, or 0 if field is null.
    */
   public double getSpeed() {
-    return this.getDoubleValue(FLD_speedKPH, 0.0);
+    return this.getSlotDouble(SLOT_speedKPH, -1, 0.0);
   }
 
   /**
@@ -507,7 +905,7 @@ public class GeoEvent {
    * @return the heading field from the database, or 0 if field is null.
    */
   public double getHeading() {
-    return this.getDoubleValue(FLD_heading, 0.0);
+    return this.getSlotDouble(SLOT_heading, -1, 0.0);
   }
 
   /**
@@ -516,7 +914,7 @@ public class GeoEvent {
    * @return the altitude field from the database, or 0 if field is null.
    */
   public double getAltitude() {
-    return this.getDoubleValue(FLD_altitude, 0.0);
+    return this.getSlotDouble(SLOT_altitude, -1, 0.0);
   }
 
   /**
@@ -525,7 +923,7 @@ public class GeoEvent {
    * @return the distance field from the database, or 0 if field is null.
    */
   public double getDistance() {
-    return this.getDoubleValue(FLD_distanceKM, 0.0);
+    return this.getSlotDouble(SLOT_distanceKM, -1, 0.0);
   }
 
   /**
@@ -534,7 +932,7 @@ public class GeoEvent {
    * @return the top speed field from the database, or 0 if field is null.
    */
   public double getTopSpeed() {
-    return this.getDoubleValue(FLD_topSpeedKPH, 0.0);
+    return this.getSlotDouble(SLOT_topSpeedKPH, -1, 0.0);
   }
 
   /**
@@ -544,7 +942,7 @@ public class GeoEvent {
    * @return the GeoFence ID field from the database, or 0 if indexed field is null.
    */
   public long getGeofence(int ndx) {
-    return this.getLongValue(FLD_geofenceID, 0L, ndx);
+    return this.getSlotLong(SLOT_geofenceID, ndx, 0L);
   }
 
   // ------------------------------------------------------------------------
@@ -555,7 +953,7 @@ public class GeoEvent {
    * @return the sequence field from the database, or -1 if field is null.
    */
   public long getSequence() {
-    return this.getLongValue(FLD_sequence, -1L);
+    return this.getSlotLong(SLOT_sequence, -1, -1L);
   }
 
   /**
@@ -564,7 +962,7 @@ public class GeoEvent {
    * @return the sequence length field from the database, or 0 if field is null.
    */
   public int getSequenceLength() {
-    return (int) this.getLongValue(FLD_sequenceLength, 0L);
+    return (int) this.getSlotLong(SLOT_sequenceLength, -1, 0L);
   }
 
   // ------------------------------------------------------------------------
@@ -580,4 +978,158 @@ public class GeoEvent {
 
   // ------------------------------------------------------------------------
 
+  /* value types of the field map entries written by 'writeEvent' */
+  private static final int MAP_STRING = 'S';
+  private static final int MAP_BINARY = 'B';
+  private static final int MAP_LONG = 'L';
+  private static final int MAP_DOUBLE = 'D';
+
+  /**
+   * Writes all values of this event, in a form read by <tt>readEvent</tt>. Values of the field
+   * map which are not Strings, byte arrays, or numbers, are written as Strings.
+   * 
+   * @param out the output to write to.
+   * @throws IOException if an error occurs while writing.
+   */
+  public void writeEvent(DataOutput out) throws IOException {
+
+    /* scalar slots */
+    out.writeLong(this.scalarSet);
+    out.writeLong(this.scalarDouble);
+    for (int i = 0; i < this.scalarValue.length; i++) {
+      if ((this.scalarSet & (1L << i)) != 0L) {
+        out.writeLong(this.scalarValue[i]);
+      }
+    }
+
+    /* indexed slots */
+    for (int f = 0; f < INDEXED_FIELDS.length; f++) {
+      long set = (this.indexedSet != null) ? this.indexedSet[f] : 0L;
+      out.writeLong(set);
+      if (set != 0L) {
+        out.writeLong(this.indexedDouble[f]);
+        long v[] = this.indexedValue[f];
+        for (int pos = 0; pos < v.length; pos++) {
+          if ((set & (1L << pos)) != 0L) {
+            out.writeLong(v[pos]);
+          }
+        }
+      }
+    }
+
+    /* field map */
+    int size = (this.fieldMap != null) ? this.fieldMap.size() : 0;
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeUTF(this.fieldMap.getKey(i).toString());
+      Object val = this.fieldMap.getValue(i);
+      if (val instanceof byte[]) {
+        byte b[] = (byte[]) val;
+        out.writeByte(MAP_BINARY);
+        out.writeInt(b.length);
+        out.write(b);
+      }
+      else if ((val instanceof Double) || (val instanceof Float)) {
+        out.writeByte(MAP_DOUBLE);
+        out.writeDouble(((Number) val).doubleValue());
+      }
+      else if (val instanceof Number) {
+        out.writeByte(MAP_LONG);
+        out.writeLong(((Number) val).longValue());
+      }
+      else {
+        out.writeByte(MAP_STRING);
+        out.writeUTF((val != null) ? val.toString() : "");
+      }
+    }
+
+  }
+
+  /**
+   * Reads an event written by <tt>writeEvent</tt>.
+   * 
+   * @param in the input to read from.
+   * @return the event.
+   * @throws IOException if an error occurs while reading, or the data is not a valid event.
+   */
+  public static GeoEvent readEvent(DataInput in) throws IOException {
+    GeoEvent ev = new GeoEvent();
+
+    /* scalar slots */
+    ev.scalarSet = in.readLong();
+    ev.scalarDouble = in.readLong();
+    if ((ev.scalarSet >>> ev.scalarValue.length) != 0L) {
+      throw new IOException("Invalid event scalar mask");
+    }
+    for (int i = 0; i < ev.scalarValue.length; i++) {
+      if ((ev.scalarSet & (1L << i)) != 0L) {
+        ev.scalarValue[i] = in.readLong();
+      }
+    }
+
+    /* indexed slots */
+    for (int f = 0; f < INDEXED_FIELDS.length; f++) {
+      long set = in.readLong();
+      if (set != 0L) {
+        if (ev.indexedValue == null) {
+          ev.indexedValue = new long[INDEXED_FIELDS.length][];
+          ev.indexedSet = new long[INDEXED_FIELDS.length];
+          ev.indexedDouble = new long[INDEXED_FIELDS.length];
+        }
+        ev.indexedSet[f] = set;
+        ev.indexedDouble[f] = in.readLong();
+        long v[] = new long[Math.max(64 - Long.numberOfLeadingZeros(set), 4)];
+        for (int pos = 0; pos < v.length; pos++) {
+          if ((set & (1L << pos)) != 0L) {
+            v[pos] = in.readLong();
+          }
+        }
+        ev.indexedValue[f] = v;
+      }
+    }
+
+    /* field map */
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Invalid event field count: " + size);
+    }
+    for (int i = 0; i < size; i++) {
+      String key = in.readUTF();
+      int type = in.readByte();
+      Object val;
+      if (type == MAP_BINARY) {
+        int len = in.readInt();
+        if (len < 0) {
+          throw new IOException("Invalid event binary length: " + len);
+        }
+        byte b[] = new byte[len];
+        in.readFully(b);
+        val = b;
+      }
+      else if (type == MAP_DOUBLE) {
+        val = new Double(in.readDouble());
+      }
+      else if (type == MAP_LONG) {
+        val = new Long(in.readLong());
+      }
+      else if (type == MAP_STRING) {
+        val = in.readUTF();
+      }
+      else {
+        throw new IOException("Invalid event field type: " + type);
+      }
+      if (ev.fieldMap == null) {
+        ev.fieldMap = new OrderedMap();
+      }
+      ev.fieldMap.put(key, val);
+      if (_getSlotKey(key, -1) != KEY_NONE) {
+        ev.fieldMapHasSlots = true;
+      }
+    }
+
+    return ev;
+  }
+
+  // ------------------------------------------------------------------------
+
 }
@@ -592,7 +592,10 @@ public class Print {
   private static long logRefCount = 0L;
 
   /**
-   * Opens the file for the log.
+   * Opens the file for the log. The log lock is only held while the log reference count and
+   * output stream are updated; the log file itself is opened (and rolled over) outside of the
+   * lock, so that a thread blocked on file I/O never holds the lock (which would otherwise also pin
+   * the carrier thread of a virtual thread).
    * 
    * @return output stream to which the log messages will be printed. If there is an error, returns
    *         standard error.
@@ -600,65 +603,69 @@ public class Print {
   protected static PrintStream openLogFile() {
     // Do not make calls to "logXXXXXX" from within this method.
     // Calls to 'println' and 'sysPrintln' are ok.
-    PrintStream out = null;
-    synchronized (Print.logLock) {
 
-      /* increment log counter */
+    /* increment log counter, return log file if already open */
+    synchronized (Print.logLock) {
       Print.logRefCount++;
-
-      /* get log file */
       if (Print.logOutput != null) {
-
-        /* already open */
-        out = Print.logOutput;
-
+        return Print.logOutput;
       }
-      else {
+    }
 
-        /* get/return log file */
-        File file = RTConfig.getFile(RTKey.LOG_FILE, null);
-        if ((file == null) || file.toString().equals("")) {
-          out = System.err;
-        }
-        else if (file.isDirectory()) {
-          RTConfig.setFile(RTKey.LOG_FILE, null);
-          Print.println("ERROR: Invalid file specification: " + file);
-          out = System.err;
-        }
-        else {
-          if (file.exists()) {
-            long maxLogFileSize = RTConfig.getLong(RTKey.LOG_FILE_MAX_SIZE, 0L);
-            if ((maxLogFileSize > 1000L) && (file.length() > maxLogFileSize)) {
-              String bkuName = file.getAbsolutePath() + "."
-                  + (new DateTime()).format("yyMMdd", null);
-              File bkuFile = new File(bkuName);
-              for (int i = 1; bkuFile.exists(); i++) {
-                bkuFile = new File(bkuName + "." + i);
-              }
-              file.renameTo(bkuFile);
-            }
-          }
-          try {
-            out = new PrintStream(new FileOutputStream(file, true));
-          }
-          catch (IOException ioe) {
-            RTConfig.setFile(RTKey.LOG_FILE, null);
-            Print.println("ERROR: Unable to open log file: " + file);
-            out = System.err;
+    /* get log file */
+    PrintStream out = null;
+    File file = RTConfig.getFile(RTKey.LOG_FILE, null);
+    if ((file == null) || file.toString().equals("")) {
+      out = System.err;
+    }
+    else if (file.isDirectory()) {
+      RTConfig.setFile(RTKey.LOG_FILE, null);
+      Print.println("ERROR: Invalid file specification: " + file);
+      out = System.err;
+    }
+    else {
+      if (file.exists()) {
+        long maxLogFileSize = RTConfig.getLong(RTKey.LOG_FILE_MAX_SIZE, 0L);
+        if ((maxLogFileSize > 1000L) && (file.length() > maxLogFileSize)) {
+          String bkuName = file.getAbsolutePath() + "." + (new DateTime()).format("yyMMdd", null);
+          File bkuFile = new File(bkuName);
+          for (int i = 1; bkuFile.exists(); i++) {
+            bkuFile = new File(bkuName + "." + i);
           }
+          file.renameTo(bkuFile);
         }
-        Print.logOutput = out;
-
       }
+      try {
+        out = new PrintStream(new FileOutputStream(file, true));
+      }
+      catch (IOException ioe) {
+        RTConfig.setFile(RTKey.LOG_FILE, null);
+        Print.println("ERROR: Unable to open log file: " + file);
+        out = System.err;
+      }
+    }
 
+    /* save log file (another thread may have opened it in the meantime) */
+    PrintStream unused = null;
+    synchronized (Print.logLock) {
+      if (Print.logOutput == null) {
+        Print.logOutput = out;
+      }
+      else {
+        unused = out;
+        out = Print.logOutput;
+      }
     }
+    Print._closeLogStream(unused);
     return out;
+
   }
 
   /**
    * Close the output stream to which the log messages are printed.
    */
   protected static void closeLogFile() {
+    PrintStream out = null;
     synchronized (Print.logLock) {
 
       /* decrement log counter */
@@ -667,21 +674,31 @@ public class Print {
         Print.logRefCount = 0L;
       }
 
-      /* close */
-      if ((Print.logRefCount == 0L) && (Print.logOutput != null)) {
-        // don't close if stderr or stdout
-        if ((Print.logOutput != System.out) && (Print.logOutput != System.err)) {
-          try {
-            Print.logOutput.close();
-          }
-          catch (Throwable t) {
-            Print.sysPrintln("Unable to close log file: " + t);
-          }
-        }
+      /* detach (closed below, outside of the lock) */
+      if (Print.logRefCount == 0L) {
+        out = Print.logOutput;
         Print.logOutput = null;
       }
 
     }
+    Print._closeLogStream(out);
+  }
+
+  /**
+   * Closes the specified log output stream, unless it is stdout/stderr.
+   * 
+   * @param out the log output stream (may be null).
+   */
+  private static void _closeLogStream(PrintStream out) {
+    // don't close if stderr or stdout
+    if ((out != null) && (out != System.out) && (out != System.err)) {
+      try {
+        out.close();
+      }
+      catch (Throwable t) {
+        Print.sysPrintln("Unable to close log file: " + t);
+      }
+    }
   }
 
   /**
@@ -717,6 +734,16 @@ public class Print {
     return Print.parseLogLevel(RTConfig.getString(RTKey.LOG_LEVEL, null));
   }
 
+  /**
+   * Returns true if debug messages are logged. Callers may use this to avoid building debug
+   * messages which would be discarded.
+   * 
+   * @return true if the current log message level is LOG_DEBUG.
+   */
+  public static boolean isDebugLoggingLevel() {
+    return (Print.getLogLevel() >= Print.LOG_DEBUG);
+  }
+
   /**
    * Sets the log header level.
    * 
@@ -200,10 +200,182 @@ public class RTKey {
    * Holds "db.showSQL".
    */
   public static final String DB_SHOW_SQL = "db.showSQL";
+  /**
+   * Holds "db.statementCache".
+   */
+  public static final String DB_STATEMENT_CACHE = "db.statementCache";
+  /**
+   * Holds "db.pool.maxSize".
+   */
+  public static final String DB_POOL_MAX_SIZE = "db.pool.maxSize";
+  /**
+   * Holds "db.pool.maxWaitMS".
+   */
+  public static final String DB_POOL_MAX_WAIT_MS = "db.pool.maxWaitMS";
+  /**
+   * Holds "db.pool.idleTimeoutSec".
+   */
+  public static final String DB_POOL_IDLE_SEC = "db.pool.idleTimeoutSec";
+  /**
+   * Holds "db.pool.validateSec".
+   */
+  public static final String DB_POOL_VALIDATE_SEC = "db.pool.validateSec";
+  /**
+   * Holds "db.pool.leakSec".
+   */
+  public static final String DB_POOL_LEAK_SEC = "db.pool.leakSec";
+  /**
+   * Holds "db.pool.leakTrace".
+   */
+  public static final String DB_POOL_LEAK_TRACE = "db.pool.leakTrace";
+  /**
+   * Holds "db.cache.ttlSec".
+   */
+  public static final String DB_CACHE_TTL_SEC = "db.cache.ttlSec";
+  /**
+   * Holds "db.cache.maxSize".
+   */
+  public static final String DB_CACHE_MAX_SIZE = "db.cache.maxSize";
+  /**
+   * Holds "db.cache.writeBehindMS".
+   */
+  public static final String DB_CACHE_WRITE_BEHIND_MS = "db.cache.writeBehindMS";
+  /**
+   * Holds "db.templateCache.ttlSec".
+   */
+  public static final String DB_TEMPLATE_CACHE_TTL_SEC = "db.templateCache.ttlSec";
+  /**
+   * Holds "db.templateCache.negativeTtlSec".
+   */
+  public static final String DB_TEMPLATE_CACHE_NEG_TTL_SEC = "db.templateCache.negativeTtlSec";
+  /**
+   * Holds "db.tableType".
+   */
+  public static final String DB_TABLE_TYPE = "db.tableType";
+  /**
+   * Holds "db.eventTableType".
+   */
+  public static final String DB_EVENT_TABLE_TYPE = "db.eventTableType";
   /**
    * Holds "dmtp.port".
    */
   public static final String DMTP_PORT = "dmtp.port";
+  /**
+   * Holds "dmtp.tcp.transport".
+   */
+  public static final String DMTP_TCP_TRANSPORT = "dmtp.tcp.transport";
+  /**
+   * Holds "dmtp.nio.threads".
+   */
+  public static final String DMTP_NIO_THREADS = "dmtp.nio.threads";
+  /**
+   * Holds "dmtp.nio.workers".
+   */
+  public static final String DMTP_NIO_WORKERS = "dmtp.nio.workers";
+  /**
+   * Holds "dmtp.udp.transport".
+   */
+  public static final String DMTP_UDP_TRANSPORT = "dmtp.udp.transport";
+  /**
+   * Holds "dmtp.udp.workers".
+   */
+  public static final String DMTP_UDP_WORKERS = "dmtp.udp.workers";
+  /**
+   * Holds "dmtp.udp.queueSize".
+   */
+  public static final String DMTP_UDP_QUEUE_SIZE = "dmtp.udp.queueSize";
+  /**
+   * Holds "dmtp.session.maxThreads".
+   */
+  public static final String DMTP_SESSION_MAX_THREADS = "dmtp.session.maxThreads";
+  /**
+   * Holds "dmtp.session.backlog".
+   */
+  public static final String DMTP_SESSION_BACKLOG = "dmtp.session.backlog";
+  /**
+   * Holds "dmtp.session.threads".
+   */
+  public static final String DMTP_SESSION_THREADS = "dmtp.session.threads";
+  /**
+   * Holds "dmtp.session.maxVirtual".
+   */
+  public static final String DMTP_SESSION_MAX_VIRTUAL = "dmtp.session.maxVirtual";
+  /**
+   * Holds "dmtp.packet.zeroCopy".
+   */
+  public static final String DMTP_PACKET_ZERO_COPY = "dmtp.packet.zeroCopy";
+  /**
+   * Holds "dmtp.events.async".
+   */
+  public static final String DMTP_EVENTS_ASYNC = "dmtp.events.async";
+  /**
+   * Holds "dmtp.events.writers".
+   */
+  public static final String DMTP_EVENTS_WRITERS = "dmtp.events.writers";
+  /**
+   * Holds "dmtp.events.queueSize".
+   */
+  public static final String DMTP_EVENTS_QUEUE_SIZE = "dmtp.events.queueSize";
+  /**
+   * Holds "dmtp.events.batchSize".
+   */
+  public static final String DMTP_EVENTS_BATCH_SIZE = "dmtp.events.batchSize";
+  /**
+   * Holds "dmtp.events.flushMS".
+   */
+  public static final String DMTP_EVENTS_FLUSH_MS = "dmtp.events.flushMS";
+  /**
+   * Holds "dmtp.events.ackTimeoutMS".
+   */
+  public static final String DMTP_EVENTS_ACK_TIMEOUT = "dmtp.events.ackTimeoutMS";
+  /**
+   * Holds "dmtp.events.rateLimit".
+   */
+  public static final String DMTP_EVENTS_RATE_LIMIT = "dmtp.events.rateLimit";
+  /**
+   * Holds "dmtp.journal.dir".
+   */
+  public static final String DMTP_JOURNAL_DIR = "dmtp.journal.dir";
+  /**
+   * Holds "dmtp.journal.fileSize".
+   */
+  public static final String DMTP_JOURNAL_FILE_SIZE = "dmtp.journal.fileSize";
+  /**
+   * Holds "dmtp.journal.retryMS".
+   */
+  public static final String DMTP_JOURNAL_RETRY_MS = "dmtp.journal.retryMS";
+  /**
+   * Holds "file.writerPool".
+   */
+  public static final String FILE_WRITER_POOL = "file.writerPool";
+  /**
+   * Holds "file.writerPool.maxOpen".
+   */
+  public static final String FILE_POOL_MAX_OPEN = "file.writerPool.maxOpen";
+  /**
+   * Holds "file.writerPool.bufferSize".
+   */
+  public static final String FILE_POOL_BUFFER_SIZE = "file.writerPool.bufferSize";
+  /**
+   * Holds "file.writerPool.flushMS".
+   */
+  public static final String FILE_POOL_FLUSH_MS = "file.writerPool.flushMS";
+  /**
+   * Holds "file.writerPool.idleSec".
+   */
+  public static final String FILE_POOL_IDLE_SEC = "file.writerPool.idleSec";
+  /**
+   * Holds "file.writerPool.commit".
+   */
+  public static final String FILE_POOL_COMMIT = "file.writerPool.commit";
+  /**
+   * Holds "seglog.segmentSize".
+   */
+  public static final String SEGLOG_SEGMENT_SIZE = "seglog.segmentSize";
+  /**
+   * Holds "seglog.fsync".
+   */
+  public static final String SEGLOG_FSYNC = "seglog.fsync";
   /**
    * Holds "webapp.contextName".
    */
@@ -268,9 +440,52 @@ public class RTKey {
       new Entry(DB_NOTIFY_PORT, 9510, "Alarm notification port"), // WEB
       new Entry(DB_TABLE_LOCKING, false, "Table locking enabled"), // APP|WEB
       new Entry(DB_SHOW_SQL, false, "Show insert/update SQL"), // APP|WEB
+      new Entry(DB_STATEMENT_CACHE, 64, "Prepared statements cached per connection"), // APP|WEB
+      new Entry(DB_POOL_MAX_SIZE, 0, "Maximum pooled DB connections (0=auto)"), // APP|WEB
+      new Entry(DB_POOL_MAX_WAIT_MS, 10000L, "Maximum wait for a pooled connection"), // APP|WEB
+      new Entry(DB_POOL_IDLE_SEC, 600L, "Idle time before a pooled connection is closed"), // APP|WEB
+      new Entry(DB_POOL_VALIDATE_SEC, 30L, "Idle time before validating on checkout"), // APP|WEB
+      new Entry(DB_POOL_LEAK_SEC, 300L, "Checkout time reported as a leak (0=off)"), // APP|WEB
+      new Entry(DB_POOL_LEAK_TRACE, false, "Record checkout stack traces for leaks"), // APP|WEB
+      new Entry(DB_CACHE_TTL_SEC, 900L, "Account/Device cache time-to-live (0=off)"), // APP
+      new Entry(DB_CACHE_MAX_SIZE, 1000, "Maximum cached Account/Device records"), // APP
+      new Entry(DB_CACHE_WRITE_BEHIND_MS, 5000L, "Device connection write interval"), // APP
+      new Entry(DB_TEMPLATE_CACHE_TTL_SEC, 300L, "Template cache time-to-live (0=off)"), // APP
+      new Entry(DB_TEMPLATE_CACHE_NEG_TTL_SEC, 30L, "Unknown custom template time-to-live"), // APP
+      new Entry(DB_TABLE_TYPE, "MyISAM", "Type of created tables (MyISAM/InnoDB)"), // APP|WEB
+      new Entry(DB_EVENT_TABLE_TYPE, "InnoDB", "Type of created EventData table"), // APP|WEB
 
       new Entry("Server attributes"),
       new Entry(DMTP_PORT, 31000, "DMTP service port (on this host)"), // APP|WEB
+      new Entry(DMTP_TCP_TRANSPORT, "thread", "TCP session transport (thread|nio)"), // APP
+      new Entry(DMTP_NIO_THREADS, 2, "Number of NIO transport I/O threads"), // APP
+      new Entry(DMTP_NIO_WORKERS, 32, "Number of NIO transport worker threads"), // APP
+      new Entry(DMTP_UDP_TRANSPORT, "thread", "UDP datagram transport (thread|nio)"), // APP
+      new Entry(DMTP_UDP_WORKERS, 4, "Number of NIO UDP worker threads"), // APP
+      new Entry(DMTP_UDP_QUEUE_SIZE, 256, "Maximum queued NIO UDP datagrams"), // APP
+      new Entry(DMTP_SESSION_MAX_THREADS, 0, "Max session threads (0=no limit)"), // APP
+      new Entry(DMTP_SESSION_BACKLOG, 64, "Max sessions waiting for a (limited) thread"), // APP
+      new Entry(DMTP_SESSION_THREADS, "platform", "TCP session threads (platform|virtual)"), // APP
+      new Entry(DMTP_SESSION_MAX_VIRTUAL, 100000, "Maximum virtual thread sessions"), // APP
+      new Entry(DMTP_PACKET_ZERO_COPY, false, "Parse packets in place (no copy)"), // APP
+      new Entry(DMTP_EVENTS_ASYNC, false, "Persist events on batched writer threads"), // APP
+      new Entry(DMTP_EVENTS_WRITERS, 4, "Number of event writer threads"), // APP
+      new Entry(DMTP_EVENTS_QUEUE_SIZE, 1024, "Maximum queued events (per writer)"), // APP
+      new Entry(DMTP_EVENTS_BATCH_SIZE, 64, "Maximum events written per batch"), // APP
+      new Entry(DMTP_EVENTS_FLUSH_MS, 20, "Maximum time a partial batch is held (ms)"), // APP
+      new Entry(DMTP_EVENTS_ACK_TIMEOUT, 30000, "Maximum EOB wait for durable events"), // APP
+      new Entry(DMTP_EVENTS_RATE_LIMIT, "memory", "Excessive events count (memory|db)"), // APP
+      new Entry(DMTP_JOURNAL_DIR, null, "Event journal directory (no journal if unset)"), // APP
+      new Entry(DMTP_JOURNAL_FILE_SIZE, 16L * 1024L * 1024L, "Event journal file size"), // APP
+      new Entry(DMTP_JOURNAL_RETRY_MS, 10000L, "Journal drain retry after a DB failure"), // APP
+      new Entry(FILE_WRITER_POOL, false, "Keep file store event files open"), // APP
+      new Entry(FILE_POOL_MAX_OPEN, 64, "Maximum open event files"), // APP
+      new Entry(FILE_POOL_BUFFER_SIZE, 16384, "Write buffer size (per open file)"), // APP
+      new Entry(FILE_POOL_FLUSH_MS, 1000L, "Maximum time data is held in a buffer"), // APP
+      new Entry(FILE_POOL_IDLE_SEC, 120L, "Idle time before an event file is closed"), // APP
+      new Entry(FILE_POOL_COMMIT, "flush", "Event file commit (flush|fsync|buffered)"), // APP
+      new Entry(SEGLOG_SEGMENT_SIZE, 64 * 1024 * 1024, "Event log segment size"), // APP
+      new Entry(SEGLOG_FSYNC, true, "Force appended events to the storage device"), // APP
 
       new Entry("WebApp context attributes"),
       new Entry(WEBAPP_CONTEXT_NAME, null, "WebApp context name"), // WEB
@@ -281,9 +496,10 @@ public class RTKey {
   // ------------------------------------------------------------------------
 
   /**
-   * Holds the global entry map.
+   * Holds the global entry map. The map is never modified once published (it is replaced by a
+   * modified copy), so it may be read by other threads without locking.
    */
-  protected static Map globalEntryMap = null;
+  protected static volatile Map globalEntryMap = null;
   /**
    * Holds the global properties.
    */
@@ -296,16 +512,17 @@ public class RTKey {
    */
   protected static Map getRuntimeEntryMap() {
     if (globalEntryMap == null) {
-      /* create map */
-      globalEntryMap = new OrderedMap();
+      /* create map (published only once loaded, since it may be read by other threads) */
+      Map entryMap = new OrderedMap();
 
       /* load default key entries */
       for (int i = 0; i < RTKey.runtimeKeys.length; i++) {
         String rtKey = RTKey.runtimeKeys[i].getKey();
         if (rtKey != null) {
-          globalEntryMap.put(rtKey, RTKey.runtimeKeys[i]);
+          entryMap.put(rtKey, RTKey.runtimeKeys[i]);
         }
       }
+      globalEntryMap = entryMap;
 
     }
     return globalEntryMap;
@@ -333,7 +550,11 @@ public class RTKey {
     if (dftEntry != null) {
       String rtKey = dftEntry.getKey();
       if (rtKey != null) {
-        RTKey.getRuntimeEntryMap().put(rtKey, dftEntry);
+        synchronized (RTKey.class) {
+          Map entryMap = new OrderedMap(RTKey.getRuntimeEntryMap());
+          entryMap.put(rtKey, dftEntry);
+          globalEntryMap = entryMap;
+        }
         globalProperties = null;
       }
     }
@@ -0,0 +1,790 @@
+// ----------------------------------------------------------------------------
+// Copyright 2006, Martin D. Flynn
+// All rights reserved
+// ----------------------------------------------------------------------------
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+// ----------------------------------------------------------------------------
+// Description:
+//  Non-blocking (NIO Selector based) server socket support
+// ----------------------------------------------------------------------------
+// Change History:
+//  2026/10/18  agent
+//      Initial release
+// ----------------------------------------------------------------------------
+package org.opendmtp.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Vector;
+
+/**
+ * TCP server socket thread which uses non-blocking <tt>SocketChannel</tt>s. Rather than
+ * dedicating a thread to each client session, accepted sessions are distributed over a small,
+ * fixed number of I/O threads, each multiplexing its sessions with a <tt>Selector</tt>. Packets
+ * are framed exactly as in <tt>ServerSocketThread</tt>, and are passed to the same
+ * <tt>ClientPacketHandler</tt> callbacks. All session configuration (timeouts, packet lengths,
+ * terminators, etc) is inherited from <tt>ServerSocketThread</tt>.
+ * <p>
+ * The I/O threads only read, frame and write. Only <tt>getActualPacketLength</tt> (which examines
+ * the packet header) is called on an I/O thread; the <tt>ClientPacketHandler</tt> callbacks
+ * <tt>sessionStarted</tt>, <tt>getHandlePacket</tt>, and <tt>sessionTerminated</tt> (which may
+ * block on the database, or pause) are called on a pool of worker threads. The callbacks of a
+ * session are called one at a time, in order, and the responses are written by the I/O thread in
+ * the same order.
+ *
+ * @author agent
+ */
+public class ServerSocketChannelThread extends ServerSocketThread {
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Default number of I/O threads.
+   */
+  public static final int DEFAULT_IO_THREADS = 2;
+
+  /**
+   * Default number of worker threads.
+   */
+  public static final int DEFAULT_WORKER_THREADS = 32;
+
+  /**
+   * Maximum time (in milliseconds) between session timeout checks.
+   */
+  private static final long SELECT_INTERVAL_MS = 250L;
+
+  /**
+   * Size of the per I/O thread read buffer.
+   */
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Server socket channel.
+   */
+  private ServerSocketChannel serverChannel = null;
+  /**
+   * I/O threads.
+   */
+  private ChannelIOThread ioThreads[] = null;
+  /**
+   * Index of the I/O thread to which the next session will be assigned.
+   */
+  private int nextIOThread = 0;
+  /**
+   * Worker thread pool, which calls the client packet handlers.
+   */
+  private ThreadPool workerPool = null;
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Creates a new thread and a new server socket channel bound to a specified port, using the
+   * default number of I/O threads.
+   *
+   * @param port a port number
+   * @throws IOException if an error occured
+   */
+  public ServerSocketChannelThread(int port) throws IOException {
+    this(port, DEFAULT_IO_THREADS, DEFAULT_WORKER_THREADS);
+  }
+
+  /**
+   * Creates a new thread and a new server socket channel bound to a specified port.
+   *
+   * @param port a port number
+   * @param ioThreadCount number of I/O threads (the default is used if not positive)
+   * @param workerCount number of worker threads (the default is used if not positive)
+   * @throws IOException if an error occured
+   */
+  public ServerSocketChannelThread(int port, int ioThreadCount, int workerCount)
+      throws IOException {
+    super();
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.socket().setReuseAddress(true);
+    this.serverChannel.socket().bind(new InetSocketAddress(port));
+    int count = (ioThreadCount > 0) ? ioThreadCount : DEFAULT_IO_THREADS;
+    this.ioThreads = new ChannelIOThread[count];
+    for (int i = 0; i < this.ioThreads.length; i++) {
+      this.ioThreads[i] = new ChannelIOThread("ChannelIO_" + (i + 1));
+    }
+    this.workerPool = new ThreadPool("ChannelWorker", (workerCount > 0) ? workerCount
+        : DEFAULT_WORKER_THREADS);
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Returns the number of I/O threads.
+   *
+   * @return number of I/O threads
+   */
+  public int getIOThreadCount() {
+    return this.ioThreads.length;
+  }
+
+  /**
+   * Returns the number of worker threads.
+   *
+   * @return maximum number of worker threads
+   */
+  public int getWorkerThreadCount() {
+    return this.workerPool.getMaxSize();
+  }
+
+  /**
+   * Returns the number of currently open client sessions.
+   *
+   * @return number of open sessions
+   */
+  public int getSessionCount() {
+    int count = 0;
+    for (int i = 0; i < this.ioThreads.length; i++) {
+      count += this.ioThreads[i].getSessionCount();
+    }
+    return count;
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * Implements a run() method of the Thread interface. Accepts client connections and assigns
+   * each to an I/O thread.
+   */
+  public void run() {
+
+    /* start I/O threads */
+    for (int i = 0; i < this.ioThreads.length; i++) {
+      this.ioThreads[i].start();
+    }
+
+    /* accept connections */
+    while (true) {
+      SocketChannel client = null;
+      try {
+        client = this.serverChannel.accept();
+        client.configureBlocking(false);
+        client.socket().setTcpNoDelay(true);
+      }
+      catch (IOException ioe) {
+        Print.logError("Connection - " + ioe);
+        if (client != null) {
+          try {
+            client.close();
+          }
+          catch (IOException ioe2) {
+            /* unable to close? */
+          }
+        }
+        if (!this.serverChannel.isOpen()) {
+          break;
+        }
+        continue; // go back and wait again
+      }
+
+      /* assign to I/O thread (round robin) */
+      ChannelIOThread iot = this.ioThreads[this.nextIOThread];
+      this.nextIOThread = (this.nextIOThread + 1) % this.ioThreads.length;
+      iot.addClient(client);
+
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * I/O thread which multiplexes a set of client sessions over a single <tt>Selector</tt>.
+   *
+   * @author agent
+   */
+  private class ChannelIOThread extends Thread {
+
+    private Selector selector = null;
+    private Vector pendingClients = new Vector();
+    private Vector completedJobs = new Vector(); // posted by the workers
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private int sessionCount = 0;
+
+    /**
+     * Creates an I/O thread with the specified name.
+     *
+     * @param name thread name
+     * @throws IOException if the selector could not be opened
+     */
+    public ChannelIOThread(String name) throws IOException {
+      super(name);
+      this.selector = Selector.open();
+    }
+
+    /**
+     * Returns the number of sessions handled by this thread.
+     *
+     * @return number of sessions
+     */
+    public int getSessionCount() {
+      return this.sessionCount;
+    }
+
+    /**
+     * Queues a newly accepted client for registration with this thread's selector.
+     *
+     * @param client accepted client channel
+     */
+    public void addClient(SocketChannel client) {
+      this.pendingClients.add(client);
+      this.selector.wakeup();
+    }
+
+    /**
+     * Queues a job (the completion of a packet handled by a worker) to be run on this thread.
+     *
+     * @param job the job
+     */
+    public void post(Runnable job) {
+      this.completedJobs.add(job);
+      this.selector.wakeup();
+    }
+
+    /**
+     * Implements the run() method of Thread interface.
+     */
+    public void run() {
+      long lastCheck = DateTime.getCurrentTimeMillis();
+      while (true) {
+
+        /* wait for I/O */
+        try {
+          this.selector.select(SELECT_INTERVAL_MS);
+        }
+        catch (IOException ioe) {
+          Print.logError("Selector - " + ioe);
+          continue;
+        }
+
+        /* register new clients */
+        while (!this.pendingClients.isEmpty()) {
+          SocketChannel client = (SocketChannel) this.pendingClients.remove(0);
+          this._register(client);
+        }
+
+        /* complete handled packets */
+        while (!this.completedJobs.isEmpty()) {
+          Runnable job = (Runnable) this.completedJobs.remove(0);
+          job.run();
+        }
+
+        /* handle ready sessions */
+        for (Iterator i = this.selector.selectedKeys().iterator(); i.hasNext();) {
+          SelectionKey key = (SelectionKey) i.next();
+          i.remove();
+          ChannelSession session = (ChannelSession) key.attachment();
+          try {
+            if (key.isValid() && key.isWritable()) {
+              session.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+              session.read(this.readBuffer);
+            }
+          }
+          catch (Throwable t) {
+            session.terminate(t);
+          }
+        }
+
+        /* check timeouts */
+        long now = DateTime.getCurrentTimeMillis();
+        if ((now - lastCheck) >= SELECT_INTERVAL_MS) {
+          lastCheck = now;
+          for (Iterator i = this.selector.keys().iterator(); i.hasNext();) {
+            SelectionKey key = (SelectionKey) i.next();
+            ChannelSession session = (ChannelSession) key.attachment();
+            if (key.isValid() && (session != null)) {
+              session.checkTimeout(now);
+            }
+          }
+        }
+
+      }
+    }
+
+    /**
+     * Registers a client with this thread's selector and starts the session.
+     *
+     * @param client client channel
+     */
+    private void _register(SocketChannel client) {
+      ChannelSession session = new ChannelSession(this, client);
+      try {
+        session.key = client.register(this.selector, SelectionKey.OP_READ, session);
+        this.sessionCount++;
+        session.start();
+      }
+      catch (Throwable t) {
+        session.terminate(t);
+      }
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+  /**
+   * A single client session.
+   *
+   * @author agent
+   */
+  private class ChannelSession {
+
+    private ChannelIOThread ioThread = null;
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+    private ClientPacketHandler clientHandler = null;
+    private PacketFramer framer = null;
+    private LinkedList writeQueue = new LinkedList();
+    private long sessionTimeoutAt = -1L;
+    private long readTimeoutAt = -1L;
+    private int promptIndex = 0;
+    private long readByteCount = 0L;
+    private long writeByteCount = 0L;
+    private boolean closing = false;
+    private boolean terminated = false;
+    private int pendingPackets = 0; // packets passed to the workers, and not yet completed
+
+    /* handler jobs, run one at a time, in order, by the worker pool (guarded by 'this') */
+    private LinkedList handlerJobs = new LinkedList();
+    private boolean handlerRunning = false;
+
+    /**
+     * Creates a session for the specified client channel.
+     *
+     * @param ioThread owning I/O thread
+     * @param channel client channel
+     */
+    public ChannelSession(ChannelIOThread ioThread, SocketChannel channel) {
+      this.ioThread = ioThread;
+      this.channel = channel;
+    }
+
+    /**
+     * Starts the session.
+     *
+     * @throws IOException if any I/O errors occured
+     */
+    public void start() throws IOException {
+
+      /* session timeout */
+      long now = DateTime.getCurrentTimeMillis();
+      long sessionTimeoutMS = ServerSocketChannelThread.this.getSessionTimeout();
+      this.sessionTimeoutAt = (sessionTimeoutMS > 0L) ? (now + sessionTimeoutMS) : -1L;
+
+      /* client session handler */
+      this.clientHandler = ServerSocketChannelThread.this.getClientPacketHandler();
+      this.framer = new PacketFramer(this.clientHandler);
+      if (this.clientHandler != null) {
+        final ClientPacketHandler handler = this.clientHandler;
+        final InetAddress inetAddr = this.channel.socket().getInetAddress();
+        final boolean isText = ServerSocketChannelThread.this.isTextPackets();
+        this._submit(new Runnable() {
+          public void run() {
+            handler.sessionStarted(inetAddr, true, isText);
+          }
+        });
+      }
+
+      /* wait for first packet */
+      this._startPacket(now);
+
+    }
+
+    /**
+     * Reads available bytes from the channel and handles any completed packets.
+     *
+     * @param buff shared read buffer
+     * @throws IOException if any I/O errors occured
+     */
+    public void read(ByteBuffer buff) throws IOException {
+      buff.clear();
+      int len = this.channel.read(buff);
+      if (len < 0) {
+        // socket likely closed by client
+        throw new SSEndOfStreamException("End of stream");
+      }
+      this.readByteCount += len;
+      byte b[] = buff.array();
+      int ofs = 0;
+      while ((ofs < len) && !this.closing) {
+        boolean started = this.framer.isStarted();
+        ofs += this.framer.append(b, ofs, len - ofs);
+        if (!started && this.framer.isStarted()) {
+          // reset packet timeout
+          long pcktTimeoutMS = ServerSocketChannelThread.this.getPacketTimeout();
+          if (pcktTimeoutMS > 0L) {
+            this.readTimeoutAt = DateTime.getCurrentTimeMillis() + pcktTimeoutMS;
+          }
+        }
+        if (this.framer.isComplete()) {
+          this._handleFramedPacket();
+        }
+      }
+      if (!this.closing) {
+        this._updateInterestOps();
+      }
+    }
+
+    /**
+     * Writes queued output to the channel.
+     *
+     * @throws IOException if any I/O errors occured
+     */
+    public void flush() throws IOException {
+      while (!this.writeQueue.isEmpty()) {
+        ByteBuffer bb = (ByteBuffer) this.writeQueue.getFirst();
+        this.writeByteCount += this.channel.write(bb);
+        if (bb.hasRemaining()) {
+          // socket buffer is full, wait until writable
+          this.key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        this.writeQueue.removeFirst();
+      }
+      if (this.closing) {
+        this.terminate(null);
+      }
+      else {
+        this._updateInterestOps();
+      }
+    }
+
+    /**
+     * Checks session and read timeouts.
+     *
+     * @param now current time in milliseconds
+     */
+    public void checkTimeout(long now) {
+      if (this.closing) {
+        return;
+      }
+      if ((this.sessionTimeoutAt > 0L) && (now >= this.sessionTimeoutAt)) {
+        this.terminate(new SSSessionTimeoutException("Session timeout"));
+      }
+      else if (this.pendingPackets > 0) {
+        // waiting for the server, not for the client
+      }
+      else if ((this.readTimeoutAt > 0L) && (now >= this.readTimeoutAt)) {
+        if (ServerSocketChannelThread.this.getTerminateOnTimeout()) {
+          this.terminate(new SSReadTimeoutException("Read timeout"));
+        }
+        else {
+          // pass along whatever we have so far
+          try {
+            this._handleFramedPacket();
+            this._updateInterestOps();
+          }
+          catch (Throwable t) {
+            this.terminate(t);
+          }
+        }
+      }
+    }
+
+    /**
+     * Terminates the session. Packets not yet handled are discarded, and the client handler is
+     * notified, and the channel closed, by the worker pool (after the packet being handled, if
+     * any).
+     *
+     * @param termError the error which caused the termination, or null
+     */
+    public void terminate(final Throwable termError) {
+      if (this.terminated) {
+        return;
+      }
+      this.terminated = true;
+      this.closing = true;
+      if (this.key != null) {
+        this.key.cancel();
+        this.ioThread.sessionCount--;
+      }
+      if ((termError instanceof SSSessionTimeoutException)
+          || (termError instanceof SSReadTimeoutException)
+          || (termError instanceof SSEndOfStreamException)) {
+        Print.logError(termError.getMessage());
+      }
+      else if (termError instanceof IOException) {
+        Print.logError("Connection closed");
+      }
+      else if (termError != null) {
+        Print.logException("?", termError);
+      }
+      final ClientPacketHandler handler = this.clientHandler;
+      final SocketChannel client = this.channel;
+      final long readCount = this.readByteCount;
+      final long writeCount = this.writeByteCount;
+      synchronized (this) {
+        this.handlerJobs.clear();
+      }
+      this._submit(new Runnable() {
+        public void run() {
+          if (handler != null) {
+            handler.sessionTerminated(termError, readCount, writeCount);
+          }
+          try {
+            client.close();
+          }
+          catch (IOException ioe) {
+            /* unable to close? */
+          }
+        }
+      });
+    }
+
+    /**
+     * Takes the current packet from the session framer, and passes it to the worker pool.
+     *
+     * @throws IOException if any I/O errors occured
+     */
+    private void _handleFramedPacket() throws IOException {
+      final boolean view = this.framer.isPacketView();
+      final byte line[];
+      if (view) {
+        // the framer buffer is reused for the next packet
+        int len = this.framer.getPacketLength();
+        line = new byte[len];
+        System.arraycopy(this.framer.getPacketBuffer(), 0, line, 0, len);
+        this.framer.reset();
+      }
+      else {
+        line = this.framer.getPacket();
+      }
+      this.pendingPackets++;
+      this.readTimeoutAt = -1L;
+      this._submit(new Runnable() {
+        public void run() {
+          ChannelSession.this._handlePacket(line, view);
+        }
+      });
+    }
+
+    /**
+     * Handles a packet (on a worker thread), and posts the response to the I/O thread.
+     *
+     * @param line packet bytes
+     * @param view true to pass the packet to the client handler as a view
+     */
+    private void _handlePacket(byte line[], boolean view) {
+      byte response[] = null;
+      boolean close = false;
+      Throwable error = null;
+
+      /* send packet to listeners */
+      if (!view && ServerSocketChannelThread.this.hasListeners()) {
+        try {
+          ServerSocketChannelThread.this.invokeListeners(line);
+        }
+        catch (Throwable t) {
+          // a listener can terminate this session
+          close = true;
+        }
+      }
+
+      /* get response */
+      if (!close && (this.clientHandler != null)) {
+        try {
+          response = view ? ((ClientPacketViewHandler) this.clientHandler).getHandlePacket(line, 0,
+              line.length) : this.clientHandler.getHandlePacket(line);
+          close = this.clientHandler.terminateSession();
+        }
+        catch (IOException ioe) {
+          error = ioe;
+        }
+        catch (Throwable t) {
+          // the ClientPacketHandler can terminate this session
+          Print.logException("Unexpected exception: ", t);
+          close = true;
+        }
+      }
+
+      /* complete on the I/O thread */
+      final byte resp[] = response;
+      final boolean closeSession = close;
+      final Throwable termError = error;
+      this.ioThread.post(new Runnable() {
+        public void run() {
+          ChannelSession.this._packetHandled(resp, closeSession, termError);
+        }
+      });
+
+    }
+
+    /**
+     * Writes the response to a handled packet, and prepares to receive the next packet (on the
+     * I/O thread).
+     *
+     * @param response the response, or null
+     * @param close true to close the session after the response is written
+     * @param termError the error which terminates the session, or null
+     */
+    private void _packetHandled(byte response[], boolean close, Throwable termError) {
+      if (this.closing) {
+        return;
+      }
+      this.pendingPackets--;
+      try {
+        if (termError != null) {
+          throw termError;
+        }
+        this._write(response);
+        if (close) {
+          this._close();
+          return;
+        }
+
+        /* session timeout? */
+        long now = DateTime.getCurrentTimeMillis();
+        if ((this.sessionTimeoutAt > 0L) && (now >= this.sessionTimeoutAt)) {
+          throw new SSSessionTimeoutException("Session timeout");
+        }
+
+        /* wait for next packet */
+        this.promptIndex++;
+        this._startPacket(now);
+        this._updateInterestOps();
+
+      }
+      catch (Throwable t) {
+        this.terminate(t);
+      }
+    }
+
+    /**
+     * Queues a client handler job, to be run by the worker pool after the jobs already queued for
+     * this session.
+     *
+     * @param job the job
+     */
+    private void _submit(Runnable job) {
+      synchronized (this) {
+        this.handlerJobs.add(job);
+        if (this.handlerRunning) {
+          return;
+        }
+        this.handlerRunning = true;
+      }
+      ServerSocketChannelThread.this.workerPool.run(new Runnable() {
+        public void run() {
+          ChannelSession.this._runHandlerJobs();
+        }
+      });
+    }
+
+    /**
+     * Runs the queued client handler jobs of this session (on a worker thread).
+     */
+    private void _runHandlerJobs() {
+      while (true) {
+        Runnable job;
+        synchronized (this) {
+          if (this.handlerJobs.isEmpty()) {
+            this.handlerRunning = false;
+            return;
+          }
+          job = (Runnable) this.handlerJobs.removeFirst();
+        }
+        try {
+          job.run();
+        }
+        catch (Throwable t) {
+          Print.logException("Unexpected exception: ", t);
+        }
+      }
+    }
+
+    /**
+     * Prepares to receive the next packet.
+     *
+     * @param now current time in milliseconds
+     * @throws IOException if any I/O errors occured
+     */
+    private void _startPacket(long now) throws IOException {
+      if (this.framer.isStarted()) {
+        // the next packet was partially read while the previous packet was handled
+        long pcktTimeoutMS = ServerSocketChannelThread.this.getPacketTimeout();
+        this.readTimeoutAt = (pcktTimeoutMS > 0L) ? (now + pcktTimeoutMS) : -1L;
+      }
+      else {
+        long idleTimeoutMS = ServerSocketChannelThread.this.getIdleTimeout();
+        this.readTimeoutAt = (idleTimeoutMS > 0L) ? (now + idleTimeoutMS) : -1L;
+      }
+      this._write(ServerSocketChannelThread.this.getPrompt(this.promptIndex));
+    }
+
+    /**
+     * Selects the channel operations to wait for. Reading stops while output is waiting to be
+     * written, or while a packet is being handled, so that a client sending faster than its
+     * packets are handled cannot queue an unbounded number of packets.
+     */
+    private void _updateInterestOps() {
+      if (!this.writeQueue.isEmpty()) {
+        this.key.interestOps(SelectionKey.OP_WRITE);
+      }
+      else if (this.pendingPackets > 0) {
+        this.key.interestOps(0);
+      }
+      else {
+        this.key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    /**
+     * Queues bytes to be written to the client, and attempts to write them immediately.
+     *
+     * @param b bytes to write
+     * @throws IOException if any I/O errors occured
+     */
+    private void _write(byte b[]) throws IOException {
+      if ((b != null) && (b.length > 0)) {
+        this.writeQueue.add(ByteBuffer.wrap(b));
+        if (this.writeQueue.size() == 1) {
+          this.flush();
+        }
+      }
+    }
+
+    /**
+     * Closes the session once all queued output has been written.
+     */
+    private void _close() {
+      this.closing = true;
+      if (this.writeQueue.isEmpty()) {
+        this.terminate(null);
+      }
+      else {
+        this.key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+
+  }
+
+  // ------------------------------------------------------------------------
+
+}
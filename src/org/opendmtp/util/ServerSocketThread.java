@@ -42,6 +42,7 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ThreadFactory;
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLServerSocketFactory;
 
@@ -80,9 +81,53 @@ public class ServerSocketThread extends Thread {
    */
   private ServerSocket serverSocket = null;
   /**
-   * Pool of clients threads.
+   * Pool of client session threads.
    */
-  private Vector clientThreadPool = null;
+  private ThreadPool sessionThreadPool = null;
+  /**
+   * Maximum number of client session threads.
+   */
+  private int maxSessionThreads = DEFAULT_MAX_SESSION_THREADS;
+  /**
+   * Maximum number of accepted clients waiting for a session thread.
+   */
+  private int sessionBacklog = DEFAULT_SESSION_BACKLOG;
+  /**
+   * Bytes written to a client which is rejected because the session pool is saturated.
+   */
+  private byte rejectResponse[] = null;
+  /**
+   * Lock for the session statistics.
+   */
+  private Object statsLock = new Object();
+  /**
+   * Number of clients rejected because the session pool was saturated.
+   */
+  private long rejectedCount = 0L;
+  /**
+   * Number of started sessions.
+   */
+  private long startedCount = 0L;
+  /**
+   * Accumulated accept-to-start latency in milliseconds.
+   */
+  private long startLatencyMS = 0L;
+  /**
+   * Maximum accept-to-start latency in milliseconds.
+   */
+  private long maxStartLatencyMS = 0L;
+  /**
+   * Factory for virtual session threads (null if sessions run on the session thread pool).
+   */
+  private ThreadFactory virtualThreadFactory = null;
+  /**
+   * Maximum number of concurrent virtual thread sessions.
+   */
+  private int maxVirtualSessions = DEFAULT_MAX_VIRTUAL_SESSIONS;
+  /**
+   * Number of virtual thread sessions currently running.
+   */
+  private int virtualSessionCount = 0;
   /**
    * Client packets handler.
    */
@@ -150,17 +195,48 @@ public class ServerSocketThread extends Thread {
    * Autoprompting.
    */
   private boolean autoPrompt = false;
+  /**
+   * Pass packets to the client packet handler as views over the session packet buffer.
+   */
+  private boolean zeroCopyPackets = false;
   /**
    * A vector of action listeners.
    */
   private Vector actionListeners = null;
 
+  /**
+   * Size of the session read buffer.
+   */
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  /**
+   * Default maximum number of client session threads (0: no limit, a thread is started for each
+   * client if no session thread is idle).
+   */
+  public static final int DEFAULT_MAX_SESSION_THREADS = 0;
+
+  /**
+   * Default maximum number of accepted clients waiting for a session thread (only used when the
+   * number of session threads is limited).
+   */
+  public static final int DEFAULT_SESSION_BACKLOG = 64;
+
+  /**
+   * Default maximum number of concurrent virtual thread sessions.
+   */
+  public static final int DEFAULT_MAX_VIRTUAL_SESSIONS = 100000;
+
+  /**
+   * Size of the session read buffer when sessions run on virtual threads (kept small, since a
+   * large number of mostly idle sessions is expected).
+   */
+  private static final int VIRTUAL_READ_BUFFER_SIZE = 1024;
+
   // ------------------------------------------------------------------------
   /**
    * Creates a new thread.
    */
-  private ServerSocketThread() {
-    this.clientThreadPool = new Vector();
+  protected ServerSocketThread() {
     this.actionListeners = new Vector();
   }
 
@@ -211,6 +287,7 @@ public class ServerSocketThread extends Thread {
    * Implements a run() method of the Thread interface.
    */
   public void run() {
+    ThreadPool pool = (this.virtualThreadFactory == null) ? this.getSessionThreadPool() : null;
     while (true) {
       ClientSocket clientSocket = null;
 
@@ -221,7 +298,6 @@ public class ServerSocketThread extends Thread {
         }
         else if (this.datagramSocket != null) {
           byte b[] = new byte[ServerSocketThread.this.getMaximumPacketLength()];
-          ServerSocketThread.this.getMaximumPacketLength();
           DatagramPacket dp = new DatagramPacket(b, b.length);
           this.datagramSocket.receive(dp);
           clientSocket = new ClientSocket(dp);
@@ -234,35 +310,347 @@ public class ServerSocketThread extends Thread {
         Print.logError("Connection - " + ioe);
         continue; // go back and wait again
       }
+      long acceptTime = DateTime.getCurrentTimeMillis();
 
-      /* ip address */
-      String ipAddr;
-      try {
-        InetAddress inetAddr = clientSocket.getInetAddress();
-        ipAddr = (inetAddr != null) ? inetAddr.getHostAddress() : "?";
+      /* hand off to session thread pool (or a new virtual thread) */
+      ServerSession session = new ServerSession(clientSocket, acceptTime);
+      boolean accepted = (pool != null) ? pool.offer(session) : this._startVirtualSession(session);
+      if (!accepted) {
+        this._rejectClient(clientSocket);
       }
-      catch (Throwable t) {
-        ipAddr = "?";
+
+    }
+  }
+
+  /**
+   * Rejects a client because the session thread pool is saturated. The reject response (if any)
+   * is sent to TCP clients, and the client socket is closed.
+   * 
+   * @param clientSocket client socket
+   */
+  private void _rejectClient(ClientSocket clientSocket) {
+    synchronized (this.statsLock) {
+      this.rejectedCount++;
+    }
+    String ipAddr;
+    try {
+      InetAddress inetAddr = clientSocket.getInetAddress();
+      ipAddr = (inetAddr != null) ? inetAddr.getHostAddress() : "?";
+    }
+    catch (Throwable t) {
+      ipAddr = "?";
+    }
+    Print.logWarn("Session pool saturated, rejecting client: " + ipAddr);
+    try {
+      OutputStream output = clientSocket.getOutputStream();
+      if ((output != null) && (this.rejectResponse != null)) {
+        output.write(this.rejectResponse);
+        output.flush();
       }
+    }
+    catch (IOException ioe) {
+      // ignore
+    }
+    try {
+      clientSocket.close();
+    }
+    catch (IOException ioe) {
+      /* unable to close? */
+    }
+  }
 
-      /* find an available client thread */
-      boolean foundThread = false;
-      for (Iterator i = this.clientThreadPool.iterator(); i.hasNext() && !foundThread;) {
-        ServerSessionThread sst = (ServerSessionThread) i.next();
-        foundThread = sst.setClientIfAvailable(clientSocket);
+  /**
+   * Starts a session on a new virtual thread, unless the maximum number of virtual thread sessions
+   * are already running.
+   * 
+   * @param session client session
+   * @return true if the session was started, false if it was rejected
+   */
+  private boolean _startVirtualSession(final ServerSession session) {
+    synchronized (this.statsLock) {
+      if (this.virtualSessionCount >= this.maxVirtualSessions) {
+        return false;
       }
-      if (!foundThread) { // add new thread to pool
-        // Print.logInfo("New thread for ip ["+ipAddr+"] ...");
-        ServerSessionThread sst = new ServerSessionThread(clientSocket);
-        this.clientThreadPool.add(sst);
+      this.virtualSessionCount++;
+    }
+    Runnable job = new Runnable() {
+      public void run() {
+        try {
+          session.run();
+        }
+        catch (Throwable t) {
+          Print.logException("Session terminated with exception", t);
+        }
+        finally {
+          synchronized (ServerSocketThread.this.statsLock) {
+            ServerSocketThread.this.virtualSessionCount--;
+          }
+        }
       }
-      else {
-        // Print.logDebug("Reuse existing thread for ip ["+ipAddr+"] ...");
+    };
+    try {
+      this.virtualThreadFactory.newThread(job).start();
+      return true;
+    }
+    catch (Throwable t) {
+      // OutOfMemoryError, etc.
+      Print.logException("Unable to start virtual session thread", t);
+      synchronized (this.statsLock) {
+        this.virtualSessionCount--;
       }
+      return false;
+    }
+  }
 
+  /**
+   * Records the start of a session.
+   * 
+   * @param latencyMS accept-to-start latency in milliseconds
+   */
+  private void _sessionStarted(long latencyMS) {
+    synchronized (this.statsLock) {
+      this.startedCount++;
+      this.startLatencyMS += latencyMS;
+      if (latencyMS > this.maxStartLatencyMS) {
+        this.maxStartLatencyMS = latencyMS;
+      }
     }
   }
 
+  // ------------------------------------------------------------------------
+
+  /**
+   * Sets the maximum number of client session threads. Must be called before the thread is
+   * started.
+   * 
+   * @param maxThreads maximum number of session threads, or 0 for no limit (the default)
+   */
+  public void setMaximumSessionThreads(int maxThreads) {
+    this.maxSessionThreads = maxThreads;
+  }
+
+  /**
+   * Returns the maximum number of client session threads.
+   * 
+   * @return maximum number of session threads
+   */
+  public int getMaximumSessionThreads() {
+    return this.maxSessionThreads;
+  }
+
+  /**
+   * Sets the maximum number of accepted clients which may wait for a session thread. Clients
+   * accepted when all session threads are busy, and the backlog is full, are rejected. Only used
+   * when the number of session threads is limited (see <tt>setMaximumSessionThreads</tt>). Must
+   * be called before the thread is started.
+   * 
+   * @param backlog maximum number of waiting clients
+   */
+  public void setSessionBacklog(int backlog) {
+    this.sessionBacklog = backlog;
+  }
+
+  /**
+   * Returns the maximum number of accepted clients which may wait for a session thread.
+   * 
+   * @return maximum number of waiting clients
+   */
+  public int getSessionBacklog() {
+    return this.sessionBacklog;
+  }
+
+  /**
+   * Sets the bytes sent to a TCP client which is rejected because the session pool is saturated.
+   * 
+   * @param response reject response (or null to simply close the connection)
+   */
+  public void setRejectResponse(byte response[]) {
+    this.rejectResponse = response;
+  }
+
+  /**
+   * Returns true if this runtime supports virtual threads (Java 21 or later).
+   * 
+   * @return true if virtual threads are supported
+   */
+  public static boolean isVirtualThreadSupported() {
+    return (ServerSocketThread._createVirtualThreadFactory("test") != null);
+  }
+
+  /**
+   * Creates a factory for named virtual threads. Virtual threads are created by reflection so that
+   * this class still compiles, and runs, on releases prior to Java 21.
+   * 
+   * @param name thread name prefix
+   * @return thread factory, or null if virtual threads are not supported
+   */
+  private static ThreadFactory _createVirtualThreadFactory(String name) {
+    try {
+      Class builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null,
+          new Object[0]);
+      builder = builderClass.getMethod("name", new Class[] { String.class, Long.TYPE }).invoke(
+          builder, new Object[] { name + "_", new Long(1L) });
+      return (ThreadFactory) builderClass.getMethod("factory", new Class[0]).invoke(builder,
+          new Object[0]);
+    }
+    catch (Throwable t) {
+      // ClassNotFoundException, NoSuchMethodException, etc.
+      return null;
+    }
+  }
+
+  /**
+   * Sets whether each client session should run on its own virtual thread, rather than on the
+   * bounded session thread pool. Virtual threads allow a very large number of mostly idle
+   * sessions, while keeping the blocking read/write session code. Must be called before the thread
+   * is started.
+   * 
+   * @param virtual true to run sessions on virtual threads
+   * @return true if the requested mode was set, false if virtual threads are not supported
+   */
+  public boolean setVirtualSessionThreads(boolean virtual) {
+    if (!virtual) {
+      this.virtualThreadFactory = null;
+      return true;
+    }
+    else if (this.serverSocket == null) {
+      // UDP sessions are short lived, and are always handled by the session thread pool
+      return false;
+    }
+    else {
+      this.virtualThreadFactory = ServerSocketThread._createVirtualThreadFactory("ClientSession");
+      return (this.virtualThreadFactory != null);
+    }
+  }
+
+  /**
+   * Returns true if client sessions run on virtual threads.
+   * 
+   * @return true if sessions run on virtual threads
+   */
+  public boolean isVirtualSessionThreads() {
+    return (this.virtualThreadFactory != null);
+  }
+
+  /**
+   * Sets the maximum number of concurrent virtual thread sessions. Clients accepted when this
+   * many sessions are running are rejected.
+   * 
+   * @param maxSessions maximum number of virtual thread sessions
+   */
+  public void setMaximumVirtualSessions(int maxSessions) {
+    this.maxVirtualSessions = maxSessions;
+  }
+
+  /**
+   * Returns the maximum number of concurrent virtual thread sessions.
+   * 
+   * @return maximum number of virtual thread sessions
+   */
+  public int getMaximumVirtualSessions() {
+    return this.maxVirtualSessions;
+  }
+
+  /**
+   * Returns the session thread pool, creating it if necessary.
+   * 
+   * @return session thread pool
+   */
+  protected ThreadPool getSessionThreadPool() {
+    synchronized (this.statsLock) {
+      if (this.sessionThreadPool == null) {
+        if (this.maxSessionThreads > 0) {
+          this.sessionThreadPool = new ThreadPool("ClientSession", this.maxSessionThreads,
+              Math.max(this.sessionBacklog, 1));
+        }
+        else {
+          // no limit (clients are never rejected)
+          this.sessionThreadPool = new ThreadPool("ClientSession", Integer.MAX_VALUE);
+        }
+      }
+      return this.sessionThreadPool;
+    }
+  }
+
+  /**
+   * Returns the number of sessions currently running.
+   * 
+   * @return number of active sessions
+   */
+  public int getActiveSessionCount() {
+    if (this.virtualThreadFactory != null) {
+      synchronized (this.statsLock) {
+        return this.virtualSessionCount;
+      }
+    }
+    return this.getSessionThreadPool().getActiveCount();
+  }
+
+  /**
+   * Returns the number of session threads waiting for a client.
+   * 
+   * @return number of idle session threads
+   */
+  public int getIdleSessionCount() {
+    return this.getSessionThreadPool().getIdleCount();
+  }
+
+  /**
+   * Returns the number of accepted clients waiting for a session thread.
+   * 
+   * @return number of queued sessions
+   */
+  public int getQueuedSessionCount() {
+    return this.getSessionThreadPool().getQueueSize();
+  }
+
+  /**
+   * Returns the number of clients rejected because the session pool was saturated.
+   * 
+   * @return number of rejected clients
+   */
+  public long getRejectedSessionCount() {
+    synchronized (this.statsLock) {
+      return this.rejectedCount;
+    }
+  }
+
+  /**
+   * Returns the number of sessions started.
+   * 
+   * @return number of started sessions
+   */
+  public long getStartedSessionCount() {
+    synchronized (this.statsLock) {
+      return this.startedCount;
+    }
+  }
+
+  /**
+   * Returns the average time between accepting a client and starting its session.
+   * 
+   * @return average accept-to-start latency in milliseconds
+   */
+  public long getAverageStartLatencyMS() {
+    synchronized (this.statsLock) {
+      return (this.startedCount > 0L) ? (this.startLatencyMS / this.startedCount) : 0L;
+    }
+  }
+
+  /**
+   * Returns the maximum time between accepting a client and starting its session.
+   * 
+   * @return maximum accept-to-start latency in milliseconds
+   */
+  public long getMaximumStartLatencyMS() {
+    synchronized (this.statsLock) {
+      return this.maxStartLatencyMS;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+
   /**
    * Indicates if the thread has listeners.
    * 
@@ -486,6 +874,29 @@ public class ServerSocketThread extends Thread {
     return this.isTextPackets;
   }
 
+  /**
+   * Sets whether packets are passed to the client packet handler as views over the session packet
+   * buffer (see <tt>ClientPacketViewHandler.getHandlePacket(byte[],int,int)</tt>), rather than as
+   * a new array per packet. The buffer is reused for the next packet, so the handler must not
+   * retain a reference to it after returning. Packets are always copied while there are listeners,
+   * and for handlers which do not implement <tt>ClientPacketViewHandler</tt>.
+   * 
+   * @param zeroCopy true to pass packets as buffer views
+   */
+  public void setZeroCopyPackets(boolean zeroCopy) {
+    this.zeroCopyPackets = zeroCopy;
+  }
+
+  /**
+   * Says if packets are passed to the client packet handler as views over the session packet
+   * buffer.
+   * 
+   * @return true if packets are passed as buffer views
+   */
+  public boolean isZeroCopyPackets() {
+    return this.zeroCopyPackets;
+  }
+
   /**
    * Sets the maximum packet length.
    * 
@@ -926,223 +1337,433 @@ public class ServerSocketThread extends Thread {
   }
 
   /**
-   * Server session thread.
+   * Incremental packet framer. Bytes are appended as they arrive from the client and a packet is
+   * reported complete using the same rules applied by <tt>readLine</tt> (text packets) and
+   * <tt>readPacket</tt> (binary packets). Timeouts are left to the caller.
    * 
    * @author Martin D. Flynn
-   * @author Alexey Olkov
-   * 
    */
+  protected class PacketFramer {
 
-  public class ServerSessionThread extends Thread {
+    private ClientPacketHandler clientHandler = null;
+    private boolean textPackets = true;
+    private int maxLen = 0;
+    private int minLen = 0;
+    private byte packet[] = null;
+    private int packetLen = 0;
+    private int actualLen = 0;
+    private boolean isTextLine = false;
+    private boolean complete = false;
+    private long consumed = 0L;
 
-    private Object runLock = new Object();
-    private ClientSocket client = null;
-    private long readByteCount = 0L;
-    private long writeByteCount = 0L;
+    /**
+     * Creates a framer for the specified client packet handler.
+     * 
+     * @param clientHandler client packet handler (used for the actual packet length)
+     */
+    public PacketFramer(ClientPacketHandler clientHandler) {
+      this.clientHandler = clientHandler;
+      this.textPackets = ServerSocketThread.this.isTextPackets();
+      this.maxLen = ServerSocketThread.this.getMaximumPacketLength();
+      this.minLen = ServerSocketThread.this.getMinimumPacketLength();
+      this.packet = new byte[this.maxLen];
+    }
 
     /**
-     * Creates a thread for a specified socket, and starts.
+     * Returns true if a complete packet is available.
      * 
-     * @param client Socket for which the thread is started
+     * @return true if a complete packet is available, false otherwise
      */
-    public ServerSessionThread(Socket client) {
-      super("ClientSession");
-      this.client = new ClientSocket(client);
-      this.start();
+    public boolean isComplete() {
+      return this.complete;
     }
 
     /**
-     * Creates a thread for a specified client socket, and starts.
+     * Returns true if any bytes (including ignored characters) have been consumed for the current
+     * packet.
      * 
-     * @param client client socket for which the thread is started
+     * @return true if the current packet has been started, false otherwise
      */
+    public boolean isStarted() {
+      return (this.consumed > 0L);
+    }
 
-    public ServerSessionThread(ClientSocket client) {
-      super("ClientSession");
-      this.client = client;
-      this.start();
+    /**
+     * Returns the number of bytes still required to complete the current binary packet, or 0 if
+     * this is not yet known.
+     * 
+     * @return number of bytes remaining
+     */
+    public int getRemainingLength() {
+      if (this.complete || this.textPackets || this.isTextLine || (this.actualLen <= 0)) {
+        return 0;
+      }
+      else {
+        return this.actualLen - this.packetLen;
+      }
     }
 
     /**
-     * Sets the client socket if client is avaliable.
+     * Appends bytes to the current packet. Bytes are consumed until the current packet is complete,
+     * or all specified bytes have been consumed.
      * 
-     * @param clientSocket a client socket
-     * @return false if the client is already used, true otherwise
+     * @param b byte array
+     * @param ofs offset of first byte to append
+     * @param len number of available bytes
+     * @return number of bytes consumed
      */
-    public boolean setClientIfAvailable(ClientSocket clientSocket) {
-      boolean rtn = false;
-      synchronized (this.runLock) {
-        if (this.client != null) {
-          rtn = false; // not available
+    public int append(byte b[], int ofs, int len) {
+      int n = 0;
+      while ((n < len) && !this.complete) {
+
+        /* bulk copy packet body */
+        int remain = this.getRemainingLength();
+        if (remain > 1) {
+          int cnt = Math.min(remain - 1, len - n);
+          System.arraycopy(b, ofs + n, this.packet, this.packetLen, cnt);
+          this.packetLen += cnt;
+          this.consumed += cnt;
+          n += cnt;
+          continue;
+        }
+
+        /* single byte */
+        int ch = (int) b[ofs + n++] & 0xFF;
+        this.consumed++;
+        if (this.textPackets) {
+          this._appendText(ch);
         }
         else {
-          this.client = clientSocket;
-          this.runLock.notify();
-          rtn = true;
+          this._appendBinary(ch);
         }
+
       }
-      return rtn;
+      return n;
     }
 
     /**
-     * Implements the run() method of Thread interface.
+     * Returns the current packet and resets the framer for the next packet.
+     * 
+     * @return the packet bytes
      */
-    public void run() {
+    public byte[] getPacket() {
+      byte p[] = new byte[this.packetLen];
+      System.arraycopy(this.packet, 0, p, 0, this.packetLen);
+      this.reset();
+      return p;
+    }
 
-      /* loop forever */
-      while (true) {
+    /**
+     * Returns the packet buffer. The current packet occupies the first <tt>getPacketLength()</tt>
+     * bytes, and remains intact until more bytes are appended after a <tt>reset()</tt>.
+     * 
+     * @return the packet buffer
+     */
+    public byte[] getPacketBuffer() {
+      return this.packet;
+    }
 
-        /* wait for client (if necessary) */
-        synchronized (this.runLock) {
-          while (this.client == null) {
-            try {
-              this.runLock.wait();
-            }
-            catch (InterruptedException ie) {
-            }
-          }
-        }
+    /**
+     * Returns the length of the current packet.
+     * 
+     * @return the packet length
+     */
+    public int getPacketLength() {
+      return this.packetLen;
+    }
 
-        /* reset byte counts */
-        this.readByteCount = 0L;
-        this.writeByteCount = 0L;
+    /**
+     * Returns true if the current packet should be passed to the client packet handler as a view
+     * over the packet buffer (ie. zero-copy packets are enabled, the handler is a
+     * <tt>ClientPacketViewHandler</tt>, and there are no listeners).
+     * 
+     * @return true if the packet should be passed as a buffer view
+     */
+    public boolean isPacketView() {
+      return (this.clientHandler instanceof ClientPacketViewHandler)
+          && ServerSocketThread.this.isZeroCopyPackets() && !ServerSocketThread.this.hasListeners();
+    }
 
-        /* IP address */
-        InetAddress inetAddr = this.client.getInetAddress();
+    /**
+     * Sets the client packet handler and resets the framer, so that the framer (and its packet
+     * buffer) can be reused for another session.
+     * 
+     * @param clientHandler client packet handler (used for the actual packet length)
+     */
+    public void setClientPacketHandler(ClientPacketHandler clientHandler) {
+      this.clientHandler = clientHandler;
+      this.reset();
+    }
 
-        /* session timeout */
-        long sessionStartTime = DateTime.getCurrentTimeMillis();
-        long sessionTimeoutMS = ServerSocketThread.this.getSessionTimeout();
-        long sessionTimeoutAt = (sessionTimeoutMS > 0L) ? (sessionStartTime + sessionTimeoutMS)
-            : -1L;
+    /**
+     * Resets the framer for the next packet.
+     */
+    public void reset() {
+      this.packetLen = 0;
+      this.actualLen = 0;
+      this.isTextLine = false;
+      this.complete = false;
+      this.consumed = 0L;
+    }
 
-        /* client session handler */
-        ClientPacketHandler clientHandler = ServerSocketThread.this.getClientPacketHandler();
-        if (clientHandler != null) {
-          clientHandler.sessionStarted(inetAddr, this.client.isTCP(), ServerSocketThread.this
-              .isTextPackets());
+    /**
+     * Appends a byte to a text packet (see <tt>readLine</tt>).
+     * 
+     * @param ch character
+     */
+    private void _appendText(int ch) {
+      if (ServerSocketThread.this.isLineTerminatorChar(ch)) {
+        // end of line (typically '\n')
+        this.complete = true;
+      }
+      else if (ServerSocketThread.this.isIgnoreChar(ch)) {
+        // ignore this character (typically '\r')
+      }
+      else if (ServerSocketThread.this.isBackspaceChar(ch)) {
+        if (this.packetLen > 0) {
+          this.packetLen--;
         }
+      }
+      else if (ch < ' ') {
+        // ignore non-printable characters
+      }
+      else {
+        this.packet[this.packetLen++] = (byte) ch;
+        if ((this.maxLen > 0) && (this.packetLen >= this.maxLen)) {
+          // we've read all the bytes we can
+          this.complete = true;
+        }
+      }
+    }
 
-        /* process client requests */
-        Throwable termError = null;
-        try {
+    /**
+     * Appends a byte to a binary packet (see <tt>readPacket</tt>).
+     * 
+     * @param ch character
+     */
+    private void _appendBinary(int ch) {
+
+      /* look for line terminator? */
+      if (this.isTextLine) {
+        if (ServerSocketThread.this.isLineTerminatorChar(ch)) {
+          // end of line (typically '\n')
+          this.complete = true;
+          return;
+        }
+        else if (ServerSocketThread.this.isIgnoreChar(ch)) {
+          // ignore this character (typically '\r')
+          return;
+        }
+      }
+      this.packet[this.packetLen++] = (byte) ch;
 
-          /* get output stream */
-          OutputStream output = this.client.getOutputStream();
+      /* check lengths */
+      if (this.packetLen >= this.maxLen) {
+        // we've read all the bytes we can
+        this.complete = true;
+      }
+      else if ((this.actualLen > 0) && (this.packetLen >= this.actualLen)) {
+        // we've read the bytes we expected to read
+        this.complete = true;
+      }
+      else if ((this.clientHandler != null) && (this.actualLen <= 0)
+          && (this.packetLen >= this.minLen)) {
+        // get the actual expected packet length
+        this.actualLen = this.clientHandler.getActualPacketLength(this.packet, this.packetLen);
+        if (this.actualLen <= 0) {
+          // look for line terminator character
+          this.actualLen = this.maxLen;
+          this.isTextLine = true;
+        }
+        else if (this.actualLen > this.maxLen) {
+          Print.logStackTrace("Actual length [" + this.actualLen + "] > Maximum length ["
+              + this.maxLen + "]");
+          this.actualLen = this.maxLen;
+        }
+        if (this.packetLen >= this.actualLen) {
+          this.complete = true;
+        }
+      }
 
-          /* loop until timeout, error, client terminate */
-          for (int i = 0;; i++) {
+    }
 
-            /* session timeout? */
-            if (sessionTimeoutAt > 0L) {
-              long currentTimeMS = DateTime.getCurrentTimeMillis();
-              if (currentTimeMS >= sessionTimeoutAt) {
-                throw new SSSessionTimeoutException("Session timeout");
-              }
-            }
+  }
+
+  /**
+   * Server session. A session is run by a thread from the session thread pool, and handles a
+   * single client connection (or datagram) until the session terminates.
+   * 
+   * @author Martin D. Flynn
+   * @author Alexey Olkov
+   * 
+   */
 
-            /* display prompt */
-            byte prompt[] = ServerSocketThread.this.getPrompt(i);
-            this.writeBytes(output, prompt);
+  public class ServerSession implements Runnable {
 
-            /* read packet */
-            byte line[] = null;
-            if (ServerSocketThread.this.isTextPackets()) {
-              // ASCII: read until packet EOL
-              line = this.readLine(this.client, clientHandler);
-            }
-            else {
-              // Binary: read until packet length or timeout
-              line = this.readPacket(this.client, clientHandler);
+    private ClientSocket client = null;
+    private long acceptTime = 0L;
+    private long readByteCount = 0L;
+    private long writeByteCount = 0L;
+    private byte readBuff[] = null;
+    private int readBuffOfs = 0;
+    private int readBuffLen = 0;
+    private int soTimeout = -1;
+    private PacketFramer framer = null;
+    private boolean packetView = false;
+    private int packetLen = 0;
+
+    /**
+     * Creates a session for a specified client socket.
+     * 
+     * @param client client socket
+     * @param acceptTime time (in milliseconds) that the client was accepted
+     */
+    public ServerSession(ClientSocket client, long acceptTime) {
+      this.client = client;
+      this.acceptTime = acceptTime;
+      this.readBuff = new byte[ServerSocketThread.this.isVirtualSessionThreads()
+          ? VIRTUAL_READ_BUFFER_SIZE : READ_BUFFER_SIZE];
+    }
+
+    /**
+     * Implements the run() method of Runnable interface.
+     */
+    public void run() {
+
+      /* accept-to-start latency */
+      ServerSocketThread.this._sessionStarted(DateTime.getCurrentTimeMillis() - this.acceptTime);
+
+      /* IP address */
+      InetAddress inetAddr = this.client.getInetAddress();
+
+      /* session timeout */
+      long sessionStartTime = DateTime.getCurrentTimeMillis();
+      long sessionTimeoutMS = ServerSocketThread.this.getSessionTimeout();
+      long sessionTimeoutAt = (sessionTimeoutMS > 0L) ? (sessionStartTime + sessionTimeoutMS)
+          : -1L;
+
+      /* client session handler */
+      ClientPacketHandler clientHandler = ServerSocketThread.this.getClientPacketHandler();
+      if (clientHandler != null) {
+        clientHandler.sessionStarted(inetAddr, this.client.isTCP(), ServerSocketThread.this
+            .isTextPackets());
+      }
+      this.framer = new PacketFramer(clientHandler);
+
+      /* process client requests */
+      Throwable termError = null;
+      try {
+
+        /* get output stream */
+        OutputStream output = this.client.getOutputStream();
+
+        /* loop until timeout, error, client terminate */
+        for (int i = 0;; i++) {
+
+          /* session timeout? */
+          if (sessionTimeoutAt > 0L) {
+            long currentTimeMS = DateTime.getCurrentTimeMillis();
+            if (currentTimeMS >= sessionTimeoutAt) {
+              throw new SSSessionTimeoutException("Session timeout");
             }
+          }
 
-            /* send packet to listeners */
-            if ((line != null) && ServerSocketThread.this.hasListeners()) {
-              try {
-                ServerSocketThread.this.invokeListeners(line);
-              }
-              catch (Throwable t) {
-                // a listener can terminate this session
-                break;
-              }
+          /* display prompt */
+          byte prompt[] = ServerSocketThread.this.getPrompt(i);
+          this.writeBytes(output, prompt);
+
+          /* read packet */
+          byte line[] = null;
+          if (ServerSocketThread.this.isTextPackets()) {
+            // ASCII: read until packet EOL
+            line = this.readLine(this.client, clientHandler);
+          }
+          else {
+            // Binary: read until packet length or timeout
+            line = this.readPacket(this.client, clientHandler);
+          }
+
+          /* send packet to listeners */
+          if ((line != null) && !this.packetView && ServerSocketThread.this.hasListeners()) {
+            try {
+              ServerSocketThread.this.invokeListeners(line);
             }
+            catch (Throwable t) {
+              // a listener can terminate this session
+              break;
+            }
+          }
 
-            /* get response */
-            if ((line != null) && (clientHandler != null)) {
-              try {
-                byte response[] = clientHandler.getHandlePacket(line);
-                this.writeBytes(output, response);
-                if (clientHandler.terminateSession()) {
-                  break;
-                }
-              }
-              catch (Throwable t) {
-                // the ClientPacketHandler can terminate this session
-                Print.logException("Unexpected exception: ", t);
+          /* get response */
+          if ((line != null) && (clientHandler != null)) {
+            try {
+              byte response[] = this.packetView ? ((ClientPacketViewHandler) clientHandler)
+                  .getHandlePacket(line, 0, this.packetLen) : clientHandler.getHandlePacket(line);
+              this.writeBytes(output, response);
+              if (clientHandler.terminateSession()) {
                 break;
               }
             }
-
-            /* terminate now if we're reading a Datagram and we're out of data */
-            if (this.client.isUDP() && (this.client.available() <= 0)) {
-              // Normal end of UDP connection
+            catch (Throwable t) {
+              // the ClientPacketHandler can terminate this session
+              Print.logException("Unexpected exception: ", t);
               break;
             }
-
-          } // socket read loop
-
-          /* flush output before closing */
-          if (output != null) {
-            output.flush();
-            this.client.setSoLinger(ServerSocketThread.this.getLingerTimeoutSec()); // (seconds)
           }
 
-        }
-        catch (SSSessionTimeoutException ste) {
-          Print.logError(ste.getMessage());
-          termError = ste;
-        }
-        catch (SSReadTimeoutException rte) {
-          Print.logError(rte.getMessage());
-          termError = rte;
-        }
-        catch (SSEndOfStreamException eos) {
-          if (this.client.isTCP()) { // run
-            Print.logError(eos.getMessage());
-            termError = eos;
-          }
-          else {
-            // We're at the end of the UDP datastream
+          /* terminate now if we're reading a Datagram and we're out of data */
+          if (this.client.isUDP() && (this.available() <= 0)) {
+            // Normal end of UDP connection
+            break;
           }
-        }
-        catch (SocketException se) {
-          Print.logError("Connection closed");
-          termError = se;
-        }
-        catch (Throwable t) {
-          Print.logException("?", t);
-          termError = t;
-        }
 
-        /* client session terminated */
-        if (clientHandler != null) {
-          clientHandler.sessionTerminated(termError, this.readByteCount, this.writeByteCount);
+        } // socket read loop
+
+        /* flush output before closing */
+        if (output != null) {
+          output.flush();
+          this.client.setSoLinger(ServerSocketThread.this.getLingerTimeoutSec()); // (seconds)
         }
 
-        /* close socket */
-        try {
-          this.client.close();
+      }
+      catch (SSSessionTimeoutException ste) {
+        Print.logError(ste.getMessage());
+        termError = ste;
+      }
+      catch (SSReadTimeoutException rte) {
+        Print.logError(rte.getMessage());
+        termError = rte;
+      }
+      catch (SSEndOfStreamException eos) {
+        if (this.client.isTCP()) { // run
+          Print.logError(eos.getMessage());
+          termError = eos;
         }
-        catch (IOException ioe) {
-          /* unable to close? */
+        else {
+          // We're at the end of the UDP datastream
         }
+      }
+      catch (SocketException se) {
+        Print.logError("Connection closed");
+        termError = se;
+      }
+      catch (Throwable t) {
+        Print.logException("?", t);
+        termError = t;
+      }
 
-        /* clear for next requestor */
-        synchronized (this.runLock) {
-          this.client = null;
-        }
+      /* client session terminated */
+      if (clientHandler != null) {
+        clientHandler.sessionTerminated(termError, this.readByteCount, this.writeByteCount);
+      }
 
-      } // while (true)
+      /* close socket */
+      try {
+        this.client.close();
+      }
+      catch (IOException ioe) {
+        /* unable to close? */
+      }
 
     } // run()
 
@@ -1170,19 +1791,42 @@ public class ServerSocketThread extends Thread {
     }
 
     /**
-     * Reads a byte frin a client's imput stream.
+     * Returns the number of bytes which can be read without blocking, including any bytes already
+     * buffered.
+     * 
+     * @return the number of bytes available
+     */
+    private int available() {
+      return (this.readBuffLen - this.readBuffOfs) + this.client.available();
+    }
+
+    /**
+     * Sets the socket read timeout, if it differs from the currently set value.
+     * 
+     * @param client client socket
+     * @param timeoutMS read timeout in milliseconds
+     * @throws SocketException if there is an error in the underlying protocol
+     */
+    private void setSoTimeout(ClientSocket client, int timeoutMS) throws SocketException {
+      if (timeoutMS != this.soTimeout) {
+        client.setSoTimeout(timeoutMS);
+        this.soTimeout = timeoutMS;
+      }
+    }
+
+    /**
+     * Fills the read buffer with as many bytes as are available from a client's input stream
+     * (blocking until at least one byte is available).
      * 
      * @param client client socket
      * @param timeoutAt time-out
-     * @return the byte read
      * @throws IOException if any I/O errors occured
      */
-    private int readByte(ClientSocket client, long timeoutAt) throws IOException {
+    private void fillReadBuffer(ClientSocket client, long timeoutAt) throws IOException {
       // Read until:
       // - Timeout
       // - IO error
-      // - Read byte
-      int ch;
+      // - Read at least one byte
       InputStream input = client.getInputStream();
       while (true) {
         if (timeoutAt > 0L) {
@@ -1190,51 +1834,42 @@ public class ServerSocketThread extends Thread {
           if (currentTimeMS >= timeoutAt) {
             throw new SSReadTimeoutException("Read timeout");
           }
-          // if (input.available() <= 0) {
-          int timeout = (int) (timeoutAt - currentTimeMS);
-          client.setSoTimeout(timeout);
-          // }
+          this.setSoTimeout(client, (int) (timeoutAt - currentTimeMS));
+        }
+        else {
+          this.setSoTimeout(client, 10000);
         }
         try {
           // this read is expected to time-out if no data is available
-          ch = input.read();
-          if (ch < 0) {
+          int len = input.read(this.readBuff, 0, this.readBuff.length);
+          if (len < 0) {
             // socket likely closed by client
             throw new SSEndOfStreamException("End of stream");
           }
-          this.readByteCount++;
-          return ch; // <-- valid character returned
+          this.readBuffOfs = 0;
+          this.readBuffLen = len;
+          this.readByteCount += len;
+          if (len > 0) {
+            return; // <-- valid bytes read
+          }
         }
         catch (InterruptedIOException ie) {
           // timeout
           continue;
         }
-        catch (SocketException se) {
-          // rethrow IO error
-          throw se;
-        }
-        catch (IOException ioe) {
-          // rethrow IO error
-          throw ioe;
-        }
       }
     }
 
     /**
-     * Reads line from a client's input stream.
+     * Reads the next framed packet from a client's input stream. Bytes are read from the socket in
+     * chunks, and split into packets by the session <tt>PacketFramer</tt>. Any bytes following the
+     * returned packet remain buffered for the next call.
      * 
      * @param client client socket
-     * @param clientHandler client packet handler
-     * @return array of read bytes
+     * @return the packet read as a byte array
      * @throws IOException if any I/O errors occured
      */
-    private byte[] readLine(ClientSocket client, ClientPacketHandler clientHandler)
-        throws IOException {
-      // Read until:
-      // - EOL
-      // - Timeout
-      // - IO error
-      // - Read 'maxLen' characters
+    private byte[] readFramed(ClientSocket client) throws IOException {
 
       /* timeouts */
       long idleTimeoutMS = ServerSocketThread.this.getIdleTimeout();
@@ -1242,69 +1877,68 @@ public class ServerSocketThread extends Thread {
       long pcktTimeoutAt = (idleTimeoutMS > 0L) ? (DateTime.getCurrentTimeMillis() + idleTimeoutMS)
           : -1L;
 
-      /* max read length */
-      int maxLen = ServerSocketThread.this.getMaximumPacketLength();
-      // no minimum
+      /* packet */
+      while (!this.framer.isComplete()) {
 
-      /* set default socket timeout */
-      client.setSoTimeout(10000);
+        /* read more bytes */
+        if (this.readBuffOfs >= this.readBuffLen) {
+          this.fillReadBuffer(client, pcktTimeoutAt);
+        }
 
-      /* packet */
-      byte buff[] = new byte[maxLen];
-      int buffLen = 0;
-      boolean isIdle = true;
-      long readStartTime = DateTime.getCurrentTimeMillis();
-      try {
-        while (true) {
-
-          /* read byte */
-          int ch = this.readByte(client, pcktTimeoutAt);
-          // valid character returned
-
-          /* reset idle timeout */
-          if (isIdle) {
-            isIdle = false;
-            if (pcktTimeoutMS > 0L) {
-              // reset timeout
-              pcktTimeoutAt = DateTime.getCurrentTimeMillis() + pcktTimeoutMS;
-            }
-          }
+        /* frame bytes */
+        boolean isIdle = !this.framer.isStarted();
+        this.readBuffOfs += this.framer.append(this.readBuff, this.readBuffOfs, this.readBuffLen
+            - this.readBuffOfs);
 
-          /* check special characters */
-          if (ServerSocketThread.this.isLineTerminatorChar(ch)) {
-            // end of line (typically '\n')
-            break;
-          }
-          else if (ServerSocketThread.this.isIgnoreChar(ch)) {
-            // ignore this character (typically '\r')
-            continue;
-          }
-          else if (ServerSocketThread.this.isBackspaceChar(ch)) {
-            if (buffLen > 0) {
-              buffLen--;
-            }
-            continue;
-          }
-          else if (ch < ' ') {
-            // ignore non-printable characters
-            continue;
-          }
+        /* reset idle timeout */
+        if (isIdle && this.framer.isStarted() && (pcktTimeoutMS > 0L)) {
+          pcktTimeoutAt = DateTime.getCurrentTimeMillis() + pcktTimeoutMS;
+        }
 
-          /* save byte */
-          if (buffLen >= buff.length) { // overflow?
-            byte newBuff[] = new byte[buff.length * 2];
-            System.arraycopy(buff, 0, newBuff, 0, buff.length);
-            buff = newBuff;
-          }
-          buff[buffLen++] = (byte) ch;
+      }
+      return this._takePacket();
 
-          /* check lengths */
-          if ((maxLen > 0) && (buffLen >= maxLen)) {
-            // we've read all the bytes we can
-            break;
-          }
+    }
 
-        }
+    /**
+     * Takes the current packet from the session <tt>PacketFramer</tt>, and resets the framer. In
+     * zero-copy mode the framer packet buffer itself is returned (and the packet length is held in
+     * <tt>packetLen</tt>), otherwise a copy of the packet is returned.
+     * 
+     * @return the packet buffer, or a copy of the packet
+     */
+    private byte[] _takePacket() {
+      this.packetView = this.framer.isPacketView();
+      if (this.packetView) {
+        this.packetLen = this.framer.getPacketLength();
+        byte b[] = this.framer.getPacketBuffer();
+        this.framer.reset();
+        return b;
+      }
+      else {
+        byte b[] = this.framer.getPacket();
+        this.packetLen = b.length;
+        return b;
+      }
+    }
+
+    /**
+     * Reads line from a client's input stream.
+     * 
+     * @param client client socket
+     * @param clientHandler client packet handler
+     * @return array of read bytes
+     * @throws IOException if any I/O errors occured
+     */
+    private byte[] readLine(ClientSocket client, ClientPacketHandler clientHandler)
+        throws IOException {
+      // Read until:
+      // - EOL
+      // - Timeout
+      // - IO error
+      // - Read 'maxLen' characters
+      try {
+        return this.readFramed(client);
       }
       catch (SSReadTimeoutException te) {
         // Print.logError("Timeout: " + StringTools.toStringValue(buff, 0, buffLen));
@@ -1326,20 +1960,7 @@ public class ServerSocketThread extends Thread {
         Print.logError("ReadLine error - " + ioe);
         throw ioe;
       }
-      long readEndTime = DateTime.getCurrentTimeMillis();
-
-      /* return packet */
-      if (buff.length == buffLen) {
-        // highly unlikely
-        return buff;
-      }
-      else {
-        // resize buffer
-        byte newBuff[] = new byte[buffLen];
-        System.arraycopy(buff, 0, newBuff, 0, buffLen);
-        return newBuff;
-      }
-
+      return this._takePacket();
     }
 
     /**
@@ -1357,91 +1978,8 @@ public class ServerSocketThread extends Thread {
       // - IO error
       // - Read 'maxLen' characters
       // - Read 'actualLen' characters
-
-      /* timeouts */
-      long idleTimeoutMS = ServerSocketThread.this.getIdleTimeout();
-      long pcktTimeoutMS = ServerSocketThread.this.getPacketTimeout();
-      long pcktTimeoutAt = (idleTimeoutMS > 0L) ? (DateTime.getCurrentTimeMillis() + idleTimeoutMS)
-          : -1L;
-
-      /* packet/read length */
-      int maxLen = ServerSocketThread.this.getMaximumPacketLength();
-      int minLen = ServerSocketThread.this.getMinimumPacketLength();
-      int actualLen = 0;
-
-      /* set default socket timeout */
-      client.setSoTimeout(10000);
-
-      /* packet */
-      byte packet[] = new byte[maxLen];
-      int packetLen = 0;
-      boolean isIdle = true;
-      boolean isTextLine = false;
       try {
-        while (true) {
-
-          /* read byte */
-          int ch = this.readByte(client, pcktTimeoutAt);
-          // valid character returned
-
-          /* reset idle timeout */
-          if (isIdle) {
-            isIdle = false;
-            if (pcktTimeoutMS > 0L) {
-              // reset packet timeout
-              pcktTimeoutAt = DateTime.getCurrentTimeMillis() + pcktTimeoutMS;
-            }
-          }
-
-          /* look for line terminator? */
-          if (isTextLine) {
-            if (ServerSocketThread.this.isLineTerminatorChar(ch)) {
-              // end of line (typically '\n')
-              break;
-            }
-            else if (ServerSocketThread.this.isIgnoreChar(ch)) {
-              // ignore this character (typically '\r')
-              continue;
-            }
-            else {
-              // save byte
-              packet[packetLen++] = (byte) ch;
-            }
-          }
-          else {
-            // save byte
-            packet[packetLen++] = (byte) ch;
-          }
-
-          /* check lengths */
-          if (packetLen >= maxLen) {
-            // we've read all the bytes we can
-            break;
-          }
-          else if ((actualLen > 0) && (packetLen >= actualLen)) {
-            // we've read the bytes we expected to read
-            break;
-          }
-          else if ((clientHandler != null) && (actualLen <= 0) && (packetLen >= minLen)) {
-            // we've read the minimum number of bytes
-            // get the actual expected packet length
-            actualLen = clientHandler.getActualPacketLength(packet, packetLen);
-            if (actualLen <= 0) {
-              // look for line terminator character
-              actualLen = maxLen;
-              isTextLine = true;
-            }
-            else if (actualLen > maxLen) {
-              Print.logStackTrace("Actual length [" + actualLen + "] > Maximum length [" + maxLen
-                  + "]");
-              actualLen = maxLen;
-            }
-            else {
-              // Print.logDebug("New actual packet len: " + actualLen);
-            }
-          }
-
-        }
+        return this.readFramed(client);
       }
       catch (SSReadTimeoutException t) {
         if (ServerSocketThread.this.getTerminateOnTimeout()) {
@@ -1468,19 +2006,7 @@ public class ServerSocketThread extends Thread {
         Print.logError("ReadPacket error - " + ioe);
         throw ioe;
       }
-
-      /* return packet */
-      if (packet.length == packetLen) {
-        // highly unlikely
-        return packet;
-      }
-      else {
-        // resize buffer
-        byte newPacket[] = new byte[packetLen];
-        System.arraycopy(packet, 0, newPacket, 0, packetLen);
-        return newPacket;
-      }
-
+      return this._takePacket();
     }
 
   }
@@ -2877,20 +2877,17 @@ public class StringTools {
   }
 
   /**
-   * Format map.
+   * Format map (per thread, as DecimalFormat instances are not thread-safe).
    */
-  private static HashMap formatMap = null;
+  private static ThreadLocalMap formatMap = new ThreadLocalMap(HashMap.class);
 
   /**
-   * Returns a formatter from a format map.
+   * Returns a formatter from the format map of the current thread.
    * 
    * @param fmt a format to find
    * @return decimal format
    */
   private static DecimalFormat _getFormatter(String fmt) {
-    if (formatMap == null) {
-      formatMap = new HashMap();
-    }
     DecimalFormat df = (DecimalFormat) formatMap.get(fmt);
     if (df == null) {
       // df = new DecimalFormat(fmt); // use default locale
@@ -74,7 +74,8 @@ import java.util.Vector;
  * </pre>
  * 
  * <p>
- * Note that this class is not referenced by any other class.
+ * A ThreadPool may also be given a maximum job queue size, in which case <tt>offer</tt> can be
+ * used to add a job only if the pool has capacity for it (see <tt>ServerSocketThread</tt>).
  * 
  * @author Martin D. Flynn
  * @author Guanghong Yang
@@ -122,6 +123,10 @@ public class ThreadPool {
   private java.util.List jobQueue = null;
   /** Number of waiting jobs. */
   private int waitingCount = 0;
+  /** Maximum size of <tt>jobQueue</tt> accepted by <tt>offer</tt> (0 if unbounded). */
+  private int maxQueueSize = 0;
+  /** Number of threads currently running a job. */
+  private int activeCount = 0;
   /** Running state of <tt>JobThread</tt>. */
   private int stopThreads = STOP_NEVER;
 
@@ -142,9 +147,23 @@ public class ThreadPool {
    * @param maxPoolSize Size of the ThreadPool. If not positive, default value will be used.
    */
   public ThreadPool(String name, int maxPoolSize) {
+    this(name, maxPoolSize, 0);
+  }
+
+  /**
+   * Constructs a new ThreadPool instance, initiates jobThreadPool and jobQueue, and sets the name,
+   * size, and maximum job queue size.
+   * 
+   * @param name Name of the ThreadPool
+   * @param maxPoolSize Size of the ThreadPool. If not positive, default value will be used.
+   * @param maxQueueSize Maximum number of jobs waiting for a thread which will be accepted by
+   *        <tt>offer</tt>. If not positive, the queue is unbounded.
+   */
+  public ThreadPool(String name, int maxPoolSize, int maxQueueSize) {
     super();
     this.poolGroup = new ThreadGroup((name != null) ? name : "ThreadPool");
     this.maxPoolSize = (maxPoolSize > 0) ? maxPoolSize : MAX_POOL_SIZE;
+    this.maxQueueSize = (maxQueueSize > 0) ? maxQueueSize : 0;
     this.jobThreadPool = new Vector();
     this.jobQueue = new Vector();
   }
@@ -210,21 +229,86 @@ public class ThreadPool {
   }
 
   /**
-   * Adds a new job. The job is firstly added to <tt>jobQueue</tt>. Then if
-   * <tt>jobThreadPool</tt> is not full and there is no other waiting thread. Finally a waiting
-   * thread will be called from <tt>jobQueue</tt>. This method is thread-safe with respect to
+   * Returns the maximum size of the job queue accepted by <tt>offer</tt>.
+   * 
+   * @return The maximum job queue size, or 0 if unbounded.
+   */
+  public int getMaxQueueSize() {
+    return this.maxQueueSize;
+  }
+
+  /**
+   * Returns the number of threads currently running a job.
+   * 
+   * @return The number of active threads.
+   */
+  public int getActiveCount() {
+    synchronized (this.jobQueue) {
+      return this.activeCount;
+    }
+  }
+
+  /**
+   * Returns the number of threads currently waiting for a job.
+   * 
+   * @return The number of idle threads.
+   */
+  public int getIdleCount() {
+    synchronized (this.jobQueue) {
+      return this.waitingCount;
+    }
+  }
+
+  /**
+   * Returns the number of jobs waiting for a thread.
+   * 
+   * @return The number of queued jobs.
+   */
+  public int getQueueSize() {
+    synchronized (this.jobQueue) {
+      return this.jobQueue.size();
+    }
+  }
+
+  /**
+   * Adds a new job, only if the pool has capacity for it. The job is accepted if there is an idle
+   * thread, if a new thread can be added, or if the job queue has not reached its maximum size.
+   * Otherwise the job is rejected and false is returned. This method is thread-safe with respect to
    * <tt>jobQueue</tt> and <tt>jobThreadPool</tt>.
    * 
+   * @param job The job to be added.
+   * @return True if the job was accepted, false if the pool is saturated.
+   */
+  public boolean offer(Runnable job) {
+    synchronized (this.jobThreadPool) {
+      synchronized (this.jobQueue) {
+        if ((this.maxQueueSize > 0) && (this.jobThreadPool.size() >= this.maxPoolSize)
+            && (this.jobQueue.size() >= (this.waitingCount + this.maxQueueSize))) {
+          return false;
+        }
+        this.run(job);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Adds a new job. The job is firstly added to <tt>jobQueue</tt>. Then a new thread is added if
+   * <tt>jobThreadPool</tt> is not full and there are more queued jobs than waiting threads.
+   * Finally a waiting thread will be called from <tt>jobQueue</tt>. This method is thread-safe
+   * with respect to <tt>jobQueue</tt> and <tt>jobThreadPool</tt>.
+   * 
    * @param job The thread to be added.
    */
   public void run(Runnable job) {
     synchronized (this.jobThreadPool) { // <-- modification of threadPool is likely
       synchronized (this.jobQueue) { // <-- modification of job queue mandatory
-        // It's possible that we may end up adding more threads than we need if this
-        // section executes multiple times before the newly added thread has a chance
-        // to pull a job off the queue.
+        // A notified thread remains counted in 'waitingCount' until it wakes up and
+        // pulls a job off the queue, so a new thread is added whenever there are more
+        // queued jobs than waiting threads (not only when no thread is waiting).
         this.jobQueue.add(job);
-        if ((this.waitingCount == 0) && (this.jobThreadPool.size() < this.maxPoolSize)) {
+        if ((this.jobQueue.size() > this.waitingCount)
+            && (this.jobThreadPool.size() < this.maxPoolSize)) {
           ThreadJob tj = new ThreadJob(this, (this.getName() + "_" + (this.threadId++)));
           this.jobThreadPool.add(tj);
           Print.logDebug("New Thread: " + tj.getName() + " [" + this.getMaxSize() + "]");
@@ -320,8 +404,22 @@ public class ThreadPool {
 
         /* run job */
         // Print.logDebug("Thread running: " + this.getName());
-        this.job.run();
-        this.job = null;
+        synchronized (this.threadPool.jobQueue) {
+          this.threadPool.activeCount++;
+        }
+        try {
+          this.job.run();
+        }
+        catch (Throwable t) {
+          // keep this thread in the pool
+          Print.logException("Job terminated with exception", t);
+        }
+        finally {
+          synchronized (this.threadPool.jobQueue) {
+            this.threadPool.activeCount--;
+          }
+          this.job = null;
+        }
 
       }
 
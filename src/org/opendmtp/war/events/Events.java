@@ -25,6 +25,7 @@
 package org.opendmtp.war.events;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 import javax.servlet.ServletException;
@@ -33,10 +34,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.opendmtp.dbtools.DBException;
+import org.opendmtp.dbtools.DBRecordCursor;
 import org.opendmtp.server_mysql.EventUtil;
+import org.opendmtp.server_mysql.EventWriter;
 import org.opendmtp.server_mysql.db.Account;
 import org.opendmtp.server_mysql.db.Device;
-import org.opendmtp.server_mysql.db.EventData;
+import org.opendmtp.server_mysql.db.DeviceLastLocation;
 import org.opendmtp.util.FileTools;
 import org.opendmtp.util.Print;
 import org.opendmtp.util.RTConfig;
@@ -71,6 +74,8 @@ public class Events extends HttpServlet {
   private static final String PARM_DEVICE = "d"; // Device
   /** Mapping key for parameter range. */
   private static final String PARM_RANGE = "r"; // Range
+  /** Device parameter value requesting the last location of every device of the account. */
+  private static final String DEVICE_ALL = "*";
   // private static final String PARM_FORMAT = "f"; // Format (optional)
 
   // ------------------------------------------------------------------------
@@ -99,7 +104,8 @@ public class Events extends HttpServlet {
   /**
    * Handles get submission. Format is obtained from the extension of request's URI. Other
    * parameters are obtained by parsing corresponding fields in request. It then gets data from DB
-   * using provided parameters and returns the data.
+   * using provided parameters and returns the data. If the device parameter is "*", the last
+   * known location of every device of the account is returned instead.
    * 
    * @param request Request from the application.
    * @param response Response to be returned to the application.
@@ -170,6 +176,12 @@ public class Events extends HttpServlet {
       return;
     }
 
+    /* last known location of all devices */
+    if (deviceID.equals(DEVICE_ALL)) {
+      this.writeLastLocations(response, accountID, outFmt);
+      return;
+    }
+
     /* read device */
     Device device = null;
     try {
@@ -185,18 +197,15 @@ public class Events extends HttpServlet {
       return;
     }
 
-    /* extract records */
-    // this assumes that the number of returned records is reasonable and fits in memory
-    EventData evdata[] = null;
+    /* select records */
+    // the records are streamed from the database as they are written
+    DBRecordCursor cursor = null;
     try {
       if ((startTime <= 0L) && (endTime <= 0L)) {
-        evdata = device.getLatestEvents(limit);
+        cursor = device.getLatestEventCursor(limit);
       }
       else {
-        evdata = device.getRangeEvents(startTime, endTime, Device.LIMIT_TYPE_FIRST, limit);
-      }
-      if (evdata == null) {
-        evdata = new EventData[0];
+        cursor = device.getRangeEventCursor(startTime, endTime, Device.LIMIT_TYPE_FIRST, limit);
       }
     }
     catch (DBException dbe) {
@@ -205,7 +214,84 @@ public class Events extends HttpServlet {
       return;
     }
 
+    try {
+
+      /* mime content type */
+      this.setContentType(response, outFmt);
+
+      /* return events */
+      // the length is unknown, each chunk is sent as it is written (chunked transfer encoding)
+      OutputStream out = response.getOutputStream();
+      EventUtil evUtil = new EventUtil(device);
+      try {
+        evUtil.writeEvents(out, cursor, outFmt, EventWriter.DEFAULT_BUFFER_SIZE, true);
+      }
+      catch (DBException dbe) {
+        // the response has already been started, the output is truncated (and closed)
+        dbe.printException();
+        EventWriter ew = new EventWriter(out, outFmt);
+        ew.writeError("Error reading Events");
+        ew.flush();
+      }
+      catch (IOException ioe) {
+        // the response has already been started (the client has most likely disconnected)
+        Print.logException("Error writing events", ioe);
+        return;
+      }
+
+    }
+    finally {
+      cursor.close();
+    }
+
+  }
+
+  /**
+   * Returns the last known location of every device of an account, read with a single query.
+   * 
+   * @param response Response to be returned to the application.
+   * @param accountID The account ID.
+   * @param outFmt The output format.
+   * @throws ServletException error occurs. 
+   * @throws IOException error occurs in I/O operations.
+   */
+  protected void writeLastLocations(HttpServletResponse response, String accountID, int outFmt)
+      throws ServletException, IOException {
+
+    /* read locations */
+    DeviceLastLocation loc[] = null;
+    try {
+      loc = DeviceLastLocation.getLastLocations(accountID);
+    }
+    catch (DBException dbe) {
+      dbe.printException();
+      this.errorResponse(response, "Error reading Locations");
+      return;
+    }
+
     /* mime content type */
+    this.setContentType(response, outFmt);
+
+    /* return locations */
+    OutputStream out = response.getOutputStream();
+    EventUtil evUtil = new EventUtil();
+    try {
+      evUtil.writeLastLocations(out, loc, outFmt);
+    }
+    catch (IOException ioe) {
+      // the response has already been started (the client has most likely disconnected)
+      Print.logException("Error writing locations", ioe);
+    }
+
+  }
+
+  /**
+   * Sets the content type of a response.
+   * 
+   * @param response The response.
+   * @param outFmt The output format.
+   */
+  protected void setContentType(HttpServletResponse response, int outFmt) {
     switch (outFmt) {
     case EventUtil.FORMAT_CSV:
       response.setContentType(CONTENT_TYPE_CSV);
@@ -217,19 +303,6 @@ public class Events extends HttpServlet {
       response.setContentType(CONTENT_TYPE_PLAIN);
       break;
     }
-
-    /* return events */
-    PrintWriter out = response.getWriter();
-    EventUtil evUtil = new EventUtil(device);
-    try {
-      evUtil.writeEvents(out, evdata, outFmt);
-    }
-    catch (IOException ioe) {
-      Print.logException("Error writing events", ioe);
-      this.errorResponse(response, "Error writing Events");
-      return;
-    }
-
   }
 
   /**